@@ -0,0 +1,891 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.cartogram;
+
+import java.awt.Shape;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Gastner-Newman diffusion cartogram of TransformsMain, worked out in
+ * memory from shapes and values rather than from generate and census files.
+ *
+ * The steps are those of TransformsMain: the density is digitized onto a
+ * grid of lx by ly squares, blurred, and left to diffuse, while the grid
+ * points are carried along by the flow. The polygons are digitized with
+ * PolygonRasterizer. The grids are flat double arrays,
+ * with grid point (j, k) at j * (ly + 1) + k. The cosine and sine transforms
+ * are done with TrigTransform, and the transforms of the rows, those of the
+ * columns and the integrator's steps over the grid points are each shared
+ * out over a pool of threads.
+ *
+ * Two things differ from TransformsMain. The blur is a direct periodic
+ * convolution with the same kernel, rather than through rlft3. When an
+ * integration step is too large for any grid point, the step is shortened
+ * once and tried again over all of them, rather than once for each row with
+ * a point that failed; so the results are close to those of TransformsMain
+ * but not the same.
+ *
+ * An engine is for one cartogram and one thread.
+ */
+final class CartogramEngine {
+
+	final static Logger logger = Logger.getLogger(CartogramEngine.class
+			.getName());
+
+	private static final int THREADS = Runtime.getRuntime()
+			.availableProcessors();
+	// pieces of work per thread, so that uneven pieces even out
+	private static final int CHUNKS_PER_THREAD = 4;
+	// columns gathered together for the transforms along x
+	private static final int COLUMN_BLOCK = 16;
+	// blur kernel weights below this are left out
+	private static final double MIN_KERNEL_WEIGHT = 1e-12;
+
+	private static final ExecutorService pool = Executors.newFixedThreadPool(
+			THREADS, new CartogramThreadFactory());
+
+	private final int maxNSquareLog;
+	private final double blurWidth;
+	private final double blurWidthFactor;
+
+	private int lx;
+	private int ly;
+	// grid points along x and along y
+	private int nx;
+	private int ny;
+	private float minx;
+	private float maxx;
+	private float miny;
+	private float maxy;
+	private TrigTransform xTransform;
+	private TrigTransform yTransform;
+
+	// the rings of the shapes, in grid units, and the shape of each
+	private float[][] partX;
+	private float[][] partY;
+	private int[] partShape;
+
+	// the digitized density, unblurred
+	private double[] density;
+	// cosine coefficients of the blurred density
+	private double[] rho0;
+	private double[] rho;
+	private double[] gridvx;
+	private double[] gridvy;
+	// where the grid point first at (j, k) has got to, its velocity there,
+	// and where it is going next
+	private double[] x;
+	private double[] y;
+	private double[] vx;
+	private double[] vy;
+	private double[] xappr;
+	private double[] yappr;
+	private int nblurs;
+	private double minpop;
+
+	// outcomes of the last integration step, set by the threads
+	private volatile boolean newtonFailed;
+	private volatile boolean stepTooLarge;
+
+	CartogramEngine(int maxNSquareLog, double blurWidth, double blurWidthFactor) {
+		this.maxNSquareLog = maxNSquareLog;
+		this.blurWidth = blurWidth;
+		this.blurWidthFactor = blurWidthFactor;
+	}
+
+	/**
+	 * Works out the displacement grid for the shapes, shape i having
+	 * cases[i] cases. Each ring of a shape is a polygon; a shape's cases are
+	 * spread over the area of all its rings.
+	 */
+	void makeCartogram(Shape[] shapes, double[] cases) {
+		if (shapes.length != cases.length) {
+			throw new IllegalArgumentException(shapes.length + " shapes but "
+					+ cases.length + " values");
+		}
+		long start = System.currentTimeMillis();
+		readShapes(shapes);
+		allocate();
+		digitizeDensity(cases);
+		long digitized = System.currentTimeMillis();
+		while (!integrate()) {
+			// integrate has blurred more for the next try
+		}
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine(lx + " by " + ly + " grid: digitized in "
+					+ (digitized - start) + " ms, diffused in "
+					+ (System.currentTimeMillis() - digitized) + " ms, "
+					+ nblurs + " blurs");
+		}
+	}
+
+	int getLx() {
+		return lx;
+	}
+
+	int getLy() {
+		return ly;
+	}
+
+	float getMinx() {
+		return minx;
+	}
+
+	float getMaxx() {
+		return maxx;
+	}
+
+	float getMiny() {
+		return miny;
+	}
+
+	float getMaxy() {
+		return maxy;
+	}
+
+	/**
+	 * Where the grid point first at (j, k) ends up, in grid units.
+	 */
+	double getX(int j, int k) {
+		return x[j * ny + k];
+	}
+
+	double getY(int j, int k) {
+		return y[j * ny + k];
+	}
+
+	/**
+	 * Moves the shapes onto the cartogram, vertex by vertex, as the
+	 * generate file route of TransformsMain does: rings are kept, curves and
+	 * closePath are not. A null shape stays null.
+	 */
+	GeneralPath[] transform(final Shape[] shapes) {
+		final GeneralPath[] moved = new GeneralPath[shapes.length];
+		forEachRange(shapes.length, new Range() {
+			@Override
+			double run(int from, int to) {
+				float[] seg = new float[6];
+				double[] p = new double[2];
+				for (int i = from; i < to; i++) {
+					if (shapes[i] == null) {
+						continue;
+					}
+					GeneralPath path = new GeneralPath();
+					for (PathIterator it = shapes[i].getPathIterator(null); !it
+							.isDone(); it.next()) {
+						int type = it.currentSegment(seg);
+						if (type != PathIterator.SEG_MOVETO
+								&& type != PathIterator.SEG_LINETO) {
+							continue;
+						}
+						transform(seg[0], seg[1], p);
+						if (type == PathIterator.SEG_MOVETO) {
+							path.moveTo((float) p[0], (float) p[1]);
+						} else {
+							path.lineTo((float) p[0], (float) p[1]);
+						}
+					}
+					moved[i] = path;
+				}
+				return 0;
+			}
+		});
+		return moved;
+	}
+
+	/**
+	 * Moves the point at px, py onto the cartogram, into result, as
+	 * TransformsMain.transf does.
+	 */
+	void transform(double px, double py, double[] result) {
+		px = (px - minx) * lx / (maxx - minx);
+		py = (py - miny) * ly / (maxy - miny);
+		if (px < 0 || px > lx || py < 0 || py > ly) {
+			throw new IllegalArgumentException("(" + px + ", " + py
+					+ ") is outside the cartogram's grid");
+		}
+		int gaussx = Math.min((int) px, lx - 1);
+		int gaussy = Math.min((int) py, ly - 1);
+		double deltax = px - gaussx;
+		double deltay = py - gaussy;
+		int p00 = gaussx * ny + gaussy;
+		int p01 = p00 + 1;
+		int p10 = p00 + ny;
+		int p11 = p10 + 1;
+
+		// The moved point is where the line through a and b meets the line
+		// through c and d, a and b being deltax of the way along the bottom
+		// and top edges of the moved square, c and d deltay of the way up
+		// its left and right edges.
+		double ax = (1 - deltax) * x[p00] + deltax * x[p10];
+		double ay = (1 - deltax) * y[p00] + deltax * y[p10];
+		double bx = (1 - deltax) * x[p01] + deltax * x[p11];
+		double by = (1 - deltax) * y[p01] + deltax * y[p11];
+		double cx = (1 - deltay) * x[p00] + deltay * x[p01];
+		double cy = (1 - deltay) * y[p00] + deltay * y[p01];
+		double dx = (1 - deltay) * x[p10] + deltay * x[p11];
+		double dy = (1 - deltay) * y[p10] + deltay * y[p11];
+
+		double den = (bx - ax) * (cy - dy) + (ay - by) * (cx - dx);
+		if (Math.abs(den) < 1e-12) {
+			logger.fine("transformed area element has parallel edges");
+		}
+		double t = ((cx - ax) * (cy - dy) + (ay - cy) * (cx - dx)) / den;
+		double gx = ax + t * (bx - ax);
+		double gy = ay + t * (by - ay);
+		result[0] = (1 - gx / lx) * minx + (gx / lx) * maxx;
+		result[1] = (1 - gy / ly) * miny + (gy / ly) * maxy;
+	}
+
+	/**
+	 * Reads the rings of the shapes and lays the grid over them, as
+	 * TransformsMain's countcorn and readcorn do.
+	 */
+	private void readShapes(Shape[] shapes) {
+		List<float[]> rings = new ArrayList<float[]>();
+		List<Integer> ringShapes = new ArrayList<Integer>();
+		float[] seg = new float[6];
+		float[] ring = new float[64];
+		int n = 0;
+		float polyminx = Float.POSITIVE_INFINITY;
+		float polyminy = Float.POSITIVE_INFINITY;
+		float polymaxx = Float.NEGATIVE_INFINITY;
+		float polymaxy = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < shapes.length; i++) {
+			if (shapes[i] == null) {
+				continue;
+			}
+			boolean started = false;
+			for (PathIterator it = shapes[i].getPathIterator(null); !it
+					.isDone(); it.next()) {
+				int type = it.currentSegment(seg);
+				if (type != PathIterator.SEG_MOVETO
+						&& type != PathIterator.SEG_LINETO) {
+					continue;
+				}
+				if (type == PathIterator.SEG_MOVETO || !started) {
+					if (started) {
+						rings.add(Arrays.copyOf(ring, n));
+						ringShapes.add(i);
+					}
+					started = true;
+					n = 0;
+				}
+				if (n + 2 > ring.length) {
+					ring = Arrays.copyOf(ring, ring.length * 2);
+				}
+				ring[n++] = seg[0];
+				ring[n++] = seg[1];
+				polyminx = Math.min(polyminx, seg[0]);
+				polymaxx = Math.max(polymaxx, seg[0]);
+				polyminy = Math.min(polyminy, seg[1]);
+				polymaxy = Math.max(polymaxy, seg[1]);
+			}
+			if (started) {
+				rings.add(Arrays.copyOf(ring, n));
+				ringShapes.add(i);
+			}
+		}
+		if (rings.isEmpty()) {
+			throw new IllegalArgumentException("no polygons to make a cartogram of");
+		}
+
+		// Squares as near to square as powers of 2 allow.
+		float ratio = (polymaxx - polyminx) / (polymaxy - polyminy);
+		double ratioLog = Math.log(ratio) / Math.log(2);
+		int ratiolog;
+		if (Math.ceil(ratioLog) + Math.floor(ratioLog) > 2 * ratioLog) {
+			ratiolog = (int) Math.floor(ratioLog);
+		} else {
+			ratiolog = (int) Math.ceil(ratioLog);
+		}
+		lx = (int) Math.pow(2, (int) (0.5 * (ratiolog + maxNSquareLog)));
+		ly = (int) Math.pow(2, (int) (0.5 * (maxNSquareLog - ratiolog)));
+		double padding = TransformsMain.PADDING;
+		if ((polymaxx - polyminx) / lx > (polymaxy - polyminy) / ly) {
+			maxx = (float) (0.5 * ((1 + padding) * polymaxx + (1 - padding)
+					* polyminx));
+			minx = (float) (0.5 * ((1 - padding) * polymaxx + (1 + padding)
+					* polyminx));
+			maxy = (float) (0.5 * (polymaxy + polyminy + (maxx - minx) * ly
+					/ lx));
+			miny = (float) (0.5 * (polymaxy + polyminy - (maxx - minx) * ly
+					/ lx));
+		} else {
+			maxy = (float) (0.5 * ((1 + padding) * polymaxy + (1 - padding)
+					* polyminy));
+			miny = (float) (0.5 * ((1 - padding) * polymaxy + (1 + padding)
+					* polyminy));
+			maxx = (float) (0.5 * (polymaxx + polyminx + (maxy - miny) * lx
+					/ ly));
+			minx = (float) (0.5 * (polymaxx + polyminx - (maxy - miny) * lx
+					/ ly));
+		}
+		float xstepsize = (maxx - minx) / lx;
+		float ystepsize = (maxy - miny) / ly;
+
+		int numRings = rings.size();
+		partX = new float[numRings][];
+		partY = new float[numRings][];
+		partShape = new int[numRings];
+		for (int p = 0; p < numRings; p++) {
+			float[] xy = rings.get(p);
+			partX[p] = new float[xy.length / 2];
+			partY[p] = new float[xy.length / 2];
+			for (int v = 0; v < xy.length / 2; v++) {
+				partX[p][v] = (xy[2 * v] - minx) / xstepsize;
+				partY[p][v] = (xy[2 * v + 1] - miny) / ystepsize;
+			}
+			partShape[p] = ringShapes.get(p);
+		}
+	}
+
+	private void allocate() {
+		nx = lx + 1;
+		ny = ly + 1;
+		xTransform = new TrigTransform(lx);
+		yTransform = new TrigTransform(ly);
+		int size = nx * ny;
+		density = new double[size];
+		rho0 = new double[size];
+		rho = new double[size];
+		gridvx = new double[size];
+		gridvy = new double[size];
+		x = new double[size];
+		y = new double[size];
+		vx = new double[size];
+		vy = new double[size];
+		xappr = new double[size];
+		yappr = new double[size];
+	}
+
+	/**
+	 * Digitizes the density, as TransformsMain's digdens does: each square
+	 * takes the density of the first polygon holding its centre, or the
+	 * average density if none does.
+	 */
+	private void digitizeDensity(double[] cases) {
+		int numParts = partShape.length;
+		double[] unitArea = new double[cases.length];
+		double totarea = 0;
+		double[] partArea = new double[numParts];
+		for (int p = 0; p < numParts; p++) {
+			partArea[p] = polygonArea(partX[p], partY[p]);
+			unitArea[partShape[p]] += partArea[p];
+			totarea += partArea[p];
+		}
+		double totpop = 0;
+		for (double c : cases) {
+			totpop += c;
+		}
+		final float[] dens = new float[numParts];
+		for (int p = 0; p < numParts; p++) {
+			dens[p] = (float) (cases[partShape[p]] / unitArea[partShape[p]]);
+		}
+		final float avgdens = (float) (totpop / totarea);
+
+		int[] owner = PolygonRasterizer.rasterize(partX, partY, lx, ly);
+		for (int i = 0; i < lx; i++) {
+			for (int j = 0; j < ly; j++) {
+				int p = owner[i * ly + j];
+				double d = p < 0 ? avgdens : dens[p];
+				if (d < -1e10) {
+					throw new IllegalArgumentException(
+							"negative density at grid square " + i + ", " + j);
+				}
+				density[i * ny + j] = d;
+			}
+		}
+
+		// Fill the edges correctly.
+		density[0] += density[ly] + density[lx * ny] + density[lx * ny + ly];
+		for (int i = 1; i < lx; i++) {
+			density[i * ny] += density[i * ny + ly];
+		}
+		for (int j = 1; j < ly; j++) {
+			density[j] += density[lx * ny + j];
+		}
+		for (int i = 0; i < lx; i++) {
+			density[i * ny + ly] = density[i * ny];
+		}
+		for (int j = 0; j <= ly; j++) {
+			density[lx * ny + j] = density[j];
+		}
+	}
+
+	private static double polygonArea(float[] px, float[] py) {
+		double area = 0;
+		int n = px.length;
+		for (int i = 0; i < n - 1; i++) {
+			area += 0.5 * (px[i] + px[i + 1]) * (py[i + 1] - py[i]);
+		}
+		area += 0.5 * (px[n - 1] + px[0]) * (py[0] - py[n - 1]);
+		return Math.abs(area);
+	}
+
+	/**
+	 * Blurs the density by blurWidth * blurWidthFactor ^ nblurs into rho0,
+	 * and replaces rho0 by its cosine transform, as TransformsMain's initcond
+	 * does. Sets minpop to the smallest blurred density.
+	 */
+	private void initcond() {
+		System.arraycopy(density, 0, rho0, 0, density.length);
+		double sigma = blurWidth * Math.pow(blurWidthFactor, nblurs);
+		final double[][] xKernel = blurKernel(lx, sigma);
+		final double[][] yKernel = blurKernel(ly, sigma);
+
+		// Periodic over the lx by ly squares, leaving row lx and column ly
+		// alone.
+		forEachRange(lx, new Range() {
+			@Override
+			double run(int from, int to) {
+				double[] work = new double[ly];
+				for (int i = from; i < to; i++) {
+					convolve(rho0, i * ny, 1, ly, yKernel, work);
+				}
+				return 0;
+			}
+		});
+		forEachRange(ly, new Range() {
+			@Override
+			double run(int from, int to) {
+				double[] work = new double[lx];
+				for (int j = from; j < to; j++) {
+					convolve(rho0, j, ny, lx, xKernel, work);
+				}
+				return 0;
+			}
+		});
+
+		minpop = rho0[0];
+		double maxpop = rho0[0];
+		for (int i = 0; i < lx; i++) {
+			for (int j = 0; j < ly; j++) {
+				minpop = Math.min(minpop, rho0[i * ny + j]);
+				maxpop = Math.max(maxpop, rho0[i * ny + j]);
+			}
+		}
+		if (0 < minpop && minpop < 1e-8 * maxpop) {
+			logger.warning("Minimum population very small (" + minpop
+					+ "), the integrator will converge slowly; a blur width"
+					+ " over " + sigma + " would speed it up");
+		}
+		transform2d(rho0, false, false, false);
+	}
+
+	/**
+	 * The weights of TransformsMain's Gaussian blur for a period of n, as
+	 * offsets and weights.
+	 */
+	private static double[][] blurKernel(int n, double sigma) {
+		double[] offsets = new double[n];
+		double[] weights = new double[n];
+		int taps = 0;
+		double scale = Math.sqrt(2.0) * sigma;
+		for (int d = 0; d < n; d++) {
+			int p = d < n / 2 ? d : d - n;
+			double w = 0.5 * (TransformsMain.erf((p + 0.5) / scale) - TransformsMain
+					.erf((p - 0.5) / scale));
+			if (Math.abs(w) >= MIN_KERNEL_WEIGHT) {
+				offsets[taps] = d;
+				weights[taps] = w;
+				taps++;
+			}
+		}
+		return new double[][] { Arrays.copyOf(offsets, taps),
+				Arrays.copyOf(weights, taps) };
+	}
+
+	/**
+	 * Convolves the n values of a, from off on by stride, with the kernel,
+	 * periodically.
+	 */
+	private static void convolve(double[] a, int off, int stride, int n,
+			double[][] kernel, double[] work) {
+		double[] offsets = kernel[0];
+		double[] weights = kernel[1];
+		for (int i = 0; i < n; i++) {
+			double sum = 0;
+			for (int t = 0; t < offsets.length; t++) {
+				int src = i - (int) offsets[t];
+				if (src < 0) {
+					src += n;
+				}
+				sum += weights[t] * a[off + src * stride];
+			}
+			work[i] = sum;
+		}
+		for (int i = 0; i < n; i++) {
+			a[off + i * stride] = work[i];
+		}
+	}
+
+	/**
+	 * Transforms the grid along y, row by row, then along x, column by
+	 * column, each with a cosine transform or a sine transform.
+	 */
+	private void transform2d(final double[] grid, final boolean sineX,
+			final boolean sineY, final boolean inverse) {
+		forEachRange(nx, new Range() {
+			@Override
+			double run(int from, int to) {
+				double[] work = new double[ly];
+				for (int j = from; j < to; j++) {
+					if (sineY) {
+						yTransform.sine(grid, j * ny, inverse, work);
+					} else {
+						yTransform.cosine(grid, j * ny, inverse, work);
+					}
+				}
+				return 0;
+			}
+		});
+		int blocks = (ny + COLUMN_BLOCK - 1) / COLUMN_BLOCK;
+		forEachRange(blocks, new Range() {
+			@Override
+			double run(int from, int to) {
+				double[] work = new double[lx];
+				double[] columns = new double[COLUMN_BLOCK * nx];
+				for (int block = from; block < to; block++) {
+					int k0 = block * COLUMN_BLOCK;
+					int width = Math.min(COLUMN_BLOCK, ny - k0);
+					for (int j = 0; j < nx; j++) {
+						for (int b = 0; b < width; b++) {
+							columns[b * nx + j] = grid[j * ny + k0 + b];
+						}
+					}
+					for (int b = 0; b < width; b++) {
+						if (sineX) {
+							xTransform.sine(columns, b * nx, inverse, work);
+						} else {
+							xTransform.cosine(columns, b * nx, inverse, work);
+						}
+					}
+					for (int j = 0; j < nx; j++) {
+						for (int b = 0; b < width; b++) {
+							grid[j * ny + k0 + b] = columns[b * nx + j];
+						}
+					}
+				}
+				return 0;
+			}
+		});
+	}
+
+	/**
+	 * Works out the velocity field at time t, into gridvx and gridvy, as
+	 * TransformsMain.calcv does.
+	 */
+	private void calcv(double t) {
+		final double[] xDecay = new double[nx];
+		final double[] yDecay = new double[ny];
+		for (int j = 0; j < nx; j++) {
+			double kx = Math.PI * j / lx;
+			xDecay[j] = Math.exp(-kx * kx * t);
+		}
+		for (int k = 0; k < ny; k++) {
+			double ky = Math.PI * k / ly;
+			yDecay[k] = Math.exp(-ky * ky * t);
+		}
+		forEachRange(nx, new Range() {
+			@Override
+			double run(int from, int to) {
+				for (int j = from; j < to; j++) {
+					double kx = Math.PI * j / lx;
+					for (int k = 0; k < ny; k++) {
+						int p = j * ny + k;
+						double r = xDecay[j] * yDecay[k] * rho0[p];
+						rho[p] = r;
+						gridvx[p] = -kx * r;
+						gridvy[p] = -(Math.PI * k / ly) * r;
+					}
+				}
+				return 0;
+			}
+		});
+		transform2d(rho, false, false, true);
+		transform2d(gridvx, true, false, true);
+		transform2d(gridvy, false, true, true);
+		forEachRange(nx * ny, new Range() {
+			@Override
+			double run(int from, int to) {
+				for (int p = from; p < to; p++) {
+					gridvx[p] = -gridvx[p] / rho[p];
+					gridvy[p] = -gridvy[p] / rho[p];
+				}
+				return 0;
+			}
+		});
+	}
+
+	/**
+	 * Bilinear interpolation of the velocity field at px, py into v, as
+	 * TransformsMain.intpol does for gridvx and gridvy, but holding points
+	 * that have strayed off the grid to its edge.
+	 */
+	private void intpol(double px, double py, double[] v) {
+		px = Math.max(0, Math.min(lx, px));
+		py = Math.max(0, Math.min(ly, py));
+		int gaussx = (int) px;
+		int gaussy = (int) py;
+		double deltax = px - gaussx;
+		double deltay = py - gaussy;
+		int p = gaussx * ny + gaussy;
+		// weights of the points to the right, above, and both
+		int right = gaussx == lx ? 0 : ny;
+		int up = gaussy == ly ? 0 : 1;
+		double w00 = (1 - deltax) * (1 - deltay);
+		double w01 = (1 - deltax) * deltay;
+		double w10 = deltax * (1 - deltay);
+		double w11 = deltax * deltay;
+		v[0] = w00 * gridvx[p] + w01 * gridvx[p + up] + w10
+				* gridvx[p + right] + w11 * gridvx[p + right + up];
+		v[1] = w00 * gridvy[p] + w01 * gridvy[p + up] + w10
+				* gridvy[p + right] + w11 * gridvy[p + right + up];
+	}
+
+	/**
+	 * Solves for where grid point p goes in a step of h, by Newton-Raphson
+	 * from the guess, as TransformsMain.newt2 does. Leaves the answer in
+	 * xappr and yappr, and returns false if it did not converge.
+	 */
+	private boolean newt2(double h, double xguess, double yguess, int p,
+			double[] v) {
+		double xa = xguess;
+		double ya = yguess;
+		double xp = x[p];
+		double yp = y[p];
+		for (int i = 1; i <= TransformsMain.IMAX; i++) {
+			intpol(xa, ya, v);
+			double fx = xa - 0.5 * h * v[0] - xp - 0.5 * h * vx[p];
+			double fy = ya - 0.5 * h * v[1] - yp - 0.5 * h * vy[p];
+			if (fx * fx + fy * fy < TransformsMain.TOLF) {
+				break;
+			}
+
+			// Finite difference approximation of the partial derivatives.
+			int gaussx = Math.max(0, Math.min(lx, (int) xa));
+			int gaussy = Math.max(0, Math.min(ly, (int) ya));
+			int gaussxplus = gaussx == lx ? 0 : gaussx + 1;
+			int gaussyplus = gaussy == ly ? 0 : gaussy + 1;
+			double deltax = xp - gaussx;
+			double deltay = yp - gaussy;
+			int p00 = gaussx * ny + gaussy;
+			int p01 = gaussx * ny + gaussyplus;
+			int p10 = gaussxplus * ny + gaussy;
+			int p11 = gaussxplus * ny + gaussyplus;
+			double dfxdx = 1 - 0.5 * h
+					* ((1 - deltay) * (gridvx[p10] - gridvx[p00]) + deltay
+							* (gridvx[p11] - gridvx[p01]));
+			double dfxdy = -0.5 * h
+					* ((1 - deltax) * (gridvx[p01] - gridvx[p00]) + deltax
+							* (gridvx[p11] - gridvx[p10]));
+			double dfydx = -0.5 * h
+					* ((1 - deltay) * (gridvy[p10] - gridvy[p00]) + deltay
+							* (gridvy[p11] - gridvy[p01]));
+			double dfydy = 1 - 0.5 * h
+					* ((1 - deltax) * (gridvy[p01] - gridvy[p00]) + deltax
+							* (gridvy[p11] - gridvy[p10]));
+
+			double det = dfxdx * dfydy - dfxdy * dfydx;
+			deltax = (fy * dfxdy - fx * dfydy) / det;
+			deltay = (fx * dfydx - fy * dfxdx) / det;
+			if (deltax * deltax + deltay * deltay < TransformsMain.TOLX) {
+				break;
+			}
+			xa += deltax;
+			ya += deltay;
+			if (i == TransformsMain.IMAX) {
+				xappr[p] = xa;
+				yappr[p] = ya;
+				return false;
+			}
+		}
+		xappr[p] = xa;
+		yappr[p] = ya;
+		return true;
+	}
+
+	/**
+	 * Integrates the nonlinear Volterra equation, as TransformsMain's
+	 * nonlinvoltra does. Returns false if the density has to be blurred more
+	 * first, having counted the blur.
+	 */
+	private boolean integrate() {
+		do {
+			initcond();
+			nblurs++;
+			if (minpop < 0.0) {
+				logger.finest("Minimum population negative, will increase sigma to "
+						+ blurWidth * Math.pow(blurWidthFactor, nblurs));
+			}
+		} while (minpop < 0.0);
+		double h = TransformsMain.HINITIAL;
+		double t = 0;
+		for (int j = 0; j < nx; j++) {
+			for (int k = 0; k < ny; k++) {
+				x[j * ny + k] = j;
+				y[j * ny + k] = k;
+			}
+		}
+		calcv(0);
+		System.arraycopy(gridvx, 0, vx, 0, vx.length);
+		System.arraycopy(gridvy, 0, vy, 0, vy.length);
+
+		int steps = 1;
+		double maxchange;
+		do {
+			calcv(t + h);
+			if (!tryStep(h)) {
+				if (newtonFailed) {
+					logger.finest("newt2 failed, increasing sigma to "
+							+ blurWidth * Math.pow(blurWidthFactor, nblurs));
+					return false;
+				}
+				if (h < TransformsMain.MINH) {
+					logger.finest("Time step below " + h
+							+ ", increasing SIGMA to " + blurWidth
+							* Math.pow(blurWidthFactor, nblurs));
+					nblurs++;
+					return false;
+				}
+				h /= 10;
+				maxchange = Double.POSITIVE_INFINITY;
+				continue;
+			}
+			t += h;
+			maxchange = forEachRange(nx * ny, new Range() {
+				@Override
+				double run(int from, int to) {
+					double change = 0;
+					double[] v = new double[2];
+					for (int p = from; p < to; p++) {
+						double dx = x[p] - xappr[p];
+						double dy = y[p] - yappr[p];
+						change = Math.max(change, dx * dx + dy * dy);
+						x[p] = xappr[p];
+						y[p] = yappr[p];
+						intpol(xappr[p], yappr[p], v);
+						vx[p] = v[0];
+						vy[p] = v[1];
+					}
+					return change;
+				}
+			});
+			h *= 1.2;
+			if (logger.isLoggable(Level.FINEST) && steps % 10 == 0) {
+				logger.finest("time " + t);
+			}
+			steps++;
+		} while (steps < TransformsMain.MAXINTSTEPS
+				&& t < TransformsMain.TIMELIMIT
+				&& maxchange > TransformsMain.CONVERGENCE);
+		if (maxchange > TransformsMain.CONVERGENCE) {
+			logger.fine("Insufficient convergence within "
+					+ TransformsMain.MAXINTSTEPS + " steps, time " + t);
+		}
+		return true;
+	}
+
+	/**
+	 * Takes a step of h for every grid point, into xappr and yappr. Returns
+	 * false if Newton-Raphson failed for a point, or the step was too large
+	 * for one; every point is tried either way, so that the outcome does not
+	 * depend on how the points were shared out.
+	 */
+	private boolean tryStep(final double h) {
+		newtonFailed = false;
+		stepTooLarge = false;
+		forEachRange(nx * ny, new Range() {
+			@Override
+			double run(int from, int to) {
+				double[] v = new double[2];
+				for (int p = from; p < to; p++) {
+					intpol(x[p] + h * vx[p], y[p] + h * vy[p], v);
+					double xguess = x[p] + 0.5 * h * (vx[p] + v[0]);
+					double yguess = y[p] + 0.5 * h * (vy[p] + v[1]);
+					if (!newt2(h, xguess, yguess, p, v)) {
+						newtonFailed = true;
+						continue;
+					}
+					double dx = xguess - xappr[p];
+					double dy = yguess - yappr[p];
+					if (dx * dx + dy * dy > TransformsMain.TOLINT) {
+						stepTooLarge = true;
+					}
+				}
+				return 0;
+			}
+		});
+		return !newtonFailed && !stepTooLarge;
+	}
+
+	/**
+	 * A piece of work over part of a range of indices.
+	 */
+	abstract static class Range {
+		/**
+		 * Works on the indices from from up to to, and returns a number of
+		 * which forEachRange keeps the largest.
+		 */
+		abstract double run(int from, int to);
+	}
+
+	/**
+	 * Runs the work over the indices from 0 up to n, cut into pieces on the
+	 * pool, and returns the largest number any piece returned.
+	 */
+	static double forEachRange(int n, final Range range) {
+		int chunks = Math.min(n, THREADS * CHUNKS_PER_THREAD);
+		if (THREADS == 1 || chunks <= 1) {
+			return range.run(0, n);
+		}
+		List<Future<Double>> futures = new ArrayList<Future<Double>>();
+		for (int c = 0; c < chunks; c++) {
+			final int from = (int) ((long) n * c / chunks);
+			final int to = (int) ((long) n * (c + 1) / chunks);
+			futures.add(pool.submit(new Callable<Double>() {
+				public Double call() {
+					return range.run(from, to);
+				}
+			}));
+		}
+		double max = Double.NEGATIVE_INFINITY;
+		try {
+			for (Future<Double> f : futures) {
+				max = Math.max(max, f.get());
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause());
+		}
+		return max;
+	}
+
+	private static class CartogramThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "cartogram-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
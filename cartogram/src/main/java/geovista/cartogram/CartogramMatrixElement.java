@@ -98,8 +98,8 @@ public class CartogramMatrixElement extends MapMatrixElement {
 	}
 
 	/*
-	 * This method actually creates the temporary files and creates a
-	 * TransformsMain to do the work.
+	 * This method creates a TransformsMain to do the work, or finds the
+	 * cartogram in the cache.
 	 */
 	public void createCartogram() {
 
@@ -108,21 +108,8 @@ public class CartogramMatrixElement extends MapMatrixElement {
 
 		JProgressBar pBar = new JProgressBar();
 		int currentVar = elementPosition[0] - 1;// x var
-		CartogramShapeCache cache = CartogramShapeCache.getInstance();
-		ComparableCartogram compare = new ComparableCartogram(dataSet, trans
-				.getMaxNSquareLog(), trans.getBlurWidth(), trans
-				.getBlurWidthFactor(), currentVar);
-		ComparableCartogram previousOne = cache.findCartogram(compare);
-		DataSetForApps newData = null;
-		if (previousOne == null) {
-			newData = MapGenFile.createCartogram(pBar, dataSet, currentVar,
-					trans);
-			compare.setCartogramShapes(newData.getShapeData());
-			cache.addComparableCartogram(compare);
-		} else {
-			newData = MapGenFile.createNewDataSet(dataSet, previousOne
-					.getCartogramShapes());
-		}
+		DataSetForApps newData = MapGenFile.createCartogram(pBar, dataSet,
+				currentVar, trans);
 		super.setDataSet(newData);
 
 	}
@@ -19,41 +19,411 @@
 
 package geovista.cartogram;
 
-import java.util.ArrayList;
+import java.awt.Shape;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-
-/*
- * Singleton class for holding completed cartogram calculations.
- * Not thread-safe.
+/**
+ * Singleton cache of completed cartograms, kept on disk so that they
+ * outlast the session: reopening a layout with cartograms in it finds them
+ * here rather than working them out again.
+ *
+ * A cartogram is found by a key, a SHA-1 hash of the input shapes, the
+ * values and the TransformsMain parameters it was made with, so a different
+ * map, variable or setting is a different cartogram. Each is one file,
+ * named by its key, holding the displacement grid and the moved shapes as
+ * big-endian floats. The files least recently used are deleted when the
+ * cache grows past its size limit.
+ *
+ * The cache is only an aid: a file that cannot be read or written is
+ * logged and left out, and the cartogram is worked out as if it had never
+ * been cached.
  */
-
 public final class CartogramShapeCache {
-   private static CartogramShapeCache instance = null;
-   private ArrayList list;
-   protected CartogramShapeCache() {
-      // Exists only to defeat instantiation.
-   }
-   public static CartogramShapeCache getInstance() {
-      if(instance == null) {
-         instance = new CartogramShapeCache();
-         instance.list = new ArrayList();
-      }
-      return instance;
-   }
-
-   public ComparableCartogram findCartogram(ComparableCartogram input){
-     Object[] objs = list.toArray();
-     for (int i = 0; i < objs.length; i++){
-       ComparableCartogram test = (ComparableCartogram)objs[i];
-       if (test.isEqualTo(input)){
-         return test;
-       }
-     }
-
-     return null;
-   }
-   public void addComparableCartogram(ComparableCartogram add){
-     this.list.add(add);
-   }
 
+	final static Logger logger = Logger.getLogger(CartogramShapeCache.class
+			.getName());
+
+	/** Bytes the cache may take on disk, unless set otherwise. */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	/** System property naming the cache directory, if not the default. */
+	public static final String DIRECTORY_PROPERTY = "geovista.cartogram.cache";
+
+	// "GCG" and the format's version; a new version misses the old files
+	private static final int MAGIC = 0x47434701;
+	private static final String SUFFIX = ".cartogram";
+
+	private static CartogramShapeCache instance = null;
+
+	private final File dir;
+	private long maxBytes = DEFAULT_MAX_BYTES;
+
+	CartogramShapeCache(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * The cache in the directory named by DIRECTORY_PROPERTY, or in
+	 * .geovista/cartograms under the user's home directory.
+	 */
+	public static synchronized CartogramShapeCache getInstance() {
+		if (instance == null) {
+			String dirName = System.getProperty(DIRECTORY_PROPERTY);
+			File dir;
+			if (dirName == null) {
+				dir = new File(new File(System.getProperty("user.home"),
+						".geovista"), "cartograms");
+			} else {
+				dir = new File(dirName);
+			}
+			instance = new CartogramShapeCache(dir);
+		}
+		return instance;
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict(null);
+	}
+
+	/**
+	 * The key of the cartogram of the shapes, shape i having values[i]
+	 * cases, made with the parameters of trans.
+	 */
+	public static String makeKey(Shape[] shapes, double[] values,
+			TransformsMain trans) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+		OutputStream nowhere = new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new DigestOutputStream(nowhere, digest)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(trans.getMaxNSquareLog());
+			out.writeDouble(trans.getBlurWidth());
+			out.writeDouble(trans.getBlurWidthFactor());
+			out.writeInt(shapes.length);
+			float[] seg = new float[6];
+			for (Shape shape : shapes) {
+				if (shape == null) {
+					out.writeInt(-1);
+					continue;
+				}
+				for (PathIterator it = shape.getPathIterator(null); !it
+						.isDone(); it.next()) {
+					int type = it.currentSegment(seg);
+					out.writeInt(type);
+					for (int c = 0; c < coordinateCount(type); c++) {
+						out.writeFloat(seg[c]);
+					}
+				}
+				out.writeInt(-2);
+			}
+			out.writeInt(values.length);
+			for (double value : values) {
+				out.writeDouble(value);
+			}
+			out.close();
+		} catch (IOException ex) {
+			// nothing is written anywhere
+			throw new IllegalStateException(ex);
+		}
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()) {
+			key.append(Character.forDigit((b >> 4) & 0xF, 16));
+			key.append(Character.forDigit(b & 0xF, 16));
+		}
+		return key.toString();
+	}
+
+	private static int coordinateCount(int type) {
+		switch (type) {
+		case PathIterator.SEG_MOVETO:
+		case PathIterator.SEG_LINETO:
+			return 2;
+		case PathIterator.SEG_QUADTO:
+			return 4;
+		case PathIterator.SEG_CUBICTO:
+			return 6;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * The shapes of the cartogram with this key, or null if it is not in
+	 * the cache. If it is, its displacement grid is put into trans, as
+	 * making the cartogram would have, so that trans can move other layers.
+	 */
+	public synchronized GeneralPath[] findCartogram(String key,
+			TransformsMain trans) {
+		File file = fileFor(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		GeneralPath[] shapes;
+		try {
+			shapes = read(file, trans);
+		} catch (IOException ex) {
+			logger.log(Level.WARNING, "could not read cached cartogram "
+					+ file, ex);
+			file.delete();
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		return shapes;
+	}
+
+	/**
+	 * Keeps the shapes of the cartogram with this key, and the displacement
+	 * grid that trans has been left with, deleting the cartograms least
+	 * recently used if the cache has grown too large.
+	 */
+	public synchronized void addCartogram(String key, GeneralPath[] shapes,
+			TransformsMain trans) {
+		File file = fileFor(key);
+		File temp = null;
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("could not make " + dir);
+			}
+			temp = File.createTempFile("cartogram", ".tmp", dir);
+			write(temp, shapes, trans);
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("could not rename " + temp + " to "
+						+ file);
+			}
+		} catch (IOException ex) {
+			logger.log(Level.WARNING, "could not cache cartogram " + file, ex);
+			if (temp != null) {
+				temp.delete();
+			}
+			return;
+		}
+		evict(file);
+	}
+
+	/**
+	 * Deletes every cartogram in the cache.
+	 */
+	public synchronized void clear() {
+		for (File file : listFiles()) {
+			file.delete();
+		}
+	}
+
+	private File fileFor(String key) {
+		return new File(dir, key + SUFFIX);
+	}
+
+	private File[] listFiles() {
+		File[] files = dir.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(SUFFIX);
+			}
+		});
+		return files == null ? new File[0] : files;
+	}
+
+	/**
+	 * Deletes the files least recently used until the rest fit in maxBytes.
+	 * The file just added, if any, is kept if it fits on its own.
+	 */
+	private void evict(File added) {
+		File[] files = listFiles();
+		final long[] used = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			used[i] = files[i].equals(added) ? Long.MAX_VALUE : files[i]
+					.lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return used[a] > used[b] ? -1 : used[a] < used[b] ? 1 : 0;
+			}
+		});
+		long total = 0;
+		for (Integer i : order) {
+			total += files[i].length();
+			if (total > maxBytes) {
+				files[i].delete();
+			}
+		}
+	}
+
+	private static void write(File file, GeneralPath[] shapes,
+			TransformsMain trans) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		try {
+			int lx = trans.getLx();
+			int ly = trans.getLy();
+			out.writeInt(MAGIC);
+			out.writeInt(lx);
+			out.writeInt(ly);
+			out.writeFloat(trans.getMinx());
+			out.writeFloat(trans.getMaxx());
+			out.writeFloat(trans.getMiny());
+			out.writeFloat(trans.getMaxy());
+			ArrayFloat[][] grids = { trans.retreiveX(), trans.retreiveY() };
+			for (ArrayFloat[] grid : grids) {
+				for (int j = 0; j <= lx; j++) {
+					for (int k = 0; k <= ly; k++) {
+						out.writeFloat(grid[j].array[k]);
+					}
+				}
+			}
+
+			out.writeInt(shapes.length);
+			float[] seg = new float[6];
+			byte[] types = new byte[64];
+			float[] coords = new float[128];
+			for (GeneralPath shape : shapes) {
+				if (shape == null) {
+					out.writeInt(-1);
+					continue;
+				}
+				// only moveTo and lineTo come out of the cartogram
+				int n = 0;
+				for (PathIterator it = shape.getPathIterator(null); !it
+						.isDone(); it.next()) {
+					int type = it.currentSegment(seg);
+					if (type != PathIterator.SEG_MOVETO
+							&& type != PathIterator.SEG_LINETO) {
+						continue;
+					}
+					if (n == types.length) {
+						types = Arrays.copyOf(types, 2 * n);
+						coords = Arrays.copyOf(coords, 4 * n);
+					}
+					types[n] = (byte) type;
+					coords[2 * n] = seg[0];
+					coords[2 * n + 1] = seg[1];
+					n++;
+				}
+				out.writeInt(n);
+				out.write(types, 0, n);
+				for (int c = 0; c < 2 * n; c++) {
+					out.writeFloat(coords[c]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static GeneralPath[] read(File file, TransformsMain trans)
+			throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(bytes);
+		} finally {
+			in.close();
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("not a cached cartogram");
+			}
+			int lx = buffer.getInt();
+			int ly = buffer.getInt();
+			float minx = buffer.getFloat();
+			float maxx = buffer.getFloat();
+			float miny = buffer.getFloat();
+			float maxy = buffer.getFloat();
+			if (lx <= 0 || ly <= 0
+					|| (long) (lx + 1) * (ly + 1) * 8 > buffer.remaining()) {
+				throw new IOException("bad grid size " + lx + " by " + ly);
+			}
+			ArrayFloat[] x = readGrid(buffer, lx, ly);
+			ArrayFloat[] y = readGrid(buffer, lx, ly);
+
+			GeneralPath[] shapes = new GeneralPath[buffer.getInt()];
+			for (int i = 0; i < shapes.length; i++) {
+				int n = buffer.getInt();
+				if (n < 0) {
+					continue;
+				}
+				byte[] types = new byte[n];
+				buffer.get(types);
+				GeneralPath path = new GeneralPath();
+				for (int v = 0; v < n; v++) {
+					float px = buffer.getFloat();
+					float py = buffer.getFloat();
+					if (types[v] == PathIterator.SEG_MOVETO) {
+						path.moveTo(px, py);
+					} else {
+						path.lineTo(px, py);
+					}
+				}
+				shapes[i] = path;
+			}
+
+			trans.setLx(lx);
+			trans.setLy(ly);
+			trans.setMinx(minx);
+			trans.setMaxx(maxx);
+			trans.setMiny(miny);
+			trans.setMaxy(maxy);
+			trans.putX(x);
+			trans.putY(y);
+			trans.setArrayLength(x.length);
+			return shapes;
+		} catch (BufferUnderflowException ex) {
+			throw new IOException("cached cartogram is cut short");
+		} catch (NegativeArraySizeException ex) {
+			throw new IOException("cached cartogram is damaged");
+		}
+	}
+
+	private static ArrayFloat[] readGrid(ByteBuffer buffer, int lx, int ly) {
+		ArrayFloat[] grid = new ArrayFloat[lx + 1];
+		for (int j = 0; j <= lx; j++) {
+			grid[j] = new ArrayFloat(ly + 1);
+			buffer.asFloatBuffer().get(grid[j].array);
+			buffer.position(buffer.position() + 4 * (ly + 1));
+		}
+		return grid;
+	}
 }
@@ -77,7 +77,7 @@ GeoData48States data = new GeoData48States();
 			
 			@SuppressWarnings("unused")
 			//I think a side effect of this is to do the work
-			Shape[] transShapes = MapGenFile.createTempFilesAndCartogram(bar, newDataSet, 0, trans);
+			Shape[] transShapes = MapGenFile.makeCartogramShapes(bar, newDataSet, 0, trans);
 			
 			
 			logger.finest("step " + step + " interpolatedData[i] = " + interpolatedData[0]);
@@ -511,8 +511,8 @@ public class MapGenFile {
 	public static DataSetForApps createCartogram(JProgressBar progressBar,
 			DataSetForApps dataSet, int currentVar, TransformsMain trans) {
 
-		GeneralPath[] shapes = createTempFilesAndCartogram(progressBar,
-				dataSet, currentVar, trans);
+		GeneralPath[] shapes = makeCartogramShapes(progressBar, dataSet,
+				currentVar, trans);
 		DataSetForApps newDataSet = createNewDataSet(progressBar, dataSet,
 				shapes);
 		progressBar.setString("All Done");
@@ -552,8 +552,8 @@ public class MapGenFile {
 			ex.printStackTrace();
 		}
 
-		GeneralPath[] shapes = createTempFilesAndCartogram(progressBar,
-				dataSet, currentVar, trans);
+		GeneralPath[] shapes = makeCartogramShapes(progressBar, dataSet,
+				currentVar, trans);
 
 		DataSetForApps newDataSet = createNewDataSet(progressBar, dataSet,
 				shapes);
@@ -564,62 +564,33 @@ public class MapGenFile {
 		return newDataSet;
 	}
 
-	static GeneralPath[] createTempFilesAndCartogram(JProgressBar progressBar,
+	/*
+	 * Makes the cartogram of the current variable in memory, with trans, or
+	 * a new TransformsMain if trans is null, and returns the moved shapes.
+	 * A cartogram made before with the same shapes, values and parameters
+	 * is taken from the CartogramShapeCache instead.
+	 */
+	static GeneralPath[] makeCartogramShapes(JProgressBar progressBar,
 			DataSetForApps dataSet, int currentVar, TransformsMain trans) {
-		GeneralPath[] shapes = null;
-		int[] vals = null;
-		File genFile = null;
-		File datFile = null;
-		File polygonFile = null;
-		String polygonFileName = null;
-		String genFileName = null;
-		String datFileName = null;
-		try {
-			genFile = File.createTempFile("map", ".gen");
-			genFileName = genFile.getPath();
-			datFile = File.createTempFile("census", ".dat");
-			datFileName = datFile.getPath();
-			polygonFile = File.createTempFile("polygon", ".gen"); // this will
-			// be the
-			// transformed
-			// file
-			polygonFileName = polygonFile.getPath();
-
-		} catch (IOException ex2) {
-			ex2.printStackTrace();
-		}
-
 		Shape[] paths = dataSet.getShapeData();
-		MapGenFile.writePathsToGen(paths, polygonFileName);
 		double[] numericArray = dataSet.getNumericDataAsDouble(currentVar);
 
-		vals = MapGenFile.makeInt(numericArray);
+		int[] vals = MapGenFile.makeInt(numericArray);
 		vals = MapGenFile.makePositive(vals);
-		MapGenFile.writeCensusFile(vals, datFileName);
 		progressBar.setString("Creating Cartogram");
 		progressBar.setValue(dataSet.getNumObservations() / 5);
-		try {
-			if (trans == null) {
-				trans = new TransformsMain(genFileName, datFileName,
-						polygonFileName); // tranforms all the data, reading
-				// from the temp files
-				logger.finest(trans.toString());
-			} else {
-				trans.setGenFileName(genFileName);
-				trans.setDataFileName(datFileName);
-				trans.setPolygonFileName(polygonFileName);
-				trans.makeCartogram();
-				// the effect of using these methods is same as using the
-				// constructor above
-			}
-			progressBar.setValue(dataSet.getNumObservations() / 2);
-			shapes = MapGenFile.readGenFile(genFileName);
-			// XXX GeoTools version, not currently used.
-			// GeoESRIWriter.writeShapeFile(shapes,newBaseFile,GeoESRIWriter.POLYGON);
-		} catch (Exception ex1) {
-			ex1.printStackTrace();
+		if (trans == null) {
+			trans = new TransformsMain(false);
 		}
-		cleanUpTempFiles(genFile, datFile, polygonFile);
+		double[] values = MapGenFile.makeDouble(vals);
+		CartogramShapeCache cache = CartogramShapeCache.getInstance();
+		String key = CartogramShapeCache.makeKey(paths, values, trans);
+		GeneralPath[] shapes = cache.findCartogram(key, trans);
+		if (shapes == null) {
+			shapes = trans.makeCartogram(paths, values);
+			cache.addCartogram(key, shapes, trans);
+		}
+		progressBar.setValue(dataSet.getNumObservations() / 2);
 		printCorrelation(vals, shapes);
 		return shapes;
 	}
@@ -777,13 +748,6 @@ public class MapGenFile {
 		return MapGenFile.createNewDataSet(oldDataSet, shapes);
 	}
 
-	private static void cleanUpTempFiles(File genFile, File datFile,
-			File polygonFile) {
-		datFile.delete();
-		genFile.delete();
-		polygonFile.delete();
-	}
-
 	private static void printCorrelation(int[] vals, GeneralPath[] shapes) {
 		double[] newAreas = ShapeUtil.computeAreaArray(shapes);
 		double[] mappedVals = MapGenFile.makeDouble(vals);
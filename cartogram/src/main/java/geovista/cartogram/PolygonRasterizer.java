@@ -0,0 +1,134 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.cartogram;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Finds which polygon each square of the cartogram's grid is in, for
+ * digitizing the density, by scanlines rather than by testing every square
+ * against every polygon.
+ *
+ * Square (i, j) is taken to be in a polygon if the point (i, j) is, by the
+ * crossing number test of
+ * www.ecse.rpi.edu/Homepages/wrf/research/geom/pnpoly.html worked in floats,
+ * which is how TransformsMain tested every square. Each polygon's edges are
+ * cut by the rows of the grid they cross, and the crossings along each row,
+ * sorted, bound the runs of squares inside. The polygons are rasterized in
+ * parallel; where they overlap, the square goes to the first of them.
+ */
+final class PolygonRasterizer {
+
+	// a square that is in no polygon
+	private static final int NONE = Integer.MAX_VALUE;
+
+	private PolygonRasterizer() {
+	}
+
+	/**
+	 * The polygon that each square of an lx by ly grid is in, at i * ly + j
+	 * for square (i, j), or -1 for a square in none of them. Polygon p has
+	 * corners (xs[p][v], ys[p][v]), in grid units.
+	 */
+	static int[] rasterize(final float[][] xs, final float[][] ys,
+			final int lx, final int ly) {
+		final AtomicIntegerArray owners = new AtomicIntegerArray(lx * ly);
+		for (int s = 0; s < lx * ly; s++) {
+			owners.set(s, NONE);
+		}
+		CartogramEngine.forEachRange(xs.length, new CartogramEngine.Range() {
+			@Override
+			double run(int from, int to) {
+				for (int p = from; p < to; p++) {
+					rasterize(p, xs[p], ys[p], lx, ly, owners);
+				}
+				return 0;
+			}
+		});
+		int[] owner = new int[lx * ly];
+		for (int s = 0; s < owner.length; s++) {
+			int p = owners.get(s);
+			owner[s] = p == NONE ? -1 : p;
+		}
+		return owner;
+	}
+
+	private static void rasterize(int p, float[] px, float[] py, int lx,
+			int ly, AtomicIntegerArray owners) {
+		int n = px.length;
+		float ymin = Float.POSITIVE_INFINITY;
+		float ymax = Float.NEGATIVE_INFINITY;
+		for (int v = 0; v < n; v++) {
+			ymin = Math.min(ymin, py[v]);
+			ymax = Math.max(ymax, py[v]);
+		}
+		// an edge crosses row j if it has one end at or below j and the
+		// other above it
+		int row0 = Math.max(0, ceil(ymin));
+		int row1 = Math.min(ly - 1, ceil(ymax) - 1);
+		if (row0 > row1) {
+			return;
+		}
+
+		// count the crossings on each row, then put them in order of row
+		int[] rowStarts = new int[row1 - row0 + 2];
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			int first = Math.max(row0, ceil(Math.min(py[i], py[j])));
+			int last = Math.min(row1, ceil(Math.max(py[i], py[j])) - 1);
+			for (int r = first; r <= last; r++) {
+				rowStarts[r - row0 + 1]++;
+			}
+		}
+		for (int r = 0; r <= row1 - row0; r++) {
+			rowStarts[r + 1] += rowStarts[r];
+		}
+		float[] crossings = new float[rowStarts[row1 - row0 + 1]];
+		int[] next = Arrays.copyOf(rowStarts, row1 - row0 + 1);
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			int first = Math.max(row0, ceil(Math.min(py[i], py[j])));
+			int last = Math.min(row1, ceil(Math.max(py[i], py[j])) - 1);
+			for (int r = first; r <= last; r++) {
+				float y = r;
+				crossings[next[r - row0]++] = (px[j] - px[i]) * (y - py[i])
+						/ (py[j] - py[i]) + px[i];
+			}
+		}
+
+		// A point is inside if an odd number of crossings lie to its
+		// right, which is to say between crossings 2k and 2k + 1.
+		for (int r = row0; r <= row1; r++) {
+			int start = rowStarts[r - row0];
+			int end = rowStarts[r - row0 + 1];
+			Arrays.sort(crossings, start, end);
+			for (int k = start; k + 1 < end; k += 2) {
+				int first = Math.max(0, ceil(crossings[k]));
+				int last = Math.min(lx - 1, ceil(crossings[k + 1]) - 1);
+				for (int i = first; i <= last; i++) {
+					claim(owners, i * ly + r, p);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gives the square to polygon p, unless an earlier polygon has it.
+	 */
+	private static void claim(AtomicIntegerArray owners, int square, int p) {
+		while (true) {
+			int owner = owners.get(square);
+			if (owner <= p || owners.compareAndSet(square, owner, p)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The smallest int at least f, held within the range of int.
+	 */
+	private static int ceil(float f) {
+		return (int) Math.ceil(f);
+	}
+}
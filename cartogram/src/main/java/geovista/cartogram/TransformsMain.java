@@ -1,5 +1,6 @@
 package geovista.cartogram;
 
+import java.awt.Shape;
 import java.awt.geom.GeneralPath;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -127,32 +128,30 @@ public class TransformsMain {
 												// WRITE oldname "./cart.ps";
 	private static final String MAP2PS = ""; // Map image. Open file for WRITE
 												// oldname "./map.ps"
-	private static final double CONVERGENCE = 1e-100; // Convergence criterion
+	static final double CONVERGENCE = 1e-100; // Convergence criterion
 														// for integrator.
-	private static final double HINITIAL = 1e-4; // Initial time step size in
+	static final double HINITIAL = 1e-4; // Initial time step size in
 													// nonlinvoltra.
-	private static final int IMAX = 50; // Maximum number of iterations in
+	static final int IMAX = 50; // Maximum number of iterations in
 										// Newton-Raphson routine.
-	private static final int MAXINTSTEPS = 3000; // Maximum number of time steps
+	static final int MAXINTSTEPS = 3000; // Maximum number of time steps
 													// in nonlinvoltra.
 
-	private static final double MINH = 1e-5; // Smallest permitted time step in
+	static final double MINH = 1e-5; // Smallest permitted time step in
 												// the integrator.
-	private static final int NSUBDIV = 1; // Number of linear subdivisions for
-											// digitizing the density.
-	private static final double PADDING = 1.5; // Determines space between map
+	static final double PADDING = 1.5; // Determines space between map
 												// and boundary.
 	private static final double PI = 3.141592653589793;
 
 	// #define SWAP = (a,b) tempr=(a);(a)=(b);(b)=tempr;
 	// SWAP cannot be used as a macro here, but instead it will be coded
 	// whenever necessary
-	private static final double TIMELIMIT = 1e8;// Maximum time allowed in
+	static final double TIMELIMIT = 1e8;// Maximum time allowed in
 												// integrator.
-	private static final double TOLF = 1e-3; // Sensitivity w. r. t. function
+	static final double TOLF = 1e-3; // Sensitivity w. r. t. function
 												// value in newt2.
-	private static final double TOLINT = 1e-3; // Sensitivity of the integrator.
-	private static final double TOLX = 1e-3; // Sensitivity w. r. t. independent
+	static final double TOLINT = 1e-3; // Sensitivity of the integrator.
+	static final double TOLX = 1e-3; // Sensitivity w. r. t. independent
 												// variables in newt2.
 
 	public static final String DISPLFILE = null; // or just string
@@ -178,7 +177,7 @@ public class TransformsMain {
 	// can try using:
 	// http://home.online.no/~pjacklam/notes/invnorm/impl/karimov/StatUtil.java
 	// fractional error less than 1.2 * 10 ^ -7.
-	private static double erf(double z) {
+	static double erf(double z) {
 		double t = 1.0 / (1.0 + 0.5 * Math.abs(z));
 
 		// use Horner's method
@@ -369,23 +368,6 @@ public class TransformsMain {
 		FileTools.closeFile(inFile);
 	}
 
-	// Function to calculate the crossing number for a point with respect to a
-	// polygon in order to determine whether the point is inside or not. For
-	// details see
-	// www.ecse.rpi.edu/Homepages/wrf/research/geom/pnpoly.html#The%20C%20Code.
-	private int crnmbr(float x, float y, int ncrns, Point polygon[]) {
-		int i, j, c = 0;
-		for (i = 0, j = ncrns - 1; i < ncrns; j = i++) {
-			if ((((polygon[i].y <= y) && (y < polygon[j].y)) || ((polygon[j].y <= y) && (y < polygon[i].y)))
-					&& (x < (polygon[j].x - polygon[i].x) * (y - polygon[i].y)
-							/ (polygon[j].y - polygon[i].y) + polygon[i].x)) {
-				// c = !c;
-				c = (1 ^ c);
-			}
-		}
-		return c;
-	}
-
 	// Function to determine polygon area. This is needed to determine the
 	// average
 	// population.
@@ -425,10 +407,10 @@ public class TransformsMain {
 	// Function to digitize density.
 	private void digdens() {
 		String line;
-		double area[], totarea = 0.0, totpop = 0.0;
+		double unitArea[], totarea = 0.0, totpop = 0.0;
 		BufferedReader inFile = FileTools.openFileRead(dataFileName);
 		float avgdens, dens[];
-		int cases[], i, id, ii, j, jj, ncases, polyctr;
+		int cases[], i, id, j, ncases, owner[], polyctr;
 
 		// Read CENSUSFILE.
 
@@ -461,22 +443,19 @@ public class TransformsMain {
 		// BOUNDARYFILE are the same for all polygons belonging to one political
 		// unit.
 
-		area = new double[npoly];
+		unitArea = new double[maxid + 1];
 		for (polyctr = 0; polyctr < npoly; polyctr++) {
-			totarea += polygonarea(ncorn[polyctr], corn[polyctr].array);
-			area[polyctr] = 0;
-			for (i = 0; i < npoly; i++) {
-				if (polygonid[i] == polygonid[polyctr]) {
-					area[polyctr] += polygonarea(ncorn[i], corn[i].array);
-				}
-			}
+			double area = polygonarea(ncorn[polyctr], corn[polyctr].array);
+			totarea += area;
+			unitArea[polygonid[polyctr]] += area;
 		}
 
 		// Calculate the correct density for each polygon.
 
 		dens = new float[npoly];
 		for (polyctr = 0; polyctr < npoly; polyctr++) {
-			dens[polyctr] = (float) (cases[polygonid[polyctr]] / area[polyctr]);
+			dens[polyctr] = (float) (cases[polygonid[polyctr]]
+					/ unitArea[polygonid[polyctr]]);
 		}
 
 		// Calculate the average density.
@@ -485,49 +464,32 @@ public class TransformsMain {
 
 		// Digitize density.
 
-		for (i = 0; i <= lx; i++) {
-			for (j = 0; j <= ly; j++) {
-				rho_0[i].array[j] = 0; // Initialize.
-			}
-		}
-
 		if (logger.isLoggable(Level.FINEST)) {
 			logger.finest("digitizing density ...\n");
 		}
-		for (i = 0; i < lx; i++) {
-			if (logger.isLoggable(Level.FINEST)) {
-				if (i % 100 == 1 && i != 1) {
-					logger.finest("finished " + (i - 1) + " of " + lx + "\n");
-				}
+		float[][] polyx = new float[npoly][];
+		float[][] polyy = new float[npoly][];
+		for (polyctr = 0; polyctr < npoly; polyctr++) {
+			polyx[polyctr] = new float[ncorn[polyctr]];
+			polyy[polyctr] = new float[ncorn[polyctr]];
+			for (i = 0; i < ncorn[polyctr]; i++) {
+				polyx[polyctr][i] = corn[polyctr].array[i].x;
+				polyy[polyctr][i] = corn[polyctr].array[i].y;
 			}
+		}
+		owner = PolygonRasterizer.rasterize(polyx, polyy, lx, ly);
+		for (i = 0; i < lx; i++) {
 			for (j = 0; j < ly; j++) {
-				for (ii = 0; ii < NSUBDIV; ii++) {
-					for (jj = 0; jj < NSUBDIV; jj++) {
-						if (i - 0.5 + (float) (ii + 1) / NSUBDIV < polyminx
-								|| i - 0.5 + (float) ii / NSUBDIV > polymaxx
-								|| j - 0.5 + (float) (jj + 1) / NSUBDIV < polyminy
-								|| j - 0.5 + (float) jj / NSUBDIV > polymaxy) {
-							rho_0[i].array[j] += avgdens / (NSUBDIV * NSUBDIV);
-							continue;
-						}
-						for (polyctr = 0; polyctr < npoly; polyctr++) {
-							if (crnmbr((float) (i - 0.5 + (float) (2 * ii + 1)
-									/ (2 * NSUBDIV)),
-									(float) (j - 0.5 + (float) (2 * ii + 1)
-											/ (2 * NSUBDIV)), ncorn[polyctr],
-									corn[polyctr].array) != 0) {
-								rho_0[i].array[j] += dens[polyctr]
-										/ (NSUBDIV * NSUBDIV);
-								break;
-							}
-						}
-						if (polyctr == npoly) {
-							rho_0[i].array[j] += avgdens / (NSUBDIV * NSUBDIV);
-						}
-					}
-				}
+				polyctr = owner[i * ly + j];
+				rho_0[i].array[j] = polyctr < 0 ? avgdens : dens[polyctr];
 			}
 		}
+		for (i = 0; i <= lx; i++) {
+			rho_0[i].array[ly] = 0;
+		}
+		for (j = 0; j < ly; j++) {
+			rho_0[lx].array[j] = 0;
+		}
 
 		// Fill the edges correctly.
 
@@ -550,7 +512,7 @@ public class TransformsMain {
 
 		coscosft(rho_0, 1, 1);
 
-		area = null; // free(area);
+		unitArea = null; // free(area);
 		cases = null; // free(cases);
 		for (i = 0; i < npoly; i++) {
 			corn[i].array = null;
@@ -2001,6 +1963,36 @@ public class TransformsMain {
 
 	}
 
+	/**
+	 * Makes the cartogram of the shapes in memory, without the generate and
+	 * census files: shape i has values[i] cases. Returns the shapes moved
+	 * onto the cartogram. The displacement grid is kept, as after
+	 * makeCartogram(), so that transf moves other layers the same way.
+	 */
+	public GeneralPath[] makeCartogram(Shape[] shapes, double[] values) {
+		CartogramEngine engine = new CartogramEngine(maxNSquareLog,
+				blurWidth, blurWidthFactor);
+		engine.makeCartogram(shapes, values);
+		lx = engine.getLx();
+		ly = engine.getLy();
+		minx = engine.getMinx();
+		maxx = engine.getMaxx();
+		miny = engine.getMiny();
+		maxy = engine.getMaxy();
+		x = new ArrayFloat[lx + 1];
+		y = new ArrayFloat[lx + 1];
+		for (int j = 0; j <= lx; j++) {
+			x[j] = new ArrayFloat(ly + 1);
+			y[j] = new ArrayFloat(ly + 1);
+			for (int k = 0; k <= ly; k++) {
+				x[j].array[k] = (float) engine.getX(j, k);
+				y[j].array[k] = (float) engine.getY(j, k);
+			}
+		}
+		arrayLength = x.length;
+		return engine.transform(shapes);
+	}
+
 	public static void main(String[] args) {
 		try {
 			TransformsMain t = new TransformsMain(true);
@@ -0,0 +1,200 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.cartogram;
+
+/**
+ * The cosine and sine transforms of one length n, a power of 2, as used by
+ * the cartogram's diffusion: the same transforms as the Numerical Recipes
+ * cosft and sinft of TransformsMain, on double arrays counted from 0.
+ *
+ * The cosine transform of z[0..n] is
+ * F[k] = (z[0] + (-1)^k z[n]) / 2 + sum over 0 < j < n of z[j] cos(pi j k / n)
+ * for k from 0 to n, and the sine transform of z[0..n-1] is
+ * F[k] = sum over 0 < j < n of z[j] sin(pi j k / n)
+ * for k from 0 to n - 1, with z[0] taken as 0 and z[n] set to 0. The inverse
+ * transforms are the same scaled by 2 / n.
+ *
+ * Both are done through a real FFT of length n, which is a complex radix-2
+ * FFT of length n / 2. The sines, cosines and bit reversal are worked out
+ * once, so a transform allocates nothing. A TrigTransform is never changed
+ * after construction and can be shared between threads; each thread passes
+ * its own work array of length n.
+ */
+final class TrigTransform {
+
+	private final int n;
+	// half of n: the length of the complex FFT
+	private final int m;
+	// sin and cos of pi j / n, for j from 0 to n - 1
+	private final double[] sinHalf;
+	private final double[] cosHalf;
+	// sin and cos of 2 pi k / n, for k from 0 to m / 2
+	private final double[] sinSplit;
+	private final double[] cosSplit;
+	// sin and cos of 2 pi t / m, for t from 0 to m / 2 - 1
+	private final double[] sinFft;
+	private final double[] cosFft;
+	private final int[] bitReversed;
+
+	TrigTransform(int n) {
+		if (n < 2 || (n & (n - 1)) != 0) {
+			throw new IllegalArgumentException("length " + n
+					+ " is not a power of 2");
+		}
+		this.n = n;
+		m = n / 2;
+		sinHalf = new double[n];
+		cosHalf = new double[n];
+		for (int j = 0; j < n; j++) {
+			sinHalf[j] = Math.sin(Math.PI * j / n);
+			cosHalf[j] = Math.cos(Math.PI * j / n);
+		}
+		sinSplit = new double[m / 2 + 1];
+		cosSplit = new double[m / 2 + 1];
+		for (int k = 0; k <= m / 2; k++) {
+			sinSplit[k] = Math.sin(2 * Math.PI * k / n);
+			cosSplit[k] = Math.cos(2 * Math.PI * k / n);
+		}
+		sinFft = new double[Math.max(1, m / 2)];
+		cosFft = new double[sinFft.length];
+		for (int t = 0; t < m / 2; t++) {
+			sinFft[t] = Math.sin(2 * Math.PI * t / m);
+			cosFft[t] = Math.cos(2 * Math.PI * t / m);
+		}
+		bitReversed = new int[m];
+		int bits = Integer.numberOfTrailingZeros(m);
+		for (int i = 0; i < m; i++) {
+			bitReversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+	}
+
+	int getLength() {
+		return n;
+	}
+
+	/**
+	 * Replaces z[off..off + n] by its cosine transform, or by its inverse.
+	 */
+	void cosine(double[] z, int off, boolean inverse, double[] work) {
+		double first = z[off];
+		double last = z[off + n];
+		// F[1], summed directly; the odd terms follow from it
+		double sum = 0.5 * (first - last);
+		work[0] = 0.5 * (first + last);
+		for (int j = 1; j < n; j++) {
+			double a = z[off + j];
+			double b = z[off + n - j];
+			work[j] = 0.5 * (a + b) - sinHalf[j] * (a - b);
+			sum += cosHalf[j] * a;
+		}
+		realFft(work);
+		double scale = inverse ? 2.0 / n : 1;
+		z[off] = scale * work[0];
+		z[off + n] = scale * work[1];
+		z[off + 1] = scale * sum;
+		for (int k = 1; k < m; k++) {
+			z[off + 2 * k] = scale * work[2 * k];
+			sum += work[2 * k + 1];
+			z[off + 2 * k + 1] = scale * sum;
+		}
+	}
+
+	/**
+	 * Replaces z[off..off + n - 1] by its sine transform, or by its inverse,
+	 * and sets z[off + n] to 0.
+	 */
+	void sine(double[] z, int off, boolean inverse, double[] work) {
+		work[0] = 0;
+		for (int j = 1; j < n; j++) {
+			double a = z[off + j];
+			double b = z[off + n - j];
+			work[j] = sinHalf[j] * (a + b) + 0.5 * (a - b);
+		}
+		realFft(work);
+		double scale = inverse ? 2.0 / n : 1;
+		double sum = 0.5 * work[0];
+		z[off] = 0;
+		z[off + 1] = scale * sum;
+		for (int k = 1; k < m; k++) {
+			z[off + 2 * k] = scale * work[2 * k + 1];
+			sum += work[2 * k];
+			z[off + 2 * k + 1] = scale * sum;
+		}
+		z[off + n] = 0;
+	}
+
+	/**
+	 * Replaces the n reals in x by X[k] = sum of x[j] exp(2 pi i j k / n),
+	 * packed as X[0], X[n / 2], then the real and imaginary parts of X[k]
+	 * for k from 1 to n / 2 - 1.
+	 */
+	private void realFft(double[] x) {
+		// the even and odd values as the real and imaginary parts of m
+		// complex values
+		complexFft(x);
+		double z0r = x[0];
+		double z0i = x[1];
+		x[0] = z0r + z0i;
+		x[1] = z0r - z0i;
+		for (int k = 1; k <= m / 2; k++) {
+			int mk = m - k;
+			double zr = x[2 * k];
+			double zi = x[2 * k + 1];
+			double wr = x[2 * mk];
+			double wi = x[2 * mk + 1];
+			// the transforms of the even and the odd values at k
+			double er = 0.5 * (zr + wr);
+			double ei = 0.5 * (zi - wi);
+			double or = 0.5 * (zi + wi);
+			double oi = -0.5 * (zr - wr);
+			double c = cosSplit[k];
+			double s = sinSplit[k];
+			double tr = c * or - s * oi;
+			double ti = c * oi + s * or;
+			x[2 * k] = er + tr;
+			x[2 * k + 1] = ei + ti;
+			if (mk != k) {
+				x[2 * mk] = er - tr;
+				x[2 * mk + 1] = -(ei - ti);
+			}
+		}
+	}
+
+	/**
+	 * In place radix-2 FFT, with exponent +2 pi i j k / m, of the m complex
+	 * values held as pairs of reals.
+	 */
+	private void complexFft(double[] a) {
+		for (int i = 0; i < m; i++) {
+			int r = bitReversed[i];
+			if (r > i) {
+				double t = a[2 * i];
+				a[2 * i] = a[2 * r];
+				a[2 * r] = t;
+				t = a[2 * i + 1];
+				a[2 * i + 1] = a[2 * r + 1];
+				a[2 * r + 1] = t;
+			}
+		}
+		for (int len = 2; len <= m; len <<= 1) {
+			int half = len >> 1;
+			int step = m / len;
+			for (int start = 0; start < m; start += len) {
+				for (int j = 0; j < half; j++) {
+					double wr = cosFft[j * step];
+					double wi = sinFft[j * step];
+					int p = 2 * (start + j);
+					int q = 2 * (start + j + half);
+					double vr = a[q] * wr - a[q + 1] * wi;
+					double vi = a[q] * wi + a[q + 1] * wr;
+					a[q] = a[p] - vr;
+					a[q + 1] = a[p + 1] - vi;
+					a[p] += vr;
+					a[p + 1] += vi;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.cartogram;
+
+import java.awt.Shape;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+public class CartogramEngineTest extends TestCase {
+
+	final static Logger logger = Logger.getLogger(CartogramEngineTest.class
+			.getName());
+
+	// a side of the grid of square regions
+	private static final int SIDE = 5;
+
+	public void testCosineMatchesDirectSum() {
+		int n = 16;
+		TrigTransform trans = new TrigTransform(n);
+		double[] z = randomArray(n + 1, 1);
+		double[] expected = new double[n + 1];
+		for (int k = 0; k <= n; k++) {
+			double sum = 0.5 * (z[0] + (k % 2 == 0 ? z[n] : -z[n]));
+			for (int j = 1; j < n; j++) {
+				sum += z[j] * Math.cos(Math.PI * j * k / n);
+			}
+			expected[k] = sum;
+		}
+		double[] original = z.clone();
+		double[] work = new double[n];
+		trans.cosine(z, 0, false, work);
+		assertArrayClose(expected, z, 1e-10);
+		trans.cosine(z, 0, true, work);
+		assertArrayClose(original, z, 1e-10);
+	}
+
+	public void testSineMatchesDirectSum() {
+		int n = 32;
+		TrigTransform trans = new TrigTransform(n);
+		// transformed in the middle of a longer array, as the engine does
+		double[] z = randomArray(n + 3, 2);
+		z[2] = 0;
+		double[] expected = new double[n];
+		for (int k = 0; k < n; k++) {
+			double sum = 0;
+			for (int j = 1; j < n; j++) {
+				sum += z[2 + j] * Math.sin(Math.PI * j * k / n);
+			}
+			expected[k] = sum;
+		}
+		double[] original = z.clone();
+		double[] work = new double[n];
+		trans.sine(z, 2, false, work);
+		for (int k = 0; k < n; k++) {
+			assertEquals(expected[k], z[2 + k], 1e-10);
+		}
+		assertEquals(0.0, z[2 + n]);
+		assertEquals(original[0], z[0]);
+		trans.sine(z, 2, true, work);
+		for (int j = 0; j < n; j++) {
+			assertEquals(original[2 + j], z[2 + j], 1e-10);
+		}
+	}
+
+	public void testLengthMustBePowerOfTwo() {
+		try {
+			new TrigTransform(12);
+			fail("a length of 12 was taken");
+		} catch (IllegalArgumentException ex) {
+			// as it should be
+		}
+	}
+
+	/**
+	 * The engine ends up close to the generate file route of TransformsMain,
+	 * and gives the regions with more cases more area.
+	 */
+	public void testMatchesFileRoute() throws IOException {
+		Shape[] shapes = makeSquares();
+		int[] cases = makeCases(3);
+		int log = 10;
+
+		long start = System.nanoTime();
+		GeneralPath[] fromFiles = makeCartogramThroughFiles(shapes, cases, log);
+		long fileTime = System.nanoTime() - start;
+
+		TransformsMain trans = new TransformsMain(false);
+		trans.setMaxNSquareLog(log);
+		start = System.nanoTime();
+		GeneralPath[] inMemory = trans.makeCartogram(shapes, MapGenFile
+				.makeDouble(cases));
+		long memoryTime = System.nanoTime() - start;
+		logger.info("2^" + log + " squares: through files "
+				+ (fileTime / 1000000) + " ms, in memory "
+				+ (memoryTime / 1000000) + " ms");
+
+		assertEquals(shapes.length, inMemory.length);
+		double tolerance = 1e-4 * SIDE;
+		for (int i = 0; i < shapes.length; i++) {
+			PathIterator a = fromFiles[i].getPathIterator(null);
+			PathIterator b = inMemory[i].getPathIterator(null);
+			float[] pa = new float[6];
+			float[] pb = new float[6];
+			for (; !a.isDone(); a.next(), b.next()) {
+				assertFalse(b.isDone());
+				assertEquals(a.currentSegment(pa), b.currentSegment(pb));
+				assertEquals(pa[0], pb[0], tolerance);
+				assertEquals(pa[1], pb[1], tolerance);
+			}
+			assertTrue(b.isDone());
+		}
+
+		double[] areas = ShapeUtil.computeAreaArray(inMemory);
+		int most = 0;
+		int least = 0;
+		for (int i = 0; i < cases.length; i++) {
+			if (cases[i] > cases[most]) {
+				most = i;
+			}
+			if (cases[i] < cases[least]) {
+				least = i;
+			}
+		}
+		assertTrue(areas[most] > 1.0 && areas[least] < 1.0);
+	}
+
+	public void testMovesOtherPointsAlike() {
+		Shape[] shapes = makeSquares();
+		TransformsMain trans = new TransformsMain(false);
+		trans.setMaxNSquareLog(8);
+		GeneralPath[] moved = trans.makeCartogram(shapes, MapGenFile
+				.makeDouble(makeCases(4)));
+		// the first corner of the first square, moved by the grid
+		PathIterator it = moved[0].getPathIterator(null);
+		float[] corner = new float[6];
+		it.currentSegment(corner);
+		Point result = trans.transf(new Point(0, 0));
+		assertEquals(corner[0], result.x, 1e-4);
+		assertEquals(corner[1], result.y, 1e-4);
+	}
+
+	private static GeneralPath[] makeCartogramThroughFiles(Shape[] shapes,
+			int[] cases, int log) throws IOException {
+		File polygons = File.createTempFile("polygons", ".gen");
+		File census = File.createTempFile("census", ".dat");
+		File gen = File.createTempFile("cartogram", ".gen");
+		try {
+			MapGenFile.writePathsToGen(shapes, polygons.getPath());
+			MapGenFile.writeCensusFile(cases, census.getPath());
+			TransformsMain trans = new TransformsMain(false);
+			trans.setMaxNSquareLog(log);
+			trans.setPolygonFileName(polygons.getPath());
+			trans.setDataFileName(census.getPath());
+			trans.setGenFileName(gen.getPath());
+			trans.makeCartogram();
+			return MapGenFile.readGenFile(gen.getPath());
+		} finally {
+			polygons.delete();
+			census.delete();
+			gen.delete();
+		}
+	}
+
+	private static Shape[] makeSquares() {
+		Shape[] shapes = new Shape[SIDE * SIDE];
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				shapes[i * SIDE + j] = new GeneralPath(new Rectangle2D.Float(i,
+						j, 1, 1));
+			}
+		}
+		return shapes;
+	}
+
+	private static int[] makeCases(long seed) {
+		Random rand = new Random(seed);
+		int[] cases = new int[SIDE * SIDE];
+		for (int i = 0; i < cases.length; i++) {
+			cases[i] = 1 + rand.nextInt(20);
+		}
+		return cases;
+	}
+
+	private static double[] randomArray(int length, long seed) {
+		Random rand = new Random(seed);
+		double[] values = new double[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = rand.nextGaussian();
+		}
+		return values;
+	}
+
+	private static void assertArrayClose(double[] expected, double[] actual,
+			double tolerance) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual[i], tolerance);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.cartogram;
+
+import java.awt.Shape;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+public class CartogramShapeCacheTest extends TestCase {
+
+	final static Logger logger = Logger.getLogger(CartogramShapeCacheTest.class
+			.getName());
+
+	private File dir;
+	private CartogramShapeCache cache;
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = File.createTempFile("cartograms", "");
+		dir.delete();
+		cache = new CartogramShapeCache(dir);
+	}
+
+	@Override
+	protected void tearDown() {
+		cache.clear();
+		dir.delete();
+	}
+
+	public void testFindsWhatWasAdded() {
+		Shape[] shapes = makeSquares(3);
+		double[] values = { 1, 5, 2, 8, 3, 1, 1, 2, 9 };
+		TransformsMain trans = makeTransforms();
+
+		String key = CartogramShapeCache.makeKey(shapes, values, trans);
+		assertNull(cache.findCartogram(key, trans));
+		long start = System.nanoTime();
+		GeneralPath[] made = trans.makeCartogram(shapes, values);
+		long making = System.nanoTime() - start;
+		cache.addCartogram(key, made, trans);
+		Point expected = trans.transf(new Point(1.5f, 0.5f));
+
+		// as a new session would, with a new cache over the same directory
+		TransformsMain again = makeTransforms();
+		CartogramShapeCache reopened = new CartogramShapeCache(dir);
+		start = System.nanoTime();
+		GeneralPath[] found = reopened.findCartogram(CartogramShapeCache
+				.makeKey(shapes, values, again), again);
+		long finding = System.nanoTime() - start;
+		logger.info("made in " + (making / 1000000) + " ms, found in "
+				+ (finding / 1000000) + " ms");
+
+		assertNotNull(found);
+		assertEquals(made.length, found.length);
+		for (int i = 0; i < made.length; i++) {
+			assertSamePath(made[i], found[i]);
+		}
+		assertEquals(trans.getLx(), again.getLx());
+		assertEquals(trans.getLy(), again.getLy());
+		assertEquals(trans.getArrayLength(), again.getArrayLength());
+		Point moved = again.transf(new Point(1.5f, 0.5f));
+		assertEquals(expected.x, moved.x, 0);
+		assertEquals(expected.y, moved.y, 0);
+	}
+
+	public void testKeyDependsOnInputs() {
+		Shape[] shapes = makeSquares(2);
+		double[] values = { 1, 2, 3, 4 };
+		TransformsMain trans = makeTransforms();
+		String key = CartogramShapeCache.makeKey(shapes, values, trans);
+		assertEquals(key, CartogramShapeCache.makeKey(makeSquares(2),
+				new double[] { 1, 2, 3, 4 }, makeTransforms()));
+
+		assertFalse(key.equals(CartogramShapeCache.makeKey(shapes,
+				new double[] { 1, 2, 3, 5 }, trans)));
+		Shape[] moved = makeSquares(2);
+		moved[3] = new GeneralPath(new Rectangle2D.Float(1, 1, 1, 1.5f));
+		assertFalse(key.equals(CartogramShapeCache.makeKey(moved, values,
+				trans)));
+		TransformsMain other = makeTransforms();
+		other.setBlurWidth(trans.getBlurWidth() * 2);
+		assertFalse(key.equals(CartogramShapeCache.makeKey(shapes, values,
+				other)));
+		other = makeTransforms();
+		other.setMaxNSquareLog(trans.getMaxNSquareLog() + 1);
+		assertFalse(key.equals(CartogramShapeCache.makeKey(shapes, values,
+				other)));
+	}
+
+	public void testEvictsLeastRecentlyUsed() {
+		Shape[] shapes = makeSquares(2);
+		TransformsMain trans = makeTransforms();
+		GeneralPath[] made = trans.makeCartogram(shapes, new double[] { 1, 2,
+				3, 4 });
+		String[] keys = new String[3];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = CartogramShapeCache.makeKey(shapes, new double[] { i, 2,
+					3, 4 }, trans);
+			cache.addCartogram(keys[i], made, trans);
+			new File(dir, keys[i] + ".cartogram").setLastModified(1000000L * i);
+		}
+		long entry = new File(dir, keys[0] + ".cartogram").length();
+		// the oldest entry is used, so the next oldest goes
+		assertNotNull(cache.findCartogram(keys[0], trans));
+		cache.setMaxBytes(2 * entry);
+		assertNotNull(cache.findCartogram(keys[0], trans));
+		assertNull(cache.findCartogram(keys[1], trans));
+		assertNotNull(cache.findCartogram(keys[2], trans));
+
+		// an entry on its own larger than the cache is not kept
+		cache.setMaxBytes(entry - 1);
+		assertEquals(0, dir.list().length);
+	}
+
+	public void testDamagedFileIsAMiss() throws IOException {
+		Shape[] shapes = makeSquares(2);
+		double[] values = { 1, 2, 3, 4 };
+		TransformsMain trans = makeTransforms();
+		String key = CartogramShapeCache.makeKey(shapes, values, trans);
+		cache.addCartogram(key, trans.makeCartogram(shapes, values), trans);
+		File file = new File(dir, key + ".cartogram");
+		long length = file.length();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[(int) length / 2]);
+		out.close();
+		assertNull(cache.findCartogram(key, trans));
+		assertFalse(file.exists());
+	}
+
+	private static TransformsMain makeTransforms() {
+		TransformsMain trans = new TransformsMain(false);
+		trans.setMaxNSquareLog(8);
+		return trans;
+	}
+
+	private static Shape[] makeSquares(int side) {
+		Shape[] shapes = new Shape[side * side];
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				shapes[i * side + j] = new GeneralPath(new Rectangle2D.Float(i,
+						j, 1, 1));
+			}
+		}
+		return shapes;
+	}
+
+	private static void assertSamePath(GeneralPath expected, GeneralPath actual) {
+		PathIterator a = expected.getPathIterator(null);
+		PathIterator b = actual.getPathIterator(null);
+		float[] pa = new float[6];
+		float[] pb = new float[6];
+		for (; !a.isDone(); a.next(), b.next()) {
+			assertFalse(b.isDone());
+			assertEquals(a.currentSegment(pa), b.currentSegment(pb));
+			assertEquals(pa[0], pb[0], 0);
+			assertEquals(pa[1], pb[1], 0);
+		}
+		assertTrue(b.isDone());
+	}
+}
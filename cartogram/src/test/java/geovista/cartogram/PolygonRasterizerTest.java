@@ -0,0 +1,87 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.cartogram;
+
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+public class PolygonRasterizerTest extends TestCase {
+
+	final static Logger logger = Logger.getLogger(PolygonRasterizerTest.class
+			.getName());
+
+	/**
+	 * Random polygons, some crossing themselves, some overlapping, some off
+	 * the grid, and with corners on grid points, against testing every
+	 * square against every polygon.
+	 */
+	public void testMatchesCrossingNumberTest() {
+		Random rand = new Random(5);
+		int lx = 64;
+		int ly = 32;
+		for (int trial = 0; trial < 100; trial++) {
+			int numPolygons = 1 + rand.nextInt(20);
+			float[][] xs = new float[numPolygons][];
+			float[][] ys = new float[numPolygons][];
+			for (int p = 0; p < numPolygons; p++) {
+				int n = 3 + rand.nextInt(12);
+				xs[p] = new float[n];
+				ys[p] = new float[n];
+				for (int v = 0; v < n; v++) {
+					xs[p][v] = rand.nextBoolean() ? rand.nextInt(70) - 3 : rand
+							.nextFloat() * 70 - 3;
+					ys[p][v] = rand.nextBoolean() ? rand.nextInt(36) - 2 : rand
+							.nextFloat() * 36 - 2;
+				}
+			}
+			int[] owner = PolygonRasterizer.rasterize(xs, ys, lx, ly);
+			for (int i = 0; i < lx; i++) {
+				for (int j = 0; j < ly; j++) {
+					assertEquals("square " + i + ", " + j, firstContaining(xs,
+							ys, i, j), owner[i * ly + j]);
+				}
+			}
+		}
+	}
+
+	public void testSquares() {
+		float[][] xs = { { 1, 3, 3, 1 }, { 2, 5, 5, 2 } };
+		float[][] ys = { { 1, 1, 3, 3 }, { 0, 0, 2, 2 } };
+		int[] owner = PolygonRasterizer.rasterize(xs, ys, 6, 4);
+		// the left and bottom edges are in, the right and top are not
+		assertEquals(0, owner[1 * 4 + 1]);
+		assertEquals(0, owner[2 * 4 + 2]);
+		assertEquals(-1, owner[1 * 4 + 3]);
+		assertEquals(-1, owner[3 * 4 + 2]);
+		// where they overlap, the first polygon has it
+		assertEquals(0, owner[2 * 4 + 1]);
+		assertEquals(1, owner[2 * 4 + 0]);
+		assertEquals(1, owner[4 * 4 + 1]);
+		assertEquals(-1, owner[5 * 4 + 1]);
+		assertEquals(-1, owner[0]);
+	}
+
+	private static int firstContaining(float[][] xs, float[][] ys, float x,
+			float y) {
+		for (int p = 0; p < xs.length; p++) {
+			float[] px = xs[p];
+			float[] py = ys[p];
+			boolean c = false;
+			for (int i = 0, j = px.length - 1; i < px.length; j = i++) {
+				if ((((py[i] <= y) && (y < py[j])) || ((py[j] <= y) && (y < py[i])))
+						&& (x < (px[j] - px[i]) * (y - py[i]) / (py[j] - py[i])
+								+ px[i])) {
+					c = !c;
+				}
+			}
+			if (c) {
+				return p;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,64 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.collaboration;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.Timer;
+
+/**
+ * Runs a send at most once an interval, for events that come faster than
+ * they are worth sending, such as indications while the mouse moves. The
+ * first request runs the send at once; requests within the interval after
+ * it are folded into one run when the interval is up, so the send, which
+ * reads the latest state, is never left behind. It is used on the event
+ * dispatch thread, where the events arrive and the timer fires.
+ */
+final class EventThrottle implements ActionListener {
+	private final Runnable send;
+	private final int interval;
+	private final Timer timer;
+	private long lastSent;
+
+	EventThrottle(int interval, Runnable send) {
+		this.interval = interval;
+		this.send = send;
+		timer = new Timer(interval, this);
+		timer.setRepeats(false);
+	}
+
+	/**
+	 * Asks for the send to run, now or when the interval is up.
+	 */
+	void request() {
+		if (timer.isRunning()) {
+			return;
+		}
+		long wait = lastSent + interval - System.currentTimeMillis();
+		if (wait <= 0) {
+			run();
+		} else {
+			timer.setInitialDelay((int) wait);
+			timer.start();
+		}
+	}
+
+	/**
+	 * Drops any send waiting for the interval.
+	 */
+	void cancel() {
+		timer.stop();
+	}
+
+	public void actionPerformed(ActionEvent e) {
+		run();
+	}
+
+	private void run() {
+		lastSent = System.currentTimeMillis();
+		send.run();
+	}
+}
@@ -44,6 +44,8 @@ import org.jivesoftware.smack.packet.PacketExtension;
 
 import geovista.common.event.AnnotationEvent;
 import geovista.common.event.AnnotationListener;
+import geovista.common.event.IndicationEvent;
+import geovista.common.event.IndicationListener;
 import geovista.common.event.SelectionEvent;
 import geovista.common.event.SelectionListener;
 import geovista.common.event.SpatialExtentEvent;
@@ -52,8 +54,8 @@ import geovista.common.event.SubspaceEvent;
 import geovista.common.event.SubspaceListener;
 
 public class GeoJabber extends JPanel implements SelectionListener,
-		SpatialExtentListener, SubspaceListener, ActionListener,
-		MessageReceiver, ConnectionListener, PacketListener {
+		SpatialExtentListener, SubspaceListener, IndicationListener,
+		ActionListener, MessageReceiver, ConnectionListener, PacketListener {
 
 	JPanel connectPanel;
 	ChatPanel chatPanel;
@@ -84,6 +86,30 @@ public class GeoJabber extends JPanel implements SelectionListener,
 	int[] selection;
 	Rectangle2D spatialExtent;
 	int[] subspace;
+	int indication = -1;
+
+	// the shortest time between sends while leading, in milliseconds
+	static final int SEND_INTERVAL = 100;
+	final SelectionSync selectionSync = new SelectionSync();
+	private final EventThrottle selectionThrottle = new EventThrottle(
+			SEND_INTERVAL, new Runnable() {
+				public void run() {
+					sendRemoteSelection();
+				}
+			});
+	private final EventThrottle spatialExtentThrottle = new EventThrottle(
+			SEND_INTERVAL, new Runnable() {
+				public void run() {
+					sendRemoteSpatialExtent();
+				}
+			});
+	private final EventThrottle indicationThrottle = new EventThrottle(
+			SEND_INTERVAL, new Runnable() {
+				public void run() {
+					sendExtension(JabberUtils
+							.makeIndicationExtension(indication));
+				}
+			});
 
 	private final String serverName = "localhost"; // XXX total hack
 
@@ -291,7 +317,7 @@ public class GeoJabber extends JPanel implements SelectionListener,
 			return;
 		}
 
-		sendExtension(JabberUtils.makeSelectionExtension(selection));
+		sendExtension(selectionSync.makeSelectionExtension(selection));
 
 	}
 
@@ -443,6 +469,9 @@ public class GeoJabber extends JPanel implements SelectionListener,
 
 		spatialExtent = e.getSpatialExtent();
 		savedEvent = e;
+		if (isLeading()) {
+			spatialExtentThrottle.request();
+		}
 	}
 
 	public void subspaceChanged(SubspaceEvent e) {
@@ -455,7 +484,26 @@ public class GeoJabber extends JPanel implements SelectionListener,
 	public void selectionChanged(SelectionEvent e) {
 		// store for later broadcast
 		selection = e.getSelection();
+		if (isLeading()) {
+			selectionThrottle.request();
+		}
+
+	}
 
+	public void indicationChanged(IndicationEvent e) {
+		indication = e.getIndication();
+		if (isLeading()) {
+			indicationThrottle.request();
+		}
+	}
+
+	/**
+	 * Whether local events go straight to our friend, as they happen, at
+	 * most one of a kind each SEND_INTERVAL.
+	 */
+	private boolean isLeading() {
+		return followerState == JabberUtils.STATE_LEADER && conn != null
+				&& conn.isAuthenticated();
 	}
 
 	public SelectionEvent getSelectionEvent() {
@@ -640,6 +688,27 @@ public class GeoJabber extends JPanel implements SelectionListener,
 
 	}
 
+	public void addIndicationListener(IndicationListener l) {
+		listenerList.add(IndicationListener.class, l);
+	}
+
+	public void removeIndicationListener(IndicationListener l) {
+		listenerList.remove(IndicationListener.class, l);
+	}
+
+	protected void fireIndicationChanged(int newIndication) {
+		Object[] listeners = listenerList.getListenerList();
+		IndicationEvent e = null;
+		for (int i = listeners.length - 2; i >= 0; i -= 2) {
+			if (listeners[i] == IndicationListener.class) {
+				if (e == null) {
+					e = new IndicationEvent(this, newIndication);
+				}
+				((IndicationListener) listeners[i + 1]).indicationChanged(e);
+			}
+		}
+	}
+
 	// Add Subspace Changed Listener
 	public void addSubspaceListener(SubspaceListener l) {
 		listenerList.add(SubspaceListener.class, l);
@@ -714,6 +783,19 @@ public class GeoJabber extends JPanel implements SelectionListener,
 
 			logger.info("Body = " + msg.getBody());
 		}
+		// acknowledgements of selections we sent count whatever our state
+		for (Object obj : pack.getExtensions()) {
+			if (obj instanceof DefaultPacketExtension
+					&& ((DefaultPacketExtension) obj).getElementName().equals(
+							JabberUtils.SELECTION_ACK_ELEMENT_NAME)) {
+				DefaultPacketExtension resend = selectionSync
+						.readAck((DefaultPacketExtension) obj);
+				if (resend != null) {
+					// the follower lost the selection; send it whole now
+					sendExtension(resend);
+				}
+			}
+		}
 		if (followerState == JabberUtils.STATE_LEADER
 				|| followerState == JabberUtils.STATE_NEITHER) {
 			if (GeoJabber.logger.isLoggable(Level.FINEST)) {
@@ -746,9 +828,17 @@ public class GeoJabber extends JPanel implements SelectionListener,
 				String elementName = ext.getElementName();
 				if (elementName.equals(JabberUtils.SELECTION_ELEMENT_NAME)) {
 					logger.info("got selection packet");
-					selection = JabberUtils.getSelection(ext);
-					fireSelectionChanged(selection);// send along to
-					// local listeners
+					int[] newSelection = selectionSync.readSelection(ext);
+					sendExtension(selectionSync.makeAckExtension());
+					if (newSelection != null) {
+						selection = newSelection;
+						fireSelectionChanged(selection);// send along to
+						// local listeners
+					}
+				} else if (elementName
+						.equals(JabberUtils.INDICATION_ELEMENT_NAME)) {
+					indication = JabberUtils.getIndication(ext);
+					fireIndicationChanged(indication);
 				} else if (elementName
 						.equals(JabberUtils.SPATIAL_EXTENT_ELEMENT_NAME)) {
 					spatialExtent = JabberUtils.getSpatialExtent(ext);
@@ -5,6 +5,7 @@
 package geovista.collaboration;
 
 import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import org.jivesoftware.smack.AccountManager;
@@ -13,15 +14,24 @@ import org.jivesoftware.smack.Roster;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.DefaultPacketExtension;
+import org.jivesoftware.smack.util.StringUtils;
 
 public abstract class JabberUtils {
 	public static final String SELECTION_ELEMENT_NAME = "Selection";
+	public static final String SELECTION_ACK_ELEMENT_NAME = "SelectionAck";
+	public static final String INDICATION_ELEMENT_NAME = "Indication";
 	public static final String SUBSPACE_ELEMENT_NAME = "Subspace";
 	public static final String SPATIAL_EXTENT_ELEMENT_NAME = "SpatialExtent";
 	public static final String MESSAGE_ELEMENT_NAME = "MessageElement";
 	public static final String MARSHALED_COMPONENT_ELEMENT_NAME = "MarshaledComponent";
 	public static final String DEFAULT_NAMESPACE = "geoviz";
 	public static final String LENGTH_STRING = "length";
+	public static final String DATA_STRING = "data";
+	public static final String SEQUENCE_STRING = "sequence";
+	public static final String BASE_STRING = "base";
+	public static final String ADDED_STRING = "added";
+	public static final String REMOVED_STRING = "removed";
+	public static final String INDICATION_STRING = "indication";
 	public static final String MARSHALLED_COMPONENT_XML_STRING = "ComponentXML";
 	public static final String MESSAGE_BODY_STRING = "MessageBody";
 	public static final int STATE_LEADER = 2;// don't apply packets
@@ -30,6 +40,13 @@ public abstract class JabberUtils {
 	public static final int DEFAULT_PORT = 80;// my favorite port
 	final static Logger logger = Logger.getLogger(JabberUtils.class.getName());
 
+	// how a set of ids is packed, in the first byte: the gaps between
+	// them, the gaps between runs of them and the runs' lengths, or a bit
+	// for each id up to the largest
+	static final byte PACKED_GAPS = 0;
+	static final byte PACKED_RUNS = 1;
+	static final byte PACKED_BITS = 2;
+
 	public static boolean login(XMPPConnection conn, String username,
 			String password) {
 
@@ -99,22 +116,29 @@ public abstract class JabberUtils {
 		return true;
 	}
 
+	/**
+	 * Puts the selection in a single element, packed by encodeIds, rather
+	 * than an element for each id. The order of the ids is not kept.
+	 */
 	public static DefaultPacketExtension makeSelectionExtension(int[] selection) {
 		DefaultPacketExtension ext = new DefaultPacketExtension(
 				JabberUtils.SELECTION_ELEMENT_NAME,
 				JabberUtils.DEFAULT_NAMESPACE);
-		for (int i = 0; i < selection.length; i++) {
-			// d for data. we need to start with a string, else connection
-			// closes on sending
-			ext.setValue("D" + Integer.toString(i), Integer
-					.toString(selection[i]));
-		}
-		ext.setValue(JabberUtils.LENGTH_STRING, Integer
-				.toString(selection.length));
+		int[] ids = sortedIds(selection);
+		ext.setValue(JabberUtils.DATA_STRING, encodeIds(ids));
+		ext.setValue(JabberUtils.LENGTH_STRING, Integer.toString(ids.length));
 		return ext;
 	}
 
+	/**
+	 * Reads a selection made by makeSelectionExtension, in order of id, or
+	 * one with an element for each id, as sent before.
+	 */
 	public static int[] getSelection(DefaultPacketExtension ext) {
+		String data = ext.getValue(JabberUtils.DATA_STRING);
+		if (data != null) {
+			return decodeIds(data);
+		}
 		String length = ext.getValue(JabberUtils.LENGTH_STRING);
 		Integer len = Integer.valueOf(length);
 		int[] vals = new int[len.intValue()];
@@ -127,6 +151,163 @@ public abstract class JabberUtils {
 		return vals;
 	}
 
+	/**
+	 * The ids, in order, without repeats.
+	 */
+	public static int[] sortedIds(int[] ids) {
+		int[] sorted = ids.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (n == 0 || sorted[i] != sorted[n - 1]) {
+				sorted[n++] = sorted[i];
+			}
+		}
+		if (n > 0 && sorted[0] < 0) {
+			throw new IllegalArgumentException("negative id " + sorted[0]);
+		}
+		return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+	}
+
+	/**
+	 * Packs ids, in order and without repeats, into base 64 text: as
+	 * variable length gaps between them, as gaps and lengths of runs of
+	 * consecutive ids, or as a bit set, whichever is shortest. A selection
+	 * of a few scattered ids takes a byte or two each, a selection of
+	 * whole stretches a few bytes a stretch, and any selection at most a
+	 * bit for each id.
+	 */
+	public static String encodeIds(int[] sortedIds) {
+		return StringUtils.encodeBase64(packIds(sortedIds), false);
+	}
+
+	/**
+	 * Reads ids packed by encodeIds, in order.
+	 */
+	public static int[] decodeIds(String encoded) {
+		return unpackIds(StringUtils.decodeBase64(encoded));
+	}
+
+	static byte[] packIds(int[] ids) {
+		int n = ids.length;
+		int gapBytes = 0;
+		int runBytes = 0;
+		int runStart = 0;
+		for (int i = 0; i < n; i++) {
+			int previous = i == 0 ? -1 : ids[i - 1];
+			gapBytes += varintLength(ids[i] - previous - 1);
+			if (i + 1 == n || ids[i + 1] != ids[i] + 1) {
+				int before = runStart == 0 ? -1 : ids[runStart - 1];
+				runBytes += varintLength(ids[runStart] - before - 1)
+						+ varintLength(i - runStart);
+				runStart = i + 1;
+			}
+		}
+		int bitBytes = n == 0 ? 0 : ids[n - 1] / 8 + 1;
+
+		byte[] packed;
+		if (bitBytes < gapBytes && bitBytes < runBytes) {
+			packed = new byte[1 + bitBytes];
+			packed[0] = PACKED_BITS;
+			for (int id : ids) {
+				packed[1 + id / 8] |= 1 << (id % 8);
+			}
+		} else if (runBytes < gapBytes) {
+			packed = new byte[1 + runBytes];
+			packed[0] = PACKED_RUNS;
+			int pos = 1;
+			runStart = 0;
+			for (int i = 0; i < n; i++) {
+				if (i + 1 == n || ids[i + 1] != ids[i] + 1) {
+					int before = runStart == 0 ? -1 : ids[runStart - 1];
+					pos = writeVarint(packed, pos, ids[runStart] - before - 1);
+					pos = writeVarint(packed, pos, i - runStart);
+					runStart = i + 1;
+				}
+			}
+		} else {
+			packed = new byte[1 + gapBytes];
+			packed[0] = PACKED_GAPS;
+			int pos = 1;
+			for (int i = 0; i < n; i++) {
+				int previous = i == 0 ? -1 : ids[i - 1];
+				pos = writeVarint(packed, pos, ids[i] - previous - 1);
+			}
+		}
+		return packed;
+	}
+
+	static int[] unpackIds(byte[] packed) {
+		if (packed == null || packed.length == 0) {
+			throw new IllegalArgumentException("no packed ids");
+		}
+		int[] ids = new int[Math.max(16, packed.length)];
+		int n = 0;
+		if (packed[0] == PACKED_BITS) {
+			for (int b = 1; b < packed.length; b++) {
+				for (int bit = 0; bit < 8; bit++) {
+					if ((packed[b] & (1 << bit)) != 0) {
+						if (n == ids.length) {
+							ids = Arrays.copyOf(ids, 2 * n);
+						}
+						ids[n++] = (b - 1) * 8 + bit;
+					}
+				}
+			}
+			return Arrays.copyOf(ids, n);
+		}
+		if (packed[0] != PACKED_GAPS && packed[0] != PACKED_RUNS) {
+			throw new IllegalArgumentException("unknown packing " + packed[0]);
+		}
+		int[] pos = { 1 };
+		int previous = -1;
+		while (pos[0] < packed.length) {
+			int first = previous + 1 + readVarint(packed, pos);
+			int length = packed[0] == PACKED_RUNS ? readVarint(packed, pos) + 1
+					: 1;
+			if (n + length > ids.length) {
+				ids = Arrays.copyOf(ids, Math.max(2 * ids.length, n + length));
+			}
+			for (int k = 0; k < length; k++) {
+				ids[n++] = first + k;
+			}
+			previous = first + length - 1;
+		}
+		return Arrays.copyOf(ids, n);
+	}
+
+	private static int varintLength(int value) {
+		int length = 1;
+		while ((value >>>= 7) != 0) {
+			length++;
+		}
+		return length;
+	}
+
+	private static int writeVarint(byte[] bytes, int pos, int value) {
+		while ((value & ~0x7f) != 0) {
+			bytes[pos++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		bytes[pos++] = (byte) value;
+		return pos;
+	}
+
+	private static int readVarint(byte[] bytes, int[] pos) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (pos[0] >= bytes.length) {
+				break;
+			}
+			byte b = bytes[pos[0]++];
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("truncated packed ids");
+	}
+
 	public static DefaultPacketExtension makeSubspaceExtension(int[] subspace) {
 		DefaultPacketExtension ext = new DefaultPacketExtension(
 				JabberUtils.SUBSPACE_ELEMENT_NAME,
@@ -200,6 +381,19 @@ public abstract class JabberUtils {
 		return new Rectangle2D.Double(x, y, width, height);
 	}
 
+	public static DefaultPacketExtension makeIndicationExtension(int indication) {
+		DefaultPacketExtension ext = new DefaultPacketExtension(
+				JabberUtils.INDICATION_ELEMENT_NAME,
+				JabberUtils.DEFAULT_NAMESPACE);
+		ext.setValue(JabberUtils.INDICATION_STRING, Integer
+				.toString(indication));
+		return ext;
+	}
+
+	public static int getIndication(DefaultPacketExtension ext) {
+		return Integer.parseInt(ext.getValue(JabberUtils.INDICATION_STRING));
+	}
+
 	public static DefaultPacketExtension makeMessageExtension(String message) {
 		DefaultPacketExtension ext = new DefaultPacketExtension(
 				JabberUtils.MESSAGE_ELEMENT_NAME, JabberUtils.DEFAULT_NAMESPACE);
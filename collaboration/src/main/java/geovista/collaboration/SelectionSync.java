@@ -0,0 +1,232 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.collaboration;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.packet.DefaultPacketExtension;
+
+/**
+ * Keeps a selection in step between two GeoJabbers by sending only what
+ * changed. Each selection sent is numbered, and the follower acknowledges
+ * the numbers it has applied. Once a selection has been acknowledged, the
+ * next ones go as the ids added to it and removed from it, when that is
+ * shorter than the whole selection; until then, the whole selection goes.
+ * When the follower has lost the selection a change is against, it
+ * acknowledges 0, and the leader sends the current selection whole at once
+ * rather than waiting for the next change.
+ *
+ * The leader uses makeSelectionExtension and readAck, the follower
+ * readSelection and makeAckExtension. The packing is that of
+ * JabberUtils.encodeIds.
+ */
+public class SelectionSync {
+	// selections kept by either side for changes to be made against
+	static final int KEPT_SELECTIONS = 8;
+
+	final static Logger logger = Logger.getLogger(SelectionSync.class
+			.getName());
+
+	// leading: the selections sent and not yet acknowledged, by number
+	private final Map<Integer, int[]> sent = new LinkedHashMap<Integer, int[]>();
+	private int nextSequence = 1;
+	private int ackedSequence;
+	private int[] ackedSelection;
+	// the selection last sent
+	private int[] current;
+
+	// following: the selections applied, by number
+	private final Map<Integer, int[]> received = new LinkedHashMap<Integer, int[]>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+			return size() > KEPT_SELECTIONS;
+		}
+	};
+	private int lastApplied;
+
+	/**
+	 * The extension to send for a new selection: whole, or as the change
+	 * from the selection last acknowledged.
+	 */
+	public synchronized DefaultPacketExtension makeSelectionExtension(
+			int[] selection) {
+		int[] ids = JabberUtils.sortedIds(selection);
+		current = ids;
+		int sequence = nextSequence++;
+		sent.put(sequence, ids);
+		if (sent.size() > KEPT_SELECTIONS) {
+			Iterator<Integer> it = sent.keySet().iterator();
+			it.next();
+			it.remove();
+		}
+
+		DefaultPacketExtension ext = JabberUtils.makeSelectionExtension(ids);
+		ext.setValue(JabberUtils.SEQUENCE_STRING, Integer.toString(sequence));
+		if (ackedSelection == null) {
+			return ext;
+		}
+		int[][] change = findChange(ackedSelection, ids);
+		String added = JabberUtils.encodeIds(change[0]);
+		String removed = JabberUtils.encodeIds(change[1]);
+		if (added.length() + removed.length() >= ext.getValue(
+				JabberUtils.DATA_STRING).length()) {
+			return ext;
+		}
+		DefaultPacketExtension delta = new DefaultPacketExtension(
+				JabberUtils.SELECTION_ELEMENT_NAME,
+				JabberUtils.DEFAULT_NAMESPACE);
+		delta.setValue(JabberUtils.SEQUENCE_STRING, Integer.toString(sequence));
+		delta.setValue(JabberUtils.BASE_STRING, Integer.toString(ackedSequence));
+		delta.setValue(JabberUtils.ADDED_STRING, added);
+		delta.setValue(JabberUtils.REMOVED_STRING, removed);
+		delta.setValue(JabberUtils.LENGTH_STRING, Integer.toString(ids.length));
+		return delta;
+	}
+
+	/**
+	 * Takes note that the follower has applied a selection, so later ones
+	 * can go as changes to it. An acknowledgement of 0 means the follower
+	 * could not apply a change and has none to change; then the current
+	 * selection is returned, whole, to be sent straight away. Otherwise
+	 * returns null.
+	 */
+	public synchronized DefaultPacketExtension readAck(
+			DefaultPacketExtension ext) {
+		int sequence = Integer.parseInt(ext
+				.getValue(JabberUtils.SEQUENCE_STRING));
+		if (sequence == 0) {
+			ackedSequence = 0;
+			ackedSelection = null;
+			if (current == null) {
+				return null;
+			}
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("follower lost the selection, sending it whole");
+			}
+			return makeSelectionExtension(current);
+		}
+		if (sequence <= ackedSequence || !sent.containsKey(sequence)) {
+			return null;
+		}
+		ackedSequence = sequence;
+		ackedSelection = sent.get(sequence);
+		// older selections will not be changed against again
+		Iterator<Integer> it = sent.keySet().iterator();
+		while (it.hasNext() && it.next() < sequence) {
+			it.remove();
+		}
+		return null;
+	}
+
+	/**
+	 * The selection sent, in order of id, or null if it is a change to a
+	 * selection this side no longer has.
+	 */
+	public synchronized int[] readSelection(DefaultPacketExtension ext) {
+		String seqValue = ext.getValue(JabberUtils.SEQUENCE_STRING);
+		String baseValue = ext.getValue(JabberUtils.BASE_STRING);
+		if (baseValue == null) {
+			int[] selection = JabberUtils.getSelection(ext);
+			if (seqValue != null) {
+				int sequence = Integer.parseInt(seqValue);
+				received.put(sequence, selection);
+				lastApplied = sequence;
+			}
+			return selection;
+		}
+		int sequence = Integer.parseInt(seqValue);
+		int[] base = received.get(Integer.valueOf(baseValue));
+		int length = Integer.parseInt(ext.getValue(JabberUtils.LENGTH_STRING));
+		int[] selection = null;
+		if (base != null) {
+			selection = applyChange(base, JabberUtils.decodeIds(ext
+					.getValue(JabberUtils.ADDED_STRING)), JabberUtils
+					.decodeIds(ext.getValue(JabberUtils.REMOVED_STRING)));
+		}
+		if (selection == null || selection.length != length) {
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("cannot apply change " + sequence + " to "
+						+ baseValue + ", asking for the whole selection");
+			}
+			lastApplied = 0;
+			return null;
+		}
+		received.put(sequence, selection);
+		lastApplied = sequence;
+		return selection;
+	}
+
+	/**
+	 * The acknowledgement of the selection last read, or 0 if it could not
+	 * be applied.
+	 */
+	public synchronized DefaultPacketExtension makeAckExtension() {
+		DefaultPacketExtension ext = new DefaultPacketExtension(
+				JabberUtils.SELECTION_ACK_ELEMENT_NAME,
+				JabberUtils.DEFAULT_NAMESPACE);
+		ext.setValue(JabberUtils.SEQUENCE_STRING, Integer.toString(lastApplied));
+		return ext;
+	}
+
+	/**
+	 * The ids in to and not from, and those in from and not to, both in
+	 * order.
+	 */
+	static int[][] findChange(int[] from, int[] to) {
+		int[] added = new int[to.length];
+		int[] removed = new int[from.length];
+		int nAdded = 0;
+		int nRemoved = 0;
+		int i = 0;
+		int j = 0;
+		while (i < from.length || j < to.length) {
+			if (j == to.length || i < from.length && from[i] < to[j]) {
+				removed[nRemoved++] = from[i++];
+			} else if (i == from.length || to[j] < from[i]) {
+				added[nAdded++] = to[j++];
+			} else {
+				i++;
+				j++;
+			}
+		}
+		int[][] change = { new int[nAdded], new int[nRemoved] };
+		System.arraycopy(added, 0, change[0], 0, nAdded);
+		System.arraycopy(removed, 0, change[1], 0, nRemoved);
+		return change;
+	}
+
+	/**
+	 * The ids of base with those added and without those removed, in
+	 * order.
+	 */
+	static int[] applyChange(int[] base, int[] added, int[] removed) {
+		int[] ids = new int[base.length + added.length];
+		int n = 0;
+		int a = 0;
+		int r = 0;
+		for (int id : base) {
+			while (a < added.length && added[a] < id) {
+				ids[n++] = added[a++];
+			}
+			while (r < removed.length && removed[r] < id) {
+				r++;
+			}
+			if (r < removed.length && removed[r] == id) {
+				continue;
+			}
+			ids[n++] = id;
+		}
+		while (a < added.length) {
+			ids[n++] = added[a++];
+		}
+		int[] selection = new int[n];
+		System.arraycopy(ids, 0, selection, 0, n);
+		return selection;
+	}
+}
@@ -0,0 +1,306 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.collaboration;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+import org.jivesoftware.smack.packet.DefaultPacketExtension;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+
+public class SelectionSyncTest extends TestCase {
+
+	final static Logger logger = Logger.getLogger(SelectionSyncTest.class
+			.getName());
+
+	private static final int OBSERVATIONS = 30000;
+
+	public void testPackingRoundTrips() {
+		Random rand = new Random(1);
+		double[] densities = { 0, 0.001, 0.05, 0.5, 0.99, 1 };
+		for (double density : densities) {
+			for (int trial = 0; trial < 20; trial++) {
+				int n = 1 + rand.nextInt(5000);
+				int[] ids = makeSelection(n, density, rand);
+				int[] sorted = JabberUtils.sortedIds(ids);
+				assertTrue(Arrays.equals(sorted, JabberUtils
+						.decodeIds(JabberUtils.encodeIds(sorted))));
+			}
+		}
+		int[] far = { 0, 127, 128, 16383, 16384, Integer.MAX_VALUE };
+		assertTrue(Arrays.equals(far, JabberUtils.decodeIds(JabberUtils
+				.encodeIds(far))));
+
+		// repeats and order are not kept
+		int[] got = JabberUtils.getSelection(JabberUtils
+				.makeSelectionExtension(new int[] { 9, 3, 9, 4 }));
+		assertTrue(Arrays.equals(new int[] { 3, 4, 9 }, got));
+	}
+
+	public void testReadsOldSelections() {
+		DefaultPacketExtension ext = new DefaultPacketExtension(
+				JabberUtils.SELECTION_ELEMENT_NAME,
+				JabberUtils.DEFAULT_NAMESPACE);
+		int[] ids = { 5, 2, 7 };
+		for (int i = 0; i < ids.length; i++) {
+			ext.setValue("D" + i, Integer.toString(ids[i]));
+		}
+		ext.setValue(JabberUtils.LENGTH_STRING, "3");
+		assertTrue(Arrays.equals(ids, JabberUtils.getSelection(ext)));
+	}
+
+	public void testSendsChangesOnceAcknowledged() throws Exception {
+		Random rand = new Random(2);
+		SelectionSync leader = new SelectionSync();
+		SelectionSync follower = new SelectionSync();
+		Loopback loop = new Loopback();
+
+		int[] selection = makeSelection(OBSERVATIONS, 0.3, rand);
+		DefaultPacketExtension first = loop.send(leader
+				.makeSelectionExtension(selection));
+		assertNull(first.getValue(JabberUtils.BASE_STRING));
+		int[] got = follower.readSelection(first);
+		assertTrue(Arrays.equals(JabberUtils.sortedIds(selection), got));
+
+		// not yet acknowledged, so whole again
+		int[] changed = change(selection, rand);
+		DefaultPacketExtension second = loop.send(leader
+				.makeSelectionExtension(changed));
+		assertNull(second.getValue(JabberUtils.BASE_STRING));
+		assertTrue(Arrays.equals(JabberUtils.sortedIds(changed), follower
+				.readSelection(second)));
+		leader.readAck(loop.send(follower.makeAckExtension()));
+
+		for (int i = 0; i < 10; i++) {
+			changed = change(changed, rand);
+			DefaultPacketExtension delta = loop.send(leader
+					.makeSelectionExtension(changed));
+			assertNotNull(delta.getValue(JabberUtils.BASE_STRING));
+			assertTrue(Arrays.equals(JabberUtils.sortedIds(changed), follower
+					.readSelection(delta)));
+			// acknowledge only some
+			if (i % 3 == 0) {
+				leader.readAck(loop.send(follower.makeAckExtension()));
+			}
+		}
+	}
+
+	public void testLostSelectionIsSentWhole() throws Exception {
+		Random rand = new Random(3);
+		SelectionSync leader = new SelectionSync();
+		SelectionSync follower = new SelectionSync();
+		int[] selection = makeSelection(1000, 0.5, rand);
+		follower.readSelection(leader.makeSelectionExtension(selection));
+		leader.readAck(follower.makeAckExtension());
+
+		// as if the follower had started again
+		SelectionSync restarted = new SelectionSync();
+		selection = change(selection, rand);
+		DefaultPacketExtension delta = leader.makeSelectionExtension(selection);
+		assertNotNull(delta.getValue(JabberUtils.BASE_STRING));
+		assertNull(restarted.readSelection(delta));
+		DefaultPacketExtension ack = restarted.makeAckExtension();
+		assertEquals("0", ack.getValue(JabberUtils.SEQUENCE_STRING));
+
+		// the current selection comes back whole at once, without waiting
+		// for the next change
+		DefaultPacketExtension resent = leader.readAck(ack);
+		assertNotNull(resent);
+		assertNull(resent.getValue(JabberUtils.BASE_STRING));
+		assertTrue(Arrays.equals(JabberUtils.sortedIds(selection), restarted
+				.readSelection(resent)));
+
+		// until that is acknowledged, changes still go whole
+		selection = change(selection, rand);
+		DefaultPacketExtension whole = leader.makeSelectionExtension(selection);
+		assertNull(whole.getValue(JabberUtils.BASE_STRING));
+		assertTrue(Arrays.equals(JabberUtils.sortedIds(selection), restarted
+				.readSelection(whole)));
+		assertNull(leader.readAck(restarted.makeAckExtension()));
+
+		// and after, as changes again
+		selection = change(selection, rand);
+		delta = leader.makeSelectionExtension(selection);
+		assertNotNull(delta.getValue(JabberUtils.BASE_STRING));
+		assertTrue(Arrays.equals(JabberUtils.sortedIds(selection), restarted
+				.readSelection(delta)));
+
+		// nothing to resend before anything was sent
+		assertNull(new SelectionSync().readAck(ack));
+	}
+
+	/**
+	 * A 30000 observation selection, then brushing, through the loopback:
+	 * bytes and time for each event, sent as before and as now.
+	 */
+	public void testLoopbackBytesAndLatency() throws Exception {
+		Random rand = new Random(4);
+		int[] selection = makeSelection(OBSERVATIONS, 0.5, rand);
+		int events = 20;
+
+		Loopback old = new Loopback();
+		for (int i = 0; i < events; i++) {
+			long start = System.nanoTime();
+			DefaultPacketExtension ext = old
+					.send(makeOldSelectionExtension(selection));
+			int[] got = JabberUtils.getSelection(ext);
+			old.nanos += System.nanoTime() - start;
+			assertEquals(selection.length, got.length);
+		}
+
+		SelectionSync leader = new SelectionSync();
+		SelectionSync follower = new SelectionSync();
+		Loopback whole = new Loopback();
+		Loopback brushed = new Loopback();
+		Loopback acks = new Loopback();
+		int[] current = selection;
+		for (int i = 0; i < events; i++) {
+			Loopback loop = i == 0 ? whole : brushed;
+			long start = System.nanoTime();
+			DefaultPacketExtension ext = loop.send(leader
+					.makeSelectionExtension(current));
+			int[] got = follower.readSelection(ext);
+			loop.nanos += System.nanoTime() - start;
+			leader.readAck(acks.send(follower.makeAckExtension()));
+			assertTrue(Arrays.equals(JabberUtils.sortedIds(current), got));
+			current = change(current, rand);
+		}
+		// after warming up, the first whole one again
+		Loopback again = new Loopback();
+		long start = System.nanoTime();
+		new SelectionSync().readSelection(again.send(JabberUtils
+				.makeSelectionExtension(selection)));
+		again.nanos = System.nanoTime() - start;
+
+		logger.info(OBSERVATIONS + " observations, half selected. "
+				+ "an element an id: " + old.report() + "; packed, whole: "
+				+ again.report() + "; changes while brushing: "
+				+ brushed.report() + "; acknowledgements: "
+				+ (acks.bytes / acks.messages) + " bytes");
+		assertTrue(again.bytes * 10 < old.bytes / old.messages);
+		assertTrue(brushed.bytes / brushed.messages < again.bytes);
+	}
+
+	public void testThrottleSendsLatest() throws Exception {
+		final AtomicInteger sends = new AtomicInteger();
+		final AtomicInteger state = new AtomicInteger();
+		final AtomicInteger lastSent = new AtomicInteger(-1);
+		final EventThrottle throttle = new EventThrottle(50, new Runnable() {
+			public void run() {
+				sends.incrementAndGet();
+				lastSent.set(state.get());
+			}
+		});
+		Runnable request = new Runnable() {
+			public void run() {
+				throttle.request();
+			}
+		};
+		long start = System.currentTimeMillis();
+		int requests = 0;
+		while (System.currentTimeMillis() - start < 300) {
+			state.set(requests++);
+			SwingUtilities.invokeAndWait(request);
+			Thread.sleep(1);
+		}
+		long took = System.currentTimeMillis() - start;
+		Thread.sleep(200);
+		logger.info(requests + " requests in " + took + " ms, " + sends.get()
+				+ " sends");
+		assertTrue(sends.get() <= took / 50 + 2);
+		assertEquals(requests - 1, lastSent.get());
+	}
+
+	/**
+	 * Sends extensions as GeoJabber does, in a message, through its XML
+	 * and Smack's parser, counting the bytes.
+	 */
+	private static class Loopback {
+		long bytes;
+		long nanos;
+		int messages;
+
+		DefaultPacketExtension send(DefaultPacketExtension ext)
+				throws Exception {
+			Message msg = new Message("follower@localhost");
+			msg.setBody("extension");
+			msg.addExtension(ext);
+			byte[] wire = msg.toXML().getBytes("UTF-8");
+			bytes += wire.length;
+			messages++;
+
+			XmlPullParser parser = new MXParser();
+			parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+			parser.setInput(new ByteArrayInputStream(wire), "UTF-8");
+			parser.next();
+			Message received = (Message) PacketParserUtils
+					.parseMessage(parser);
+			return (DefaultPacketExtension) received.getExtension(ext
+					.getElementName(), ext.getNamespace());
+		}
+
+		String report() {
+			return (bytes / messages) + " bytes, "
+					+ (nanos / messages / 1000) + " us an event";
+		}
+	}
+
+	private static DefaultPacketExtension makeOldSelectionExtension(
+			int[] selection) {
+		DefaultPacketExtension ext = new DefaultPacketExtension(
+				JabberUtils.SELECTION_ELEMENT_NAME,
+				JabberUtils.DEFAULT_NAMESPACE);
+		for (int i = 0; i < selection.length; i++) {
+			ext.setValue("D" + Integer.toString(i), Integer
+					.toString(selection[i]));
+		}
+		ext.setValue(JabberUtils.LENGTH_STRING, Integer
+				.toString(selection.length));
+		return ext;
+	}
+
+	private static int[] makeSelection(int n, double density, Random rand) {
+		int[] ids = new int[n];
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			if (rand.nextDouble() < density) {
+				ids[count++] = i;
+			}
+		}
+		return Arrays.copyOf(ids, count);
+	}
+
+	/**
+	 * Brushing: a stretch of observations selected, another let go.
+	 */
+	private static int[] change(int[] selection, Random rand) {
+		boolean[] in = new boolean[OBSERVATIONS];
+		for (int id : selection) {
+			in[id] = true;
+		}
+		int from = rand.nextInt(OBSERVATIONS - 200);
+		Arrays.fill(in, from, from + 1 + rand.nextInt(200), true);
+		from = rand.nextInt(OBSERVATIONS - 200);
+		Arrays.fill(in, from, from + 1 + rand.nextInt(200), false);
+		int[] ids = new int[OBSERVATIONS];
+		int count = 0;
+		for (int i = 0; i < OBSERVATIONS; i++) {
+			if (in[i]) {
+				ids[count++] = i;
+			}
+		}
+		return Arrays.copyOf(ids, count);
+	}
+}
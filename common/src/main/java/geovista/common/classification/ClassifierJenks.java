@@ -36,7 +36,10 @@ import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class ClassifierJenks implements DescribedClassifier {
+import geovista.common.data.ColumnStatistics;
+
+public class ClassifierJenks implements DescribedClassifier,
+		ColumnStatisticsClassifier {
 	public static final String shortName = "Jenk's";
 	public static final String fullName = "Jenk's Optimal";
 	transient private int[] classification;
@@ -63,75 +66,55 @@ public class ClassifierJenks implements DescribedClassifier {
 		double[] sorteddata = new double[numdata];
 		System.arraycopy(data_, 0, sorteddata, 0, numdata);
 		Arrays.sort(sorteddata);
+		return getJenksBreaksSorted(sorteddata, numclass);
+	}
 
-		double[][] mat1 = new double[numdata + 1][numclass + 1];
-		double[][] mat2 = new double[numdata + 1][numclass + 1];
-
-		for (int i = 1; i <= numclass; i++) {
-			mat1[1][i] = 1;
-			mat2[1][i] = 0;
-			for (int j = 2; j <= numdata; j++) {
-				mat2[j][i] = Double.MAX_VALUE;
-			}
+	/**
+	 * Same as getJenksBreaks, for data that is already sorted ascending. NaNs,
+	 * which sort last, are left out.
+	 * 
+	 * Fisher's dynamic program, with two speedups that do not change the
+	 * answer: the sum of squared deviations of any run of values comes from
+	 * prefix sums in constant time, and since the best start of the last class
+	 * never moves left as the range grows, each class count is solved by
+	 * divide and conquer in O(n log n) rather than O(n^2).
+	 */
+	public static double[] getJenksBreaksSorted(double[] sorteddata,
+			int numclass) {
+		int numdata = sorteddata.length;
+		while (numdata > 0 && Double.isNaN(sorteddata[numdata - 1])) {
+			numdata--;
+		}
+		if (numdata == 0) {
+			return new double[numclass];
 		}
 
-		double ssd = 0;
-		for (int rangeEnd = 2; rangeEnd <= numdata; rangeEnd++) {
-			double sumX = 0;
-			double sumX2 = 0;
-			double w = 0;
-			int dataId;
-			for (int m = 1; m <= rangeEnd; m++) {
-				dataId = rangeEnd - m + 1;
-
-				double val = sorteddata[dataId - 1];
-				sumX2 += val * val;
-				sumX += val;
-				w++;
-				ssd = sumX2 - (sumX * sumX) / w;
-
-				for (int j = 2; j <= numclass; j++) {
-					if (!(mat2[rangeEnd][j] < (ssd + mat2[dataId - 1][j - 1]))) {
-						mat1[rangeEnd][j] = dataId;
-						mat2[rangeEnd][j] = ssd + mat2[dataId - 1][j - 1];
-					}
-
-				}
-
-			}
+		// prefix sums, shifted by the median to limit cancellation
+		double shift = sorteddata[(numdata - 1) / 2];
+		double[] sumX = new double[numdata + 1];
+		double[] sumX2 = new double[numdata + 1];
+		double[] count = new double[numdata + 1];
+		for (int i = 1; i <= numdata; i++) {
+			double val = sorteddata[i - 1] - shift;
+			sumX[i] = sumX[i - 1] + val;
+			sumX2[i] = sumX2[i - 1] + val * val;
+			count[i] = i;
+		}
 
-			mat1[rangeEnd][1] = 1;
-			mat2[rangeEnd][1] = ssd;
-		}
-
-		// logger.info("\nmat1:\n");
-		// for (int i=0; i< mat1.length; i++)
-		// {
-		// logger.info();
-		// for (int k=0; k< mat1[0].length; k++)
-		// System.out.print((float)mat1[i][k]+ "\t\t");
-		// }
-		// logger.info("\nmat2:\n");
-		// for (int i=0; i< mat2.length; i++)
-		// {
-		// logger.info();
-		// for (int k=0; k< mat2[0].length; k++)
-		// System.out.print((float)mat2[i][k]+ "\t\t");
-		// }
+		int nClasses = Math.min(numclass, numdata);
+		int[][] starts = findOptimalStarts(sumX, sumX2, count, numdata,
+				nClasses);
 
+		// the last break is the maximum value, as are those of any classes
+		// left empty for want of values
 		double[] kbreaks = new double[numclass];
-		kbreaks[numclass - 1] = sorteddata[numdata - 1]; // the last
-		// break is
-		// the
-		// maximum
-		// value
+		Arrays.fill(kbreaks, nClasses - 1, numclass, sorteddata[numdata - 1]);
 
 		// break value is included in the lower class.
 		int k = numdata;
-		for (int j = numclass; j >= 2; j--) {
-			int id = (int) (mat1[k][j]) - 2;
-			kbreaks[j - 2] = sorteddata[id];
-			k = (int) mat1[k][j] - 1;
+		for (int j = nClasses; j >= 2; j--) {
+			kbreaks[j - 2] = sorteddata[starts[j][k] - 2];
+			k = starts[j][k] - 1;
 		}
 
 		if (logger.isLoggable(Level.FINEST)) {
@@ -144,6 +127,170 @@ public class ClassifierJenks implements DescribedClassifier {
 		return kbreaks;
 	}
 
+	/**
+	 * Approximate breaks from an equal width histogram of nBins bins, so the
+	 * data is neither copied nor sorted. Breaks fall only between bins, and
+	 * the partition found is optimal among those.
+	 * 
+	 * Bound: with h = (max - min) / nBins and n values, the root mean square
+	 * deviation from class means is at most 2h more than that of the exact
+	 * Jenks breaks, because moving each value by at most h/2 changes the root
+	 * sum of squares of any partition by at most h/2 times the square root of
+	 * n. getApproximationBound returns h for a given column.
+	 */
+	public static double[] getJenksBreaksBinned(double[] data, int numclass,
+			int nBins) {
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (double val : data) {
+			if (val < min) {
+				min = val;
+			}
+			if (val > max) {
+				max = val;
+			}
+		}
+		if (min > max) {
+			return new double[numclass];
+		}
+		if (min == max) {
+			double[] kbreaks = new double[numclass];
+			Arrays.fill(kbreaks, max);
+			return kbreaks;
+		}
+
+		double shift = (min + max) / 2;
+		double scale = nBins / (max - min);
+		double[] binCount = new double[nBins];
+		double[] binSum = new double[nBins];
+		double[] binSum2 = new double[nBins];
+		double[] binMax = new double[nBins];
+		Arrays.fill(binMax, Double.NEGATIVE_INFINITY);
+		for (double val : data) {
+			if (Double.isNaN(val)) {
+				continue;
+			}
+			int bin = Math.min(nBins - 1, (int) ((val - min) * scale));
+			double shifted = val - shift;
+			binCount[bin]++;
+			binSum[bin] += shifted;
+			binSum2[bin] += shifted * shifted;
+			if (val > binMax[bin]) {
+				binMax[bin] = val;
+			}
+		}
+
+		// drop empty bins, then run the same program on the bins
+		int nUsed = 0;
+		double[] sumX = new double[nBins + 1];
+		double[] sumX2 = new double[nBins + 1];
+		double[] count = new double[nBins + 1];
+		double[] usedMax = new double[nBins];
+		for (int b = 0; b < nBins; b++) {
+			if (binCount[b] == 0) {
+				continue;
+			}
+			nUsed++;
+			sumX[nUsed] = sumX[nUsed - 1] + binSum[b];
+			sumX2[nUsed] = sumX2[nUsed - 1] + binSum2[b];
+			count[nUsed] = count[nUsed - 1] + binCount[b];
+			usedMax[nUsed - 1] = binMax[b];
+		}
+
+		int nClasses = Math.min(numclass, nUsed);
+		int[][] starts = findOptimalStarts(sumX, sumX2, count, nUsed,
+				nClasses);
+		double[] kbreaks = new double[numclass];
+		Arrays.fill(kbreaks, nClasses - 1, numclass, max);
+		int k = nUsed;
+		for (int j = nClasses; j >= 2; j--) {
+			kbreaks[j - 2] = usedMax[starts[j][k] - 2];
+			k = starts[j][k] - 1;
+		}
+		return kbreaks;
+	}
+
+	/**
+	 * The width h in the error bound of getJenksBreaksBinned.
+	 */
+	public static double getApproximationBound(double[] data, int nBins) {
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (double val : data) {
+			if (val < min) {
+				min = val;
+			}
+			if (val > max) {
+				max = val;
+			}
+		}
+		return min > max ? 0 : (max - min) / nBins;
+	}
+
+	/**
+	 * Runs the dynamic program over items 1..n, described by cumulative
+	 * weight, sum and sum of squares, and returns starts[j][m]: the first item
+	 * of the last class when items 1..m are split into j classes. Ties go to
+	 * the smallest start, as in the original Fisher code. No class may be
+	 * empty, so n must be at least numclass.
+	 */
+	private static int[][] findOptimalStarts(double[] sumX, double[] sumX2,
+			double[] count, int n, int numclass) {
+		int[][] starts = new int[numclass + 1][];
+		double[] prev = new double[n + 1];
+		double[] curr = new double[n + 1];
+		for (int m = 1; m <= n; m++) {
+			prev[m] = ssd(sumX, sumX2, count, 1, m);
+		}
+		// no items cannot make up a class
+		prev[0] = Double.POSITIVE_INFINITY;
+		curr[0] = Double.POSITIVE_INFINITY;
+		for (int j = 2; j <= numclass; j++) {
+			starts[j] = new int[n + 1];
+			if (n >= 1) {
+				fillClass(sumX, sumX2, count, prev, curr, starts[j], 1, n, 1, n);
+			}
+			double[] swap = prev;
+			prev = curr;
+			curr = swap;
+		}
+		return starts;
+	}
+
+	private static void fillClass(double[] sumX, double[] sumX2,
+			double[] count, double[] prev, double[] curr, int[] start, int lo,
+			int hi, int optLo, int optHi) {
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int last = Math.min(mid, optHi);
+			double best = Double.POSITIVE_INFINITY;
+			int bestStart = optLo;
+			for (int dataId = optLo; dataId <= last; dataId++) {
+				double cost = prev[dataId - 1]
+						+ ssd(sumX, sumX2, count, dataId, mid);
+				if (cost < best) {
+					best = cost;
+					bestStart = dataId;
+				}
+			}
+			curr[mid] = best;
+			start[mid] = bestStart;
+			// left half recursively, right half by looping
+			fillClass(sumX, sumX2, count, prev, curr, start, lo, mid - 1,
+					optLo, bestStart);
+			lo = mid + 1;
+			optLo = bestStart;
+		}
+	}
+
+	private static double ssd(double[] sumX, double[] sumX2, double[] count,
+			int from, int to) {
+		double w = count[to] - count[from - 1];
+		double s = sumX[to] - sumX[from - 1];
+		double ssd = sumX2[to] - sumX2[from - 1] - s * s / w;
+		return ssd > 0 ? ssd : 0;
+	}
+
 	public static void main(String[] args) {
 		double[] data = { 1, 1.5, 2, 4, 6, 7.1, 10 };
 		data = new double[12000];
@@ -161,6 +308,12 @@ public class ClassifierJenks implements DescribedClassifier {
 		}
 		logger.info("classifying " + data.length + " observations took "
 				+ ((end - start) / 1000000000f) + " seconds");
+
+		start = System.nanoTime();
+		classes = new ClassifierJenksApproximate().classify(data, 4);
+		end = System.nanoTime();
+		logger.info("approximate classifying took "
+				+ ((end - start) / 1000000000f) + " seconds");
 	}
 
 	public String getFullName() {
@@ -182,9 +335,25 @@ public class ClassifierJenks implements DescribedClassifier {
 		return classNum;
 	}
 
+	protected double[] findBreaks(double[] data, int numClasses) {
+		return ClassifierJenks.getJenksBreaks(data, numClasses);
+	}
+
+	protected double[] findBreaks(ColumnStatistics stats, int numClasses) {
+		return ClassifierJenks.getJenksBreaksSorted(stats.getSorted(),
+				numClasses);
+	}
+
 	public int[] classify(double[] data, int numClasses) {
+		return classify(data, findBreaks(data, numClasses));
+	}
+
+	public int[] classify(ColumnStatistics stats, int numClasses) {
+		return classify(stats.getData(), findBreaks(stats, numClasses));
+	}
+
+	private int[] classify(double[] data, double[] breaks) {
 		classification = new int[data.length];
-		double[] breaks = ClassifierJenks.getJenksBreaks(data, numClasses);
 
 		for (int i = 0; i < data.length; i++) {
 			double num = data[i];
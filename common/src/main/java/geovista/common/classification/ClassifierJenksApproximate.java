@@ -0,0 +1,59 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.classification;
+
+import geovista.common.data.ColumnStatistics;
+
+/**
+ * Jenks breaks computed from a histogram of the data rather than the sorted
+ * data, for columns too long to classify exactly at interactive speed. See
+ * ClassifierJenks.getJenksBreaksBinned for the error bound.
+ */
+public class ClassifierJenksApproximate extends ClassifierJenks {
+	public static final String shortName = "Jenk's ~";
+	public static final String fullName = "Jenk's (fast approx.)";
+	public static final int DEFAULT_BINS = 4096;
+
+	private int nBins = DEFAULT_BINS;
+
+	public ClassifierJenksApproximate() {
+	}
+
+	public ClassifierJenksApproximate(int nBins) {
+		setNumBins(nBins);
+	}
+
+	public int getNumBins() {
+		return nBins;
+	}
+
+	public void setNumBins(int nBins) {
+		if (nBins < 1) {
+			throw new IllegalArgumentException("nBins must be positive");
+		}
+		this.nBins = nBins;
+	}
+
+	@Override
+	public String getFullName() {
+		return fullName;
+	}
+
+	@Override
+	public String getShortName() {
+		return shortName;
+	}
+
+	@Override
+	protected double[] findBreaks(double[] data, int numClasses) {
+		return ClassifierJenks.getJenksBreaksBinned(data, numClasses, nBins);
+	}
+
+	@Override
+	protected double[] findBreaks(ColumnStatistics stats, int numClasses) {
+		return ClassifierJenks.getJenksBreaksBinned(stats.getData(),
+				numClasses, nBins);
+	}
+}
@@ -7,16 +7,15 @@ package geovista.common.classification;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import geovista.common.data.ArraySort2D;
+import geovista.common.data.ColumnStatistics;
 
 public class ClassifierModifiedQuantiles implements DescribedClassifier,
-		BoundaryClassifier {
+		BoundaryClassifier, ColumnStatisticsClassifier {
 	protected final static Logger logger = Logger
 			.getLogger(ClassifierModifiedQuantiles.class.getName());
 	private static final String shortName = "MQ Tiles";
 	private static final String fullName = "ModifiedQuantiles";
 	transient private int[] classification;
-	transient private double[][] dataWithIndex;
 
 	public ClassifierModifiedQuantiles() {
 	}
@@ -30,46 +29,33 @@ public class ClassifierModifiedQuantiles implements DescribedClassifier,
 	}
 
 	public double[] getEqualBoundaries(double[] data, int numClasses) {
-		double[] boundaries = new double[numClasses + 1];
-		int nObs;
-		if (dataWithIndex == null || dataWithIndex.length != data.length
-				|| dataWithIndex[0].length != 2) {
-			dataWithIndex = new double[data.length][2];
-		}
+		return getEqualBoundaries(new ColumnStatistics(data), numClasses);
+	}
 
-		// add index
-		// and find number of non-nulls
-		nObs = 0;
-		for (int i = 0; i < data.length; i++) {
-			dataWithIndex[i][0] = data[i];
-			dataWithIndex[i][1] = i;
-			if (!Double.isNaN(data[i])) {
-				nObs++;
-			}
-		}
-		// now sort
-		ArraySort2D sorter = new ArraySort2D();
-		sorter.sortDouble(dataWithIndex, 0);
+	public double[] getEqualBoundaries(ColumnStatistics stats, int numClasses) {
+		double[] boundaries = new double[numClasses + 1];
+		double[] sorted = stats.getSorted();
+		int nObs = stats.getNumNonNull();
 		if (numClasses < 5) {
 			double nPerClass = (double) nObs / (double) numClasses;
 			for (int i = 0; i < numClasses; i++) {
-				boundaries[i] = dataWithIndex[(int) (i * nPerClass)][0];
+				boundaries[i] = sorted[(int) (i * nPerClass)];
 			}
-			boundaries[numClasses] = dataWithIndex[nObs - 1][0];
+			boundaries[numClasses] = sorted[nObs - 1];
 		} else {
 			double nPerClass = (double) nObs / (double) (numClasses - 2);
 			for (int i = 0; i < numClasses; i++) {
 				if (i == 0) {
-					boundaries[i] = dataWithIndex[0][0];
+					boundaries[i] = sorted[0];
 				} else if (i == 1) {
-					boundaries[i] = dataWithIndex[(int) (nPerClass * 0.5)][0];
+					boundaries[i] = sorted[(int) (nPerClass * 0.5)];
 				} else if (i == (numClasses - 1)) {
-					boundaries[i] = dataWithIndex[(int) (nPerClass * (i - 1.5))][0];
+					boundaries[i] = sorted[(int) (nPerClass * (i - 1.5))];
 				} else {
-					boundaries[i] = dataWithIndex[(int) (nPerClass * (i - 1))][0];
+					boundaries[i] = sorted[(int) (nPerClass * (i - 1))];
 				}
 			}
-			boundaries[numClasses] = dataWithIndex[nObs - 1][0];
+			boundaries[numClasses] = sorted[nObs - 1];
 		}
 		return boundaries;
 	}
@@ -85,25 +71,25 @@ public class ClassifierModifiedQuantiles implements DescribedClassifier,
 					"Need at least one class to classify");
 		}
 
-		if (classification == null || classification.length != data.length) {
-			classification = new int[data.length];
-		}
-		if (dataWithIndex == null || dataWithIndex.length != data.length
-				|| dataWithIndex[0].length != 2) {
-			dataWithIndex = new double[data.length][2];
+		return classify(new ColumnStatistics(data), numClasses);
+	}
+
+	public int[] classify(ColumnStatistics stats, int numClasses) {
+		if (numClasses < 1) {
+			throw new IllegalArgumentException(
+					"Need at least one class to classify");
 		}
 
-		// add index
-		// and find number of non-nulls
-		int nObs = 0;
-		for (int i = 0; i < data.length; i++) {
-			dataWithIndex[i][0] = data[i];
-			dataWithIndex[i][1] = i;
-			if (!Double.isNaN(data[i])) {
-				nObs++;
-			}
+		int nAll = stats.getNumObservations();
+		if (classification == null || classification.length != nAll) {
+			classification = new int[nAll];
 		}
 
+		// values in ascending order (NaNs last) and the ids they came from
+		double[] sorted = stats.getSorted();
+		int[] sortedIndex = stats.getSortedIndex();
+		int nObs = stats.getNumNonNull();
+
 		// If classes number more than available obeservations numbers for
 		// classfy
 		// Change the the number of classes to the available number
@@ -111,14 +97,11 @@ public class ClassifierModifiedQuantiles implements DescribedClassifier,
 			numClasses = nObs;
 		}
 
-		// now sort
-		ArraySort2D sorter = new ArraySort2D();
-		sorter.sortDouble(dataWithIndex, 0);
 		int index;
 
 		if (numClasses < 5) {
 			ClassifierQuantiles useQuantiles = new ClassifierQuantiles();
-			classification = useQuantiles.classify(data, numClasses);
+			classification = useQuantiles.classify(stats, numClasses);
 			return classification;
 		}
 
@@ -147,17 +130,17 @@ public class ClassifierModifiedQuantiles implements DescribedClassifier,
 
 				// Determine how many elements in the array are equal to the
 				// last element in this (i) class.
-				end = dataWithIndex[endElm][0];
+				end = sorted[endElm];
 				int sameBefore = 0;
 				int sameAfter = 0;
 				while (((endElm - sameBefore - 1) >= lastClassEndElm)
-						&& (dataWithIndex[endElm - sameBefore - 1][0] == end)) {
+						&& (sorted[endElm - sameBefore - 1] == end)) {
 					sameBefore++;
 				}
 				// Determine how many elements in the i+1 class are equal to the
 				// last element in i class .
 				while (((endElm + sameAfter + 1) <= nObs)
-						&& (dataWithIndex[endElm + sameAfter + 1][0] == end)) {
+						&& (sorted[endElm + sameAfter + 1] == end)) {
 					sameAfter++;
 				}
 				// If the same numbers of same data on both sides of
@@ -169,7 +152,7 @@ public class ClassifierModifiedQuantiles implements DescribedClassifier,
 						classification[endElm] = i;
 					}
 					for (int j = lastClassEndElm + 1; j <= endElm; j++) {
-						index = (int) dataWithIndex[j][1];
+						index = sortedIndex[j];
 						classification[index] = i;
 					}
 					lastClassEndElm = endElm;
@@ -177,7 +160,7 @@ public class ClassifierModifiedQuantiles implements DescribedClassifier,
 					if ((int) (sameAfter / numInEachClass) > 0) {
 						endElm = endElm + sameBefore + sameAfter;
 						for (int j = lastClassEndElm + 1; j <= endElm; j++) {
-							index = (int) dataWithIndex[j][1];
+							index = sortedIndex[j];
 							classification[index] = i + 1;
 						}
 						lastClassEndElm = endElm;
@@ -185,7 +168,7 @@ public class ClassifierModifiedQuantiles implements DescribedClassifier,
 				} else {
 					endElm = endElm + sameAfter;
 					for (int j = lastClassEndElm + 1; j <= endElm; j++) {
-						index = (int) dataWithIndex[j][1];
+						index = sortedIndex[j];
 						classification[index] = i;
 					}
 					lastClassEndElm = endElm;
@@ -195,7 +178,7 @@ public class ClassifierModifiedQuantiles implements DescribedClassifier,
 				// System.out.print("last Elm: " + (nObs - 1) + " ");
 				index = 0;
 				for (int j = lastClassEndElm + 1; j < nObs; j++) {
-					index = (int) dataWithIndex[j][1];
+					index = sortedIndex[j];
 					classification[index] = i;
 				}
 				if (logger.isLoggable(Level.FINEST)) {
@@ -204,8 +187,8 @@ public class ClassifierModifiedQuantiles implements DescribedClassifier,
 			}
 		}
 		index = 0;
-		for (int j = nObs; j < data.length; j++) {
-			index = (int) dataWithIndex[j][1];
+		for (int j = nObs; j < nAll; j++) {
+			index = sortedIndex[j];
 			classification[index] = Classifier.NULL_CLASS;
 		}
 		return classification;
@@ -76,7 +76,7 @@ public class ClassifierPicker extends JPanel implements ActionListener,
 	classification = new int[0];
 	nClasses = 3;
 	addComponentListener(this);
-	classers = new DescribedClassifier[7];
+	classers = new DescribedClassifier[8];
 
 	classers[0] = new ClassifierQuantiles();
 	classers[1] = new ClassifierModifiedQuantiles();
@@ -85,6 +85,7 @@ public class ClassifierPicker extends JPanel implements ActionListener,
 	classers[4] = new ClassifierRawQuantiles();
 	classers[5] = new ClassifierJenks();
 	classers[6] = new ClassifierCustom();
+	classers[7] = new ClassifierJenksApproximate();
 
 	update = true;
 	init();
@@ -461,13 +462,29 @@ public class ClassifierPicker extends JPanel implements ActionListener,
 		ClassifierCustom cust = (ClassifierCustom) classer;
 		cust.breaks = findBreaks(data, previousClassification, nClasses);
 	    }
-	    classification = classer.classify(data, nClasses);
+	    classification = ClassifierPicker.classify(classer, dataSet,
+		    currVariableIndex, nClasses);
 	    previousClassification = classification;
 	}
 	return classification;
 
     }
 
+    /**
+     * Classifies a numeric column of the data set, letting classifiers that
+     * can use it work from the data set's cached sort of that column.
+     */
+    public static int[] classify(Classifier classer, DataSetForApps dataSet,
+	    int numericIndex, int nClasses) {
+	if (classer instanceof ColumnStatisticsClassifier) {
+	    ColumnStatisticsClassifier statsClasser = (ColumnStatisticsClassifier) classer;
+	    return statsClasser.classify(dataSet
+		    .getColumnStatistics(numericIndex), nClasses);
+	}
+	return classer.classify(dataSet.getNumericDataAsDouble(numericIndex),
+		nClasses);
+    }
+
     static double[] findBreaks(double[] data, int[] classification, int nClasses) {
 	double[] breaks = new double[nClasses + 1];
 	// all breaks start at zero
@@ -11,18 +11,17 @@ package geovista.common.classification;
  *
  */
 
-import geovista.common.data.ArraySort2D;
+import geovista.common.data.ColumnStatistics;
 
 import java.util.Arrays;
 import java.util.logging.Logger;
 
 public class ClassifierQuantiles implements DescribedClassifier,
-	BoundaryClassifier {
+	BoundaryClassifier, ColumnStatisticsClassifier {
     private static final String shortName = "Q Tiles";
     private static final String fullName = "Quantiles";
     private int[] classification;
     private int[] rank;
-    private double[][] dataWithIndex;
 
     protected final static Logger logger = Logger
 	    .getLogger(ClassifierQuantiles.class.getName());
@@ -39,34 +38,20 @@ public class ClassifierQuantiles implements DescribedClassifier,
     }
 
     public double[] getEqualBoundaries(double[] data, int numClasses) {
-	double[] boundaries = new double[numClasses + 1];
-	int nObs;
-	if (dataWithIndex == null || dataWithIndex.length != data.length
-		|| dataWithIndex[0].length != 2) {
-	    dataWithIndex = new double[data.length][2];
-	}
+	return getEqualBoundaries(new ColumnStatistics(data), numClasses);
+    }
 
-	// add index
-	// and find number of non-nulls
-	nObs = 0;
-	for (int i = 0; i < data.length; i++) {
-	    dataWithIndex[i][0] = data[i];
-	    dataWithIndex[i][1] = i;
-	    if (!Double.isNaN(data[i])) {
-		nObs++;
-	    }
-	}
+    public double[] getEqualBoundaries(ColumnStatistics stats, int numClasses) {
+	double[] boundaries = new double[numClasses + 1];
+	double[] sorted = stats.getSorted();
+	int nObs = stats.getNumNonNull();
 
 	double nPerClass = (double) nObs / (double) numClasses;
 
-	// now sort
-	ArraySort2D sorter = new ArraySort2D();
-	sorter.sortDouble(dataWithIndex, 0);
-
 	for (int i = 0; i < numClasses; i++) {
-	    boundaries[i] = dataWithIndex[(int) (i * nPerClass)][0];
+	    boundaries[i] = sorted[(int) (i * nPerClass)];
 	}
-	boundaries[numClasses] = dataWithIndex[nObs - 1][0];
+	boundaries[numClasses] = sorted[nObs - 1];
 	return boundaries;
     }
 
@@ -81,17 +66,21 @@ public class ClassifierQuantiles implements DescribedClassifier,
 		    "Need at least one class to classify");
 	}
 
-	if (classification == null || classification.length != data.length) {
-	    classification = new int[data.length];
+	return classify(new ColumnStatistics(data), numClasses);
+    }
+
+    public int[] classify(ColumnStatistics stats, int numClasses) {
+	if (numClasses < 1) {
+	    throw new IllegalArgumentException(
+		    "Need at least one class to classify");
+	}
+	int nAll = stats.getNumObservations();
+	if (classification == null || classification.length != nAll) {
+	    classification = new int[nAll];
 	}
 
 	// find number of non-nulls
-	int nObs = 0;
-	for (int i = 0; i < data.length; i++) {
-	    if (!Double.isNaN(data[i])) {
-		nObs++;
-	    }
-	}
+	int nObs = stats.getNumNonNull();
 
 	// If classes number more than available obeservations numbers for
 	// classfy
@@ -100,14 +89,13 @@ public class ClassifierQuantiles implements DescribedClassifier,
 	    numClasses = nObs;
 	}
 
-	// now sort
-	ArraySort2D sorter = new ArraySort2D();
-	rank = sorter.getSortedIndex(data, Classifier.NULL_CLASS);
+	// the ranks come from the cached sort
+	rank = stats.getRanks();
 
 	double numInEachClass = (double) nObs / (double) numClasses;
 
-	for (int obs = 0; obs < data.length; obs++) {
-	    if (rank[obs] == Classifier.NULL_CLASS) {
+	for (int obs = 0; obs < nAll; obs++) {
+	    if (rank[obs] == ColumnStatistics.NULL_RANK) {
 		classification[obs] = Classifier.NULL_CLASS;
 	    } else {
 
@@ -6,16 +6,14 @@ package geovista.common.classification;
 
 import java.util.logging.Logger;
 
-import geovista.common.data.ArraySort2D;
+import geovista.common.data.ColumnStatistics;
 
 public class ClassifierRawQuantiles implements DescribedClassifier,
-		BoundaryClassifier {
+		BoundaryClassifier, ColumnStatisticsClassifier {
 
 	private static final String shortName = "RQTiles";
 	private static final String fullName = "Raw Quantiles";
 	transient private int[] classification;
-	transient private double[][] dataWithIndex;
-	transient private int nObs;
 	final static Logger logger = Logger.getLogger(ClassifierRawQuantiles.class
 			.getName());
 
@@ -32,91 +30,58 @@ public class ClassifierRawQuantiles implements DescribedClassifier,
 	}
 
 	public double[] getEqualBoundaries(double[] data, int numClasses) {
-		double[] boundaries = new double[numClasses + 1];
-
-		if (dataWithIndex == null || dataWithIndex.length != data.length
-				|| dataWithIndex[0].length != 2) {
-			dataWithIndex = new double[data.length][2];
-		}
+		return getEqualBoundaries(new ColumnStatistics(data), numClasses);
+	}
 
-		// add index
-		// and find number of non-nulls
-		nObs = 0;
-		for (int i = 0; i < data.length; i++) {
-			dataWithIndex[i][0] = data[i];
-			dataWithIndex[i][1] = i;
-			if (!Double.isNaN(data[i])) {
-				nObs++;
-			}
-		}
+	public double[] getEqualBoundaries(ColumnStatistics stats, int numClasses) {
+		double[] boundaries = new double[numClasses + 1];
+		double[] sorted = stats.getSorted();
+		int nObs = stats.getNumNonNull();
 
 		double nPerClass = (double) nObs / (double) numClasses;
 
-		// now sort
-		ArraySort2D sorter = new ArraySort2D();
-		sorter.sortDouble(dataWithIndex, 0);
-
 		for (int i = 0; i < numClasses; i++) {
-			boundaries[i] = dataWithIndex[(int) (i * nPerClass)][0];
+			boundaries[i] = sorted[(int) (i * nPerClass)];
 		}
-		boundaries[numClasses] = dataWithIndex[nObs - 1][0];
+		boundaries[numClasses] = sorted[nObs - 1];
 		return boundaries;
 	}
 
 	public int[] classify(double[] data, int numClasses) {
-		Throwable t = new Throwable();
-		StackTraceElement[] es = t.getStackTrace();
-		for (StackTraceElement e : es) {
-			System.out.println(" in class:" + e.getClassName()
-					+ " in source file:" + e.getFileName() + " in method:"
-					+ e.getMethodName() + " at line:" + e.getLineNumber() + " "
-					+ (e.isNativeMethod() ? "native" : ""));
-		}
 		if (data == null) {
 			throw new IllegalArgumentException(
 					"Can't pass null into classify method");
 		}
+		return classify(new ColumnStatistics(data), numClasses);
+	}
+
+	public int[] classify(ColumnStatistics stats, int numClasses) {
 		if (numClasses < 1) {
 			throw new IllegalArgumentException(
 					"Need at least one class to classify");
 		}
 
-		if (classification == null || classification.length != data.length) {
-			classification = new int[data.length];
-		}
-		if (dataWithIndex == null || dataWithIndex.length != data.length
-				|| dataWithIndex[0].length != 2) {
-			dataWithIndex = new double[data.length][2];
-		}
-
-		// add index
-		// and find number of non-nulls
-		nObs = 0;
-		for (int i = 0; i < data.length; i++) {
-			dataWithIndex[i][0] = data[i];
-			dataWithIndex[i][1] = i;
-			if (!Double.isNaN(data[i])) {
-				nObs++;
-			}
+		int nAll = stats.getNumObservations();
+		if (classification == null || classification.length != nAll) {
+			classification = new int[nAll];
 		}
 
-		// now sort
-		ArraySort2D sorter = new ArraySort2D();
-		sorter.sortDouble(dataWithIndex, 0);
+		// walk the observations in sorted order, NaNs last
+		double[] sorted = stats.getSorted();
+		int[] sortedIndex = stats.getSortedIndex();
+		int nObs = stats.getNumNonNull();
 
 		double nPerClass = (double) nObs / (double) numClasses;
 		int whichClass = 0;
 		int index = 0;
-		int indexPosition = 1;
-		for (int i = 0; i < data.length; i++) {
-			index = (int) dataWithIndex[i][indexPosition];
-			if (Double.isNaN(dataWithIndex[i][0])) {
+		for (int i = 0; i < nAll; i++) {
+			index = sortedIndex[i];
+			if (Double.isNaN(sorted[i])) {
 				classification[index] = Classifier.NULL_CLASS;
 			} else {
 				whichClass = (int) Math.floor(i / nPerClass);
 				if (whichClass == numClasses) {
-					System.err
-							.println("needed hack... in Classifier Raw Quantiles");
+					logger.fine("needed hack... in Classifier Raw Quantiles");
 					whichClass--;
 				}
 				classification[index] = whichClass;
@@ -0,0 +1,20 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.classification;
+
+import geovista.common.data.ColumnStatistics;
+
+/**
+ * A classifier that can work from a column's cached sorted order rather
+ * than sorting the data itself. See ClassifierPicker.classify.
+ */
+public interface ColumnStatisticsClassifier extends Classifier {
+
+	/**
+	 * Same result as classify(stats.getData(), numClasses).
+	 */
+	public int[] classify(ColumnStatistics stats, int numClasses);
+
+}
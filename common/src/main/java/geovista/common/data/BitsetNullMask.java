@@ -0,0 +1,71 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+/**
+ * Which observations of a column are null, one bit each.
+ */
+public class BitsetNullMask {
+
+    private final long[] words;
+    private final int size;
+    private int nullCount;
+
+    public BitsetNullMask(int size) {
+	this.size = size;
+	words = new long[(size + 63) >>> 6];
+    }
+
+    void setNull(int index) {
+	long bit = 1L << index;
+	int word = index >>> 6;
+	if ((words[word] & bit) == 0) {
+	    words[word] |= bit;
+	    nullCount++;
+	}
+    }
+
+    public boolean isNull(int index) {
+	if (index < 0 || index >= size) {
+	    throw new IndexOutOfBoundsException("index " + index + ", size "
+		    + size);
+	}
+	return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public int getNullCount() {
+	return nullCount;
+    }
+
+    public boolean hasNulls() {
+	return nullCount > 0;
+    }
+
+    /**
+     * The first null at or after from, or -1 if there is none.
+     */
+    public int nextNull(int from) {
+	if (from >= size) {
+	    return -1;
+	}
+	int word = from >>> 6;
+	long bits = words[word] & (-1L << from);
+	while (true) {
+	    if (bits != 0) {
+		int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+		return index < size ? index : -1;
+	    }
+	    word++;
+	    if (word == words.length) {
+		return -1;
+	    }
+	    bits = words[word];
+	}
+    }
+}
@@ -0,0 +1,199 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+/**
+ * Sorted order, ranks and summary moments of one numeric column, worked out
+ * once so that classifiers can change their number of classes without
+ * sorting the column again.
+ *
+ * The order is that of a stable sort with NaNs last, which is the order the
+ * classifiers used to get from ArraySort2D. Instances are immutable once
+ * built; DataSetForApps keeps one per numeric column, see
+ * DataSetForApps.getColumnStatistics. The arrays returned are shared, so
+ * callers must not write to them.
+ */
+public class ColumnStatistics {
+
+    public static final int NULL_RANK = -1;
+
+    private final double[] data;
+    private int[] sortedIndex;
+    private double[] sorted;
+    private int[] ranks;
+    private int nanCount;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private double mean = Double.NaN;
+    private double sumSquaredDeviations = Double.NaN;
+
+    public ColumnStatistics(double[] data) {
+	this.data = data;
+	sort();
+	findMoments();
+    }
+
+    private void sort() {
+	int n = data.length;
+	int[] idx = new int[n];
+	for (int i = 0; i < n; i++) {
+	    idx[i] = i;
+	}
+	mergeSort(idx, new int[n], 0, n);
+	sortedIndex = idx;
+	sorted = new double[n];
+	ranks = new int[n];
+	int nonNulls = 0;
+	int previousRank = 0;
+	for (int i = 0; i < n; i++) {
+	    double val = data[idx[i]];
+	    sorted[i] = val;
+	    if (Double.isNaN(val)) {
+		ranks[idx[i]] = NULL_RANK;
+		nanCount++;
+	    } else if (i > 0 && val == sorted[i - 1]) {
+		// ties share the rank of the first of them
+		ranks[idx[i]] = previousRank;
+		nonNulls++;
+	    } else {
+		ranks[idx[i]] = nonNulls;
+		previousRank = nonNulls;
+		nonNulls++;
+	    }
+	}
+    }
+
+    private void mergeSort(int[] idx, int[] scratch, int from, int to) {
+	if (to - from < 16) {
+	    for (int i = from + 1; i < to; i++) {
+		int id = idx[i];
+		int j = i - 1;
+		while (j >= from && Double.compare(data[idx[j]], data[id]) > 0) {
+		    idx[j + 1] = idx[j];
+		    j--;
+		}
+		idx[j + 1] = id;
+	    }
+	    return;
+	}
+	int mid = (from + to) >>> 1;
+	mergeSort(idx, scratch, from, mid);
+	mergeSort(idx, scratch, mid, to);
+	if (Double.compare(data[idx[mid - 1]], data[idx[mid]]) <= 0) {
+	    return;
+	}
+	System.arraycopy(idx, from, scratch, from, to - from);
+	int left = from;
+	int right = mid;
+	for (int k = from; k < to; k++) {
+	    if (right >= to
+		    || (left < mid && Double.compare(data[scratch[left]],
+			    data[scratch[right]]) <= 0)) {
+		idx[k] = scratch[left++];
+	    } else {
+		idx[k] = scratch[right++];
+	    }
+	}
+    }
+
+    private void findMoments() {
+	int nObs = getNumNonNull();
+	if (nObs == 0) {
+	    return;
+	}
+	min = sorted[0];
+	max = sorted[nObs - 1];
+	double sum = 0;
+	for (int i = 0; i < nObs; i++) {
+	    sum += sorted[i];
+	}
+	mean = sum / nObs;
+	double ss = 0;
+	for (int i = 0; i < nObs; i++) {
+	    double dev = sorted[i] - mean;
+	    ss += dev * dev;
+	}
+	sumSquaredDeviations = ss;
+    }
+
+    /**
+     * The column these statistics describe.
+     */
+    public double[] getData() {
+	return data;
+    }
+
+    public int getNumObservations() {
+	return data.length;
+    }
+
+    public int getNumNonNull() {
+	return data.length - nanCount;
+    }
+
+    public int getNaNCount() {
+	return nanCount;
+    }
+
+    /**
+     * Values in ascending order, NaNs last.
+     */
+    public double[] getSorted() {
+	return sorted;
+    }
+
+    /**
+     * Observation ids in the order of getSorted.
+     */
+    public int[] getSortedIndex() {
+	return sortedIndex;
+    }
+
+    /**
+     * For each observation, the number of non-null values below it (so tied
+     * values share a rank), or NULL_RANK for NaN.
+     */
+    public int[] getRanks() {
+	return ranks;
+    }
+
+    public double getMin() {
+	return min;
+    }
+
+    public double getMax() {
+	return max;
+    }
+
+    public double getMean() {
+	return mean;
+    }
+
+    public double getVariance(boolean sample) {
+	int nObs = getNumNonNull();
+	int denominator = sample ? nObs - 1 : nObs;
+	if (denominator <= 0) {
+	    return Double.NaN;
+	}
+	return sumSquaredDeviations / denominator;
+    }
+
+    public double getStdDev(boolean sample) {
+	return Math.sqrt(getVariance(sample));
+    }
+
+    /**
+     * Value at the given fraction (0 to 1) of the non-null values, taking
+     * the lower one rather than interpolating.
+     */
+    public double getQuantile(double fraction) {
+	int nObs = getNumNonNull();
+	if (nObs == 0) {
+	    return Double.NaN;
+	}
+	int place = (int) (fraction * (nObs - 1));
+	return sorted[Math.max(0, Math.min(nObs - 1, place))];
+    }
+}
@@ -0,0 +1,441 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+/**
+ * Read side of the binary column file written by ColumnStoreWriter.
+ *
+ * Opening a store reads only the header and the column directory. Each
+ * column is mapped with FileChannel.map the first time it is asked for, and
+ * its values are read from the mapping, so the heap holds only what callers
+ * copy out. toDataSet wraps the columns in a DataSetForApps without copying
+ * them; see the DataSetForApps class comment for when it does make arrays.
+ *
+ * Layout, all little endian: a 32 byte header (magic, version, rows,
+ * columns, flags, directory offset), then one 8 byte aligned segment per
+ * column (double, int, or int dictionary codes), then the dictionaries of
+ * the string columns, and last the directory, which gives each column's
+ * name, kind, and segment places. Strings are an int byte count (-1 for
+ * null) followed by UTF-8.
+ */
+public class ColumnStore {
+
+    protected final static Logger logger = Logger.getLogger(ColumnStore.class
+	    .getName());
+
+    // "GVCOLSTR" as it reads in the file
+    static final long MAGIC = 0x5254534c4f435647L;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int FLAG_LOCATIONS = 1;
+
+    static final byte KIND_DOUBLE = 'D';
+    static final byte KIND_INT = 'I';
+    static final byte KIND_STRING = 'S';
+    static final byte KIND_X = 'X';
+    static final byte KIND_Y = 'Y';
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int nRows;
+    private final String[] names;
+    private final byte[] kinds;
+    private final long[] offsets;
+    private final long[] dictOffsets;
+    private final long[] dictBytes;
+    private final int[] dictSizes;
+    private final TypedColumn[] columns;
+    private int xIndex = -1;
+    private int yIndex = -1;
+
+    private ColumnStore(File file) throws IOException {
+	this.file = file;
+	raf = new RandomAccessFile(file, "r");
+	channel = raf.getChannel();
+	try {
+	    ByteBuffer header = read(0, HEADER_BYTES);
+	    if (header.getLong() != MAGIC) {
+		throw new IOException(file + " is not a column store");
+	    }
+	    int version = header.getInt();
+	    if (version != VERSION) {
+		throw new IOException(file + " has column store version "
+			+ version + ", expected " + VERSION);
+	    }
+	    nRows = header.getInt();
+	    int nEntries = header.getInt();
+	    header.getInt(); // flags
+	    long dirOffset = header.getLong();
+
+	    ByteBuffer dir = read(dirOffset, (int) (channel.size() - dirOffset));
+	    names = new String[nEntries];
+	    kinds = new byte[nEntries];
+	    offsets = new long[nEntries];
+	    dictOffsets = new long[nEntries];
+	    dictBytes = new long[nEntries];
+	    dictSizes = new int[nEntries];
+	    for (int i = 0; i < nEntries; i++) {
+		names[i] = readString(dir);
+		kinds[i] = dir.get();
+		offsets[i] = dir.getLong();
+		dictOffsets[i] = dir.getLong();
+		dictBytes[i] = dir.getLong();
+		dictSizes[i] = dir.getInt();
+		if (kinds[i] == KIND_X) {
+		    xIndex = i;
+		} else if (kinds[i] == KIND_Y) {
+		    yIndex = i;
+		}
+	    }
+	    columns = new TypedColumn[nEntries];
+	} catch (IOException e) {
+	    raf.close();
+	    throw e;
+	}
+    }
+
+    public static ColumnStore open(File file) throws IOException {
+	return new ColumnStore(file);
+    }
+
+    public File getFile() {
+	return file;
+    }
+
+    public int getNumObservations() {
+	return nRows;
+    }
+
+    /**
+     * Names of the attribute columns, in file order, leaving out locations.
+     */
+    public String[] getAttributeNames() {
+	String[] attNames = new String[getNumAttributes()];
+	int at = 0;
+	for (int i = 0; i < names.length; i++) {
+	    if (isAttribute(i)) {
+		attNames[at++] = names[i];
+	    }
+	}
+	return attNames;
+    }
+
+    public int getNumAttributes() {
+	int count = 0;
+	for (int i = 0; i < names.length; i++) {
+	    if (isAttribute(i)) {
+		count++;
+	    }
+	}
+	return count;
+    }
+
+    private boolean isAttribute(int entry) {
+	return kinds[entry] != KIND_X && kinds[entry] != KIND_Y;
+    }
+
+    public boolean hasLocations() {
+	return xIndex >= 0 && yIndex >= 0;
+    }
+
+    /**
+     * The nth attribute column, mapped on first use.
+     */
+    public TypedColumn getColumn(int attributeIndex) {
+	int seen = -1;
+	for (int i = 0; i < names.length; i++) {
+	    if (isAttribute(i) && ++seen == attributeIndex) {
+		return getEntry(i);
+	    }
+	}
+	throw new IllegalArgumentException("no attribute " + attributeIndex
+		+ " in " + file);
+    }
+
+    public NumericColumn getX() {
+	return hasLocations() ? (NumericColumn) getEntry(xIndex) : null;
+    }
+
+    public NumericColumn getY() {
+	return hasLocations() ? (NumericColumn) getEntry(yIndex) : null;
+    }
+
+    private synchronized TypedColumn getEntry(int i) {
+	if (columns[i] != null) {
+	    return columns[i];
+	}
+	try {
+	    long bytes = (long) nRows * (kinds[i] == KIND_INT
+		    || kinds[i] == KIND_STRING ? 4 : 8);
+	    ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+		    offsets[i], bytes).order(ByteOrder.LITTLE_ENDIAN);
+	    if (kinds[i] == KIND_INT) {
+		columns[i] = new MappedIntColumn(names[i], segment.asIntBuffer());
+	    } else if (kinds[i] == KIND_STRING) {
+		columns[i] = new MappedStringColumn(names[i], segment
+			.asIntBuffer(), readDictionary(i));
+	    } else {
+		columns[i] = new MappedDoubleColumn(names[i], segment
+			.asDoubleBuffer());
+	    }
+	} catch (IOException e) {
+	    throw new IllegalStateException("could not map column " + names[i]
+		    + " of " + file, e);
+	}
+	return columns[i];
+    }
+
+    private String[] readDictionary(int i) throws IOException {
+	String[] dictionary = new String[dictSizes[i]];
+	if (dictionary.length == 0) {
+	    return dictionary;
+	}
+	ByteBuffer dict = read(dictOffsets[i], (int) dictBytes[i]);
+	for (int d = 0; d < dictionary.length; d++) {
+	    dictionary[d] = readString(dict);
+	}
+	return dictionary;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+	ByteBuffer buf = ByteBuffer.allocate(length).order(
+		ByteOrder.LITTLE_ENDIAN);
+	while (buf.hasRemaining()) {
+	    if (channel.read(buf, position + buf.position()) < 0) {
+		throw new IOException("unexpected end of " + file);
+	    }
+	}
+	buf.flip();
+	return buf;
+    }
+
+    static String readString(ByteBuffer buf) throws IOException {
+	int len = buf.getInt();
+	if (len < 0) {
+	    return null;
+	}
+	byte[] bytes = new byte[len];
+	buf.get(bytes);
+	return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * A DataSetForApps over the attribute columns, without spatial data.
+     */
+    public DataSetForApps toDataSet() {
+	return toDataSet(false);
+    }
+
+    /**
+     * A DataSetForApps over the attribute columns. With withPoints, the
+     * stored locations are attached as a Point2D[], which does take heap in
+     * proportion to the number of observations.
+     */
+    public DataSetForApps toDataSet(boolean withPoints) {
+	int nAtts = getNumAttributes();
+	boolean points = withPoints && hasLocations();
+	Object[] data = new Object[nAtts + 1 + (points ? 1 : 0)];
+	data[0] = getAttributeNames();
+	for (int i = 0; i < nAtts; i++) {
+	    data[i + 1] = getColumn(i);
+	}
+	if (points) {
+	    NumericColumn x = getX();
+	    NumericColumn y = getY();
+	    Point2D[] locations = new Point2D[nRows];
+	    for (int i = 0; i < nRows; i++) {
+		locations[i] = new Point2D.Double(x.getDoubleVal(i), y
+			.getDoubleVal(i));
+	    }
+	    data[nAtts + 1] = locations;
+	}
+	DataSetForApps dataSet = new DataSetForApps(data);
+	logger.fine("opened " + file + ", " + nRows + " observations, "
+		+ nAtts + " attributes");
+	return dataSet;
+    }
+
+    /**
+     * Closes the file. Columns already mapped stay readable.
+     */
+    public void close() throws IOException {
+	raf.close();
+    }
+
+    private static class MappedDoubleColumn extends NumericColumn {
+	private final DoubleBuffer values;
+	private transient double[] array;
+
+	MappedDoubleColumn(String name, DoubleBuffer values) {
+	    super(name);
+	    this.values = values;
+	}
+
+	@Override
+	public int getType() {
+	    return DataSetForApps.TYPE_DOUBLE;
+	}
+
+	@Override
+	public synchronized double[] getArray() {
+	    if (array == null) {
+		double[] copy = new double[values.capacity()];
+		values.duplicate().get(copy);
+		array = copy;
+	    }
+	    return array;
+	}
+
+	@Override
+	public double[] getDoubles() {
+	    return getArray();
+	}
+
+	public int getNumObservations() {
+	    return values.capacity();
+	}
+
+	@Override
+	public boolean isNull(int index) {
+	    return Double.isNaN(values.get(index));
+	}
+
+	public double getDoubleVal(int index) {
+	    return values.get(index);
+	}
+
+	public int getIntVal(int index) {
+	    return (int) values.get(index);
+	}
+    }
+
+    private static class MappedIntColumn extends NumericColumn {
+	private final IntBuffer values;
+	private transient int[] array;
+	private transient double[] doubles;
+
+	MappedIntColumn(String name, IntBuffer values) {
+	    super(name);
+	    this.values = values;
+	}
+
+	@Override
+	public int getType() {
+	    return DataSetForApps.TYPE_INTEGER;
+	}
+
+	@Override
+	public synchronized int[] getArray() {
+	    if (array == null) {
+		int[] copy = new int[values.capacity()];
+		values.duplicate().get(copy);
+		array = copy;
+	    }
+	    return array;
+	}
+
+	@Override
+	public synchronized double[] getDoubles() {
+	    if (doubles == null) {
+		int n = values.capacity();
+		double[] converted = new double[n];
+		for (int i = 0; i < n; i++) {
+		    int val = values.get(i);
+		    converted[i] = val == Integer.MIN_VALUE ? Double.NaN : val;
+		}
+		doubles = converted;
+	    }
+	    return doubles;
+	}
+
+	public int getNumObservations() {
+	    return values.capacity();
+	}
+
+	@Override
+	public boolean isNull(int index) {
+	    return values.get(index) == Integer.MIN_VALUE;
+	}
+
+	public double getDoubleVal(int index) {
+	    return values.get(index);
+	}
+
+	public int getIntVal(int index) {
+	    return values.get(index);
+	}
+
+	@Override
+	public String getStringVal(int index) {
+	    return String.valueOf(values.get(index));
+	}
+    }
+
+    private static class MappedStringColumn extends TypedColumn {
+	private final IntBuffer codes;
+	private final String[] dictionary;
+	private transient String[] array;
+
+	MappedStringColumn(String name, IntBuffer codes, String[] dictionary) {
+	    super(name);
+	    this.codes = codes;
+	    this.dictionary = dictionary;
+	}
+
+	@Override
+	public int getType() {
+	    return DataSetForApps.TYPE_NAME;
+	}
+
+	@Override
+	public synchronized String[] getArray() {
+	    if (array == null) {
+		String[] copy = new String[codes.capacity()];
+		for (int i = 0; i < copy.length; i++) {
+		    copy[i] = getStringVal(i);
+		}
+		array = copy;
+	    }
+	    return array;
+	}
+
+	public int getNumObservations() {
+	    return codes.capacity();
+	}
+
+	@Override
+	public boolean isNull(int index) {
+	    return codes.get(index) == StringDictionaryColumn.NULL_CODE;
+	}
+
+	public String getStringVal(int index) {
+	    int code = codes.get(index);
+	    return code == StringDictionaryColumn.NULL_CODE ? null
+		    : dictionary[code];
+	}
+
+	public double getDoubleVal(int index) {
+	    throw new IllegalArgumentException("Column " + getName()
+		    + " holds strings, not numbers");
+	}
+
+	public int getIntVal(int index) {
+	    throw new IllegalArgumentException("Column " + getName()
+		    + " holds strings, not numbers");
+	}
+    }
+}
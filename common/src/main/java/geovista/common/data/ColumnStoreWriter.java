@@ -0,0 +1,435 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+/**
+ * Writes the column file read by ColumnStore, one row at a time, so a table
+ * never has to fit in the heap to be converted. Each column is spooled to
+ * its own temporary file and the pieces are joined when the writer is
+ * closed. String columns are dictionary encoded as they arrive, so only
+ * their distinct values are kept in memory.
+ *
+ * Each row is written by setting its values, in any order, and then calling
+ * endRow; values not set are null. Columns are limited to what one mapping
+ * can hold, 2^28 rows for doubles.
+ */
+public class ColumnStoreWriter {
+
+    protected final static Logger logger = Logger
+	    .getLogger(ColumnStoreWriter.class.getName());
+
+    private static final int SPOOL_BYTES = 1 << 16;
+
+    private final File file;
+    private final String[] names;
+    private final int[] types;
+    private final boolean locations;
+    private final Spool[] spools;
+    private final Dictionary[] dictionaries;
+    private final double[] rowDoubles;
+    private final int[] rowInts;
+    private final String[] rowStrings;
+    private double rowX = Double.NaN;
+    private double rowY = Double.NaN;
+    private int nRows;
+
+    /**
+     * @param types
+     *            DataSetForApps.TYPE_DOUBLE, TYPE_INTEGER, or TYPE_NAME for
+     *            strings, one per column
+     * @param locations
+     *            whether each row also has an x, y location
+     */
+    public ColumnStoreWriter(File file, String[] names, int[] types,
+	    boolean locations) throws IOException {
+	if (names.length != types.length) {
+	    throw new IllegalArgumentException("names and types lengths differ");
+	}
+	this.file = file;
+	this.names = names;
+	this.types = types;
+	this.locations = locations;
+	int nSpools = names.length + (locations ? 2 : 0);
+	spools = new Spool[nSpools];
+	dictionaries = new Dictionary[names.length];
+	rowDoubles = new double[names.length];
+	rowInts = new int[names.length];
+	rowStrings = new String[names.length];
+	try {
+	    for (int i = 0; i < nSpools; i++) {
+		spools[i] = new Spool(file);
+	    }
+	} catch (IOException e) {
+	    deleteSpools();
+	    throw e;
+	}
+	for (int i = 0; i < names.length; i++) {
+	    if (types[i] == DataSetForApps.TYPE_NAME) {
+		dictionaries[i] = new Dictionary();
+	    } else if (types[i] != DataSetForApps.TYPE_DOUBLE
+		    && types[i] != DataSetForApps.TYPE_INTEGER) {
+		deleteSpools();
+		throw new IllegalArgumentException("column " + names[i]
+			+ " has unknown type " + types[i]);
+	    }
+	}
+	clearRow();
+    }
+
+    /**
+     * Writes the attribute columns of a data set, plus its point locations
+     * (or shape centroids) when it has any. Attributes that are not double,
+     * int or String arrays are left out.
+     */
+    public static void write(DataSetForApps dataSet, File file)
+	    throws IOException {
+	ArrayList<TypedColumn> cols = new ArrayList<TypedColumn>();
+	for (int i = 0; i < dataSet.getColumnCount(); i++) {
+	    TypedColumn col = dataSet.getColumn(i);
+	    if (col == null) {
+		logger.info("leaving out column " + dataSet.getColumnName(i)
+			+ ", it is not double, int or String");
+	    } else {
+		cols.add(col);
+	    }
+	}
+	String[] names = new String[cols.size()];
+	int[] types = new int[cols.size()];
+	for (int i = 0; i < names.length; i++) {
+	    names[i] = cols.get(i).getName();
+	    types[i] = cols.get(i).getType();
+	}
+	double[][] xy = null;
+	if (dataSet.getSpatialType() != DataSetForApps.SPATIAL_TYPE_NONE) {
+	    try {
+		xy = DistanceWeightsBuilder.findCentroids(dataSet);
+	    } catch (IllegalArgumentException e) {
+		logger.info("no locations written: " + e.getMessage());
+	    }
+	}
+	ColumnStoreWriter writer = new ColumnStoreWriter(file, names, types,
+		xy != null);
+	try {
+	    int n = dataSet.getNumObservations();
+	    for (int row = 0; row < n; row++) {
+		for (int c = 0; c < names.length; c++) {
+		    TypedColumn col = cols.get(c);
+		    if (types[c] == DataSetForApps.TYPE_DOUBLE) {
+			writer.setDouble(c, col.getDoubleVal(row));
+		    } else if (types[c] == DataSetForApps.TYPE_INTEGER) {
+			writer.setInt(c, col.getIntVal(row));
+		    } else {
+			writer.setString(c, col.getStringVal(row));
+		    }
+		}
+		if (xy != null) {
+		    writer.setLocation(xy[0][row], xy[1][row]);
+		}
+		writer.endRow();
+	    }
+	} catch (IOException e) {
+	    writer.abort();
+	    throw e;
+	}
+	writer.close();
+    }
+
+    public int getNumColumns() {
+	return names.length;
+    }
+
+    public int getNumRows() {
+	return nRows;
+    }
+
+    public void setDouble(int column, double value) {
+	rowDoubles[column] = value;
+    }
+
+    public void setInt(int column, int value) {
+	rowInts[column] = value;
+    }
+
+    public void setString(int column, String value) {
+	rowStrings[column] = value;
+    }
+
+    public void setLocation(double x, double y) {
+	rowX = x;
+	rowY = y;
+    }
+
+    public void endRow() throws IOException {
+	for (int i = 0; i < names.length; i++) {
+	    if (types[i] == DataSetForApps.TYPE_DOUBLE) {
+		spools[i].putDouble(rowDoubles[i]);
+	    } else if (types[i] == DataSetForApps.TYPE_INTEGER) {
+		spools[i].putInt(rowInts[i]);
+	    } else {
+		spools[i].putInt(dictionaries[i].encode(rowStrings[i]));
+	    }
+	}
+	if (locations) {
+	    spools[names.length].putDouble(rowX);
+	    spools[names.length + 1].putDouble(rowY);
+	}
+	nRows++;
+	clearRow();
+    }
+
+    private void clearRow() {
+	for (int i = 0; i < names.length; i++) {
+	    rowDoubles[i] = Double.NaN;
+	    rowInts[i] = DataSetForApps.NULL_INT_VALUE;
+	    rowStrings[i] = null;
+	}
+	rowX = Double.NaN;
+	rowY = Double.NaN;
+    }
+
+    /**
+     * Joins the spooled columns into the column file and removes the spools.
+     */
+    public void close() throws IOException {
+	RandomAccessFile out = new RandomAccessFile(file, "rw");
+	try {
+	    out.setLength(0);
+	    FileChannel channel = out.getChannel();
+	    int nEntries = spools.length;
+	    long[] offsets = new long[nEntries];
+	    long[] dictOffsets = new long[nEntries];
+	    long[] dictBytes = new long[nEntries];
+	    long pos = ColumnStore.HEADER_BYTES;
+	    for (int i = 0; i < nEntries; i++) {
+		pos = align(pos);
+		offsets[i] = pos;
+		pos += spools[i].transferTo(channel, pos);
+	    }
+	    for (int i = 0; i < names.length; i++) {
+		if (dictionaries[i] != null) {
+		    ByteBuffer dict = dictionaries[i].toBytes();
+		    dictOffsets[i] = pos;
+		    dictBytes[i] = dict.remaining();
+		    pos += writeFully(channel, dict, pos);
+		}
+	    }
+	    long dirOffset = pos;
+	    ByteBuffer dir = newBuffer();
+	    for (int i = 0; i < nEntries; i++) {
+		if (i < names.length) {
+		    dir = putString(dir, names[i]);
+		} else {
+		    dir = putString(dir, i == names.length ? "x" : "y");
+		}
+		dir = ensure(dir, 1 + 8 * 3 + 4);
+		dir.put(kindOf(i));
+		dir.putLong(offsets[i]);
+		dir.putLong(dictOffsets[i]);
+		dir.putLong(dictBytes[i]);
+		int dictSize = 0;
+		if (i < names.length && dictionaries[i] != null) {
+		    dictSize = dictionaries[i].size();
+		}
+		dir.putInt(dictSize);
+	    }
+	    dir.flip();
+	    writeFully(channel, dir, dirOffset);
+
+	    ByteBuffer header = ByteBuffer.allocate(ColumnStore.HEADER_BYTES)
+		    .order(ByteOrder.LITTLE_ENDIAN);
+	    header.putLong(ColumnStore.MAGIC);
+	    header.putInt(ColumnStore.VERSION);
+	    header.putInt(nRows);
+	    header.putInt(nEntries);
+	    header.putInt(locations ? ColumnStore.FLAG_LOCATIONS : 0);
+	    header.putLong(dirOffset);
+	    header.flip();
+	    writeFully(channel, header, 0);
+	    channel.force(false);
+	} finally {
+	    out.close();
+	    deleteSpools();
+	}
+	logger.fine("wrote " + nRows + " rows of " + names.length
+		+ " columns to " + file);
+    }
+
+    /**
+     * Gives up, removing the spools and leaving no column file.
+     */
+    public void abort() {
+	deleteSpools();
+	file.delete();
+    }
+
+    private byte kindOf(int entry) {
+	if (entry == names.length) {
+	    return ColumnStore.KIND_X;
+	} else if (entry == names.length + 1) {
+	    return ColumnStore.KIND_Y;
+	} else if (types[entry] == DataSetForApps.TYPE_INTEGER) {
+	    return ColumnStore.KIND_INT;
+	} else if (types[entry] == DataSetForApps.TYPE_NAME) {
+	    return ColumnStore.KIND_STRING;
+	}
+	return ColumnStore.KIND_DOUBLE;
+    }
+
+    private void deleteSpools() {
+	for (Spool spool : spools) {
+	    if (spool != null) {
+		spool.delete();
+	    }
+	}
+    }
+
+    private static long align(long pos) {
+	return (pos + 7) & ~7L;
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buf,
+	    long pos) throws IOException {
+	long written = 0;
+	while (buf.hasRemaining()) {
+	    written += channel.write(buf, pos + written);
+	}
+	return written;
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buf, int more) {
+	if (buf.remaining() >= more) {
+	    return buf;
+	}
+	ByteBuffer bigger = ByteBuffer.allocate(
+		Math.max(buf.capacity() * 2, buf.position() + more)).order(
+		ByteOrder.LITTLE_ENDIAN);
+	buf.flip();
+	bigger.put(buf);
+	return bigger;
+    }
+
+    private static ByteBuffer putString(ByteBuffer buf, String s)
+	    throws IOException {
+	if (s == null) {
+	    buf = ensure(buf, 4);
+	    buf.putInt(-1);
+	    return buf;
+	}
+	byte[] bytes = s.getBytes("UTF-8");
+	buf = ensure(buf, 4 + bytes.length);
+	buf.putInt(bytes.length);
+	buf.put(bytes);
+	return buf;
+    }
+
+    private static ByteBuffer newBuffer() {
+	return ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Distinct strings of one column, coded in order of first appearance.
+     */
+    private static class Dictionary {
+	private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+	private final ArrayList<String> values = new ArrayList<String>();
+
+	int encode(String value) {
+	    if (value == null) {
+		return StringDictionaryColumn.NULL_CODE;
+	    }
+	    Integer code = codes.get(value);
+	    if (code == null) {
+		code = Integer.valueOf(values.size());
+		codes.put(value, code);
+		values.add(value);
+	    }
+	    return code.intValue();
+	}
+
+	int size() {
+	    return values.size();
+	}
+
+	ByteBuffer toBytes() throws IOException {
+	    ByteBuffer buf = newBuffer();
+	    for (String value : values) {
+		buf = putString(buf, value);
+	    }
+	    buf.flip();
+	    return buf;
+	}
+    }
+
+    /**
+     * One column's values, buffered and appended to a temporary file.
+     */
+    private static class Spool {
+	private final File spoolFile;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final ByteBuffer buf;
+
+	Spool(File target) throws IOException {
+	    File dir = target.getAbsoluteFile().getParentFile();
+	    spoolFile = File.createTempFile("spool", ".col", dir);
+	    raf = new RandomAccessFile(spoolFile, "rw");
+	    channel = raf.getChannel();
+	    buf = ByteBuffer.allocateDirect(SPOOL_BYTES).order(
+		    ByteOrder.LITTLE_ENDIAN);
+	}
+
+	void putDouble(double val) throws IOException {
+	    if (buf.remaining() < 8) {
+		flush();
+	    }
+	    buf.putDouble(val);
+	}
+
+	void putInt(int val) throws IOException {
+	    if (buf.remaining() < 4) {
+		flush();
+	    }
+	    buf.putInt(val);
+	}
+
+	private void flush() throws IOException {
+	    buf.flip();
+	    while (buf.hasRemaining()) {
+		channel.write(buf);
+	    }
+	    buf.clear();
+	}
+
+	long transferTo(FileChannel target, long pos) throws IOException {
+	    flush();
+	    long size = channel.size();
+	    long done = 0;
+	    target.position(pos);
+	    while (done < size) {
+		done += channel.transferTo(done, size - done, target);
+	    }
+	    return size;
+	}
+
+	void delete() {
+	    try {
+		raf.close();
+	    } catch (IOException e) {
+		logger.fine("could not close " + spoolFile);
+	    }
+	    spoolFile.delete();
+	}
+    }
+}
@@ -0,0 +1,185 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.util.Arrays;
+
+/**
+ * Immutable spatial weights in compressed sparse row form.
+ *
+ * The neighbors of observation i are neighborAt(k) for k in
+ * [neighborStart(i), neighborEnd(i)), with matching weightAt(k). There is one
+ * int and one float per directed edge, and no per-edge objects, so reading
+ * neighbors never allocates.
+ */
+public class CompressedSpatialWeights {
+
+    final int[] offsets;
+    final int[] borIDs;
+    final float[] weights;
+
+    /**
+     * Takes ownership of the arrays; offsets must have one more entry than
+     * there are observations, start at zero and be non-decreasing.
+     */
+    public CompressedSpatialWeights(int[] offsets, int[] borIDs,
+	    float[] weights) {
+	if (offsets.length == 0 || offsets[0] != 0) {
+	    throw new IllegalArgumentException("offsets must start at zero");
+	}
+	int nEdges = offsets[offsets.length - 1];
+	if (borIDs.length != nEdges || weights.length != nEdges) {
+	    throw new IllegalArgumentException("expected " + nEdges
+		    + " neighbors, got " + borIDs.length + " ids and "
+		    + weights.length + " weights");
+	}
+	this.offsets = offsets;
+	this.borIDs = borIDs;
+	this.weights = weights;
+    }
+
+    /**
+     * Builds from an edge list. Edges do not need to be sorted; within each
+     * row neighbors are ordered by id.
+     */
+    public static CompressedSpatialWeights fromEdges(int nObs, int[] from,
+	    int[] to, float[] edgeWeights, int nEdges) {
+	int[] offsets = new int[nObs + 1];
+	for (int e = 0; e < nEdges; e++) {
+	    offsets[from[e] + 1]++;
+	}
+	for (int i = 0; i < nObs; i++) {
+	    offsets[i + 1] += offsets[i];
+	}
+	int[] next = new int[nObs];
+	System.arraycopy(offsets, 0, next, 0, nObs);
+	int[] borIDs = new int[nEdges];
+	float[] weights = new float[nEdges];
+	for (int e = 0; e < nEdges; e++) {
+	    int k = next[from[e]]++;
+	    borIDs[k] = to[e];
+	    weights[k] = edgeWeights == null ? 1f : edgeWeights[e];
+	}
+	for (int i = 0; i < nObs; i++) {
+	    sortRow(borIDs, weights, offsets[i], offsets[i + 1]);
+	}
+	return new CompressedSpatialWeights(offsets, borIDs, weights);
+    }
+
+    private static void sortRow(int[] ids, float[] w, int start, int end) {
+	// rows are short, insertion sort is fine and keeps weights aligned
+	for (int k = start + 1; k < end; k++) {
+	    int id = ids[k];
+	    float wt = w[k];
+	    int j = k - 1;
+	    while (j >= start && ids[j] > id) {
+		ids[j + 1] = ids[j];
+		w[j + 1] = w[j];
+		j--;
+	    }
+	    ids[j + 1] = id;
+	    w[j + 1] = wt;
+	}
+    }
+
+    public int getNumObservations() {
+	return offsets.length - 1;
+    }
+
+    public int getNumEdges() {
+	return borIDs.length;
+    }
+
+    public int getNumNeighbors(int obs) {
+	return offsets[obs + 1] - offsets[obs];
+    }
+
+    public int neighborStart(int obs) {
+	return offsets[obs];
+    }
+
+    public int neighborEnd(int obs) {
+	return offsets[obs + 1];
+    }
+
+    public int neighborAt(int k) {
+	return borIDs[k];
+    }
+
+    public float weightAt(int k) {
+	return weights[k];
+    }
+
+    /**
+     * Copies the neighbor ids of obs into buffer, which must be at least
+     * getNumNeighbors(obs) long, and returns how many were copied.
+     */
+    public int copyNeighborIDs(int obs, int[] buffer) {
+	int n = offsets[obs + 1] - offsets[obs];
+	System.arraycopy(borIDs, offsets[obs], buffer, 0, n);
+	return n;
+    }
+
+    public int[] getNeighborIDs(int obs) {
+	return Arrays.copyOfRange(borIDs, offsets[obs], offsets[obs + 1]);
+    }
+
+    public int getMaxNeighbors() {
+	int max = 0;
+	for (int i = 0; i < offsets.length - 1; i++) {
+	    max = Math.max(max, offsets[i + 1] - offsets[i]);
+	}
+	return max;
+    }
+
+    /**
+     * Returns a copy whose rows each sum to one; rows with no neighbors stay
+     * empty.
+     */
+    public CompressedSpatialWeights rowStandardize() {
+	float[] stdWeights = new float[weights.length];
+	for (int i = 0; i < offsets.length - 1; i++) {
+	    double rowSum = 0;
+	    for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+		rowSum += weights[k];
+	    }
+	    for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+		stdWeights[k] = rowSum == 0 ? 0f : (float) (weights[k] / rowSum);
+	    }
+	}
+	return new CompressedSpatialWeights(offsets, borIDs, stdWeights);
+    }
+
+    /**
+     * Spatial lag: out[i] = sum over neighbors j of w(i,j) * x[j].
+     */
+    public void lag(double[] x, double[] out) {
+	if (x.length != offsets.length - 1 || out.length != x.length) {
+	    throw new IllegalArgumentException("arrays must have length "
+		    + (offsets.length - 1));
+	}
+	for (int i = 0; i < out.length; i++) {
+	    double sum = 0;
+	    for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+		sum += weights[k] * x[borIDs[k]];
+	    }
+	    out[i] = sum;
+	}
+    }
+
+    /**
+     * Spatial lag with every weight taken as one, which is what the local
+     * Moran scores use.
+     */
+    public void sumNeighbors(double[] x, double[] out) {
+	for (int i = 0; i < out.length; i++) {
+	    double sum = 0;
+	    for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+		sum += x[borIDs[k]];
+	    }
+	    out[i] = sum;
+	}
+    }
+}
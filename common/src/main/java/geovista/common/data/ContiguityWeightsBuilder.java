@@ -0,0 +1,398 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.TopologyException;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Builds contiguity weights without testing every pair of geometries.
+ *
+ * TOUCHES gives the same neighbors as SpatialWeights.findNeighbors: an
+ * STR-tree over the envelopes proposes candidate pairs, and only those are
+ * put through Geometry.touches. QUEEN and ROOK never call the topology code
+ * at all; they hash shared vertices or shared edges, which is exact for
+ * polygon coverages whose boundaries are digitized consistently, such as
+ * census geographies.
+ *
+ * Both searches are split across a fixed pool of nThreads. TOUCHES gives
+ * each task a range of geometries to query the tree for. QUEEN and ROOK
+ * collect the vertices or edges of ranges of geometries in parallel, sorted
+ * by hash into partitions, then match the keys of each partition in
+ * parallel; a key is only ever in one partition.
+ */
+public class ContiguityWeightsBuilder {
+
+    protected final static Logger logger = Logger
+	    .getLogger(ContiguityWeightsBuilder.class.getName());
+
+    public enum Criterion {
+	TOUCHES, QUEEN, ROOK
+    }
+
+    private final Criterion criterion;
+    private int nThreads;
+
+    public ContiguityWeightsBuilder(Criterion criterion) {
+	this.criterion = criterion;
+	nThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    public void setThreadCount(int nThreads) {
+	if (nThreads < 1) {
+	    throw new IllegalArgumentException("nThreads must be positive");
+	}
+	this.nThreads = nThreads;
+    }
+
+    public SpatialWeights findWeights(List<Geometry> geoms) {
+	return new SpatialWeights(findCompressedWeights(geoms));
+    }
+
+    public SpatialWeights findWeights(Geometry[] geoms) {
+	ArrayList<Geometry> geomList = new ArrayList<Geometry>(geoms.length);
+	for (Geometry g : geoms) {
+	    geomList.add(g);
+	}
+	return findWeights(geomList);
+    }
+
+    public CompressedSpatialWeights findCompressedWeights(List<Geometry> geoms) {
+	long start = System.currentTimeMillis();
+	EdgeList pairs;
+	if (criterion == Criterion.TOUCHES) {
+	    pairs = findTouchingPairs(geoms);
+	} else {
+	    pairs = findSharedBoundaryPairs(geoms, criterion == Criterion.ROOK);
+	}
+
+	// each pair was found once, with i < j; store it both ways
+	int nPairs = pairs.size;
+	int[] from = new int[nPairs * 2];
+	int[] to = new int[nPairs * 2];
+	for (int e = 0; e < nPairs; e++) {
+	    from[e] = pairs.from[e];
+	    to[e] = pairs.to[e];
+	    from[nPairs + e] = pairs.to[e];
+	    to[nPairs + e] = pairs.from[e];
+	}
+	logger.fine("found " + nPairs + " " + criterion + " neighbors among "
+		+ geoms.size() + " geometries in "
+		+ (System.currentTimeMillis() - start) + " ms");
+	return CompressedSpatialWeights.fromEdges(geoms.size(), from, to, null,
+		nPairs * 2);
+    }
+
+    private EdgeList findTouchingPairs(final List<Geometry> geoms) {
+	final int n = geoms.size();
+	final Envelope[] envs = new Envelope[n];
+	final STRtree tree = new STRtree();
+	for (int i = 0; i < n; i++) {
+	    envs[i] = geoms.get(i).getEnvelopeInternal();
+	    tree.insert(envs[i], Integer.valueOf(i));
+	}
+	tree.build();
+
+	ArrayList<Callable<EdgeList>> tasks = new ArrayList<Callable<EdgeList>>();
+	int chunk = Math.max(1, (n + nThreads * 4 - 1) / (nThreads * 4));
+	for (int first = 0; first < n; first += chunk) {
+	    final int lo = first;
+	    final int hi = Math.min(n, first + chunk);
+	    tasks.add(new Callable<EdgeList>() {
+		public EdgeList call() {
+		    EdgeList pairs = new EdgeList();
+		    for (int i = lo; i < hi; i++) {
+			List<?> hits;
+			synchronized (tree) {
+			    hits = tree.query(envs[i]);
+			}
+			for (Object hit : hits) {
+			    int j = ((Integer) hit).intValue();
+			    if (j > i && touches(geoms.get(i), geoms.get(j), i, j)) {
+				pairs.add(i, j);
+			    }
+			}
+		    }
+		    return pairs;
+		}
+	    });
+	}
+	EdgeList all = new EdgeList();
+	for (EdgeList pairs : runAll(tasks)) {
+	    all.addAll(pairs);
+	}
+	return all;
+    }
+
+    private static boolean touches(Geometry geom, Geometry geom2, int i, int j) {
+	try {
+	    return geom.touches(geom2);
+	} catch (TopologyException te) {
+	    logger.fine("buffing " + i + " and " + j);
+	    return geom.buffer(0).touches(geom2.buffer(0));
+	}
+    }
+
+    private EdgeList findSharedBoundaryPairs(final List<Geometry> geoms,
+	    final boolean rook) {
+	final int n = geoms.size();
+	final int nParts = nThreads == 1 ? 1 : nThreads * 4;
+	int chunk = Math.max(1, (n + nThreads * 4 - 1) / (nThreads * 4));
+
+	// the keys of each range of geometries, by partition
+	ArrayList<Callable<ArrayList<ArrayList<BoundaryKey>>>> collect = new ArrayList<Callable<ArrayList<ArrayList<BoundaryKey>>>>();
+	for (int first = 0; first < n; first += chunk) {
+	    final int lo = first;
+	    final int hi = Math.min(n, first + chunk);
+	    collect.add(new Callable<ArrayList<ArrayList<BoundaryKey>>>() {
+		public ArrayList<ArrayList<BoundaryKey>> call() {
+		    return collectKeys(geoms, lo, hi, rook, nParts);
+		}
+	    });
+	}
+	final List<ArrayList<ArrayList<BoundaryKey>>> ranges = runAll(collect);
+
+	// each partition matched on its own, taking the ranges in order so
+	// the geometries come in id order
+	ArrayList<Callable<EdgeList>> match = new ArrayList<Callable<EdgeList>>();
+	for (int part = 0; part < nParts; part++) {
+	    final int p = part;
+	    match.add(new Callable<EdgeList>() {
+		public EdgeList call() {
+		    return matchKeys(ranges, p);
+		}
+	    });
+	}
+
+	// two geometries sharing keys in several partitions are found by
+	// each of them
+	EdgeList pairs = new EdgeList();
+	PairSet seen = new PairSet();
+	for (EdgeList found : runAll(match)) {
+	    for (int e = 0; e < found.size; e++) {
+		if (seen.add(found.from[e], found.to[e])) {
+		    pairs.add(found.from[e], found.to[e]);
+		}
+	    }
+	}
+	return pairs;
+    }
+
+    private static ArrayList<ArrayList<BoundaryKey>> collectKeys(
+	    List<Geometry> geoms, int lo, int hi, boolean rook, int nParts) {
+	ArrayList<ArrayList<BoundaryKey>> parts = new ArrayList<ArrayList<BoundaryKey>>(
+		nParts);
+	for (int p = 0; p < nParts; p++) {
+	    parts.add(new ArrayList<BoundaryKey>());
+	}
+	ArrayList<Coordinate[]> rings = new ArrayList<Coordinate[]>();
+	for (int i = lo; i < hi; i++) {
+	    rings.clear();
+	    addRings(geoms.get(i), rings);
+	    for (Coordinate[] coords : rings) {
+		int nKeys = rook ? coords.length - 1 : coords.length;
+		for (int c = 0; c < nKeys; c++) {
+		    BoundaryKey key = rook ? new BoundaryKey(coords[c],
+			    coords[c + 1], i) : new BoundaryKey(coords[c],
+			    coords[c], i);
+		    parts.get(partitionOf(key, nParts)).add(key);
+		}
+	    }
+	}
+	return parts;
+    }
+
+    /**
+     * A partition picked from the high bits of a multiple of the hash, so
+     * the keys of a partition do not all share their low bits and crowd
+     * into a few buckets of its map.
+     */
+    private static int partitionOf(BoundaryKey key, int nParts) {
+	long mixed = (key.hash & 0xffffffffL) * 0x9E3779B97F4A7C15L;
+	return (int) ((mixed >>> 33) % nParts);
+    }
+
+    private static EdgeList matchKeys(
+	    List<ArrayList<ArrayList<BoundaryKey>>> ranges, int part) {
+	// key -> ids of the geometries that have that vertex or edge
+	HashMap<BoundaryKey, int[]> owners = new HashMap<BoundaryKey, int[]>();
+	EdgeList pairs = new EdgeList();
+	PairSet seen = new PairSet();
+	for (ArrayList<ArrayList<BoundaryKey>> range : ranges) {
+	    for (BoundaryKey key : range.get(part)) {
+		int i = key.geom;
+		int[] ids = owners.get(key);
+		if (ids == null) {
+		    owners.put(key, new int[] { i });
+		    continue;
+		}
+		boolean present = false;
+		for (int id : ids) {
+		    if (id == i) {
+			present = true;
+		    } else if (seen.add(id, i)) {
+			pairs.add(id, i);
+		    }
+		}
+		if (!present) {
+		    int[] grown = new int[ids.length + 1];
+		    System.arraycopy(ids, 0, grown, 0, ids.length);
+		    grown[ids.length] = i;
+		    owners.put(key, grown);
+		}
+	    }
+	}
+	return pairs;
+    }
+
+    /**
+     * Adds each ring (or line) separately, so no edge joins the end of one
+     * ring to the start of the next.
+     */
+    private static void addRings(Geometry geom, List<Coordinate[]> rings) {
+	for (int g = 0; g < geom.getNumGeometries(); g++) {
+	    Geometry part = geom.getGeometryN(g);
+	    if (part instanceof Polygon) {
+		Polygon poly = (Polygon) part;
+		rings.add(poly.getExteriorRing().getCoordinates());
+		for (int h = 0; h < poly.getNumInteriorRing(); h++) {
+		    rings.add(poly.getInteriorRingN(h).getCoordinates());
+		}
+	    } else {
+		rings.add(part.getCoordinates());
+	    }
+	}
+    }
+
+    /**
+     * Runs the tasks on a fixed pool, or here if there is one thread, and
+     * returns their results in task order.
+     */
+    private <T> List<T> runAll(List<Callable<T>> tasks) {
+	ArrayList<T> all = new ArrayList<T>(tasks.size());
+	if (nThreads == 1 || tasks.size() == 1) {
+	    for (Callable<T> task : tasks) {
+		try {
+		    all.add(task.call());
+		} catch (Exception e) {
+		    throw new IllegalStateException(e);
+		}
+	    }
+	    return all;
+	}
+	ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+	try {
+	    for (Future<T> result : pool.invokeAll(tasks)) {
+		all.add(result.get());
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException("contiguity search interrupted", e);
+	} catch (ExecutionException e) {
+	    throw new IllegalStateException("contiguity search failed", e
+		    .getCause());
+	} finally {
+	    pool.shutdown();
+	}
+	return all;
+    }
+
+    /**
+     * Vertex or undirected edge, compared by exact coordinates, and the
+     * geometry it was found on, which is not compared.
+     */
+    private static final class BoundaryKey {
+	private final double x1, y1, x2, y2;
+	final int geom;
+	final int hash;
+
+	BoundaryKey(Coordinate a, Coordinate b, int geom) {
+	    this.geom = geom;
+	    if (a.x < b.x || (a.x == b.x && a.y <= b.y)) {
+		x1 = a.x;
+		y1 = a.y;
+		x2 = b.x;
+		y2 = b.y;
+	    } else {
+		x1 = b.x;
+		y1 = b.y;
+		x2 = a.x;
+		y2 = a.y;
+	    }
+	    long h = Double.doubleToLongBits(x1);
+	    h = h * 31 + Double.doubleToLongBits(y1);
+	    h = h * 31 + Double.doubleToLongBits(x2);
+	    h = h * 31 + Double.doubleToLongBits(y2);
+	    hash = (int) (h ^ (h >>> 32));
+	}
+
+	@Override
+	public int hashCode() {
+	    return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+	    if (!(o instanceof BoundaryKey)) {
+		return false;
+	    }
+	    BoundaryKey k = (BoundaryKey) o;
+	    return x1 == k.x1 && y1 == k.y1 && x2 == k.x2 && y2 == k.y2;
+	}
+    }
+
+    private static final class PairSet {
+	private final HashSet<Long> pairs = new HashSet<Long>();
+
+	boolean add(int a, int b) {
+	    long key = a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+	    return pairs.add(key);
+	}
+    }
+
+    /**
+     * Growable pair of int arrays.
+     */
+    private static final class EdgeList {
+	int[] from = new int[16];
+	int[] to = new int[16];
+	int size;
+
+	void add(int i, int j) {
+	    if (size == from.length) {
+		int[] newFrom = new int[size * 2];
+		int[] newTo = new int[size * 2];
+		System.arraycopy(from, 0, newFrom, 0, size);
+		System.arraycopy(to, 0, newTo, 0, size);
+		from = newFrom;
+		to = newTo;
+	    }
+	    from[size] = i;
+	    to[size] = j;
+	    size++;
+	}
+
+	void addAll(EdgeList other) {
+	    for (int e = 0; e < other.size; e++) {
+		add(other.from[e], other.to[e]);
+	    }
+	}
+    }
+}
@@ -5,6 +5,7 @@
 
 package geovista.common.data;
 
+import java.awt.EventQueue;
 import java.awt.Shape;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
@@ -12,10 +13,16 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.vividsolutions.jts.geom.Geometry;
 
+import geovista.common.jts.ShapePyramid;
+
 /**
  * This class takes a set of Java arrays of type double[], int[], boolean[], or
  * String[], plus optional spatial (or other) data.
@@ -38,7 +45,11 @@ import com.vividsolutions.jts.geom.Geometry;
  * is not of one of those class types will not be correctly handled in the
  * current version.
  * 
- * 
+ * An attribute place may also hold a TypedColumn instead of an array, such as
+ * the memory mapped columns of a ColumnStore. Those columns are read through
+ * the numeric and value accessors without being copied to the heap; the
+ * methods that hand out arrays (getDataObjectOriginal and the like) turn
+ * every such column into an array the first time one of them is called.
  * 
  * @author Xiping Dai
  * @author Frank Hardisty
@@ -77,12 +88,38 @@ public class DataSetForApps {
     private String dataSourceName;// adding for Jared
 
     private transient SpatialWeights spatialWeights;
+    // levels of detail of the shape data, built on demand in the background
+    private transient ShapePyramid shapePyramid;
+    // the shapes a pyramid is being built for, and who is waiting for it
+    private transient Shape[] pyramidBuilding;
+    private transient List<Runnable> pyramidWaiters;
+    // one per numeric column, filled in on demand
+    private transient ColumnStatistics[] columnStatistics;
+    // typed views of the attribute arrays, one per attribute (null for
+    // types that have none), and the numeric ones in numeric order
+    private transient TypedColumn[] columns;
+    private transient NumericColumn[] numericColumns;
+    // true while some attribute place still holds a TypedColumn
+    private transient volatile boolean deferred;
+    private transient int observationNameIndex = -1;
 
     public Map<String, String>[] aliases;
     private Object sTempoMetadata;
 
     public static int NULL_INT_VALUE = Integer.MIN_VALUE;
 
+    // one thread builds the shape pyramids of all data sets, behind the
+    // maps drawing the originals in the meantime
+    private static final ExecutorService pyramidBuilder = Executors
+	    .newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    Thread t = new Thread(r, "shape-pyramid");
+		    t.setDaemon(true);
+		    t.setPriority(Thread.MIN_PRIORITY);
+		    return t;
+		}
+	    });
+
     final static Logger logger = Logger.getLogger(DataSetForApps.class
 	    .getName());
 
@@ -210,6 +247,7 @@ public class DataSetForApps {
     }
 
     public String findInequality(DataSetForApps otherDSA) {
+	materialize();
 
 	// first length
 	if (otherDSA.getDataObjectOriginal().length != dataObjectOriginal.length) {
@@ -309,6 +347,7 @@ public class DataSetForApps {
      * Returns exactly what was passed in to setDataObject(Object[]).
      */
     public Object[] getDataObjectOriginal() {
+	materialize();
 	return dataObjectOriginal;
     }
 
@@ -316,10 +355,19 @@ public class DataSetForApps {
      * Retuns all data, including observationNames String[] data at the end.
      */
     public Object[] getDataSetFull() {
+	materialize();
 	return dataSetFull;
     }
 
     public Object[] getNamedArrays() {
+	materialize();
+	return getNamedObjects();
+    }
+
+    /**
+     * Like getNamedArrays, but passes on any TypedColumn as it is.
+     */
+    private Object[] getNamedObjects() {
 	Object[] namedArrays = new Object[attributeNames.length];
 	for (int i = 0; i < namedArrays.length; i++) {
 	    namedArrays[i] = dataObjectOriginal[i + 1];
@@ -333,6 +381,7 @@ public class DataSetForApps {
      * from the attribute arrays, plus any other attached spatial objects.
      */
     public Object[] getDataSetNumericAndSpatial() {
+	materialize();
 	return dataSetNumericAndSpatial;
     }
 
@@ -341,6 +390,7 @@ public class DataSetForApps {
      *         and boolean[]) from the attribute arrays
      */
     public Object[] getDataSetNumeric() {
+	materialize();
 	return dataSetNumeric;
     }
 
@@ -369,6 +419,7 @@ public class DataSetForApps {
      * 
      */
     public Object getAttributeNumeric(int numericIndex) {
+	materialize();
 	// if (numericIndex >= this.numNumericAttributes) {
 
 	// }
@@ -384,6 +435,7 @@ public class DataSetForApps {
      * 
      */
     public String[] getObservationNames() {
+	materialize();
 	return observationNames;
     }
 
@@ -395,6 +447,9 @@ public class DataSetForApps {
      */
 
     public String getObservationName(int obs) {
+	if (observationNames == null && observationNameIndex >= 0) {
+	    return columns[observationNameIndex].getStringVal(obs);
+	}
 	if (observationNames == null) {
 	    logger.severe("observation names requested when observation names are null, returning empty string");
 	    return "";
@@ -490,6 +545,79 @@ public class DataSetForApps {
 	return null;
     }
 
+    /**
+     * Returns the shape data at several levels of detail if they are built,
+     * or null if they are not yet or there is no shape data. The first call
+     * starts building them in the background, since that can take a while
+     * for detailed shapes; they are kept for the maps showing this data set
+     * to share.
+     */
+    public ShapePyramid getShapePyramid() {
+	return getShapePyramid(null);
+    }
+
+    /**
+     * As getShapePyramid(), and if the pyramid is not built yet, whenBuilt
+     * (if not null) is run on the event dispatch thread once it is.
+     */
+    public ShapePyramid getShapePyramid(Runnable whenBuilt) {
+	final Shape[] shapes = getShapeData();
+	if (shapes == null) {
+	    return null;
+	}
+	synchronized (this) {
+	    if (shapePyramid != null && shapePyramid.getLevel(0) == shapes) {
+		return shapePyramid;
+	    }
+	    if (whenBuilt != null) {
+		if (pyramidWaiters == null) {
+		    pyramidWaiters = new ArrayList<Runnable>();
+		}
+		pyramidWaiters.add(whenBuilt);
+	    }
+	    if (pyramidBuilding == shapes) {
+		return null;
+	    }
+	    pyramidBuilding = shapes;
+	}
+	pyramidBuilder.execute(new Runnable() {
+	    public void run() {
+		buildShapePyramid(shapes);
+	    }
+	});
+	return null;
+    }
+
+    private void buildShapePyramid(Shape[] shapes) {
+	ShapePyramid pyramid = null;
+	try {
+	    pyramid = new ShapePyramid(shapes);
+	} catch (RuntimeException ex) {
+	    logger.log(Level.WARNING, "could not simplify the shapes", ex);
+	}
+	List<Runnable> waiters;
+	synchronized (this) {
+	    if (pyramidBuilding != shapes) {
+		// the shapes changed; a newer build tells the waiters
+		return;
+	    }
+	    pyramidBuilding = null;
+	    if (pyramid == null) {
+		// the originals it is, for those waiting
+		pyramidWaiters = null;
+		return;
+	    }
+	    shapePyramid = pyramid;
+	    waiters = pyramidWaiters;
+	    pyramidWaiters = null;
+	}
+	if (waiters != null) {
+	    for (Runnable waiter : waiters) {
+		EventQueue.invokeLater(waiter);
+	    }
+	}
+    }
+
     public List<Integer> getNeighbors(int id) {
 	return spatialWeights.getNeighborIDs(id);
     }
@@ -571,6 +699,7 @@ public class DataSetForApps {
     // }
 
     public int[] getIntArrayDataByName(String name) {
+	materialize();
 	int[] intData = new int[0];
 
 	for (int i = 0; i < attributeNames.length; i++) {
@@ -589,6 +718,7 @@ public class DataSetForApps {
     }
 
     public String[] getStringArrayDataByName(String name) {
+	materialize();
 	String[] stringData = new String[0];
 
 	for (int i = 0; i < attributeNames.length; i++) {
@@ -612,29 +742,78 @@ public class DataSetForApps {
      * 
      * This first index is zero, the next one, and so on, the last being
      * getNumberNumericAttributes() -1
+     * 
+     * The array is shared, not copied: for a double column it is the column
+     * itself, for an int column the column's cached conversion. It must not
+     * be modified; use copyNumericDataAsDouble for an array to change.
      */
     public double[] getNumericDataAsDouble(int numericArrayIndex) {
-	Object dataNumeric = dataSetNumericAndSpatial[numericArrayIndex + 1];
-	// because it is a string array of variable names
-	double[] doubleData = null;
-	if (dataNumeric instanceof double[]) {
-	    doubleData = (double[]) dataNumeric;
-	} else if (dataNumeric instanceof int[]) {
-	    int[] intData = (int[]) dataNumeric;
-	    doubleData = new double[intData.length];
-	    for (int i = 0; i < intData.length; i++) {
-		if (intData[i] == Integer.MIN_VALUE) {
-		    doubleData[i] = Double.NaN;
-		} else {
-		    doubleData[i] = intData[i];
-		}
-	    } // next i
-	} else {
+	return getNumericColumn(numericArrayIndex).getDoubles();
+    }
+
+    /**
+     * A new array holding the values of getNumericDataAsDouble, which the
+     * caller is free to change.
+     */
+    public double[] copyNumericDataAsDouble(int numericArrayIndex) {
+	return getNumericDataAsDouble(numericArrayIndex).clone();
+    }
+
+    /**
+     * The typed column behind the nth attribute, or null if that attribute
+     * is not a double, int or String array.
+     */
+    public TypedColumn getColumn(int arrayIndex) {
+	return columns[arrayIndex];
+    }
+
+    /**
+     * The typed column behind the nth numeric attribute, with the same index
+     * as getNumericDataAsDouble.
+     */
+    public NumericColumn getNumericColumn(int numericArrayIndex) {
+	if (numericArrayIndex < 0
+		|| numericArrayIndex >= numericColumns.length) {
 	    throw new IllegalArgumentException(
 		    "Unable to parse values in column " + numericArrayIndex
 			    + " as a number");
 	}
-	return doubleData;
+	return numericColumns[numericArrayIndex];
+    }
+
+    private NumericColumn findNumericColumnFromOriginal(int arrayIndex) {
+	TypedColumn col = null;
+	if (arrayIndex >= 0 && arrayIndex < columns.length) {
+	    col = columns[arrayIndex];
+	}
+	if (!(col instanceof NumericColumn)) {
+	    throw new IllegalArgumentException(
+		    "Unable to parse values in column " + (arrayIndex + 1)
+			    + " as a number." + "");
+	}
+	return (NumericColumn) col;
+    }
+
+    /**
+     * Returns the sorted order, ranks and moments of a numeric column,
+     * computing them the first time they are asked for. Data sets made by
+     * appendDataSet, prependDataSet or makeNewDataSet start with no
+     * statistics of their own.
+     * 
+     * The index is the same as for getNumericDataAsDouble.
+     */
+    public synchronized ColumnStatistics getColumnStatistics(
+	    int numericArrayIndex) {
+	if (columnStatistics == null) {
+	    columnStatistics = new ColumnStatistics[numNumericAttributes];
+	}
+	ColumnStatistics stats = columnStatistics[numericArrayIndex];
+	if (stats == null) {
+	    stats = new ColumnStatistics(getNumericColumn(numericArrayIndex)
+		    .getDoubles());
+	    columnStatistics[numericArrayIndex] = stats;
+	}
+	return stats;
     }
 
     /**
@@ -643,29 +822,12 @@ public class DataSetForApps {
      * This first index is zero, the next one, and so on, the last being
      * getNumberNumericAttributes() -1 The original data includes boolean,
      * double, int, string...
+     * 
+     * As for getNumericDataAsDouble, the array is shared and must not be
+     * modified.
      */
     public double[] getNumericDataAsDoubleFromOriginalData(int numericArrayIndex) {
-	Object dataNumeric = dataObjectOriginal[numericArrayIndex + 1];
-	// because it is a string array of variable names
-	double[] doubleData = null;
-	if (dataNumeric instanceof double[]) {
-	    doubleData = (double[]) dataNumeric;
-	} else if (dataNumeric instanceof int[]) {
-	    int[] intData = (int[]) dataNumeric;
-	    doubleData = new double[intData.length];
-	    for (int i = 0; i < intData.length; i++) {
-		if (intData[i] == Integer.MIN_VALUE) {
-		    doubleData[i] = Double.NaN;
-		} else {
-		    doubleData[i] = intData[i];
-		}
-	    } // next i
-	} else {
-	    throw new IllegalArgumentException(
-		    "Unable to parse values in column " + numericArrayIndex
-			    + " as a number");
-	}
-	return doubleData;
+	return findNumericColumnFromOriginal(numericArrayIndex).getDoubles();
     }
 
     /**
@@ -676,22 +838,7 @@ public class DataSetForApps {
      */
 
     public double getValueAsDouble(int arrayIndex, int obs) {
-	arrayIndex++;// skip variable names array
-	Object dataNumeric = dataObjectOriginal[arrayIndex];
-	double[] doubleData = null;
-	double doubleVal = Double.NaN;
-	if (dataNumeric instanceof double[]) {
-	    doubleData = (double[]) dataNumeric;
-	    doubleVal = doubleData[obs];
-	} else if (dataNumeric instanceof int[]) {
-	    int[] intData = (int[]) dataNumeric;
-	    doubleVal = intData[obs];
-	} else {
-	    throw new IllegalArgumentException(
-		    "Unable to parse values in column " + arrayIndex
-			    + " as a number." + "");
-	}
-	return doubleVal;
+	return findNumericColumnFromOriginal(arrayIndex).getDoubleVal(obs);
     }
 
     /**
@@ -702,25 +849,14 @@ public class DataSetForApps {
      */
 
     public String getValueAsString(int arrayIndex, int obs) {
-	arrayIndex++;// skip variable names array
-	Object dataNumeric = dataObjectOriginal[arrayIndex];
-	String stringVal = null;
-	if (dataNumeric instanceof double[]) {
-	    double[] doubleData = (double[]) dataNumeric;
-	    stringVal = String.valueOf(doubleData[obs]);
-	} else if (dataNumeric instanceof int[]) {
-	    int[] intData = (int[]) dataNumeric;
-	    stringVal = String.valueOf(intData[obs]);
-	} else if (dataNumeric instanceof String[]) {
-	    String[] stringData = (String[]) dataNumeric;
-	    stringVal = stringData[obs];
-	} else {
+	TypedColumn col = null;
+	if (arrayIndex < columns.length) {
+	    col = columns[arrayIndex];
+	}
+	if (col == null) {
 	    return "";// XXX not sure....
-	    // throw new IllegalArgumentException(
-	    // "Unable to parse values in column " + arrayIndex
-	    // + " as a string");
 	}
-	return stringVal;
+	return col.getStringVal(obs);
     }
 
     /**
@@ -729,25 +865,7 @@ public class DataSetForApps {
      */
 
     public double getNumericValueAsDouble(int numericArrayIndex, int obs) {
-	Object dataNumeric = dataSetNumericAndSpatial[numericArrayIndex + 1]; // we
-	// skip
-	// the
-	// first
-	// one
-	double[] doubleData = null;
-	double doubleVal = Double.NaN;
-	if (dataNumeric instanceof double[]) {
-	    doubleData = (double[]) dataNumeric;
-	    doubleVal = doubleData[obs];
-	} else if (dataNumeric instanceof int[]) {
-	    int[] intData = (int[]) dataNumeric;
-	    doubleVal = intData[obs];
-	} else {
-	    throw new IllegalArgumentException(
-		    "Unable to parse values in column " + numericArrayIndex
-			    + " as a number");
-	}
-	return doubleVal;
+	return getNumericColumn(numericArrayIndex).getDoubleVal(obs);
     }
 
     /**
@@ -787,6 +905,7 @@ public class DataSetForApps {
 
 	attributeNames = (String[]) data[0];
 	aliases = new Map[attributeNames.length];
+	columnStatistics = null;
 
 	dataSetFull = new Object[dataObjectOriginal.length + 1]; // plus
 	// one
@@ -799,21 +918,33 @@ public class DataSetForApps {
 
 	int len = attributeNames.length;
 	dataType = new int[len];
+	columns = new TypedColumn[len];
 	numNumericAttributes = 0;
+	deferred = false;
+	observationNameIndex = -1;
 	for (int i = 0; i < len; i++) {
+	    columns[i] = TypedColumn.wrap(attributeNames[i], data[i + 1]);
+	    if (data[i + 1] instanceof TypedColumn) {
+		deferred = true;
+	    }
+	    int colType = columns[i] == null ? DataSetForApps.TYPE_NONE
+		    : columns[i].getType();
 	    if (data[i] instanceof SpatialWeights) {
 		spatialWeights = (SpatialWeights) data[i];
 	    }
-	    if (data[i + 1] instanceof String[]) {
+	    if (colType == DataSetForApps.TYPE_NAME) {
 		String attrName = attributeNames[i].toLowerCase();
 		if (attrName.endsWith("name")) {
 		    dataType[i] = DataSetForApps.TYPE_NAME;
-		    observationNames = (String[]) data[i + 1];
+		    observationNameIndex = i;
+		    if (data[i + 1] instanceof String[]) {
+			observationNames = (String[]) data[i + 1];
+		    }
 		}
-	    } else if (data[i + 1] instanceof double[]) {
+	    } else if (colType == DataSetForApps.TYPE_DOUBLE) {
 		dataType[i] = DataSetForApps.TYPE_DOUBLE;
 		numNumericAttributes++;
-	    } else if (data[i + 1] instanceof int[]) {
+	    } else if (colType == DataSetForApps.TYPE_INTEGER) {
 		dataType[i] = DataSetForApps.TYPE_INTEGER;
 		numNumericAttributes++;
 	    } else {
@@ -868,6 +999,7 @@ public class DataSetForApps {
 	    }
 	}
 	attributeNamesNumeric = new String[numNumericAttributes];
+	numericColumns = new NumericColumn[numNumericAttributes];
 	int dataTypeIndex = 0;
 	for (int i = 0; i < numNumericAttributes; i++) {
 	    while ((dataType[dataTypeIndex]) < 1) {
@@ -876,6 +1008,7 @@ public class DataSetForApps {
 	    dataSetNumericAndSpatial[i + 1] = data[dataTypeIndex + 1];
 	    dataSetNumeric[i] = data[dataTypeIndex + 1];
 	    attributeNamesNumeric[i] = attributeNames[dataTypeIndex];
+	    numericColumns[i] = (NumericColumn) columns[dataTypeIndex];
 
 	    dataTypeIndex++;
 	}
@@ -894,15 +1027,43 @@ public class DataSetForApps {
 
 	// set the number of observations
 	if (dataType[0] == DataSetForApps.TYPE_NAME) {
-	    numObservations = ((String[]) dataObjectOriginal[1]).length;
-	} else if (dataType[0] == DataSetForApps.TYPE_DOUBLE) {
-	    numObservations = ((double[]) dataSetNumericAndSpatial[1]).length;
-	} else if (dataType[0] == DataSetForApps.TYPE_INTEGER) {
-	    numObservations = ((int[]) dataSetNumericAndSpatial[1]).length;
+	    numObservations = columns[0].getNumObservations();
+	} else if (dataType[0] == DataSetForApps.TYPE_DOUBLE
+		|| dataType[0] == DataSetForApps.TYPE_INTEGER) {
+	    numObservations = numericColumns[0].getNumObservations();
 	}
 
     }
 
+    /**
+     * Replaces every TypedColumn still standing in for an array with the
+     * array, so the array getters can hand them out.
+     */
+    private synchronized void materialize() {
+	if (!deferred) {
+	    return;
+	}
+	materialize(dataObjectOriginal);
+	materialize(dataSetFull);
+	materialize(dataSetNumericAndSpatial);
+	materialize(dataSetNumeric);
+	if (observationNameIndex >= 0 && observationNames == null) {
+	    observationNames = (String[]) columns[observationNameIndex]
+		    .getArray();
+	    dataSetNumericAndSpatial[numNumericAttributes + 1] = observationNames;
+	    dataSetFull[attributeNames.length + 1] = observationNames;
+	}
+	deferred = false;
+    }
+
+    private static void materialize(Object[] data) {
+	for (int i = 0; i < data.length; i++) {
+	    if (data[i] instanceof TypedColumn) {
+		data[i] = ((TypedColumn) data[i]).getArray();
+	    }
+	}
+    }
+
     public DataSetForApps appendDataSet(DataSetForApps newData) {
 	DataSetForApps returnDataSetForApps = null;
 	if (dataObjectOriginal == null) {
@@ -922,8 +1083,8 @@ public class DataSetForApps {
 	    concatNames[i] = newNames[i - oldNames.length];
 	}
 	// get the named arrays
-	Object[] newObjects = newData.getNamedArrays();
-	Object[] oldObjects = getNamedArrays();
+	Object[] newObjects = newData.getNamedObjects();
+	Object[] oldObjects = getNamedObjects();
 	Object[] concatObjects = new Object[newObjects.length
 		+ oldObjects.length];
 	for (int i = 0; i < oldObjects.length; i++) {
@@ -984,8 +1145,8 @@ public class DataSetForApps {
 	    concatNames[i] = oldNames[i - newNames.length];
 	}
 	// get the named arrays
-	Object[] newObjects = newData.getNamedArrays();
-	Object[] oldObjects = getNamedArrays();
+	Object[] newObjects = newData.getNamedObjects();
+	Object[] oldObjects = getNamedObjects();
 	Object[] concatObjects = new Object[newObjects.length
 		+ oldObjects.length];
 	for (int i = 0; i < newObjects.length; i++) {
@@ -1035,25 +1196,7 @@ public class DataSetForApps {
     // numericArrayIndex+1
     public double getNumericValueAsDoubleSkipColNames(int numericColumnIndex,
 	    int row) {
-	Object dataNumeric = dataSetNumericAndSpatial[numericColumnIndex + 1];
-	double[] doubleData = null;
-	double doubleVal = Double.NaN;
-	if (dataNumeric instanceof double[]) {
-	    doubleData = (double[]) dataNumeric;
-	    doubleVal = doubleData[row];
-	} else if (dataNumeric instanceof int[]) {
-	    int[] intData = (int[]) dataNumeric;
-	    doubleVal = intData[row];
-	} else {
-	    String temp = ((String[]) dataNumeric)[row];
-	    logger.finest("\n" + dataNumeric.getClass() + "=" + temp + ", col="
-		    + (numericColumnIndex + 1) + "(d=" + numNumericAttributes
-		    + "), row=" + row + "\n");
-	    throw new IllegalArgumentException(
-		    "Unable to parse values in column " + numericColumnIndex
-			    + " as a number");
-	}
-	return doubleVal;
+	return getNumericColumn(numericColumnIndex).getDoubleVal(row);
     }
 
     public String[] makeUniqueNames(String[] inputNames) {
@@ -1124,18 +1267,19 @@ public class DataSetForApps {
 
     public Object getValueAt(int rowIndex, int columnIndex) {
 
-	Object dataArray = getDataObjectOriginal()[columnIndex + 1];
+	TypedColumn col = null;
+	if (columnIndex < columns.length) {
+	    col = columns[columnIndex];
+	}
+	Object dataArray = dataObjectOriginal[columnIndex + 1];
 
 	Object datum = null;
-	if (dataArray instanceof double[]) {
-	    double[] doubleArray = (double[]) dataArray;
-	    datum = new Double(doubleArray[rowIndex]);
-	} else if (dataArray instanceof int[]) {
-	    int[] intArray = (int[]) dataArray;
-	    datum = new Integer(intArray[rowIndex]);
-	} else if (dataArray instanceof String[]) {
-	    String[] stringArray = (String[]) dataArray;
-	    datum = new String(stringArray[rowIndex]);
+	if (col != null && col.getType() == DataSetForApps.TYPE_DOUBLE) {
+	    datum = new Double(col.getDoubleVal(rowIndex));
+	} else if (col != null && col.getType() == DataSetForApps.TYPE_INTEGER) {
+	    datum = new Integer(col.getIntVal(rowIndex));
+	} else if (col != null) {
+	    datum = new String(col.getStringVal(rowIndex));
 	} else if (dataArray instanceof boolean[]) {
 	    boolean[] booleanArray = (boolean[]) dataArray;
 	    datum = new Boolean(booleanArray[rowIndex]);
@@ -1185,6 +1329,7 @@ public class DataSetForApps {
 	Object attributes = null;
 
 	if (i > -1 && i < attributeNames.length) {
+	    materialize();
 	    // first index in dataObjectOriginal contains the attribute names so
 	    // skip this
 	    attributes = dataObjectOriginal[i + 1];
@@ -1321,4 +1466,4 @@ public class DataSetForApps {
 
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,289 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.awt.Shape;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Builds distance based weights (k nearest neighbors, distance band, and
+ * Gaussian or bisquare kernels) from point locations, using a KDTree instead
+ * of an n x n distance matrix. An observation is never its own neighbor,
+ * and each row lists its neighbors nearest first.
+ *
+ * Polygon layers can be used through their centroids, see findCentroids.
+ */
+public class DistanceWeightsBuilder {
+
+	protected final static Logger logger = Logger
+			.getLogger(DistanceWeightsBuilder.class.getName());
+
+	public enum Kernel {
+		GAUSSIAN, BISQUARE
+	}
+
+	private final double[] x;
+	private final double[] y;
+	private final KDTree tree;
+	private int nThreads;
+
+	public DistanceWeightsBuilder(double[] x, double[] y) {
+		this.x = x;
+		this.y = y;
+		tree = new KDTree(x, y);
+		nThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	public DistanceWeightsBuilder(DataSetForApps dataSet) {
+		this(findCentroids(dataSet));
+	}
+
+	private DistanceWeightsBuilder(double[][] centroids) {
+		this(centroids[0], centroids[1]);
+	}
+
+	public void setThreadCount(int nThreads) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException("nThreads must be positive");
+		}
+		this.nThreads = nThreads;
+	}
+
+	public KDTree getTree() {
+		return tree;
+	}
+
+	/**
+	 * Returns {x, y} for each observation: the points themselves for point
+	 * layers, geometry centroids when JTS geometries are present, and the
+	 * center of the shape bounds otherwise.
+	 */
+	public static double[][] findCentroids(DataSetForApps dataSet) {
+		int n = dataSet.getNumObservations();
+		double[] cx = new double[n];
+		double[] cy = new double[n];
+		Point2D[] points = dataSet.getPoint2DData();
+		Geometry[] geoms = dataSet.getGeomData();
+		Shape[] shapes = dataSet.getShapeData();
+		if (points != null) {
+			for (int i = 0; i < n; i++) {
+				cx[i] = points[i].getX();
+				cy[i] = points[i].getY();
+			}
+		} else if (geoms != null) {
+			for (int i = 0; i < n; i++) {
+				Point centroid = geoms[i].getCentroid();
+				cx[i] = centroid.getX();
+				cy[i] = centroid.getY();
+			}
+		} else if (shapes != null) {
+			for (int i = 0; i < n; i++) {
+				Rectangle2D bounds = shapes[i].getBounds2D();
+				cx[i] = bounds.getCenterX();
+				cy[i] = bounds.getCenterY();
+			}
+		} else {
+			throw new IllegalArgumentException("data set has no locations");
+		}
+		return new double[][] { cx, cy };
+	}
+
+	/**
+	 * Each observation's k nearest other observations, weight one.
+	 */
+	public SpatialWeights findKNearest(final int k) {
+		return new SpatialWeights(build(new RowFinder() {
+			public void findRow(int obs, KDTree.Neighbors bors, Row row) {
+				tree.nearest(x[obs], y[obs], k + 1, bors);
+				for (int b = 0; b < bors.size() && row.size < k; b++) {
+					if (bors.id(b) != obs) {
+						row.add(bors.id(b), 1f);
+					}
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Every other observation within threshold, weight one.
+	 */
+	public SpatialWeights findDistanceBand(final double threshold) {
+		return new SpatialWeights(build(new RowFinder() {
+			public void findRow(int obs, KDTree.Neighbors bors, Row row) {
+				tree.withinRadius(x[obs], y[obs], threshold, bors);
+				for (int b = 0; b < bors.size(); b++) {
+					if (bors.id(b) != obs) {
+						row.add(bors.id(b), 1f);
+					}
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Kernel weights with the same bandwidth everywhere. Neighbors farther
+	 * than the bandwidth get no weight, for the Gaussian kernel as well.
+	 */
+	public SpatialWeights findKernel(final Kernel kernel, final double bandwidth) {
+		return new SpatialWeights(build(new RowFinder() {
+			public void findRow(int obs, KDTree.Neighbors bors, Row row) {
+				tree.withinRadius(x[obs], y[obs], bandwidth, bors);
+				addKernelRow(obs, bors, bors.size(), bandwidth, kernel, row);
+			}
+		}));
+	}
+
+	/**
+	 * Kernel weights whose bandwidth at each observation is the distance to
+	 * its k'th nearest neighbor.
+	 */
+	public SpatialWeights findAdaptiveKernel(final Kernel kernel, final int k) {
+		return new SpatialWeights(build(new RowFinder() {
+			public void findRow(int obs, KDTree.Neighbors bors, Row row) {
+				tree.nearest(x[obs], y[obs], k + 1, bors);
+				double bandwidth = bors.size() == 0 ? 0 : bors.distance(bors
+						.size() - 1);
+				addKernelRow(obs, bors, bors.size(), bandwidth, kernel, row);
+			}
+		}));
+	}
+
+	static double kernelWeight(Kernel kernel, double dist, double bandwidth) {
+		if (bandwidth <= 0 || dist > bandwidth) {
+			return 0;
+		}
+		double ratio = dist / bandwidth;
+		if (kernel == Kernel.BISQUARE) {
+			double w = 1 - ratio * ratio;
+			return w * w;
+		}
+		return Math.exp(-0.5 * ratio * ratio);
+	}
+
+	private static void addKernelRow(int obs, KDTree.Neighbors bors, int n,
+			double bandwidth, Kernel kernel, Row row) {
+		for (int b = 0; b < n; b++) {
+			if (bors.id(b) == obs) {
+				continue;
+			}
+			double w = kernelWeight(kernel, bors.distance(b), bandwidth);
+			if (w > 0) {
+				row.add(bors.id(b), (float) w);
+			}
+		}
+	}
+
+	private interface RowFinder {
+		void findRow(int obs, KDTree.Neighbors bors, Row row);
+	}
+
+	/**
+	 * Neighbors of a contiguous block of observations, kept in CSR order.
+	 */
+	private static final class Row {
+		int[] ids = new int[64];
+		float[] weights = new float[64];
+		int size;
+		int total;
+
+		void add(int id, float w) {
+			if (total == ids.length) {
+				int[] newIds = new int[total * 2];
+				float[] newWeights = new float[total * 2];
+				System.arraycopy(ids, 0, newIds, 0, total);
+				System.arraycopy(weights, 0, newWeights, 0, total);
+				ids = newIds;
+				weights = newWeights;
+			}
+			ids[total] = id;
+			weights[total] = w;
+			size++;
+			total++;
+		}
+	}
+
+	private CompressedSpatialWeights build(final RowFinder finder) {
+		final int n = x.length;
+		long start = System.currentTimeMillis();
+		final int[] rowLengths = new int[n];
+		ArrayList<Callable<Row>> tasks = new ArrayList<Callable<Row>>();
+		int chunk = Math.max(256, (n + nThreads * 4 - 1) / (nThreads * 4));
+		for (int first = 0; first < n; first += chunk) {
+			final int lo = first;
+			final int hi = Math.min(n, first + chunk);
+			tasks.add(new Callable<Row>() {
+				public Row call() {
+					KDTree.Neighbors bors = new KDTree.Neighbors();
+					Row rows = new Row();
+					for (int obs = lo; obs < hi; obs++) {
+						rows.size = 0;
+						finder.findRow(obs, bors, rows);
+						rowLengths[obs] = rows.size;
+					}
+					return rows;
+				}
+			});
+		}
+		List<Row> blocks = runAll(tasks);
+
+		int[] offsets = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			offsets[i + 1] = offsets[i] + rowLengths[i];
+		}
+		int[] borIDs = new int[offsets[n]];
+		float[] weights = new float[offsets[n]];
+		int at = 0;
+		for (Row block : blocks) {
+			System.arraycopy(block.ids, 0, borIDs, at, block.total);
+			System.arraycopy(block.weights, 0, weights, at, block.total);
+			at += block.total;
+		}
+		logger.fine("built " + borIDs.length + " distance weights for " + n
+				+ " observations in " + (System.currentTimeMillis() - start)
+				+ " ms");
+		return new CompressedSpatialWeights(offsets, borIDs, weights);
+	}
+
+	private List<Row> runAll(List<Callable<Row>> tasks) {
+		ArrayList<Row> rows = new ArrayList<Row>(tasks.size());
+		if (nThreads == 1 || tasks.size() == 1) {
+			for (Callable<Row> task : tasks) {
+				try {
+					rows.add(task.call());
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return rows;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			for (Future<Row> result : pool.invokeAll(tasks)) {
+				rows.add(result.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("weights search interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("weights search failed", e
+					.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,47 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+public class DoubleColumn extends NumericColumn {
+
+    private final double[] data;
+
+    public DoubleColumn(String name, double[] data) {
+	super(name);
+	this.data = data;
+    }
+
+    @Override
+    public int getType() {
+	return DataSetForApps.TYPE_DOUBLE;
+    }
+
+    @Override
+    public double[] getArray() {
+	return data;
+    }
+
+    @Override
+    public double[] getDoubles() {
+	return data;
+    }
+
+    public int getNumObservations() {
+	return data.length;
+    }
+
+    @Override
+    public boolean isNull(int index) {
+	return Double.isNaN(data[index]);
+    }
+
+    public double getDoubleVal(int index) {
+	return data[index];
+    }
+
+    public int getIntVal(int index) {
+	return (int) data[index];
+    }
+}
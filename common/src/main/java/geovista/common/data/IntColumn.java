@@ -0,0 +1,72 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+/**
+ * Integer column, with DataSetForApps.NULL_INT_VALUE marking nulls.
+ * 
+ * getDoubles converts the column once and keeps the result. getDoubleVal
+ * widens the stored value as it is, null marker included, which is what
+ * DataSetForApps.getNumericValueAsDouble has always returned for int
+ * columns.
+ */
+public class IntColumn extends NumericColumn {
+
+    private final int[] data;
+    private transient double[] doubles;
+
+    public IntColumn(String name, int[] data) {
+	super(name);
+	this.data = data;
+    }
+
+    @Override
+    public int getType() {
+	return DataSetForApps.TYPE_INTEGER;
+    }
+
+    @Override
+    public int[] getArray() {
+	return data;
+    }
+
+    @Override
+    public synchronized double[] getDoubles() {
+	if (doubles == null) {
+	    double[] converted = new double[data.length];
+	    for (int i = 0; i < data.length; i++) {
+		if (data[i] == Integer.MIN_VALUE) {
+		    converted[i] = Double.NaN;
+		} else {
+		    converted[i] = data[i];
+		}
+	    }
+	    doubles = converted;
+	}
+	return doubles;
+    }
+
+    public int getNumObservations() {
+	return data.length;
+    }
+
+    @Override
+    public boolean isNull(int index) {
+	return data[index] == Integer.MIN_VALUE;
+    }
+
+    public double getDoubleVal(int index) {
+	return data[index];
+    }
+
+    public int getIntVal(int index) {
+	return data[index];
+    }
+
+    @Override
+    public String getStringVal(int index) {
+	return String.valueOf(data[index]);
+    }
+}
@@ -0,0 +1,321 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+/**
+ * Two dimensional KD-tree over primitive coordinates.
+ *
+ * The tree is implicit: points are reordered so that every range [lo, hi)
+ * has its splitting point at the middle, alternating x and y with depth, so
+ * there are no node objects. Queries write into a caller supplied Neighbors
+ * buffer, which can be reused from query to query; the tree itself is never
+ * changed after construction and can be shared between threads.
+ *
+ * Ties in distance are broken by observation id, so results do not depend
+ * on the order points were given in.
+ */
+public class KDTree {
+
+	private final double[] xs;
+	private final double[] ys;
+	private final int[] ids;
+
+	public KDTree(double[] x, double[] y) {
+		if (x.length != y.length) {
+			throw new IllegalArgumentException("x and y lengths differ");
+		}
+		int n = x.length;
+		xs = new double[n];
+		ys = new double[n];
+		ids = new int[n];
+		System.arraycopy(x, 0, xs, 0, n);
+		System.arraycopy(y, 0, ys, 0, n);
+		for (int i = 0; i < n; i++) {
+			ids[i] = i;
+		}
+		build(0, n, 0);
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	private void build(int lo, int hi, int depth) {
+		while (hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			select(lo, hi - 1, mid, (depth & 1) == 0 ? xs : ys);
+			build(lo, mid, depth + 1);
+			lo = mid + 1;
+			depth++;
+		}
+	}
+
+	/**
+	 * Quickselect: afterwards the k'th point in key order is at k, with no
+	 * larger key before it and no smaller key after it.
+	 */
+	private void select(int left, int right, int k, double[] key) {
+		while (right > left) {
+			int mid = (left + right) >>> 1;
+			// median of three pivot
+			if (key[mid] < key[left]) {
+				swap(mid, left);
+			}
+			if (key[right] < key[left]) {
+				swap(right, left);
+			}
+			if (key[right] < key[mid]) {
+				swap(right, mid);
+			}
+			double pivot = key[mid];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (key[i] < pivot) {
+					i++;
+				}
+				while (key[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int a, int b) {
+		double tx = xs[a];
+		xs[a] = xs[b];
+		xs[b] = tx;
+		double ty = ys[a];
+		ys[a] = ys[b];
+		ys[b] = ty;
+		int ti = ids[a];
+		ids[a] = ids[b];
+		ids[b] = ti;
+	}
+
+	/**
+	 * Finds the k points nearest (qx, qy), nearest first. Fewer are returned
+	 * only if the tree holds fewer than k points.
+	 */
+	public void nearest(double qx, double qy, int k, Neighbors result) {
+		result.clear();
+		if (k <= 0) {
+			return;
+		}
+		result.ensureCapacity(k);
+		nearest(qx, qy, k, 0, ids.length, 0, result);
+		result.sortHeap();
+	}
+
+	private void nearest(double qx, double qy, int k, int lo, int hi,
+			int depth, Neighbors heap) {
+		if (lo >= hi) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		double dx = xs[mid] - qx;
+		double dy = ys[mid] - qy;
+		heap.offer(ids[mid], dx * dx + dy * dy, k);
+
+		double diff = (depth & 1) == 0 ? qx - xs[mid] : qy - ys[mid];
+		if (diff < 0) {
+			nearest(qx, qy, k, lo, mid, depth + 1, heap);
+			if (heap.size < k || diff * diff <= heap.dist2[0]) {
+				nearest(qx, qy, k, mid + 1, hi, depth + 1, heap);
+			}
+		} else {
+			nearest(qx, qy, k, mid + 1, hi, depth + 1, heap);
+			if (heap.size < k || diff * diff <= heap.dist2[0]) {
+				nearest(qx, qy, k, lo, mid, depth + 1, heap);
+			}
+		}
+	}
+
+	/**
+	 * Finds every point within radius of (qx, qy), boundary included,
+	 * nearest first.
+	 */
+	public void withinRadius(double qx, double qy, double radius,
+			Neighbors result) {
+		result.clear();
+		withinRadius(qx, qy, radius * radius, 0, ids.length, 0, result);
+		result.sort();
+	}
+
+	private void withinRadius(double qx, double qy, double r2, int lo,
+			int hi, int depth, Neighbors result) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			double dx = xs[mid] - qx;
+			double dy = ys[mid] - qy;
+			double d2 = dx * dx + dy * dy;
+			if (d2 <= r2) {
+				result.add(ids[mid], d2);
+			}
+			double diff = (depth & 1) == 0 ? qx - xs[mid] : qy - ys[mid];
+			boolean goLeft = diff <= 0 || diff * diff <= r2;
+			boolean goRight = diff >= 0 || diff * diff <= r2;
+			depth++;
+			if (goLeft && goRight) {
+				withinRadius(qx, qy, r2, lo, mid, depth, result);
+				lo = mid + 1;
+			} else if (goLeft) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+	}
+
+	/**
+	 * Reusable query result: ids and squared distances.
+	 */
+	public static class Neighbors {
+		int[] ids;
+		double[] dist2;
+		int size;
+
+		public Neighbors() {
+			this(16);
+		}
+
+		public Neighbors(int capacity) {
+			ids = new int[Math.max(1, capacity)];
+			dist2 = new double[ids.length];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int id(int i) {
+			return ids[i];
+		}
+
+		public double distanceSquared(int i) {
+			return dist2[i];
+		}
+
+		public double distance(int i) {
+			return Math.sqrt(dist2[i]);
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		void ensureCapacity(int capacity) {
+			if (ids.length < capacity) {
+				int[] newIds = new int[capacity];
+				double[] newDist = new double[capacity];
+				System.arraycopy(ids, 0, newIds, 0, size);
+				System.arraycopy(dist2, 0, newDist, 0, size);
+				ids = newIds;
+				dist2 = newDist;
+			}
+		}
+
+		void add(int id, double d2) {
+			if (size == ids.length) {
+				ensureCapacity(size * 2);
+			}
+			ids[size] = id;
+			dist2[size] = d2;
+			size++;
+		}
+
+		private static boolean after(double d2a, int ida, double d2b, int idb) {
+			return d2a > d2b || (d2a == d2b && ida > idb);
+		}
+
+		/**
+		 * Keeps the k best seen so far in a max-heap rooted at 0.
+		 */
+		void offer(int id, double d2, int k) {
+			if (size < k) {
+				int i = size++;
+				while (i > 0) {
+					int parent = (i - 1) >>> 1;
+					if (!after(d2, id, dist2[parent], ids[parent])) {
+						break;
+					}
+					ids[i] = ids[parent];
+					dist2[i] = dist2[parent];
+					i = parent;
+				}
+				ids[i] = id;
+				dist2[i] = d2;
+			} else if (after(dist2[0], ids[0], d2, id)) {
+				siftDown(0, size, id, d2);
+			}
+		}
+
+		private void siftDown(int i, int n, int id, double d2) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= n) {
+					break;
+				}
+				if (child + 1 < n
+						&& after(dist2[child + 1], ids[child + 1], dist2[child],
+								ids[child])) {
+					child++;
+				}
+				if (!after(dist2[child], ids[child], d2, id)) {
+					break;
+				}
+				ids[i] = ids[child];
+				dist2[i] = dist2[child];
+				i = child;
+			}
+			ids[i] = id;
+			dist2[i] = d2;
+		}
+
+		void sortHeap() {
+			for (int end = size - 1; end > 0; end--) {
+				int id = ids[end];
+				double d2 = dist2[end];
+				ids[end] = ids[0];
+				dist2[end] = dist2[0];
+				siftDown(0, end, id, d2);
+			}
+		}
+
+		void sort() {
+			if (size < 32) {
+				for (int i = 1; i < size; i++) {
+					int id = ids[i];
+					double d2 = dist2[i];
+					int j = i - 1;
+					while (j >= 0 && after(dist2[j], ids[j], d2, id)) {
+						ids[j + 1] = ids[j];
+						dist2[j + 1] = dist2[j];
+						j--;
+					}
+					ids[j + 1] = id;
+					dist2[j + 1] = d2;
+				}
+				return;
+			}
+			for (int i = size / 2 - 1; i >= 0; i--) {
+				siftDown(i, size, ids[i], dist2[i]);
+			}
+			sortHeap();
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Permutation engine for local Moran significance.
+ *
+ * Iterations are cut into fixed size blocks, and every block draws from its
+ * own generator seeded from the master seed and the block number, so the
+ * result depends only on the seed, never on how many threads ran the blocks.
+ * Neighbors are read straight from the compressed weights. Each block
+ * shuffles a private copy of the data with a primitive Fisher-Yates pass and
+ * counts, per observation, how many permuted scores are strictly above the
+ * observed score; the n x iterations matrix of Monte Carlo values is never
+ * built.
+ */
+public class LocalMoranMonteCarlo {
+
+	private static final Logger logger = Logger
+			.getLogger(LocalMoranMonteCarlo.class.getName());
+
+	public static final int DEFAULT_BLOCK_SIZE = 64;
+
+	private final int[] offsets;
+	private final int[] borIDs;
+	private int nThreads;
+	private int blockSize;
+
+	public LocalMoranMonteCarlo(SpatialWeights sw) {
+		CompressedSpatialWeights csr = sw.getCompressed();
+		offsets = csr.offsets;
+		borIDs = csr.borIDs;
+		nThreads = Runtime.getRuntime().availableProcessors();
+		blockSize = DEFAULT_BLOCK_SIZE;
+	}
+
+	public int getThreadCount() {
+		return nThreads;
+	}
+
+	public void setThreadCount(int nThreads) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException("nThreads must be positive");
+		}
+		this.nThreads = nThreads;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Changing the block size changes which random streams are used, and so
+	 * changes results for a given seed.
+	 */
+	public void setBlockSize(int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("blockSize must be positive");
+		}
+		this.blockSize = blockSize;
+	}
+
+	public double[] calculateMoranScores(double[] zData) {
+		double[] scores = new double[zData.length];
+		scoreInto(zData, scores);
+		return scores;
+	}
+
+	/**
+	 * Returns, for each observation, the share of permutations whose local
+	 * Moran score is above the observed one.
+	 */
+	public double[] findPValues(double[] zData, int iterations, long seed) {
+		long[] counts = countExceedances(zData, iterations, seed);
+		double[] pVals = new double[zData.length];
+		for (int obs = 0; obs < pVals.length; obs++) {
+			pVals[obs] = (double) counts[obs] / (double) iterations;
+		}
+		return pVals;
+	}
+
+	/**
+	 * Returns, for each observation, how many of the permuted scores are
+	 * strictly greater than the observed score.
+	 */
+	public long[] countExceedances(double[] zData, int iterations, long seed) {
+		if (zData.length != offsets.length - 1) {
+			throw new IllegalArgumentException("data length " + zData.length
+					+ " does not match weights length " + (offsets.length - 1));
+		}
+		double[] observed = calculateMoranScores(zData);
+		long[] counts = new long[zData.length];
+		int nBlocks = (iterations + blockSize - 1) / blockSize;
+		if (nBlocks == 0) {
+			return counts;
+		}
+
+		ArrayList<BlockTask> tasks = new ArrayList<BlockTask>(nBlocks);
+		for (int block = 0; block < nBlocks; block++) {
+			int first = block * blockSize;
+			int n = Math.min(blockSize, iterations - first);
+			tasks.add(new BlockTask(zData, observed, block, n, seed));
+		}
+
+		int poolSize = Math.min(nThreads, nBlocks);
+		if (poolSize == 1) {
+			for (BlockTask task : tasks) {
+				add(counts, task.call());
+			}
+			return counts;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(poolSize,
+				new DaemonThreadFactory());
+		try {
+			List<Future<int[]>> results = pool.invokeAll(tasks);
+			for (Future<int[]> result : results) {
+				add(counts, result.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("permutation test interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("permutation test failed", e
+					.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		if (logger.isLoggable(Level.FINEST)) {
+			logger.finest("ran " + iterations + " permutations in " + nBlocks
+					+ " blocks on " + poolSize + " threads");
+		}
+		return counts;
+	}
+
+	private static void add(long[] counts, int[] blockCounts) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += blockCounts[i];
+		}
+	}
+
+	private void scoreInto(double[] data, double[] scores) {
+		for (int i = 0; i < scores.length; i++) {
+			double sumScore = 0;
+			for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+				sumScore = sumScore + data[borIDs[k]];
+			}
+			scores[i] = data[i] * sumScore;
+		}
+	}
+
+	static void shuffle(double[] v, SplitMix rand) {
+		for (int i = v.length - 1; i > 0; i--) {
+			int j = rand.nextInt(i + 1);
+			double t = v[i];
+			v[i] = v[j];
+			v[j] = t;
+		}
+	}
+
+	private class BlockTask implements Callable<int[]> {
+		private final double[] zData;
+		private final double[] observed;
+		private final int block;
+		private final int iterations;
+		private final long seed;
+
+		BlockTask(double[] zData, double[] observed, int block, int iterations,
+				long seed) {
+			this.zData = zData;
+			this.observed = observed;
+			this.block = block;
+			this.iterations = iterations;
+			this.seed = seed;
+		}
+
+		public int[] call() {
+			SplitMix rand = new SplitMix(SplitMix.mix(seed
+					+ SplitMix.GOLDEN_GAMMA * (block + 1)));
+			double[] permuted = new double[zData.length];
+			System.arraycopy(zData, 0, permuted, 0, zData.length);
+			int[] counts = new int[zData.length];
+			for (int iteration = 0; iteration < iterations; iteration++) {
+				shuffle(permuted, rand);
+				for (int i = 0; i < permuted.length; i++) {
+					double sumScore = 0;
+					for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+						sumScore = sumScore + permuted[borIDs[k]];
+					}
+					if (permuted[i] * sumScore > observed[i]) {
+						counts[i]++;
+					}
+				}
+			}
+			return counts;
+		}
+	}
+
+	/**
+	 * SplitMix64 generator; small, fast, and every block gets an independent
+	 * stream from a single long.
+	 */
+	static final class SplitMix {
+		static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+		private long state;
+
+		SplitMix(long seed) {
+			state = seed;
+		}
+
+		static long mix(long z) {
+			z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+			z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+			return z ^ (z >>> 31);
+		}
+
+		long nextLong() {
+			state += GOLDEN_GAMMA;
+			return mix(state);
+		}
+
+		int nextInt(int bound) {
+			// Lemire's multiply-shift, rejecting the biased low range
+			long m = (nextLong() >>> 32) * bound;
+			long low = m & 0xffffffffL;
+			if (low < bound) {
+				long threshold = (0x100000000L - bound) % bound;
+				while (low < threshold) {
+					m = (nextLong() >>> 32) * bound;
+					low = m & 0xffffffffL;
+				}
+			}
+			return (int) (m >>> 32);
+		}
+
+		double nextDouble() {
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "LocalMoranMonteCarlo");
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
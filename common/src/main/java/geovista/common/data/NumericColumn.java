@@ -0,0 +1,25 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+/**
+ * A column that can be read as doubles.
+ */
+public abstract class NumericColumn extends TypedColumn {
+
+    protected NumericColumn(String name) {
+	super(name);
+    }
+
+    /**
+     * The whole column as doubles, with nulls as NaN. The array is shared
+     * and must not be modified; for double columns it is the column itself.
+     */
+    public abstract double[] getDoubles();
+
+    public String getStringVal(int index) {
+	return String.valueOf(getDoubleVal(index));
+    }
+}
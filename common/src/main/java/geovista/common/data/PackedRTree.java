@@ -0,0 +1,300 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.Arrays;
+
+/**
+ * Static R-tree over axis aligned boxes, for finding the boxes that touch a
+ * point or a rectangle.
+ *
+ * The tree is packed once from all the boxes: they are sorted along a
+ * Hilbert curve through their centers and grouped sixteen to a node, and
+ * the nodes are grouped the same way up to a single root, so the nodes are
+ * full and there are no node objects. Queries write into a caller supplied
+ * Hits buffer; the tree itself is never changed after construction and can
+ * be shared between threads. A query costs O(log n + hits).
+ *
+ * Boxes are closed: a box touching the query along an edge is a hit.
+ */
+public class PackedRTree {
+
+	private static final int NODE_SIZE = 16;
+	private static final int HILBERT_MAX = (1 << 16) - 1;
+
+	private final int numItems;
+	// minX, minY, maxX, maxY of each entry: the items in packed order, then
+	// each level of nodes, the root last
+	private final double[] boxes;
+	// for items the caller's id, for nodes the first child entry
+	private final int[] indices;
+	// entry just past the end of each level, the items being level 0
+	private final int[] levelEnds;
+
+	public PackedRTree(double[] minX, double[] minY, double[] maxX,
+			double[] maxY) {
+		int n = minX.length;
+		if (minY.length != n || maxX.length != n || maxY.length != n) {
+			throw new IllegalArgumentException("box array lengths differ");
+		}
+		numItems = n;
+
+		int[] ends = new int[8];
+		int nLevels = 0;
+		int total = n;
+		int count = n;
+		ends[nLevels++] = n;
+		do {
+			count = (count + NODE_SIZE - 1) / NODE_SIZE;
+			total += count;
+			if (nLevels == ends.length) {
+				ends = Arrays.copyOf(ends, nLevels * 2);
+			}
+			ends[nLevels++] = total;
+		} while (count > 1);
+		levelEnds = Arrays.copyOf(ends, nLevels);
+		boxes = new double[total * 4];
+		indices = new int[total];
+		if (n == 0) {
+			return;
+		}
+
+		int[] order = hilbertOrder(minX, minY, maxX, maxY);
+		for (int i = 0; i < n; i++) {
+			int id = order[i];
+			boxes[4 * i] = minX[id];
+			boxes[4 * i + 1] = minY[id];
+			boxes[4 * i + 2] = maxX[id];
+			boxes[4 * i + 3] = maxY[id];
+			indices[i] = id;
+		}
+
+		int childStart = 0;
+		for (int level = 1; level < levelEnds.length; level++) {
+			int childEnd = levelEnds[level - 1];
+			int pos = childEnd;
+			for (int first = childStart; first < childEnd; first += NODE_SIZE) {
+				int last = Math.min(childEnd, first + NODE_SIZE);
+				double x0 = Double.POSITIVE_INFINITY;
+				double y0 = Double.POSITIVE_INFINITY;
+				double x1 = Double.NEGATIVE_INFINITY;
+				double y1 = Double.NEGATIVE_INFINITY;
+				for (int c = first; c < last; c++) {
+					x0 = Math.min(x0, boxes[4 * c]);
+					y0 = Math.min(y0, boxes[4 * c + 1]);
+					x1 = Math.max(x1, boxes[4 * c + 2]);
+					y1 = Math.max(y1, boxes[4 * c + 3]);
+				}
+				boxes[4 * pos] = x0;
+				boxes[4 * pos + 1] = y0;
+				boxes[4 * pos + 2] = x1;
+				boxes[4 * pos + 3] = y1;
+				indices[pos] = first;
+				pos++;
+			}
+			childStart = childEnd;
+		}
+	}
+
+	/**
+	 * A tree over the integer bounds (Shape.getBounds) of the shapes, with
+	 * each shape's array index as its id. Shapes from the first null one on
+	 * are left out.
+	 */
+	public static PackedRTree fromShapeBounds(Shape[] shapes) {
+		int n = 0;
+		while (n < shapes.length && shapes[n] != null) {
+			n++;
+		}
+		double[] minX = new double[n];
+		double[] minY = new double[n];
+		double[] maxX = new double[n];
+		double[] maxY = new double[n];
+		for (int i = 0; i < n; i++) {
+			Rectangle r = shapes[i].getBounds();
+			minX[i] = r.x;
+			minY[i] = r.y;
+			maxX[i] = (double) r.x + r.width;
+			maxY[i] = (double) r.y + r.height;
+		}
+		return new PackedRTree(minX, minY, maxX, maxY);
+	}
+
+	public int size() {
+		return numItems;
+	}
+
+	/**
+	 * Item ids sorted by the Hilbert value of their box centers, ties by id.
+	 */
+	private static int[] hilbertOrder(double[] minX, double[] minY,
+			double[] maxX, double[] maxY) {
+		int n = minX.length;
+		double x0 = Double.POSITIVE_INFINITY;
+		double y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY;
+		double y1 = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			x0 = Math.min(x0, minX[i]);
+			y0 = Math.min(y0, minY[i]);
+			x1 = Math.max(x1, maxX[i]);
+			y1 = Math.max(y1, maxY[i]);
+		}
+		double width = x1 > x0 ? x1 - x0 : 1;
+		double height = y1 > y0 ? y1 - y0 : 1;
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			double cx = (minX[i] + maxX[i]) / 2;
+			double cy = (minY[i] + maxY[i]) / 2;
+			int hx = (int) (HILBERT_MAX * ((cx - x0) / width));
+			int hy = (int) (HILBERT_MAX * ((cy - y0) / height));
+			if (!(hx >= 0)) {
+				hx = 0; // NaN boxes go first
+			}
+			if (!(hy >= 0)) {
+				hy = 0;
+			}
+			long h = hilbert(Math.min(hx, HILBERT_MAX), Math.min(hy,
+					HILBERT_MAX)) & 0xFFFFFFFFL;
+			keys[i] = (h << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Distance along a Hilbert curve filling a 2^16 by 2^16 grid, as an
+	 * unsigned int.
+	 */
+	static int hilbert(int x, int y) {
+		int d = 0;
+		for (int s = 1 << 15; s > 0; s >>>= 1) {
+			int rx = (x & s) != 0 ? 1 : 0;
+			int ry = (y & s) != 0 ? 1 : 0;
+			d += s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Finds the items whose boxes contain (x, y), edges included.
+	 */
+	public void search(double x, double y, Hits hits) {
+		search(x, y, x, y, hits);
+	}
+
+	/**
+	 * Finds the items whose boxes intersect the given box, edges included.
+	 * Hits come in no particular order; see Hits.sort.
+	 */
+	public void search(double qMinX, double qMinY, double qMaxX,
+			double qMaxY, Hits hits) {
+		hits.clear();
+		if (numItems == 0) {
+			return;
+		}
+		int[] stack = hits.stack(levelEnds.length * NODE_SIZE);
+		int top = 0;
+		int root = levelEnds[levelEnds.length - 1] - 1;
+		if (!intersects(root, qMinX, qMinY, qMaxX, qMaxY)) {
+			return;
+		}
+		stack[top++] = root;
+		stack[top++] = levelEnds.length - 1;
+		while (top > 0) {
+			int level = stack[--top];
+			int node = stack[--top];
+			int first = indices[node];
+			int last = Math.min(first + NODE_SIZE, levelEnds[level - 1]);
+			for (int c = first; c < last; c++) {
+				if (!intersects(c, qMinX, qMinY, qMaxX, qMaxY)) {
+					continue;
+				}
+				if (level == 1) {
+					hits.add(indices[c]);
+				} else {
+					stack[top++] = c;
+					stack[top++] = level - 1;
+				}
+			}
+		}
+	}
+
+	private boolean intersects(int entry, double qMinX, double qMinY,
+			double qMaxX, double qMaxY) {
+		int b = 4 * entry;
+		return boxes[b] <= qMaxX && boxes[b + 1] <= qMaxY
+				&& boxes[b + 2] >= qMinX && boxes[b + 3] >= qMinY;
+	}
+
+	/**
+	 * Reusable query result: item ids.
+	 */
+	public static class Hits {
+		int[] ids;
+		int size;
+		private int[] stack = new int[0];
+
+		public Hits() {
+			ids = new int[16];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int id(int i) {
+			return ids[i];
+		}
+
+		/**
+		 * Puts the ids in ascending order.
+		 */
+		public void sort() {
+			Arrays.sort(ids, 0, size);
+		}
+
+		/**
+		 * The ids, as a new array.
+		 */
+		public int[] toArray() {
+			return Arrays.copyOf(ids, size);
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		void add(int id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = id;
+		}
+
+		int[] stack(int needed) {
+			// each level pushes at most NODE_SIZE (node, level) pairs
+			if (stack.length < needed * 2) {
+				stack = new int[needed * 2];
+			}
+			return stack;
+		}
+	}
+}
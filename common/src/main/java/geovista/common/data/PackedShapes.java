@@ -0,0 +1,357 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+ * The vertices of a set of shapes, all in one array, with the rings and
+ * lines of each shape as ranges of it.
+ *
+ * Shapes are moved to the screen through a ScreenBuffer, which transforms
+ * all the vertices in one pass into a float array it keeps, and hands out
+ * light Shape views of that array, so a zoom or pan does not make a new
+ * shape per observation. A ScreenBuffer has two arrays, used in turn: the
+ * views from the last transform are left alone by the next one, so that
+ * work still drawing them can finish, and are overwritten by the one after.
+ *
+ * Curves are flattened when packing, to within a thousandth of the size of
+ * their shape. A PackedShapes is never changed after construction and can
+ * be shared between threads; a ScreenBuffer is for one thread.
+ */
+public class PackedShapes {
+
+	private static final double FLATNESS_SHARE = 1d / 1024;
+
+	private final int numShapes;
+	private final int numVertices;
+	// first part of each shape, then one past the last part
+	private final int[] shapeParts;
+	// first vertex of each part, then one past the last vertex
+	private final int[] partVertices;
+	// whether each part ends with closePath
+	private final boolean[] partClosed;
+	private final int[] windingRules;
+	private final boolean[] missing;
+	// x, y of each vertex
+	private final double[] coords;
+
+	public PackedShapes(Shape[] shapes) {
+		numShapes = shapes.length;
+		shapeParts = new int[numShapes + 1];
+		windingRules = new int[numShapes];
+		missing = new boolean[numShapes];
+		int[] parts = new int[Math.max(16, numShapes + 1)];
+		boolean[] closed = new boolean[parts.length];
+		double[] xy = new double[Math.max(64, numShapes * 16)];
+		int numParts = 0;
+		int n = 0;
+		double[] seg = new double[6];
+		for (int i = 0; i < numShapes; i++) {
+			shapeParts[i] = numParts;
+			Shape shp = shapes[i];
+			if (shp == null) {
+				missing[i] = true;
+				continue;
+			}
+			PathIterator it = shp.getPathIterator(null);
+			windingRules[i] = it.getWindingRule();
+			Rectangle2D box = shp.getBounds2D();
+			it = new FlatteningPathIterator(it, FLATNESS_SHARE
+					* Math.max(box.getWidth(), box.getHeight()));
+			for (; !it.isDone(); it.next()) {
+				int type = it.currentSegment(seg);
+				if (type == PathIterator.SEG_CLOSE) {
+					if (numParts > shapeParts[i]) {
+						closed[numParts - 1] = true;
+					}
+					continue;
+				}
+				if (type == PathIterator.SEG_MOVETO || numParts == shapeParts[i]) {
+					if (numParts + 1 >= parts.length) {
+						parts = Arrays.copyOf(parts, parts.length * 2);
+						closed = Arrays.copyOf(closed, parts.length);
+					}
+					parts[numParts++] = n / 2;
+				}
+				if (n + 2 > xy.length) {
+					xy = Arrays.copyOf(xy, xy.length * 2);
+				}
+				xy[n++] = seg[0];
+				xy[n++] = seg[1];
+			}
+		}
+		shapeParts[numShapes] = numParts;
+		parts[numParts] = n / 2;
+		partVertices = Arrays.copyOf(parts, numParts + 1);
+		partClosed = Arrays.copyOf(closed, numParts);
+		coords = Arrays.copyOf(xy, n);
+		numVertices = n / 2;
+	}
+
+	public int size() {
+		return numShapes;
+	}
+
+	public int getNumVertices() {
+		return numVertices;
+	}
+
+	/**
+	 * A place to transform these shapes into, for one user.
+	 */
+	public ScreenBuffer newScreenBuffer() {
+		return new ScreenBuffer();
+	}
+
+	/**
+	 * Transformed copies of the vertices, with views of them as shapes.
+	 */
+	public class ScreenBuffer {
+		private final Frame[] frames = new Frame[2];
+		private int next;
+
+		private ScreenBuffer() {
+		}
+
+		/**
+		 * Whether this buffer holds the given shapes.
+		 */
+		public boolean isFor(PackedShapes shapes) {
+			return shapes == PackedShapes.this;
+		}
+
+		/**
+		 * Transforms every vertex through xForm and returns the shapes, null
+		 * where the packed shape was null. The array and its views are
+		 * reused by the transform after next.
+		 */
+		public Shape[] transform(AffineTransform xForm) {
+			if (frames[next] == null) {
+				frames[next] = new Frame();
+			}
+			Frame frame = frames[next];
+			next = 1 - next;
+			xForm.transform(coords, 0, frame.coords, 0, numVertices);
+			frame.findBounds();
+			return frame.shapes;
+		}
+	}
+
+	/**
+	 * One set of transformed vertices.
+	 */
+	private class Frame {
+		final float[] coords = new float[2 * numVertices];
+		// minX, minY, maxX, maxY of each shape
+		final float[] bounds = new float[4 * numShapes];
+		final Shape[] shapes = new Shape[numShapes];
+
+		Frame() {
+			for (int i = 0; i < numShapes; i++) {
+				if (!missing[i]) {
+					shapes[i] = new View(this, i);
+				}
+			}
+		}
+
+		void findBounds() {
+			for (int i = 0; i < numShapes; i++) {
+				float x0 = Float.POSITIVE_INFINITY;
+				float y0 = Float.POSITIVE_INFINITY;
+				float x1 = Float.NEGATIVE_INFINITY;
+				float y1 = Float.NEGATIVE_INFINITY;
+				int end = partVertices[shapeParts[i + 1]];
+				for (int v = partVertices[shapeParts[i]]; v < end; v++) {
+					float x = coords[2 * v];
+					float y = coords[2 * v + 1];
+					if (x < x0) {
+						x0 = x;
+					}
+					if (x > x1) {
+						x1 = x;
+					}
+					if (y < y0) {
+						y0 = y;
+					}
+					if (y > y1) {
+						y1 = y;
+					}
+				}
+				if (x0 > x1) {
+					x0 = y0 = x1 = y1 = 0; // no vertices
+				}
+				bounds[4 * i] = x0;
+				bounds[4 * i + 1] = y0;
+				bounds[4 * i + 2] = x1;
+				bounds[4 * i + 3] = y1;
+			}
+		}
+	}
+
+	/**
+	 * One shape of a frame. Containment and intersection tests follow the
+	 * shape's winding rule, as those of a Path2D would.
+	 */
+	private class View implements Shape {
+		private final Frame frame;
+		private final int index;
+
+		View(Frame frame, int index) {
+			this.frame = frame;
+			this.index = index;
+		}
+
+		public Rectangle getBounds() {
+			return getBounds2D().getBounds();
+		}
+
+		public Rectangle2D getBounds2D() {
+			float[] b = frame.bounds;
+			int k = 4 * index;
+			return new Rectangle2D.Float(b[k], b[k + 1], b[k + 2] - b[k],
+					b[k + 3] - b[k + 1]);
+		}
+
+		private boolean boundsIntersect(double x, double y, double w, double h) {
+			float[] b = frame.bounds;
+			int k = 4 * index;
+			return x <= b[k + 2] && y <= b[k + 3] && x + w >= b[k]
+					&& y + h >= b[k + 1];
+		}
+
+		public boolean contains(double x, double y) {
+			return boundsIntersect(x, y, 0, 0)
+					&& Path2D.contains(getPathIterator(null), x, y);
+		}
+
+		public boolean contains(Point2D p) {
+			return contains(p.getX(), p.getY());
+		}
+
+		public boolean intersects(double x, double y, double w, double h) {
+			return boundsIntersect(x, y, w, h)
+					&& Path2D.intersects(getPathIterator(null), x, y, w, h);
+		}
+
+		public boolean intersects(Rectangle2D r) {
+			return intersects(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+		}
+
+		public boolean contains(double x, double y, double w, double h) {
+			return boundsIntersect(x, y, w, h)
+					&& Path2D.contains(getPathIterator(null), x, y, w, h);
+		}
+
+		public boolean contains(Rectangle2D r) {
+			return contains(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+		}
+
+		public PathIterator getPathIterator(AffineTransform at) {
+			return new ViewIterator(frame.coords, shapeParts[index],
+					shapeParts[index + 1], windingRules[index], at);
+		}
+
+		public PathIterator getPathIterator(AffineTransform at,
+				double flatness) {
+			return getPathIterator(at); // already flat
+		}
+	}
+
+	/**
+	 * Walks the parts of a shape: moveTo, lineTos, and closePath if the part
+	 * had one.
+	 */
+	private class ViewIterator implements PathIterator {
+		private final float[] coords;
+		private final int lastPart;
+		private final int windingRule;
+		private final AffineTransform at;
+		private int part;
+		private int vertex;
+		// at the closePath after the part's last vertex
+		private boolean closing;
+
+		ViewIterator(float[] coords, int firstPart, int lastPart,
+				int windingRule, AffineTransform at) {
+			this.coords = coords;
+			this.lastPart = lastPart;
+			this.windingRule = windingRule;
+			this.at = at;
+			part = firstPart;
+			vertex = part < lastPart ? partVertices[part] : 0;
+		}
+
+		public int getWindingRule() {
+			return windingRule;
+		}
+
+		public boolean isDone() {
+			return part >= lastPart;
+		}
+
+		public void next() {
+			if (closing) {
+				closing = false;
+				nextPart();
+				return;
+			}
+			vertex++;
+			if (vertex == partVertices[part + 1]) {
+				if (partClosed[part]) {
+					closing = true;
+				} else {
+					nextPart();
+				}
+			}
+		}
+
+		private void nextPart() {
+			part++;
+			if (part < lastPart) {
+				vertex = partVertices[part];
+			}
+		}
+
+		private int segmentType() {
+			if (closing) {
+				return SEG_CLOSE;
+			}
+			return vertex == partVertices[part] ? SEG_MOVETO : SEG_LINETO;
+		}
+
+		public int currentSegment(float[] seg) {
+			int type = segmentType();
+			if (type != SEG_CLOSE) {
+				seg[0] = coords[2 * vertex];
+				seg[1] = coords[2 * vertex + 1];
+				if (at != null) {
+					at.transform(seg, 0, seg, 0, 1);
+				}
+			}
+			return type;
+		}
+
+		public int currentSegment(double[] seg) {
+			int type = segmentType();
+			if (type != SEG_CLOSE) {
+				seg[0] = coords[2 * vertex];
+				seg[1] = coords[2 * vertex + 1];
+				if (at != null) {
+					at.transform(seg, 0, seg, 0, 1);
+				}
+			}
+			return type;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over a set of integer points, for finding the points in a
+ * rectangle without looking at all of them.
+ *
+ * The points are bucketed once by cell with a counting sort, so each cell is
+ * a range of one id array and there are no cell objects; within a cell the
+ * ids are in increasing order. Points at Integer.MIN_VALUE on either axis,
+ * which is how screen coordinates of missing values are kept, are left out.
+ * The index is never changed after construction and can be shared between
+ * threads.
+ */
+public class PointGridIndex {
+
+	// cells are at least this wide, and there are at most MAX_CELLS a side
+	private static final int MIN_CELL_SIZE = 8;
+	private static final int MAX_CELLS = 1024;
+
+	private final int[] xs;
+	private final int[] ys;
+	private final int minX;
+	private final int minY;
+	private final int cellSize;
+	private final int cols;
+	private final int rows;
+	// first entry of each cell in ids, then one past the last
+	private final int[] cellStarts;
+	private final int[] ids;
+
+	public PointGridIndex(int[] xs, int[] ys) {
+		if (xs.length != ys.length) {
+			throw new IllegalArgumentException("coordinate array lengths differ");
+		}
+		this.xs = xs;
+		this.ys = ys;
+		int x0 = Integer.MAX_VALUE;
+		int y0 = Integer.MAX_VALUE;
+		int x1 = Integer.MIN_VALUE;
+		int y1 = Integer.MIN_VALUE;
+		int numValid = 0;
+		for (int i = 0; i < xs.length; i++) {
+			if (isMissing(i)) {
+				continue;
+			}
+			x0 = Math.min(x0, xs[i]);
+			y0 = Math.min(y0, ys[i]);
+			x1 = Math.max(x1, xs[i]);
+			y1 = Math.max(y1, ys[i]);
+			numValid++;
+		}
+		if (numValid == 0) {
+			x0 = y0 = x1 = y1 = 0;
+		}
+		minX = x0;
+		minY = y0;
+		long span = Math.max((long) x1 - x0, (long) y1 - y0) + 1;
+		cellSize = (int) Math.max(MIN_CELL_SIZE, (span + MAX_CELLS - 1)
+				/ MAX_CELLS);
+		cols = (int) (((long) x1 - x0) / cellSize) + 1;
+		rows = (int) (((long) y1 - y0) / cellSize) + 1;
+
+		cellStarts = new int[cols * rows + 1];
+		for (int i = 0; i < xs.length; i++) {
+			if (!isMissing(i)) {
+				cellStarts[cellOf(i) + 1]++;
+			}
+		}
+		for (int c = 0; c < cols * rows; c++) {
+			cellStarts[c + 1] += cellStarts[c];
+		}
+		ids = new int[numValid];
+		int[] next = Arrays.copyOf(cellStarts, cols * rows);
+		for (int i = 0; i < xs.length; i++) {
+			if (!isMissing(i)) {
+				ids[next[cellOf(i)]++] = i;
+			}
+		}
+	}
+
+	private boolean isMissing(int i) {
+		return xs[i] == Integer.MIN_VALUE || ys[i] == Integer.MIN_VALUE;
+	}
+
+	private int cellOf(int i) {
+		int col = (int) (((long) xs[i] - minX) / cellSize);
+		int row = (int) (((long) ys[i] - minY) / cellSize);
+		return row * cols + col;
+	}
+
+	/**
+	 * Whether this index was built over these very arrays. The arrays are
+	 * not copied, so an index is only good while they are left alone.
+	 */
+	public boolean isFor(int[] xs, int[] ys) {
+		return this.xs == xs && this.ys == ys;
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * The ids of the points in the rectangle, in increasing order. As with
+	 * java.awt.Rectangle.contains, the left and top edges are inside and the
+	 * right and bottom edges are not.
+	 */
+	public int[] findInRect(int x, int y, int width, int height) {
+		if (width <= 0 || height <= 0 || ids.length == 0) {
+			return new int[0];
+		}
+		long right = (long) x + width; // exclusive
+		long bottom = (long) y + height;
+		int col0 = clamp(((long) x - minX) / cellSize, cols);
+		int col1 = clamp((right - 1 - minX) / cellSize, cols);
+		int row0 = clamp(((long) y - minY) / cellSize, rows);
+		int row1 = clamp((bottom - 1 - minY) / cellSize, rows);
+		if (right - 1 < minX || bottom - 1 < minY) {
+			return new int[0];
+		}
+		int[] found = new int[16];
+		int n = 0;
+		for (int row = row0; row <= row1; row++) {
+			for (int col = col0; col <= col1; col++) {
+				int cell = row * cols + col;
+				for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; k++) {
+					int id = ids[k];
+					if (xs[id] >= x && xs[id] < right && ys[id] >= y
+							&& ys[id] < bottom) {
+						if (n == found.length) {
+							found = Arrays.copyOf(found, n * 2);
+						}
+						found[n++] = id;
+					}
+				}
+			}
+		}
+		found = Arrays.copyOf(found, n);
+		if (col0 != col1 || row0 != row1) {
+			Arrays.sort(found);
+		}
+		return found;
+	}
+
+	private static int clamp(long cell, int numCells) {
+		return (int) Math.max(0, Math.min(numCells - 1, cell));
+	}
+}
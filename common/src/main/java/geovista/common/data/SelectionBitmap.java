@@ -0,0 +1,623 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of observation ids, stored as a compressed bitmap in the
+ * manner of Roaring bitmaps: ids are grouped by their high 16 bits, and each
+ * group of 65536 ids is kept either as a sorted array of its low 16 bits,
+ * while it has at most 4096 members, or as a 65536 bit bitmap beyond that.
+ * So a handful of selected observations costs a few bytes, and selecting
+ * most of a large data set costs one bit per observation.
+ *
+ * Union, intersection, symmetric difference and difference work group by
+ * group without boxing, and return new sets; ids come out in ascending order.
+ * Negative ids are not allowed.
+ */
+public final class SelectionBitmap {
+
+    public static final SelectionBitmap EMPTY = new SelectionBitmap(
+	    new char[0], new Container[0], 0);
+
+    // containers with more members than this are bitmaps
+    static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    private final char[] keys;
+    private final Container[] containers;
+    private final int size;
+    private int hash;
+
+    private SelectionBitmap(char[] keys, Container[] containers, int size) {
+	this.keys = keys;
+	this.containers = containers;
+	this.size = size;
+    }
+
+    /**
+     * The set of the given ids, which need not be sorted or distinct.
+     */
+    public static SelectionBitmap of(int[] ids) {
+	if (ids == null || ids.length == 0) {
+	    return EMPTY;
+	}
+	boolean ascending = true;
+	int max = ids[0];
+	int min = ids[0];
+	for (int i = 1; i < ids.length; i++) {
+	    int id = ids[i];
+	    if (id <= ids[i - 1]) {
+		ascending = false;
+	    }
+	    if (id > max) {
+		max = id;
+	    } else if (id < min) {
+		min = id;
+	    }
+	}
+	if (min < 0) {
+	    throw new IllegalArgumentException("negative observation id "
+		    + min);
+	}
+	if (!ascending && max / 64 <= 4 * ids.length + BITMAP_WORDS) {
+	    // dense enough to scatter into words instead of sorting
+	    long[] words = new long[max / 64 + 1];
+	    for (int id : ids) {
+		words[id >>> 6] |= 1L << id;
+	    }
+	    return fromWords(words);
+	}
+	int[] sorted = ids;
+	if (!ascending) {
+	    sorted = ids.clone();
+	    Arrays.sort(sorted);
+	}
+	Builder builder = new Builder();
+	for (int id : sorted) {
+	    builder.addAscending(id);
+	}
+	return builder.build();
+    }
+
+    /**
+     * The set whose members are the set bits of words, in the layout of
+     * java.util.BitSet.toLongArray.
+     */
+    public static SelectionBitmap fromWords(long[] words) {
+	int nKeys = (words.length + BITMAP_WORDS - 1) / BITMAP_WORDS;
+	char[] keys = new char[nKeys];
+	Container[] containers = new Container[nKeys];
+	int n = 0;
+	int size = 0;
+	for (int key = 0; key < nKeys; key++) {
+	    int from = key * BITMAP_WORDS;
+	    int to = Math.min(words.length, from + BITMAP_WORDS);
+	    int card = 0;
+	    for (int w = from; w < to; w++) {
+		card += Long.bitCount(words[w]);
+	    }
+	    if (card == 0) {
+		continue;
+	    }
+	    long[] bits = new long[BITMAP_WORDS];
+	    System.arraycopy(words, from, bits, 0, to - from);
+	    keys[n] = (char) key;
+	    containers[n] = Container.fromBitmap(bits);
+	    size += card;
+	    n++;
+	}
+	if (n == 0) {
+	    return EMPTY;
+	}
+	return new SelectionBitmap(Arrays.copyOf(keys, n), Arrays.copyOf(
+		containers, n), size);
+    }
+
+    /**
+     * The ids whose flag is non-zero, the form used by setSelections in
+     * several components.
+     */
+    public static SelectionBitmap fromFlags(int[] flags) {
+	Builder builder = new Builder();
+	for (int i = 0; i < flags.length; i++) {
+	    if (flags[i] != 0) {
+		builder.addAscending(i);
+	    }
+	}
+	return builder.build();
+    }
+
+    /**
+     * The ids from (inclusive) to to (exclusive).
+     */
+    public static SelectionBitmap range(int from, int to) {
+	if (from < 0) {
+	    throw new IllegalArgumentException("negative observation id "
+		    + from);
+	}
+	Builder builder = new Builder();
+	for (int id = from; id < to; id++) {
+	    builder.addAscending(id);
+	}
+	return builder.build();
+    }
+
+    public int cardinality() {
+	return size;
+    }
+
+    public boolean isEmpty() {
+	return size == 0;
+    }
+
+    public boolean contains(int id) {
+	if (id < 0) {
+	    return false;
+	}
+	int at = Arrays.binarySearch(keys, (char) (id >>> 16));
+	return at >= 0 && containers[at].contains((char) id);
+    }
+
+    /**
+     * The largest id, or -1 when empty.
+     */
+    public int max() {
+	if (size == 0) {
+	    return -1;
+	}
+	int last = keys.length - 1;
+	return (keys[last] << 16) | containers[last].last();
+    }
+
+    /**
+     * The smallest id at or after from, or -1 if there is none; so
+     *
+     * for (int id = set.next(0); id >= 0; id = set.next(id + 1))
+     *
+     * visits every member in order.
+     */
+    public int next(int from) {
+	if (from < 0) {
+	    from = 0;
+	}
+	int high = from >>> 16;
+	int at = Arrays.binarySearch(keys, (char) high);
+	if (at < 0) {
+	    at = -at - 1;
+	} else {
+	    int low = containers[at].next(from & 0xFFFF);
+	    if (low >= 0) {
+		return (high << 16) | low;
+	    }
+	    at++;
+	}
+	if (at >= keys.length) {
+	    return -1;
+	}
+	return (keys[at] << 16) | containers[at].next(0);
+    }
+
+    /**
+     * The members in ascending order.
+     */
+    public int[] toArray() {
+	int[] ids = new int[size];
+	int at = 0;
+	for (int c = 0; c < keys.length; c++) {
+	    at = containers[c].fill(keys[c] << 16, ids, at);
+	}
+	return ids;
+    }
+
+    /**
+     * Sets flags[id] to value for every member below flags.length.
+     */
+    public void fill(int[] flags, int value) {
+	int id = next(0);
+	while (id >= 0 && id < flags.length) {
+	    flags[id] = value;
+	    id = next(id + 1);
+	}
+    }
+
+    public SelectionBitmap or(SelectionBitmap other) {
+	return combine(this, other, OR);
+    }
+
+    public SelectionBitmap and(SelectionBitmap other) {
+	return combine(this, other, AND);
+    }
+
+    public SelectionBitmap xor(SelectionBitmap other) {
+	return combine(this, other, XOR);
+    }
+
+    public SelectionBitmap andNot(SelectionBitmap other) {
+	return combine(this, other, AND_NOT);
+    }
+
+    private static final int OR = 0;
+    private static final int AND = 1;
+    private static final int XOR = 2;
+    private static final int AND_NOT = 3;
+
+    private static SelectionBitmap combine(SelectionBitmap a,
+	    SelectionBitmap b, int op) {
+	int max = a.keys.length + b.keys.length;
+	char[] keys = new char[max];
+	Container[] containers = new Container[max];
+	int n = 0;
+	int size = 0;
+	int i = 0;
+	int j = 0;
+	while (i < a.keys.length || j < b.keys.length) {
+	    int ka = i < a.keys.length ? a.keys[i] : Integer.MAX_VALUE;
+	    int kb = j < b.keys.length ? b.keys[j] : Integer.MAX_VALUE;
+	    Container result;
+	    int key;
+	    if (ka == kb) {
+		key = ka;
+		result = Container.combine(a.containers[i++],
+			b.containers[j++], op);
+	    } else if (ka < kb) {
+		key = ka;
+		// a group only a has
+		result = op == AND ? null : a.containers[i];
+		i++;
+	    } else {
+		key = kb;
+		result = op == AND || op == AND_NOT ? null : b.containers[j];
+		j++;
+	    }
+	    if (result != null && result.cardinality > 0) {
+		keys[n] = (char) key;
+		containers[n] = result;
+		size += result.cardinality;
+		n++;
+	    }
+	}
+	if (n == 0) {
+	    return EMPTY;
+	}
+	return new SelectionBitmap(Arrays.copyOf(keys, n), Arrays.copyOf(
+		containers, n), size);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+	if (this == o) {
+	    return true;
+	}
+	if (!(o instanceof SelectionBitmap)) {
+	    return false;
+	}
+	SelectionBitmap other = (SelectionBitmap) o;
+	if (size != other.size || !Arrays.equals(keys, other.keys)) {
+	    return false;
+	}
+	for (int c = 0; c < keys.length; c++) {
+	    if (!containers[c].sameMembers(other.containers[c])) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    @Override
+    public int hashCode() {
+	int h = hash;
+	if (h == 0 && size > 0) {
+	    h = 1;
+	    for (int id = next(0); id >= 0; id = next(id + 1)) {
+		h = 31 * h + id;
+	    }
+	    hash = h;
+	}
+	return h;
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder("SelectionBitmap[");
+	sb.append(size).append(" of");
+	int shown = 0;
+	for (int id = next(0); id >= 0 && shown < 16; id = next(id + 1)) {
+	    sb.append(' ').append(id);
+	    shown++;
+	}
+	if (shown < size) {
+	    sb.append(" ...");
+	}
+	return sb.append(']').toString();
+    }
+
+    /**
+     * Builds a set from ids given in ascending order.
+     */
+    static final class Builder {
+	private char[] keys = new char[4];
+	private Container[] containers = new Container[4];
+	private int n;
+	private int size;
+	private char[] lows = new char[16];
+	private long[] bits;
+	private int card;
+	private int currentKey = -1;
+	private int lastId = -1;
+
+	void addAscending(int id) {
+	    if (id <= lastId) {
+		if (id == lastId) {
+		    return;
+		}
+		throw new IllegalArgumentException("ids out of order");
+	    }
+	    lastId = id;
+	    int key = id >>> 16;
+	    if (key != currentKey) {
+		flush();
+		currentKey = key;
+	    }
+	    char low = (char) id;
+	    if (bits != null) {
+		bits[low >>> 6] |= 1L << low;
+	    } else if (card == ARRAY_MAX) {
+		bits = new long[BITMAP_WORDS];
+		for (int i = 0; i < card; i++) {
+		    bits[lows[i] >>> 6] |= 1L << lows[i];
+		}
+		bits[low >>> 6] |= 1L << low;
+	    } else {
+		if (card == lows.length) {
+		    lows = Arrays.copyOf(lows, Math.min(ARRAY_MAX, card * 2));
+		}
+		lows[card] = low;
+	    }
+	    card++;
+	}
+
+	private void flush() {
+	    if (card == 0) {
+		return;
+	    }
+	    if (n == keys.length) {
+		keys = Arrays.copyOf(keys, n * 2);
+		containers = Arrays.copyOf(containers, n * 2);
+	    }
+	    keys[n] = (char) currentKey;
+	    containers[n] = bits != null ? new Container(null, bits, card)
+		    : new Container(Arrays.copyOf(lows, card), null, card);
+	    size += card;
+	    n++;
+	    card = 0;
+	    bits = null;
+	}
+
+	SelectionBitmap build() {
+	    flush();
+	    if (n == 0) {
+		return EMPTY;
+	    }
+	    return new SelectionBitmap(Arrays.copyOf(keys, n), Arrays.copyOf(
+		    containers, n), size);
+	}
+    }
+
+    /**
+     * The members sharing one high 16 bits: a sorted char array, or a
+     * bitmap of 1024 words. Never changed once made.
+     */
+    private static final class Container {
+	final char[] array;
+	final long[] bitmap;
+	final int cardinality;
+
+	Container(char[] array, long[] bitmap, int cardinality) {
+	    this.array = array;
+	    this.bitmap = bitmap;
+	    this.cardinality = cardinality;
+	}
+
+	static Container fromBitmap(long[] bits) {
+	    int card = 0;
+	    for (long word : bits) {
+		card += Long.bitCount(word);
+	    }
+	    if (card > ARRAY_MAX) {
+		return new Container(null, bits, card);
+	    }
+	    char[] array = new char[card];
+	    int at = 0;
+	    for (int w = 0; w < bits.length; w++) {
+		long word = bits[w];
+		while (word != 0) {
+		    array[at++] = (char) ((w << 6) + Long
+			    .numberOfTrailingZeros(word));
+		    word &= word - 1;
+		}
+	    }
+	    return new Container(array, null, card);
+	}
+
+	boolean contains(char low) {
+	    if (bitmap != null) {
+		return (bitmap[low >>> 6] & (1L << low)) != 0;
+	    }
+	    return Arrays.binarySearch(array, low) >= 0;
+	}
+
+	int last() {
+	    if (bitmap == null) {
+		return array[cardinality - 1];
+	    }
+	    for (int w = bitmap.length - 1; w >= 0; w--) {
+		if (bitmap[w] != 0) {
+		    return (w << 6) + 63 - Long.numberOfLeadingZeros(bitmap[w]);
+		}
+	    }
+	    return -1;
+	}
+
+	int next(int low) {
+	    if (bitmap == null) {
+		int at = Arrays.binarySearch(array, (char) low);
+		if (at < 0) {
+		    at = -at - 1;
+		}
+		return at < cardinality ? array[at] : -1;
+	    }
+	    int w = low >>> 6;
+	    if (w >= bitmap.length) {
+		return -1;
+	    }
+	    long word = bitmap[w] & (-1L << low);
+	    while (true) {
+		if (word != 0) {
+		    return (w << 6) + Long.numberOfTrailingZeros(word);
+		}
+		if (++w == bitmap.length) {
+		    return -1;
+		}
+		word = bitmap[w];
+	    }
+	}
+
+	int fill(int base, int[] ids, int at) {
+	    if (bitmap == null) {
+		for (int i = 0; i < cardinality; i++) {
+		    ids[at++] = base | array[i];
+		}
+		return at;
+	    }
+	    for (int w = 0; w < bitmap.length; w++) {
+		long word = bitmap[w];
+		while (word != 0) {
+		    ids[at++] = base | ((w << 6) + Long
+			    .numberOfTrailingZeros(word));
+		    word &= word - 1;
+		}
+	    }
+	    return at;
+	}
+
+	long[] toBitmap() {
+	    if (bitmap != null) {
+		return bitmap.clone();
+	    }
+	    long[] bits = new long[BITMAP_WORDS];
+	    for (char low : array) {
+		bits[low >>> 6] |= 1L << low;
+	    }
+	    return bits;
+	}
+
+	boolean sameMembers(Container other) {
+	    if (cardinality != other.cardinality) {
+		return false;
+	    }
+	    if (array != null && other.array != null) {
+		return Arrays.equals(array, other.array);
+	    }
+	    return Arrays.equals(toBitmap(), other.toBitmap());
+	}
+
+	static Container combine(Container a, Container b, int op) {
+	    if (a.array != null && b.array != null) {
+		return combineArrays(a, b, op);
+	    }
+	    long[] bits = a.toBitmap();
+	    if (b.bitmap != null) {
+		long[] other = b.bitmap;
+		for (int w = 0; w < BITMAP_WORDS; w++) {
+		    switch (op) {
+		    case OR:
+			bits[w] |= other[w];
+			break;
+		    case AND:
+			bits[w] &= other[w];
+			break;
+		    case XOR:
+			bits[w] ^= other[w];
+			break;
+		    default:
+			bits[w] &= ~other[w];
+		    }
+		}
+	    } else if (op == AND) {
+		// b is small, so keep only its members
+		char[] kept = new char[b.cardinality];
+		int n = 0;
+		for (char low : b.array) {
+		    if ((bits[low >>> 6] & (1L << low)) != 0) {
+			kept[n++] = low;
+		    }
+		}
+		return new Container(Arrays.copyOf(kept, n), null, n);
+	    } else {
+		for (char low : b.array) {
+		    long mask = 1L << low;
+		    if (op == OR) {
+			bits[low >>> 6] |= mask;
+		    } else if (op == XOR) {
+			bits[low >>> 6] ^= mask;
+		    } else {
+			bits[low >>> 6] &= ~mask;
+		    }
+		}
+	    }
+	    return fromBitmap(bits);
+	}
+
+	private static Container combineArrays(Container a, Container b, int op) {
+	    char[] x = a.array;
+	    char[] y = b.array;
+	    char[] out = new char[op == AND ? Math.min(x.length, y.length)
+		    : op == AND_NOT ? x.length : x.length + y.length];
+	    int n = 0;
+	    int i = 0;
+	    int j = 0;
+	    while (i < x.length && j < y.length) {
+		if (x[i] < y[j]) {
+		    if (op != AND) {
+			out[n++] = x[i];
+		    }
+		    i++;
+		} else if (x[i] > y[j]) {
+		    if (op == OR || op == XOR) {
+			out[n++] = y[j];
+		    }
+		    j++;
+		} else {
+		    if (op == OR || op == AND) {
+			out[n++] = x[i];
+		    }
+		    i++;
+		    j++;
+		}
+	    }
+	    if (op != AND) {
+		while (i < x.length) {
+		    out[n++] = x[i++];
+		}
+	    }
+	    if (op == OR || op == XOR) {
+		while (j < y.length) {
+		    out[n++] = y[j++];
+		}
+	    }
+	    if (n > ARRAY_MAX) {
+		long[] bits = new long[BITMAP_WORDS];
+		for (int k = 0; k < n; k++) {
+		    bits[out[k] >>> 6] |= 1L << out[k];
+		}
+		return new Container(null, bits, n);
+	    }
+	    return new Container(n == out.length ? out : Arrays.copyOf(out, n),
+		    null, n);
+	}
+    }
+}
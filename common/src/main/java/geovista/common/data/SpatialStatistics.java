@@ -7,7 +7,6 @@ package geovista.common.data;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -27,13 +26,9 @@ public abstract class SpatialStatistics {
 			SpatialWeights sw) {
 
 		double[] moranScores = new double[zData.length];
+		sw.getCompressed().sumNeighbors(zData, moranScores);
 		for (int i = 0; i < zData.length; i++) {
-			List<Integer> bors = sw.getNeighborIDs(i);
-			double sumScore = 0;
-			for (int j = 0; j < bors.size(); j++) {
-				sumScore = sumScore + zData[bors.get(j)];
-			}
-			moranScores[i] = zData[i] * sumScore;
+			moranScores[i] = zData[i] * moranScores[i];
 		}
 		return moranScores;
 	}
@@ -43,14 +38,14 @@ public abstract class SpatialStatistics {
 
 		double[] moranScores = new double[data.get(0).length];
 		double sumScore = 0;
+		CompressedSpatialWeights csr = sw.getCompressed();
 		for (int obs = 0; obs < data.get(0).length; obs++) {
 			for (int timeSlice = 0; timeSlice < data.size(); timeSlice++) {
 				double[] randomData = data.get(timeSlice);
 
-				List<Integer> bors = sw.getNeighborIDs(obs);
-
-				for (int j = 0; j < bors.size(); j++) {
-					sumScore = sumScore + randomData[bors.get(j)];
+				int end = csr.neighborEnd(obs);
+				for (int k = csr.neighborStart(obs); k < end; k++) {
+					sumScore = sumScore + randomData[csr.neighborAt(k)];
 					// sumScore = sumScore + randomData[bors.get(j)]
 					// * (1 * (timeSlice + 1));
 				}
@@ -74,17 +69,7 @@ public abstract class SpatialStatistics {
 
 		shuffleCollection(moranData);
 
-		double[] moranScores = new double[moranData.length];
-
-		for (int i = 0; i < moranData.length; i++) {
-			List<Integer> bors = sw.getNeighborIDs(i);
-			double sumScore = 0;
-			for (int j = 0; j < bors.size(); j++) {
-				sumScore = sumScore + moranData[bors.get(j)];
-			}
-			moranScores[i] = moranData[i] * sumScore;
-		}
-		return moranScores;
+		return calculateMoranScores(moranData, sw);
 	}
 
 	public static double[] calculateRandomSpaceTimeMoranScores(
@@ -109,14 +94,12 @@ public abstract class SpatialStatistics {
 	}
 
 	private static void shuffleCollection(double[] moranData) {
-		ArrayList<Double> randomList = new ArrayList();
-		for (double d : moranData) {
-			randomList.add(d);
-		}
-		Collections.shuffle(randomList);
-		for (int i = 0; i < randomList.size(); i++) {
-			moranData[i] = randomList.get(i);
-		}
+		LocalMoranMonteCarlo.shuffle(moranData,
+				new LocalMoranMonteCarlo.SplitMix(seedUniquifier()));
+	}
+
+	private static long seedUniquifier() {
+		return System.nanoTime() ^ Thread.currentThread().getId() << 32;
 	}
 
 	public static List<double[]> findMonteValues(double[] data, int iterations,
@@ -202,22 +185,17 @@ public abstract class SpatialStatistics {
 
 	public static double[] findPValues(double[] zData, int numTries,
 			SpatialWeights sw) {
+		return findPValues(zData, numTries, sw, seedUniquifier());
+	}
 
-		// if this approach uses too much memory, we could do it in iterations,
-		// using the sqrt of
-		// the number of iterations desired, and then averaging
-		List<double[]> monteVals = findMonteValues(zData, numTries, sw, false);
-		double[] pVals = new double[zData.length];
-
-		double[] moranScores = SpatialStatistics
-				.calculateMoranScores(zData, sw);
-
-		for (int obs = 0; obs < zData.length; obs++) {
-			pVals[obs] = DescriptiveStatistics.percentAbove(monteVals.get(obs),
-					moranScores[obs]);
-		}
-
-		return pVals;
+	/**
+	 * Same p-values as findPValues, but repeatable: a given seed gives the
+	 * same answer however many processors are available.
+	 */
+	public static double[] findPValues(double[] zData, int numTries,
+			SpatialWeights sw, long seed) {
+		LocalMoranMonteCarlo monte = new LocalMoranMonteCarlo(sw);
+		return monte.findPValues(zData, numTries, seed);
 	}
 
 	public static double[] findSpaceTimePValues(
@@ -262,7 +240,7 @@ public abstract class SpatialStatistics {
 		}
 		double[] pVals = new double[spatioTemporalData.get(0).length];
 		for (int i = 0; i < pVals.length; i++) {
-			int nBors = sw.getNeighborIDs(i).size();
+			int nBors = sw.getCompressed().getNumNeighbors(i);
 			ProbabilityDensity pd = densities.get(nBors);
 			pVals[i] = pd.findPValue(spatioTemporalData.get(0)[i]);
 		}
@@ -8,104 +8,117 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.TopologyException;
 
 public class SpatialWeights {
 
-    ArrayList<ArrayList<WeightedNeighbor>> neighbors;
+    /*
+     * The weights are kept compressed only. WeightedNeighbor objects are made
+     * for the callers that ask for them, and are copies, so changing them
+     * leaves the weights alone; findNeighbors is the one way to change them.
+     */
+    private CompressedSpatialWeights compressed;
+    private final int listLength;
     protected final static Logger logger = Logger
 	    .getLogger(SpatialWeights.class.getName());
 
+    /**
+     * Weights for listLength observations, none of them neighbors yet.
+     */
     public SpatialWeights(int listLength) {
 	super();
-	neighbors = new ArrayList<ArrayList<WeightedNeighbor>>();
-	for (int i = 0; i < listLength; i++) {
-	    neighbors.add(new ArrayList<WeightedNeighbor>());
-	}
+	this.listLength = listLength;
+	compressed = new CompressedSpatialWeights(new int[listLength + 1],
+		new int[0], new float[0]);
+    }
+
+    /**
+     * Wraps compressed weights so they can be handed to code written against
+     * SpatialWeights; no per-edge objects are made unless asked for.
+     */
+    public SpatialWeights(CompressedSpatialWeights compressed) {
+	super();
+	listLength = compressed.getNumObservations();
+	this.compressed = compressed;
+    }
+
+    public int getNumObservations() {
+	return listLength;
+    }
 
+    public synchronized CompressedSpatialWeights getCompressed() {
+	return compressed;
     }
 
     public List<Integer> getNeighborIDs(int obs) {
-	ArrayList<WeightedNeighbor> bors = neighbors.get(obs);
-	ArrayList<Integer> borIds = new ArrayList(bors.size());
-	for (WeightedNeighbor bor : bors) {
-	    borIds.add(bor.getTo());
+	CompressedSpatialWeights csr = getCompressed();
+	int end = csr.neighborEnd(obs);
+	ArrayList<Integer> borIds = new ArrayList<Integer>(csr
+		.getNumNeighbors(obs));
+	for (int k = csr.neighborStart(obs); k < end; k++) {
+	    borIds.add(csr.neighborAt(k));
 	}
 	return borIds;
     }
 
     public List<Double> getWeights(int obs) {
-	ArrayList<WeightedNeighbor> bors = neighbors.get(obs);
-	ArrayList<Double> weights = new ArrayList(bors.size());
-	for (WeightedNeighbor bor : bors) {
-	    weights.add(bor.getWeight());
+	CompressedSpatialWeights csr = getCompressed();
+	int end = csr.neighborEnd(obs);
+	ArrayList<Double> weights = new ArrayList<Double>(csr
+		.getNumNeighbors(obs));
+	for (int k = csr.neighborStart(obs); k < end; k++) {
+	    weights.add((double) csr.weightAt(k));
 	}
 	return weights;
     }
 
+    /**
+     * The neighbors of obs, made afresh on each call.
+     */
     public List<WeightedNeighbor> getWeightedNeighbors(int obs) {
-	return neighbors.get(obs);
+	return makeNeighbors(getCompressed(), obs);
     }
 
-    private void addNeighbor(int id1, int id2) {
-	if (id1 == id2) {
-	    return;
-	}
-	List<WeightedNeighbor> id1Neighbors = getWeightedNeighbors(id1);
-	List<WeightedNeighbor> id2Neighbors = getWeightedNeighbors(id2);
-	if (id1Neighbors == null) {
-	    id1Neighbors = new ArrayList<WeightedNeighbor>();
-	}
-	if (id2Neighbors == null) {
-	    id2Neighbors = new ArrayList<WeightedNeighbor>();
+    private static ArrayList<WeightedNeighbor> makeNeighbors(
+	    CompressedSpatialWeights csr, int obs) {
+	int end = csr.neighborEnd(obs);
+	ArrayList<WeightedNeighbor> bors = new ArrayList<WeightedNeighbor>(csr
+		.getNumNeighbors(obs));
+	for (int k = csr.neighborStart(obs); k < end; k++) {
+	    bors.add(new WeightedNeighbor(obs, csr.neighborAt(k), csr
+		    .weightAt(k)));
 	}
-	WeightedNeighbor one = new WeightedNeighbor(id1, id2, 1f);
-	WeightedNeighbor two = new WeightedNeighbor(id2, id1, 1f);
-	id1Neighbors.add(one);
-	id2Neighbors.add(two);
-
+	return bors;
     }
 
     public Collection<ArrayList<WeightedNeighbor>> findUniqueTopologies() {
 
 	// current (simplest) case: single neighbors
 	HashMap<Integer, ArrayList<WeightedNeighbor>> results = new HashMap<Integer, ArrayList<WeightedNeighbor>>();
-	for (ArrayList<WeightedNeighbor> weights : neighbors) {
-	    results.put(weights.size(), weights);
-
+	CompressedSpatialWeights csr = getCompressed();
+	// backwards, so the last observation with each count is the one kept
+	for (int obs = listLength - 1; obs >= 0; obs--) {
+	    int size = csr.getNumNeighbors(obs);
+	    if (!results.containsKey(size)) {
+		results.put(size, makeNeighbors(csr, obs));
+	    }
 	}
 	return results.values();
     }
 
+    /**
+     * Replaces the current neighbors with every pair of geometries that
+     * touch.
+     */
     public void findNeighbors(List<Geometry> geoms) {
-	long nTouches = 0;
-	for (int i = 0; i < geoms.size() - 1; i++) {
-	    Geometry geom = geoms.get(i);
-
-	    for (int j = i + 1; j < geoms.size(); j++) {
-		Geometry geom2 = geoms.get(j);
-		boolean touches = false;
-		try {
-		    touches = geom.touches(geom2);
-		    if (logger.isLoggable(Level.FINEST)) {
-			logger.finest("" + touches);
-		    }
-		} catch (TopologyException te) {
-		    logger.fine("buffing " + i + " and " + j);
-		    geom = geom.buffer(0);
-		    geom2 = geom2.buffer(0);
-		    touches = geom.touches(geom2);
-		}
-		if (geom.touches(geom2)) {
-		    addNeighbor(i, j);
-		    nTouches++;
-		}
-	    }// next j
-	}// next i
-	logger.fine("Number of touches = " + nTouches);
+	ContiguityWeightsBuilder builder = new ContiguityWeightsBuilder(
+		ContiguityWeightsBuilder.Criterion.TOUCHES);
+	CompressedSpatialWeights found = builder.findCompressedWeights(geoms);
+	synchronized (this) {
+	    compressed = found;
+	}
+	logger.fine("Number of touches = " + found.getNumEdges() / 2);
     }
 }
@@ -0,0 +1,121 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.util.HashMap;
+
+/**
+ * String column that can also be read as one int code per observation plus
+ * a dictionary of the distinct values, in order of first appearance.
+ * Categorical columns usually have few distinct values, so grouping or
+ * matching by code avoids comparing strings. A null String gets NULL_CODE.
+ */
+public class StringDictionaryColumn extends TypedColumn {
+
+    public static final int NULL_CODE = -1;
+
+    private final String[] data;
+    private transient int[] codes;
+    private transient String[] dictionary;
+
+    public StringDictionaryColumn(String name, String[] data) {
+	super(name);
+	this.data = data;
+    }
+
+    /**
+     * Builds the codes the first time they are needed; data sets are
+     * rebuilt often, and most string columns are never grouped.
+     */
+    private synchronized void encode() {
+	if (codes != null) {
+	    return;
+	}
+	int[] newCodes = new int[data.length];
+	HashMap<String, Integer> lookup = new HashMap<String, Integer>();
+	String[] values = new String[Math.max(1, Math.min(16, data.length))];
+	int nValues = 0;
+	for (int i = 0; i < data.length; i++) {
+	    String val = data[i];
+	    if (val == null) {
+		newCodes[i] = NULL_CODE;
+		continue;
+	    }
+	    Integer code = lookup.get(val);
+	    if (code == null) {
+		if (nValues == values.length) {
+		    String[] grown = new String[nValues * 2];
+		    System.arraycopy(values, 0, grown, 0, nValues);
+		    values = grown;
+		}
+		code = Integer.valueOf(nValues);
+		values[nValues++] = val;
+		lookup.put(val, code);
+	    }
+	    newCodes[i] = code.intValue();
+	}
+	dictionary = new String[nValues];
+	System.arraycopy(values, 0, dictionary, 0, nValues);
+	codes = newCodes;
+    }
+
+    @Override
+    public int getType() {
+	return DataSetForApps.TYPE_NAME;
+    }
+
+    @Override
+    public String[] getArray() {
+	return data;
+    }
+
+    public int getNumObservations() {
+	return data.length;
+    }
+
+    @Override
+    public boolean isNull(int index) {
+	return data[index] == null;
+    }
+
+    public int getCode(int index) {
+	encode();
+	return codes[index];
+    }
+
+    /**
+     * The code of each observation; shared, so it must not be modified.
+     */
+    public int[] getCodes() {
+	encode();
+	return codes;
+    }
+
+    /**
+     * The distinct values; the code of a value is its place here.
+     */
+    public String[] getDictionary() {
+	encode();
+	return dictionary;
+    }
+
+    public int getNumDistinct() {
+	return getDictionary().length;
+    }
+
+    public String getStringVal(int index) {
+	return data[index];
+    }
+
+    public double getDoubleVal(int index) {
+	throw new IllegalArgumentException("Column " + getName()
+		+ " holds strings, not numbers");
+    }
+
+    public int getIntVal(int index) {
+	throw new IllegalArgumentException("Column " + getName()
+		+ " holds strings, not numbers");
+    }
+}
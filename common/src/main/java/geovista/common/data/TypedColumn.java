@@ -0,0 +1,87 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+/**
+ * One attribute column of a DataSetForApps, stored as a primitive array of
+ * its own type. The array the column was made from is kept as is, so
+ * DataSetForApps.getDataObjectOriginal still hands out the same arrays it
+ * was given.
+ * 
+ * Null observations (NaN, DataSetForApps.NULL_INT_VALUE, or a null String)
+ * are found once and kept in a BitsetNullMask.
+ */
+public abstract class TypedColumn implements ColumnData {
+
+    private final String name;
+    private String alias = "";
+    private transient BitsetNullMask nullMask;
+
+    protected TypedColumn(String name) {
+	this.name = name;
+    }
+
+    /**
+     * Wraps an array from a DataSetForApps data object, or returns null if
+     * the array is not of a column type (spatial data, for example). A
+     * TypedColumn is returned as it is.
+     */
+    public static TypedColumn wrap(String name, Object array) {
+	if (array instanceof TypedColumn) {
+	    return (TypedColumn) array;
+	} else if (array instanceof double[]) {
+	    return new DoubleColumn(name, (double[]) array);
+	} else if (array instanceof int[]) {
+	    return new IntColumn(name, (int[]) array);
+	} else if (array instanceof String[]) {
+	    return new StringDictionaryColumn(name, (String[]) array);
+	}
+	return null;
+    }
+
+    /**
+     * One of the DataSetForApps.TYPE_ constants.
+     */
+    public abstract int getType();
+
+    /**
+     * The array this column was made from.
+     */
+    public abstract Object getArray();
+
+    public abstract boolean isNull(int index);
+
+    public synchronized BitsetNullMask getNullMask() {
+	if (nullMask == null) {
+	    int n = getNumObservations();
+	    BitsetNullMask mask = new BitsetNullMask(n);
+	    for (int i = 0; i < n; i++) {
+		if (isNull(i)) {
+		    mask.setNull(i);
+		}
+	    }
+	    nullMask = mask;
+	}
+	return nullMask;
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public String getAlias() {
+	return alias;
+    }
+
+    public void setAlias(String alias) {
+	this.alias = alias;
+    }
+
+    @Override
+    public String toString() {
+	return getClass().getSimpleName() + "[" + name + ", "
+		+ getNumObservations() + "]";
+    }
+}
@@ -6,6 +6,8 @@ package geovista.common.event;
 
 import java.util.EventObject;
 
+import geovista.common.data.CompressedSpatialWeights;
+
 /**
  * An IndicationEvent signals that a single observation has been singled out.
  * This is often because the user has "moused over" that observation.
@@ -23,7 +25,8 @@ public class IndicationEvent extends EventObject {
 	private int xClass = -1;
 	private int yClass = -1;
 	private int highLevelIndication = -1;
-	private int[] neighbors;
+	private volatile int[] neighbors;
+	private CompressedSpatialWeights weights;
 
 	/**
 	 * The constructor is the same as that for EventObject, except that the
@@ -60,6 +63,19 @@ public class IndicationEvent extends EventObject {
 		this.neighbors = neighbors;
 	}
 
+	/**
+	 * The neighbors are those of the indication in the weights, read out
+	 * only if a listener asks for them.
+	 */
+	public IndicationEvent(Object source, int indication, int xClass,
+			int yClass, CompressedSpatialWeights weights) {
+		super(source);
+		this.indication = indication;
+		this.xClass = xClass;
+		this.yClass = yClass;
+		this.weights = weights;
+	}
+
 	// begin accessors
 	public int getIndication() {
 		return indication;
@@ -77,6 +93,9 @@ public class IndicationEvent extends EventObject {
 	 * garunteed not to be null. May return empty array.
 	 */
 	public int[] getNeighbors() {
+		if (neighbors == null && weights != null && indication >= 0) {
+			neighbors = weights.getNeighborIDs(indication);
+		}
 		if (neighbors == null) {
 			int[] emptyArray = {};
 			return emptyArray;
@@ -4,9 +4,10 @@
 
 package geovista.common.event;
 
+import geovista.common.data.SelectionBitmap;
+
 import java.awt.Color;
 import java.util.EventObject;
-import java.util.HashSet;
 
 /**
  * An SelectionEvent signals that a set of observations has been singled out.
@@ -16,10 +17,15 @@ import java.util.HashSet;
  * The integers represents the indexes of that observation in the overall data
  * set.
  * 
+ * The selection can be read either as an int[] or as a SelectionBitmap; an
+ * event made from one form makes the other only when it is asked for, so
+ * listeners that combine or test membership can stay with the bitmap.
+ * 
  */
 public class SelectionEvent extends EventObject {
 
 	private int[] selection;
+	private transient SelectionBitmap selectionBitmap;
 	private transient int[] higherLevelSelection;
 	private transient Color[] multipleSlectionColors;
 	private transient double[] selectedPortions;
@@ -45,49 +51,18 @@ public class SelectionEvent extends EventObject {
 		selectedPortions = portions;
 	}
 
+	/**
+	 * Despite the name, this is the union of the two selections, which is
+	 * what shift-selecting has always done.
+	 */
 	public static int[] makeAndSelection(int[] leftSel, int[] rightSel) {
-
-		HashSet<Integer> intSet = new HashSet<Integer>();
-		for (int i : leftSel) {
-			intSet.add(i);
-		}
-		for (int i : rightSel) {
-			intSet.add(i);
-		}
-		Object[] objArray = intSet.toArray();
-		int[] newSel = new int[objArray.length];
-		for (int i = 0; i < objArray.length; i++) {
-
-			Integer intNum = (Integer) objArray[i];
-			newSel[i] = intNum;
-		}
-
-		return newSel;
+		return SelectionBitmap.of(leftSel).or(SelectionBitmap.of(rightSel))
+				.toArray();
 	}
 
 	public static int[] makeXORSelection(int[] leftSel, int[] rightSel) {
-
-		HashSet<Integer> intSet = new HashSet<Integer>();
-		for (int i : leftSel) {
-			intSet.add(i);
-		}
-		for (int i : rightSel) {
-			if (intSet.contains(i)) {
-				intSet.remove(i);
-			} else {
-				intSet.add(i);
-
-			}
-		}
-		Object[] objArray = intSet.toArray();
-		int[] newSel = new int[objArray.length];
-		for (int i = 0; i < objArray.length; i++) {
-
-			Integer intNum = (Integer) objArray[i];
-			newSel[i] = intNum;
-		}
-
-		return newSel;
+		return SelectionBitmap.of(leftSel).xor(SelectionBitmap.of(rightSel))
+				.toArray();
 	}
 
 	public SelectionEvent(Object source, int[] selection, int[] higherLevelSel) {
@@ -101,6 +76,11 @@ public class SelectionEvent extends EventObject {
 		this.selection = selection;
 	}
 
+	public SelectionEvent(Object source, SelectionBitmap selection) {
+		super(source);
+		selectionBitmap = selection;
+	}
+
 	public SelectionEvent(Object source, Color[] multipleSlectionColors) {
 		super(source);
 		this.multipleSlectionColors = multipleSlectionColors;
@@ -119,10 +99,25 @@ public class SelectionEvent extends EventObject {
 
 	public void setSelection(int[] selection) {
 		this.selection = selection;
+		selectionBitmap = null;
+	}
+
+	/**
+	 * The selection as a bitmap, made from the int[] selection the first
+	 * time it is asked for.
+	 */
+	public SelectionBitmap getSelectionBitmap() {
+		if (selectionBitmap == null) {
+			selectionBitmap = SelectionBitmap.of(getSelection());
+		}
+		return selectionBitmap;
 	}
 
 	// begin accessors
 	public int[] getSelection() {
+		if (selection == null && selectionBitmap != null) {
+			selection = selectionBitmap.toArray();
+		}
 		if (selection == null && multipleSlectionColors == null) {
 			return new int[0]; // jin: fix nullpointexception
 		}
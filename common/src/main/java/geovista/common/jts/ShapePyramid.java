@@ -0,0 +1,336 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.jts;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+import geovista.common.data.PackedShapes;
+
+/**
+ * A set of shapes at several levels of detail, for drawing at small scales
+ * without pushing every vertex through the transform and the rasterizer.
+ *
+ * Level 0 is the shapes as given. Each level above is simplified from the
+ * one below with twice the tolerance, starting from a small
+ * fraction of the extent, so the levels fit any data set's units. Each
+ * shape is simplified on its own with TopologyPreservingSimplifier, run
+ * over all its rings or lines together, so the parts of a shape do not
+ * come to cross. A ring smaller than the tolerance, which the simplifier
+ * would flatten to a line out and back, is kept as it is. Neighbouring shapes are not
+ * simplified together and can part or overlap by up to the tolerance,
+ * which at the level picked is under half a pixel.
+ *
+ * A level which would not drop enough vertices to be worth its memory is
+ * the level below again.
+ */
+public class ShapePyramid {
+
+    /**
+     * How far, in pixels, the shapes of the level picked for a transform may
+     * stray from the originals.
+     */
+    public static final double MAX_PIXEL_ERROR = 0.5;
+
+    // tolerance of level 1, as a share of the larger side of the extent
+    private static final double FINEST_SHARE = 1d / 16384;
+    private static final double COARSENING = 2;
+    private static final int NUM_LEVELS = 9;
+    // a level keeping more than this share of the vertices below is not
+    // kept
+    private static final double MIN_REDUCTION = 0.8;
+
+    private final Shape[][] levels;
+    // the levels packed, made on demand
+    private final PackedShapes[] packedLevels;
+    // how far the shapes of each level can be from the originals, in the
+    // shapes' units
+    private final double[] errors;
+    private final long[] numPoints;
+
+    final static Logger logger = Logger.getLogger(ShapePyramid.class
+	    .getName());
+
+    public ShapePyramid(Shape[] shapes) {
+	levels = new Shape[NUM_LEVELS][];
+	packedLevels = new PackedShapes[NUM_LEVELS];
+	errors = new double[NUM_LEVELS];
+	numPoints = new long[NUM_LEVELS];
+	levels[0] = shapes;
+	numPoints[0] = countPoints(shapes);
+
+	double extent = findExtent(shapes);
+	double tolerance = extent * FINEST_SHARE;
+	GeometryFactory fact = new GeometryFactory();
+	for (int level = 1; level < NUM_LEVELS; level++) {
+	    Shape[] simpler = null;
+	    long points = numPoints[level - 1];
+	    if (tolerance > 0) {
+		simpler = simplify(levels[level - 1], tolerance, fact);
+		points = countPoints(simpler);
+	    }
+	    if (points <= MIN_REDUCTION * numPoints[level - 1]) {
+		levels[level] = simpler;
+		// tolerance from the level below, plus flattening
+		errors[level] = errors[level - 1] + tolerance * 1.25;
+		numPoints[level] = points;
+	    } else {
+		levels[level] = levels[level - 1];
+		errors[level] = errors[level - 1];
+		numPoints[level] = numPoints[level - 1];
+	    }
+	    tolerance *= COARSENING;
+	}
+	if (logger.isLoggable(Level.FINE)) {
+	    for (int level = 0; level < NUM_LEVELS; level++) {
+		logger.fine("level " + level + ": " + numPoints[level]
+			+ " points, error " + errors[level]);
+	    }
+	}
+    }
+
+    public int getNumLevels() {
+	return NUM_LEVELS;
+    }
+
+    /**
+     * The shapes at the given level; level 0 is the originals.
+     */
+    public Shape[] getLevel(int level) {
+	return levels[level];
+    }
+
+    /**
+     * The shapes at the given level, packed for transforming in bulk. Packed
+     * on the first call for each level, and shared by levels that are the
+     * same.
+     */
+    public synchronized PackedShapes getPackedLevel(int level) {
+	if (packedLevels[level] == null) {
+	    if (level > 0 && levels[level] == levels[level - 1]) {
+		packedLevels[level] = getPackedLevel(level - 1);
+	    } else {
+		packedLevels[level] = new PackedShapes(levels[level]);
+	    }
+	}
+	return packedLevels[level];
+    }
+
+    /**
+     * How far the shapes of the level can be from the originals, in the
+     * shapes' units.
+     */
+    public double getError(int level) {
+	return errors[level];
+    }
+
+    public long getNumPoints(int level) {
+	return numPoints[level];
+    }
+
+    /**
+     * The coarsest level whose shapes stay within MAX_PIXEL_ERROR of the
+     * originals when drawn at scale pixels per unit.
+     */
+    public int findLevel(double scale) {
+	for (int level = NUM_LEVELS - 1; level > 0; level--) {
+	    if (errors[level] * scale <= MAX_PIXEL_ERROR) {
+		return level;
+	    }
+	}
+	return 0;
+    }
+
+    /**
+     * The shapes to draw through xForm: those of the coarsest level that
+     * still looks the same.
+     */
+    public Shape[] getShapes(AffineTransform xForm) {
+	return levels[findLevel(findScale(xForm))];
+    }
+
+    /**
+     * How many pixels a unit can become through xForm, at most.
+     */
+    public static double findScale(AffineTransform xForm) {
+	return Math.max(Math.hypot(xForm.getScaleX(), xForm.getShearY()),
+		Math.hypot(xForm.getShearX(), xForm.getScaleY()));
+    }
+
+    private static double findExtent(Shape[] shapes) {
+	Rectangle2D extent = null;
+	for (Shape shp : shapes) {
+	    if (shp == null) {
+		continue;
+	    }
+	    if (extent == null) {
+		extent = shp.getBounds2D();
+	    } else {
+		extent.add(shp.getBounds2D());
+	    }
+	}
+	if (extent == null) {
+	    return 0;
+	}
+	return Math.max(extent.getWidth(), extent.getHeight());
+    }
+
+    private static long countPoints(Shape[] shapes) {
+	long count = 0;
+	double[] coords = new double[6];
+	for (Shape shp : shapes) {
+	    if (shp == null) {
+		continue;
+	    }
+	    for (PathIterator it = shp.getPathIterator(null); !it.isDone(); it
+		    .next()) {
+		if (it.currentSegment(coords) != PathIterator.SEG_CLOSE) {
+		    count++;
+		}
+	    }
+	}
+	return count;
+    }
+
+    private static Shape[] simplify(Shape[] shapes, double tolerance,
+	    GeometryFactory fact) {
+	Shape[] simpler = new Shape[shapes.length];
+	for (int i = 0; i < shapes.length; i++) {
+	    if (shapes[i] != null) {
+		simpler[i] = simplify(shapes[i], tolerance, fact);
+	    }
+	}
+	return simpler;
+    }
+
+    /**
+     * Simplifies the rings and lines of a shape together, keeping those too
+     * small to simplify, and rings the simplifier would flatten, as they
+     * are.
+     */
+    private static Shape simplify(Shape shp, double tolerance,
+	    GeometryFactory fact) {
+	PathIterator it = shp.getPathIterator(null, tolerance / 4);
+	int windingRule = it.getWindingRule();
+	List<Part> parts = new ArrayList<Part>();
+	Part part = null;
+	double[] coords = new double[6];
+	for (; !it.isDone(); it.next()) {
+	    int type = it.currentSegment(coords);
+	    if (type == PathIterator.SEG_MOVETO) {
+		part = new Part();
+		parts.add(part);
+		part.coordinates.add(new Coordinate(coords[0], coords[1]));
+	    } else if (type == PathIterator.SEG_LINETO && part != null) {
+		part.coordinates.add(new Coordinate(coords[0], coords[1]));
+	    } else if (type == PathIterator.SEG_CLOSE && part != null) {
+		part.closePath = true;
+	    }
+	}
+
+	// the parts big enough to simplify, as one geometry
+	List<LineString> lines = new ArrayList<LineString>();
+	for (Part p : parts) {
+	    if (p.canSimplify()) {
+		if (p.isRing()) {
+		    lines.add(fact.createLinearRing(p.toRingOrLine()));
+		} else {
+		    lines.add(fact.createLineString(p.toRingOrLine()));
+		}
+	    }
+	}
+	Geometry simpler = null;
+	if (lines.size() > 0) {
+	    Geometry all = fact.createMultiLineString(lines
+		    .toArray(new LineString[lines.size()]));
+	    simpler = TopologyPreservingSimplifier.simplify(all, tolerance);
+	}
+
+	Path2D.Float path = new Path2D.Float(windingRule);
+	int line = 0;
+	for (Part p : parts) {
+	    Coordinate[] coordinates = p.toRingOrLine();
+	    if (p.canSimplify()) {
+		Coordinate[] simplified = simpler.getGeometryN(line++)
+			.getCoordinates();
+		// a ring smaller than the tolerance can come back as a line
+		// out and back; keep it as it was instead of as a sliver
+		if (!p.isRing() || simplified.length >= 4) {
+		    coordinates = simplified;
+		}
+	    }
+	    int end = coordinates.length;
+	    if (p.closePath && end > 1
+		    && coordinates[0].equals2D(coordinates[end - 1])) {
+		end--; // closePath draws the last edge
+	    }
+	    path.moveTo(coordinates[0].x, coordinates[0].y);
+	    for (int c = 1; c < end; c++) {
+		path.lineTo(coordinates[c].x, coordinates[c].y);
+	    }
+	    if (p.closePath) {
+		path.closePath();
+	    }
+	}
+	return path;
+    }
+
+    /**
+     * A ring or line of a shape: the points from one moveTo to the next.
+     */
+    private static class Part {
+	final List<Coordinate> coordinates = new ArrayList<Coordinate>();
+	boolean closePath;
+
+	/**
+	 * Whether the part is a ring, closed by closePath or by ending where
+	 * it starts.
+	 */
+	boolean isRing() {
+	    return closePath
+		    || (coordinates.size() > 1 && coordinates.get(0).equals2D(
+			    coordinates.get(coordinates.size() - 1)));
+	}
+
+	/**
+	 * The points, ending with the first one again for a ring.
+	 */
+	Coordinate[] toRingOrLine() {
+	    int n = coordinates.size();
+	    boolean repeat = closePath
+		    && !coordinates.get(0).equals2D(coordinates.get(n - 1));
+	    Coordinate[] result = coordinates.toArray(new Coordinate[repeat ? n + 1
+		    : n]);
+	    if (repeat) {
+		result[n] = new Coordinate(coordinates.get(0));
+	    }
+	    return result;
+	}
+
+	/**
+	 * Whether the simplifier can take the part: a ring needs four points
+	 * to stay a ring, and a line two.
+	 */
+	boolean canSimplify() {
+	    if (isRing()) {
+		return toRingOrLine().length >= 4;
+	    }
+	    return coordinates.size() >= 2;
+	}
+    }
+}
@@ -0,0 +1,95 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.classification;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+public class ClassifierJenksTest extends TestCase {
+	final static Logger logger = Logger.getLogger(ClassifierJenksTest.class
+			.getName());
+
+	public ClassifierJenksTest(String name) {
+		super(name);
+	}
+
+	public void testTwoClusters() {
+		double[] data = { 11, 2, 12, 1, 10, 3 };
+		double[] breaks = ClassifierJenks.getJenksBreaks(data, 2);
+		assertTrue(Arrays.toString(breaks), Arrays.equals(new double[] { 3,
+				12 }, breaks));
+	}
+
+	/**
+	 * A 0/1 column has two values to split into five classes; the zeros and
+	 * the ones each keep to a class of their own.
+	 */
+	public void testFewerDistinctValuesThanClasses() {
+		double[] data = new double[100];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = i % 3 == 0 ? 1 : 0;
+		}
+		double[] breaks = ClassifierJenks.getJenksBreaks(data, 5);
+		checkBreaks(breaks, 5, 1);
+		checkTwoValueClasses(new ClassifierJenks().classify(data, 5), data);
+
+		breaks = ClassifierJenks.getJenksBreaksBinned(data, 5, 100);
+		checkBreaks(breaks, 5, 1);
+	}
+
+	public void testFewerValuesThanClasses() {
+		double[] data = { 4, Double.NaN, 2 };
+		double[] breaks = ClassifierJenks.getJenksBreaks(data, 5);
+		checkBreaks(breaks, 5, 4);
+		assertEquals(2d, breaks[0]);
+
+		breaks = ClassifierJenks.getJenksBreaksBinned(data, 5, 100);
+		checkBreaks(breaks, 5, 4);
+		assertEquals(2d, breaks[0]);
+	}
+
+	/**
+	 * Three occupied bins out of many, for more classes than that.
+	 */
+	public void testFewerOccupiedBinsThanClasses() {
+		double[] data = new double[60];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (i % 3) * 50;
+		}
+		double[] breaks = ClassifierJenks.getJenksBreaksBinned(data, 7, 1000);
+		checkBreaks(breaks, 7, 100);
+		assertEquals(0d, breaks[0]);
+		assertEquals(50d, breaks[1]);
+	}
+
+	private void checkBreaks(double[] breaks, int numClasses, double max) {
+		assertEquals(numClasses, breaks.length);
+		for (int i = 1; i < breaks.length; i++) {
+			assertTrue(Arrays.toString(breaks), breaks[i - 1] <= breaks[i]);
+		}
+		assertEquals(max, breaks[breaks.length - 1]);
+	}
+
+	private void checkTwoValueClasses(int[] classes, double[] data) {
+		int zeroClass = -1;
+		int oneClass = -1;
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] == 0) {
+				if (zeroClass < 0) {
+					zeroClass = classes[i];
+				}
+				assertEquals(zeroClass, classes[i]);
+			} else {
+				if (oneClass < 0) {
+					oneClass = classes[i];
+				}
+				assertEquals(oneClass, classes[i]);
+			}
+		}
+		assertTrue(zeroClass < oneClass);
+	}
+}
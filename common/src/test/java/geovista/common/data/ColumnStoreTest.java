@@ -0,0 +1,150 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+/**
+ * Writes a data set to a column file and checks that the mapped columns
+ * read back as the in-memory columns they came from, nulls included.
+ */
+public class ColumnStoreTest extends TestCase {
+    final static Logger logger = Logger.getLogger(ColumnStoreTest.class
+	    .getName());
+
+    private static final int NUM_OBS = 3000;
+    private static final String[] WORDS = { "oak", "elm", "ash", "", "fir" };
+
+    private DataSetForApps dataSet;
+    private File file;
+
+    public ColumnStoreTest(String name) {
+	super(name);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+	Random rand = new Random(5);
+	double[] doubles = new double[NUM_OBS];
+	int[] ints = new int[NUM_OBS];
+	String[] strings = new String[NUM_OBS];
+	Point2D[] points = new Point2D[NUM_OBS];
+	for (int i = 0; i < NUM_OBS; i++) {
+	    doubles[i] = i % 17 == 0 ? Double.NaN : rand.nextGaussian() * 1e6;
+	    ints[i] = i % 13 == 0 ? DataSetForApps.NULL_INT_VALUE : rand
+		    .nextInt() >> 4;
+	    strings[i] = i % 11 == 0 ? null : WORDS[rand.nextInt(WORDS.length)];
+	    points[i] = new Point2D.Double(rand.nextDouble() * 360 - 180, rand
+		    .nextDouble() * 180 - 90);
+	}
+	ints[1] = Integer.MAX_VALUE;
+	ints[2] = Integer.MIN_VALUE + 1;
+	Object[] data = { new String[] { "dbl", "int", "str" }, doubles, ints,
+		strings, points };
+	dataSet = new DataSetForApps(data);
+	file = File.createTempFile("columnstore", ".col");
+    }
+
+    @Override
+    protected void tearDown() {
+	file.delete();
+    }
+
+    public void testRoundTrip() throws IOException {
+	ColumnStoreWriter.write(dataSet, file);
+	ColumnStore store = ColumnStore.open(file);
+	try {
+	    assertEquals(NUM_OBS, store.getNumObservations());
+	    assertTrue(Arrays.equals(new String[] { "dbl", "int", "str" },
+		    store.getAttributeNames()));
+	    for (int c = 0; c < store.getNumAttributes(); c++) {
+		checkColumn(dataSet.getColumn(c), store.getColumn(c));
+	    }
+
+	    // locations are the points themselves
+	    assertTrue(store.hasLocations());
+	    Point2D[] points = dataSet.getPoint2DData();
+	    for (int i = 0; i < NUM_OBS; i++) {
+		assertEquals(points[i].getX(), store.getX().getDoubleVal(i));
+		assertEquals(points[i].getY(), store.getY().getDoubleVal(i));
+	    }
+
+	    DataSetForApps mapped = store.toDataSet(true);
+	    assertEquals(2, mapped.getNumberNumericAttributes());
+	    for (int v = 0; v < 2; v++) {
+		assertTrue(Arrays.equals(dataSet.getNumericDataAsDouble(v),
+			mapped.getNumericDataAsDouble(v)));
+	    }
+	    assertEquals(NUM_OBS, mapped.getPoint2DData().length);
+	} finally {
+	    store.close();
+	}
+    }
+
+    /**
+     * Rows written one value at a time: values not set come back null.
+     */
+    public void testUnsetValuesAreNull() throws IOException {
+	ColumnStoreWriter writer = new ColumnStoreWriter(file, new String[] {
+		"d", "i", "s" }, new int[] { DataSetForApps.TYPE_DOUBLE,
+		DataSetForApps.TYPE_INTEGER, DataSetForApps.TYPE_NAME }, false);
+	writer.setDouble(0, 1.5);
+	writer.setInt(1, 7);
+	writer.setString(2, "a");
+	writer.endRow();
+	writer.endRow();
+	writer.close();
+
+	ColumnStore store = ColumnStore.open(file);
+	try {
+	    assertEquals(2, store.getNumObservations());
+	    assertFalse(store.hasLocations());
+	    for (int c = 0; c < 3; c++) {
+		assertFalse(store.getColumn(c).isNull(0));
+		assertTrue(store.getColumn(c).isNull(1));
+	    }
+	    assertEquals(1.5, store.getColumn(0).getDoubleVal(0));
+	    assertEquals(7, store.getColumn(1).getIntVal(0));
+	    assertEquals("a", store.getColumn(2).getStringVal(0));
+	    assertNull(store.getColumn(2).getStringVal(1));
+	} finally {
+	    store.close();
+	}
+    }
+
+    private void checkColumn(TypedColumn expected, TypedColumn actual) {
+	String name = expected.getName();
+	assertEquals(name, actual.getName());
+	assertEquals(name, expected.getType(), actual.getType());
+	assertEquals(name, NUM_OBS, actual.getNumObservations());
+	for (int i = 0; i < NUM_OBS; i++) {
+	    String where = name + " row " + i;
+	    assertEquals(where, expected.isNull(i), actual.isNull(i));
+	    if (expected.getType() == DataSetForApps.TYPE_NAME) {
+		assertEquals(where, expected.getStringVal(i), actual
+			.getStringVal(i));
+	    } else if (expected.getType() == DataSetForApps.TYPE_INTEGER) {
+		assertEquals(where, expected.getIntVal(i), actual.getIntVal(i));
+	    } else if (!expected.isNull(i)) {
+		assertEquals(where, expected.getDoubleVal(i), actual
+			.getDoubleVal(i));
+	    }
+	}
+	if (expected instanceof NumericColumn) {
+	    assertTrue(name, Arrays.equals(((NumericColumn) expected)
+		    .getDoubles(), ((NumericColumn) actual).getDoubles()));
+	} else {
+	    assertTrue(name, Arrays.equals((Object[]) expected.getArray(),
+		    (Object[]) actual.getArray()));
+	}
+    }
+}
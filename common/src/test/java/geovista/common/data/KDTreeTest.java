@@ -0,0 +1,126 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks KDTree queries against a scan of every point. The points lie on a
+ * small integer grid, with repeats, so there are many ties in distance and
+ * many points exactly on the radius.
+ */
+public class KDTreeTest extends TestCase {
+	final static Logger logger = Logger.getLogger(KDTreeTest.class.getName());
+
+	private static final int NUM_POINTS = 500;
+	private static final int GRID = 12;
+	private static final int NUM_QUERIES = 200;
+
+	private double[] x;
+	private double[] y;
+	private KDTree tree;
+	private Random rand;
+
+	public KDTreeTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() {
+		rand = new Random(41);
+		x = new double[NUM_POINTS];
+		y = new double[NUM_POINTS];
+		for (int i = 0; i < NUM_POINTS; i++) {
+			x[i] = rand.nextInt(GRID);
+			y[i] = rand.nextInt(GRID);
+		}
+		tree = new KDTree(x, y);
+	}
+
+	public void testNearest() {
+		KDTree.Neighbors result = new KDTree.Neighbors();
+		int[] ks = { 1, 2, 5, 17, 60 };
+		for (int q = 0; q < NUM_QUERIES; q++) {
+			double qx = rand.nextInt(GRID * 2) / 2d - 1;
+			double qy = rand.nextInt(GRID * 2) / 2d - 1;
+			Integer[] order = bruteForceOrder(qx, qy);
+			for (int k : ks) {
+				tree.nearest(qx, qy, k, result);
+				assertEquals(k, result.size());
+				for (int i = 0; i < k; i++) {
+					String where = qx + ", " + qy + " k " + k + " place " + i;
+					assertEquals(where, order[i].intValue(), result.id(i));
+					assertEquals(where, distance2(order[i], qx, qy), result
+							.distanceSquared(i));
+				}
+			}
+		}
+	}
+
+	public void testNearestMoreThanSize() {
+		KDTree small = new KDTree(new double[] { 0, 1, 1 }, new double[] { 0,
+				0, 0 });
+		KDTree.Neighbors result = new KDTree.Neighbors(1);
+		small.nearest(1, 0, 5, result);
+		assertEquals(3, result.size());
+		assertEquals(1, result.id(0));
+		assertEquals(2, result.id(1));
+		assertEquals(0, result.id(2));
+	}
+
+	public void testWithinRadius() {
+		KDTree.Neighbors result = new KDTree.Neighbors();
+		double[] radii = { 0, 1, 2, 2.5, 5 };
+		for (int q = 0; q < NUM_QUERIES; q++) {
+			// grid queries put points at exactly each whole radius
+			double qx = rand.nextInt(GRID);
+			double qy = rand.nextInt(GRID);
+			Integer[] order = bruteForceOrder(qx, qy);
+			for (double radius : radii) {
+				tree.withinRadius(qx, qy, radius, result);
+				int expected = 0;
+				while (expected < order.length
+						&& distance2(order[expected], qx, qy) <= radius
+								* radius) {
+					expected++;
+				}
+				String where = qx + ", " + qy + " radius " + radius;
+				assertEquals(where, expected, result.size());
+				for (int i = 0; i < expected; i++) {
+					assertEquals(where, order[i].intValue(), result.id(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ids of every point, nearest (qx, qy) first, ties by id.
+	 */
+	private Integer[] bruteForceOrder(final double qx, final double qy) {
+		Integer[] order = new Integer[NUM_POINTS];
+		for (int i = 0; i < NUM_POINTS; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int byDistance = Double.compare(distance2(a, qx, qy),
+						distance2(b, qx, qy));
+				return byDistance != 0 ? byDistance : a.compareTo(b);
+			}
+		});
+		return order;
+	}
+
+	private double distance2(int id, double qx, double qy) {
+		double dx = x[id] - qx;
+		double dy = y[id] - qy;
+		return dx * dx + dy * dy;
+	}
+}
@@ -0,0 +1,82 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.common.jts;
+
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+public class ShapePyramidTest extends TestCase {
+    final static Logger logger = Logger.getLogger(ShapePyramidTest.class
+	    .getName());
+
+    public ShapePyramidTest(String name) {
+	super(name);
+    }
+
+    /**
+     * A ring much smaller than the tolerance of the coarse levels keeps
+     * its area instead of collapsing to a sliver.
+     */
+    public void testSmallRingInLargeExtent() {
+	Path2D.Double small = new Path2D.Double();
+	int sides = 9;
+	for (int i = 0; i < sides; i++) {
+	    double angle = 2 * Math.PI * i / sides;
+	    double x = 3000 + 3 * Math.cos(angle);
+	    double y = 3000 + 3 * Math.sin(angle);
+	    if (i == 0) {
+		small.moveTo(x, y);
+	    } else {
+		small.lineTo(x, y);
+	    }
+	}
+	small.closePath();
+	Shape large = new Rectangle2D.Double(0, 0, 6000, 6000);
+	double smallArea = area(small);
+
+	ShapePyramid pyramid = new ShapePyramid(new Shape[] { small, large });
+	for (int level = 0; level < pyramid.getNumLevels(); level++) {
+	    Shape[] shapes = pyramid.getLevel(level);
+	    assertTrue("level " + level, area(shapes[0]) > smallArea / 2);
+	    assertEquals("level " + level, 6000d * 6000d, area(shapes[1]),
+		    1e-6);
+	}
+    }
+
+    /**
+     * The summed absolute area of the closed rings of a shape.
+     */
+    private static double area(Shape shp) {
+	double total = 0;
+	double ring = 0;
+	double startX = 0;
+	double startY = 0;
+	double lastX = 0;
+	double lastY = 0;
+	double[] coords = new double[6];
+	for (PathIterator it = shp.getPathIterator(null); !it.isDone(); it
+		.next()) {
+	    int type = it.currentSegment(coords);
+	    if (type == PathIterator.SEG_MOVETO) {
+		ring = 0;
+		startX = lastX = coords[0];
+		startY = lastY = coords[1];
+	    } else if (type == PathIterator.SEG_LINETO) {
+		ring += lastX * coords[1] - coords[0] * lastY;
+		lastX = coords[0];
+		lastY = coords[1];
+	    } else if (type == PathIterator.SEG_CLOSE) {
+		ring += lastX * startY - startX * lastY;
+		total += Math.abs(ring) / 2;
+	    }
+	}
+	return total;
+    }
+}
@@ -20,10 +20,20 @@ import java.util.Set;
  * will be added to the broadcasting classes ListenerList, except for events in
  * the "disallowedPackages" listed in the FiringBean class (such as
  * java.awt.event and javax.swing.event).
+ * 
+ * By default events are delivered synchronously, as the firing bean calls
+ * its listeners. In DispatchMode.COALESCING they are queued per listener and
+ * delivered by an EventDispatcher, with bursts of selection and indication
+ * events coalesced to the latest one.
  */
 public class CoordinationManager {
+	public enum DispatchMode {
+		SYNCHRONOUS, COALESCING
+	}
+
 	private transient final HashSet<FiringBean> firingBeans;
 	private transient final HashSet<ListeningBean> listeningBeans;
+	private transient EventDispatcher dispatcher;
 
 	// these two arrays should maintain the
 	// same length and "originalBean"
@@ -133,6 +143,7 @@ public class CoordinationManager {
 		}
 		FiringBean newBean = new FiringBean();
 		newBean.setOriginalBean(beanIn);
+		newBean.setDispatcher(dispatcher);
 
 		addNewBean(newBean);
 		findUniqueName(newBean);
@@ -206,6 +217,9 @@ public class CoordinationManager {
 		}
 		listeningBeans.remove(removeListener);
 		removeListener = null;
+		if (dispatcher != null) {
+			dispatcher.forget(oldBean);
+		}
 
 	}
 
@@ -265,6 +279,43 @@ public class CoordinationManager {
 		return allMeths;
 	}
 
+	/**
+	 * Sets how events travel between the coordinated beans, for beans
+	 * already added as well as those added later.
+	 */
+	public void setDispatchMode(DispatchMode mode) {
+		if (mode == getDispatchMode()) {
+			return;
+		}
+		EventDispatcher old = dispatcher;
+		if (old != null) {
+			// what is already queued goes out before any direct call, and
+			// anything fired while we re-register is delivered in place
+			old.flush();
+		}
+		dispatcher = mode == DispatchMode.COALESCING ? new EventDispatcher()
+				: null;
+		for (FiringBean fBean : firingBeans) {
+			fBean.setDispatcher(dispatcher);
+		}
+		if (old != null) {
+			old.shutdown();
+		}
+	}
+
+	public DispatchMode getDispatchMode() {
+		return dispatcher == null ? DispatchMode.SYNCHRONOUS
+				: DispatchMode.COALESCING;
+	}
+
+	/**
+	 * The dispatcher in use, for its statistics, or null when events are
+	 * delivered synchronously.
+	 */
+	public EventDispatcher getEventDispatcher() {
+		return dispatcher;
+	}
+
 	public Set<FiringBean> getFiringBeans() {
 		return firingBeans;
 	}
@@ -0,0 +1,503 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+package geovista.coordination;
+
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous, coalescing delivery of events between coordinated beans.
+ *
+ * When a CoordinationManager is in DispatchMode.COALESCING, each listening
+ * bean is registered with its firing beans through a proxy made by wrap. A
+ * call on the proxy only queues the event for that listener and returns, so
+ * a bean firing on every mouse drag no longer waits for every other view to
+ * repaint. Events whose type is in the coalesced set (selection, indication
+ * and subspace by default) replace an undelivered event of the same method
+ * for that listener, so a slow view skips to the latest state instead of
+ * working through a backlog. The merged event moves to the back of the
+ * queue, so it is never delivered ahead of an event fired before it. Other
+ * events are delivered in order.
+ *
+ * Listeners that are AWT components get their events on the event dispatch
+ * thread; others get them on a small bounded pool of worker threads. Each
+ * listener has at most one delivery task outstanding at a time, and sees its
+ * events one at a time, in the order they were queued.
+ *
+ * Per listener counts of delivered and coalesced events, queue depth, and
+ * latency from queueing to the end of delivery are kept; see getStats.
+ *
+ * @see CoordinationManager#setDispatchMode
+ */
+public class EventDispatcher {
+	final static Logger logger = Logger.getLogger(EventDispatcher.class
+			.getName());
+
+	public static final String[] DEFAULT_COALESCED_EVENTS = {
+			"geovista.common.event.SelectionEvent",
+			"geovista.common.event.IndicationEvent",
+			"geovista.common.event.SubspaceEvent" };
+
+	private final ThreadPoolExecutor executor;
+	private final IdentityHashMap<Object, ListenerQueue> queues;
+	private final Set<String> coalescedEvents;
+	// set by flush: deliver on the firing thread instead of queueing
+	private volatile boolean direct;
+
+	public EventDispatcher() {
+		this(Math.max(1, Math.min(4,
+				Runtime.getRuntime().availableProcessors() - 1)), 256);
+	}
+
+	/**
+	 * @param nThreads
+	 *            worker threads for listeners that are not components
+	 * @param queueCapacity
+	 *            delivery tasks that may wait for a worker; past that, the
+	 *            firing thread delivers the task itself
+	 */
+	public EventDispatcher(int nThreads, int queueCapacity) {
+		executor = new ThreadPoolExecutor(nThreads, nThreads, 30,
+				TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+						queueCapacity), new DispatchThreadFactory(),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		queues = new IdentityHashMap<Object, ListenerQueue>();
+		coalescedEvents = new HashSet<String>(Arrays
+				.asList(DEFAULT_COALESCED_EVENTS));
+	}
+
+	/**
+	 * Sets the names of the event classes for which only the latest
+	 * undelivered event is kept.
+	 */
+	public synchronized void setCoalescedEvents(String[] eventClassNames) {
+		coalescedEvents.clear();
+		coalescedEvents.addAll(Arrays.asList(eventClassNames));
+	}
+
+	public synchronized boolean isCoalesced(Class<?> eventClass) {
+		return coalescedEvents.contains(eventClass.getName());
+	}
+
+	/**
+	 * Returns an object implementing listeningInterface which queues each
+	 * call for delivery to listener.
+	 */
+	public Object wrap(Object listener, Class<?> listeningInterface) {
+		ListenerQueue queue = queueFor(listener);
+		return Proxy.newProxyInstance(listeningInterface.getClassLoader(),
+				new Class<?>[] { listeningInterface }, new QueueingHandler(
+						queue, listeningInterface));
+	}
+
+	private synchronized ListenerQueue queueFor(Object listener) {
+		ListenerQueue queue = queues.get(listener);
+		if (queue == null) {
+			queue = new ListenerQueue(listener);
+			queues.put(listener, queue);
+		}
+		return queue;
+	}
+
+	/**
+	 * Drops the queue and counters of a listener that is no longer
+	 * coordinated. Events already queued for it are still delivered.
+	 */
+	public synchronized void forget(Object listener) {
+		queues.remove(listener);
+	}
+
+	/**
+	 * A snapshot of the counters of every listener.
+	 */
+	public List<DispatchStats> getStats() {
+		ArrayList<ListenerQueue> all;
+		synchronized (this) {
+			all = new ArrayList<ListenerQueue>(queues.values());
+		}
+		ArrayList<DispatchStats> stats = new ArrayList<DispatchStats>();
+		for (ListenerQueue queue : all) {
+			stats.add(queue.snapshot());
+		}
+		return stats;
+	}
+
+	public void resetStats() {
+		ArrayList<ListenerQueue> all;
+		synchronized (this) {
+			all = new ArrayList<ListenerQueue>(queues.values());
+		}
+		for (ListenerQueue queue : all) {
+			queue.resetStats();
+		}
+	}
+
+	/**
+	 * Waits until no events are queued or being delivered, or until the
+	 * timeout passes. Returns whether everything was delivered. Must not be
+	 * called on the event dispatch thread while component listeners have
+	 * events queued.
+	 */
+	public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (true) {
+			boolean idle = true;
+			synchronized (this) {
+				for (ListenerQueue queue : queues.values()) {
+					if (!queue.isIdle()) {
+						idle = false;
+						break;
+					}
+				}
+			}
+			if (idle) {
+				return true;
+			}
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			Thread.sleep(2);
+		}
+	}
+
+	/**
+	 * Delivers every queued event on the calling thread, after any delivery
+	 * in progress, and from then on delivers each event on the thread that
+	 * fires it instead of queueing it. Used when going back to synchronous
+	 * dispatch, so events queued earlier reach their listeners before any
+	 * direct call does.
+	 */
+	public void flush() {
+		ArrayList<ListenerQueue> all;
+		synchronized (this) {
+			direct = true;
+			all = new ArrayList<ListenerQueue>(queues.values());
+		}
+		for (ListenerQueue queue : all) {
+			queue.drain();
+		}
+	}
+
+	/**
+	 * Stops the worker threads once the events already queued for them are
+	 * delivered.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private void schedule(ListenerQueue queue) {
+		if (queue.onEventThread) {
+			EventQueue.invokeLater(queue);
+		} else if (executor.isShutdown()) {
+			queue.run();
+		} else {
+			executor.execute(queue);
+		}
+	}
+
+	/**
+	 * Counters for one listener, as of the call to getStats.
+	 */
+	public static class DispatchStats {
+		private final Object listener;
+		private final long delivered;
+		private final long coalesced;
+		private final int queueDepth;
+		private final int maxQueueDepth;
+		private final long totalLatencyNanos;
+		private final long maxLatencyNanos;
+
+		DispatchStats(Object listener, long delivered, long coalesced,
+				int queueDepth, int maxQueueDepth, long totalLatencyNanos,
+				long maxLatencyNanos) {
+			this.listener = listener;
+			this.delivered = delivered;
+			this.coalesced = coalesced;
+			this.queueDepth = queueDepth;
+			this.maxQueueDepth = maxQueueDepth;
+			this.totalLatencyNanos = totalLatencyNanos;
+			this.maxLatencyNanos = maxLatencyNanos;
+		}
+
+		public Object getListener() {
+			return listener;
+		}
+
+		public long getDelivered() {
+			return delivered;
+		}
+
+		/**
+		 * Events replaced by a later one before they were delivered.
+		 */
+		public long getCoalesced() {
+			return coalesced;
+		}
+
+		public int getQueueDepth() {
+			return queueDepth;
+		}
+
+		public int getMaxQueueDepth() {
+			return maxQueueDepth;
+		}
+
+		public double getMeanLatencyMillis() {
+			if (delivered == 0) {
+				return 0;
+			}
+			return totalLatencyNanos / 1e6 / delivered;
+		}
+
+		public double getMaxLatencyMillis() {
+			return maxLatencyNanos / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return listener.getClass().getName() + ": delivered " + delivered
+					+ ", coalesced " + coalesced + ", queued " + queueDepth
+					+ " (max " + maxQueueDepth + "), latency mean "
+					+ getMeanLatencyMillis() + " ms, max "
+					+ getMaxLatencyMillis() + " ms";
+		}
+	}
+
+	/**
+	 * One queued call.
+	 */
+	private static class Pending {
+		final Method method;
+		final Object[] args;
+		final long queuedAt;
+
+		Pending(Method method, Object[] args, long queuedAt) {
+			this.method = method;
+			this.args = args;
+			this.queuedAt = queuedAt;
+		}
+	}
+
+	/**
+	 * The events waiting for one listener. Runs as the delivery task.
+	 */
+	private class ListenerQueue implements Runnable {
+		final Object listener;
+		final boolean onEventThread;
+		private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+		// undelivered coalescing events, by method
+		private final HashMap<Method, Pending> latest = new HashMap<Method, Pending>();
+		private boolean scheduled;
+		// the thread delivering an event, so only one does at a time
+		private Thread deliverer;
+		private long delivered;
+		private long coalesced;
+		private int maxDepth;
+		private long totalLatency;
+		private long maxLatency;
+
+		ListenerQueue(Object listener) {
+			this.listener = listener;
+			onEventThread = listener instanceof Component;
+		}
+
+		void offer(Method method, Object[] args, boolean coalesce) {
+			boolean schedule = false;
+			synchronized (this) {
+				Pending earlier = coalesce ? latest.get(method) : null;
+				long queuedAt = System.nanoTime();
+				if (earlier != null) {
+					// latest wins, at the back of the line, so it is not
+					// delivered ahead of events fired before it; the earlier
+					// time is kept for latency
+					pending.removeFirstOccurrence(earlier);
+					queuedAt = earlier.queuedAt;
+					coalesced++;
+				}
+				Pending p = new Pending(method, args, queuedAt);
+				pending.addLast(p);
+				if (coalesce) {
+					latest.put(method, p);
+				}
+				maxDepth = Math.max(maxDepth, pending.size());
+				if (!direct && !scheduled) {
+					scheduled = true;
+					schedule = true;
+				}
+			}
+			if (direct) {
+				drain();
+			} else if (schedule) {
+				schedule(this);
+			}
+		}
+
+		public void run() {
+			Pending next;
+			while ((next = takeNext(true)) != null) {
+				deliver(next);
+			}
+		}
+
+		/**
+		 * Delivers the queued events on the calling thread.
+		 */
+		void drain() {
+			synchronized (this) {
+				if (deliverer == Thread.currentThread()) {
+					// fired from within a delivery; the loop below us
+					// picks it up next
+					return;
+				}
+			}
+			Pending next;
+			while ((next = takeNext(false)) != null) {
+				deliver(next);
+			}
+		}
+
+		/**
+		 * Waits for any delivery in progress, then takes the next event and
+		 * makes the calling thread its deliverer. A delivery task that finds
+		 * nothing left is no longer scheduled.
+		 */
+		private synchronized Pending takeNext(boolean endsTask) {
+			boolean interrupted = false;
+			while (deliverer != null) {
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			Pending next = pending.pollFirst();
+			if (next == null) {
+				if (endsTask) {
+					scheduled = false;
+				}
+				return null;
+			}
+			if (latest.get(next.method) == next) {
+				latest.remove(next.method);
+			}
+			deliverer = Thread.currentThread();
+			return next;
+		}
+
+		private void deliver(Pending p) {
+			try {
+				p.method.invoke(listener, p.args);
+			} catch (InvocationTargetException ex) {
+				logger.log(Level.WARNING, "listener " + listener.getClass()
+						+ " failed on " + p.method.getName(), ex.getCause());
+			} catch (IllegalAccessException ex) {
+				logger.log(Level.WARNING, "could not call "
+						+ p.method.getName() + " on " + listener.getClass(),
+						ex);
+			}
+			long latency = System.nanoTime() - p.queuedAt;
+			synchronized (this) {
+				delivered++;
+				totalLatency += latency;
+				maxLatency = Math.max(maxLatency, latency);
+				deliverer = null;
+				notifyAll();
+			}
+		}
+
+		synchronized boolean isIdle() {
+			return !scheduled && deliverer == null && pending.isEmpty();
+		}
+
+		synchronized DispatchStats snapshot() {
+			return new DispatchStats(listener, delivered, coalesced, pending
+					.size(), maxDepth, totalLatency, maxLatency);
+		}
+
+		synchronized void resetStats() {
+			delivered = 0;
+			coalesced = 0;
+			maxDepth = pending.size();
+			totalLatency = 0;
+			maxLatency = 0;
+		}
+	}
+
+	/**
+	 * Turns calls on a listener interface into queued events. Object
+	 * methods are answered by the proxy itself, so listener lists find and
+	 * remove it by identity.
+	 */
+	private class QueueingHandler implements InvocationHandler {
+		private final ListenerQueue queue;
+		private final Class<?> listeningInterface;
+
+		QueueingHandler(ListenerQueue queue, Class<?> listeningInterface) {
+			this.queue = queue;
+			this.listeningInterface = listeningInterface;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			if (method.getDeclaringClass() == Object.class) {
+				String name = method.getName();
+				if (name.equals("equals")) {
+					return Boolean.valueOf(proxy == args[0]);
+				} else if (name.equals("hashCode")) {
+					return Integer.valueOf(System.identityHashCode(proxy));
+				}
+				return "queued " + listeningInterface.getName() + " for "
+						+ queue.listener;
+			}
+			if (method.getReturnType() != Void.TYPE) {
+				// a caller waiting on an answer can't be queued
+				try {
+					return method.invoke(queue.listener, args);
+				} catch (InvocationTargetException ex) {
+					throw new IllegalStateException(ex.getCause());
+				} catch (IllegalAccessException ex) {
+					throw new IllegalStateException(ex);
+				}
+			}
+			boolean coalesce = args != null && args.length == 1
+					&& args[0] != null && isCoalesced(args[0].getClass());
+			queue.offer(method, args, coalesce);
+			return null;
+		}
+	}
+
+	private static class DispatchThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "coordination-dispatch-"
+					+ count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -46,6 +46,12 @@ public class FiringBean {
 		}
 	}
 
+	public void setDispatcher(EventDispatcher dispatcher) {
+		for (FiringMethod method : methods) {
+			method.setDispatcher(dispatcher);
+		}
+	}
+
 	public void addListeningBean(ListeningBean newBean) {
 		for (FiringMethod method : methods) {
 			method.addListeningBean(newBean);
@@ -5,7 +5,9 @@ package geovista.coordination;
 
 import java.lang.reflect.Method;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
 import java.util.logging.Logger;
 
@@ -26,11 +28,16 @@ public class FiringMethod implements Comparable {
 	transient private FiringBean fBean;
 	private final HashSet<ListeningBean> listeners;
 	private Class listeningInterface;
+	transient private EventDispatcher dispatcher;
+	// what was handed to the add method for each listening bean: the bean
+	// itself, or a queueing proxy from the dispatcher
+	private final IdentityHashMap<Object, Object> registered;
 
 	/**
   */
 	public FiringMethod() {
 		listeners = new HashSet<ListeningBean>();
+		registered = new IdentityHashMap<Object, Object>();
 	}
 
 	public int compareTo(Object obj) {
@@ -65,9 +72,15 @@ public class FiringMethod implements Comparable {
 		// logger.info(interf.getName());
 		// args[0] = lBean;
 		try {
+			Object listener = lBean.getOriginalBean();
 			Object[] args = new Object[1];
-			args[0] = lBean.getOriginalBean();
+			if (dispatcher == null) {
+				args[0] = listener;
+			} else {
+				args[0] = dispatcher.wrap(listener, listeningInterface);
+			}
 			originalAddMethod.invoke(firingBean, args);
+			registered.put(listener, args[0]);
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
@@ -80,14 +93,45 @@ public class FiringMethod implements Comparable {
 		// listenerInterface[] args = new listenerInterface.class[1];
 		// args[0] = lBean;
 		try {
+			Object listener = lBean.getOriginalBean();
 			Object[] args = new Object[1];
-			args[0] = lBean.getOriginalBean();
+			args[0] = registered.remove(listener);
+			if (args[0] == null) {
+				args[0] = listener;
+			}
 			originalRemoveMethod.invoke(firingBean, args);
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
 	}
 
+	/**
+	 * Switches how events reach the listening beans: directly when
+	 * dispatcher is null, otherwise queued through it. Listeners already
+	 * registered are registered again the new way.
+	 */
+	public void setDispatcher(EventDispatcher dispatcher) {
+		if (dispatcher == this.dispatcher) {
+			return;
+		}
+		Object[] current = registered.keySet().toArray();
+		for (Object listener : current) {
+			ListeningBean lBean = new ListeningBean();
+			lBean.setOriginalBean(listener);
+			deregisterListener(lBean, listeningInterface, parentBean);
+		}
+		this.dispatcher = dispatcher;
+		for (Object listener : current) {
+			ListeningBean lBean = new ListeningBean();
+			lBean.setOriginalBean(listener);
+			registerListener(lBean, listeningInterface, parentBean);
+		}
+	}
+
+	public EventDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
 	public void addListeningBean(ListeningBean lBean) {
 		ListeningBean newBean = new ListeningBean();
 		newBean.setOriginalBean(lBean.getOriginalBean());
@@ -90,6 +90,41 @@ public class CoordinationManagerTest extends TestCase {
 
 	}
 
+	/**
+	 * Test method for
+	 * {@link geovista.coordination.CoordinationManager#setDispatchMode(geovista.coordination.CoordinationManager.DispatchMode)}
+	 * .
+	 */
+	public void testCoalescingDispatch() throws InterruptedException {
+		ExampleBean firing = new ExampleBean();
+		ExampleBean listening = new ExampleBean();
+		coord.addBean(firing);
+		coord.setDispatchMode(CoordinationManager.DispatchMode.COALESCING);
+		coord.addBean(listening);
+
+		for (int i = 1; i <= 1000; i++) {
+			firing.fireIndicationChanged(i);
+		}
+		EventDispatcher dispatcher = coord.getEventDispatcher();
+		assertTrue(dispatcher.awaitIdle(5000));
+		assertEquals(1000, listening.getIndication());
+
+		long delivered = 0;
+		long coalesced = 0;
+		for (EventDispatcher.DispatchStats stats : dispatcher.getStats()) {
+			delivered += stats.getDelivered();
+			coalesced += stats.getCoalesced();
+			assertEquals(0, stats.getQueueDepth());
+		}
+		// the listener heard 1000 events, some merged
+		assertEquals(1000, delivered + coalesced);
+
+		// and back to direct calls
+		coord.setDispatchMode(CoordinationManager.DispatchMode.SYNCHRONOUS);
+		firing.fireIndicationChanged(7);
+		assertEquals(7, listening.getIndication());
+	}
+
 	/**
 	 * Test method for
 	 * {@link geovista.coordination.CoordinationManager#getFiringMethods(geovista.coordination.ListeningBean)}
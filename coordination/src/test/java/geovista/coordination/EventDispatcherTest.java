@@ -0,0 +1,148 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.coordination;
+
+import java.util.ArrayList;
+import java.util.EventObject;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+public class EventDispatcherTest extends TestCase {
+	final static Logger logger = Logger.getLogger(EventDispatcherTest.class
+			.getName());
+
+	protected EventDispatcher dispatcher;
+	protected RecordingListener listener;
+	protected MixedListener proxy;
+
+	public EventDispatcherTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dispatcher = new EventDispatcher(1, 16);
+		dispatcher.setCoalescedEvents(new String[] { LatestEvent.class
+				.getName() });
+		listener = new RecordingListener();
+		proxy = (MixedListener) dispatcher.wrap(listener, MixedListener.class);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		listener.release.countDown();
+		dispatcher.shutdown();
+		super.tearDown();
+	}
+
+	/**
+	 * A coalesced event must not overtake an ordered event fired before it.
+	 */
+	public void testCoalescedAfterOrdered() throws InterruptedException {
+		proxy.latestChanged(new LatestEvent("s0"));
+		// the listener holds on to s0 while the rest queue up
+		assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+		proxy.latestChanged(new LatestEvent("s1"));
+		proxy.orderedChanged(new OrderedEvent("d"));
+		proxy.latestChanged(new LatestEvent("s2"));
+		proxy.orderedChanged(new OrderedEvent("e"));
+		proxy.latestChanged(new LatestEvent("s3"));
+		listener.release.countDown();
+
+		assertTrue(dispatcher.awaitIdle(5000));
+		assertEquals("[s0, d, e, s3]", listener.heard().toString());
+		EventDispatcher.DispatchStats stats = dispatcher.getStats().get(0);
+		assertEquals(4, stats.getDelivered());
+		assertEquals(2, stats.getCoalesced());
+	}
+
+	/**
+	 * After flush, what was queued has been delivered, and later events go
+	 * straight through.
+	 */
+	public void testFlush() throws InterruptedException {
+		proxy.orderedChanged(new OrderedEvent("a"));
+		assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+		proxy.latestChanged(new LatestEvent("b"));
+		proxy.orderedChanged(new OrderedEvent("c"));
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ex) {
+					return;
+				}
+				listener.release.countDown();
+			}
+		};
+		releaser.start();
+
+		// waits for the delivery of a, then delivers the rest itself
+		dispatcher.flush();
+		assertEquals("[a, b, c]", listener.heard().toString());
+
+		proxy.latestChanged(new LatestEvent("f"));
+		assertEquals("[a, b, c, f]", listener.heard().toString());
+		assertTrue(dispatcher.awaitIdle(1000));
+		releaser.join();
+	}
+
+	public interface MixedListener {
+		public void latestChanged(LatestEvent e);
+
+		public void orderedChanged(OrderedEvent e);
+	}
+
+	public static class LatestEvent extends EventObject {
+		public LatestEvent(Object source) {
+			super(source);
+		}
+	}
+
+	public static class OrderedEvent extends EventObject {
+		public OrderedEvent(Object source) {
+			super(source);
+		}
+	}
+
+	/**
+	 * Records what it hears, holding the first delivery until released.
+	 */
+	static class RecordingListener implements MixedListener {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		private final List<Object> heard = new ArrayList<Object>();
+
+		public void latestChanged(LatestEvent e) {
+			hear(e);
+		}
+
+		public void orderedChanged(OrderedEvent e) {
+			hear(e);
+		}
+
+		private void hear(EventObject e) {
+			started.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (this) {
+				heard.add(e.getSource());
+			}
+		}
+
+		synchronized List<Object> heard() {
+			return new ArrayList<Object>(heard);
+		}
+	}
+}
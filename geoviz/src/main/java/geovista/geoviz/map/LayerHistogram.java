@@ -12,9 +12,7 @@ import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Vector;
 
 import geovista.common.data.DataSetForApps;
 import geovista.geoviz.scatterplot.Histogram;
@@ -111,24 +109,7 @@ public class LayerHistogram extends LayerShape {
 	    int selectionY1, int selectionY2) {
 	Rectangle selBox = new Rectangle(selectionX1, selectionY1, selectionX2
 		- selectionX1, selectionY2 - selectionY1);
-
-	Vector selObs = new Vector();
-	for (int i = 0; i < spatialData.length; i++) {
-	    Rectangle shpBox = spatialData[i].getBounds();
-	    if (selBox.intersects(shpBox)) {
-		if (spatialData[i].contains(selBox)
-			|| spatialData[i].intersects(selBox)) {
-		    selObs.add(new Integer(i));
-		} // end if really intersects
-	    } // end if rough intersects
-	} // next
-	selectedObservations = new int[selObs.size()];
-	int j = 0;
-	for (Enumeration e = selObs.elements(); e.hasMoreElements();) {
-	    Integer anInt = (Integer) e.nextElement();
-	    selectedObservations[j] = anInt.intValue();
-	    j++;
-	}
+	selectedObservations = findShapesIntersecting(selBox);
     }
 
     /*
@@ -139,46 +120,12 @@ public class LayerHistogram extends LayerShape {
 	    int selectionY1, int selectionY2) {
 	Rectangle selBox = new Rectangle(selectionX1, selectionY1, selectionX2
 		- selectionX1, selectionY2 - selectionY1);
-
-	Vector selObs = new Vector();
-	Arrays.sort(selectedObservations); // have to do this for the
-	// searching
-	for (int i = 0; i < spatialData.length; i++) {
-	    Rectangle shpBox = spatialData[i].getBounds();
-	    if (selBox.intersects(shpBox)) {
-		if (Arrays.binarySearch(selectedObservations, i) < 0) {
-		    selObs.add(new Integer(i));
-		}
-	    }
-	}
-	int[] selectedObserCp = new int[selectedObservations.length];
-	selectedObserCp = (selectedObservations.clone());
-	selectedObservations = new int[selectedObserCp.length + selObs.size()];
-	int j = 0;
-	for (j = 0; j < selectedObserCp.length; j++) {
-	    selectedObservations[j] = selectedObserCp[j];
-	}
-	for (Enumeration e = selObs.elements(); e.hasMoreElements();) {
-	    Integer anInt = (Integer) e.nextElement();
-	    selectedObservations[j] = anInt.intValue();
-	    j++;
-	}
-
+	addShapesTouching(selBox);
     }
 
     @Override
     public int findIndication(int x, int y) {
-	for (int i = 0; i < spatialData.length; i++) {
-	    Rectangle shpBox = spatialData[i].getBounds();
-	    if (shpBox.contains(x, y)) {
-		if (spatialData[i].contains(x, y)) {
-		    return i;
-
-		} // end if really intersects
-	    } // end if rough intersects
-	} // next
-	  // couldn't find anything, so
-	return Integer.MIN_VALUE;
+	return findShapeContaining(x, y);
     }
 
     /**
@@ -191,8 +138,11 @@ public class LayerHistogram extends LayerShape {
 	this.originalPoints = originalPoints;
     }
 
+    /**
+     * Histograms are drawn whole; the clip trims them to area.
+     */
     @Override
-    public void renderSelectedObservations(Graphics2D g2) {
+    public void renderSelectedObservations(Graphics2D g2, Rectangle area) {
 	logger.info("painting histos");
 	for (Histogram histo : histos) {
 	    logger.info("location = " + histo.getLocation());
@@ -7,9 +7,6 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.Shape;
-import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.Vector;
 
 import geovista.symbolization.glyph.Glyph;
 
@@ -27,9 +24,10 @@ public class LayerLine extends LayerShape {
 	 * we need to override superclass because we should not fill
 	 * 
 	 * @param g2
+	 * @param area
 	 */
 	@Override
-	public void renderSelectedObservations(Graphics2D g2) {
+	public void renderSelectedObservations(Graphics2D g2, Rectangle area) {
 		if (objectColors == null) {
 			logger.finest("LayerLine, render called on null objectColors");
 			return;
@@ -42,12 +40,12 @@ public class LayerLine extends LayerShape {
 		if (isAuxiliary) {
 			logger.finest("rendering auxiliary layer....line. ");
 
-			super.renderAux(g2);
+			super.renderAux(g2, area);
 
 			return;
 		}
 
-		for (int path = 0; path < spatialData.length; path++) {
+		for (int path : findShapesToRender(area)) {
 			renderObservationNoIndication(path, g2);
 		}
 	} // end method
@@ -138,24 +136,7 @@ public class LayerLine extends LayerShape {
 			int selectionY1, int selectionY2) {
 		Rectangle selBox = new Rectangle(selectionX1, selectionY1, selectionX2
 				- selectionX1, selectionY2 - selectionY1);
-
-		Vector selObs = new Vector();
-		for (int i = 0; i < spatialData.length; i++) {
-			Rectangle shpBox = spatialData[i].getBounds();
-			if (selBox.intersects(shpBox)) {
-				if (spatialData[i].contains(selBox)
-						|| spatialData[i].intersects(selBox)) {
-					selObs.add(new Integer(i));
-				} // end if really intersects
-			} // end if rough intersects
-		} // next
-		selectedObservations = new int[selObs.size()];
-		int j = 0;
-		for (Enumeration e = selObs.elements(); e.hasMoreElements();) {
-			Integer anInt = (Integer) e.nextElement();
-			selectedObservations[j] = anInt.intValue();
-			j++;
-		}
+		selectedObservations = findShapesIntersecting(selBox);
 	}
 
 	/*
@@ -166,45 +147,11 @@ public class LayerLine extends LayerShape {
 			int selectionY1, int selectionY2) {
 		Rectangle selBox = new Rectangle(selectionX1, selectionY1, selectionX2
 				- selectionX1, selectionY2 - selectionY1);
-
-		Vector selObs = new Vector();
-		Arrays.sort(selectedObservations); // have to do this for the
-		// searching
-		for (int i = 0; i < spatialData.length; i++) {
-			Rectangle shpBox = spatialData[i].getBounds();
-			if (selBox.intersects(shpBox)) {
-				if (Arrays.binarySearch(selectedObservations, i) < 0) {
-					selObs.add(new Integer(i));
-				}
-			}
-		}
-		int[] selectedObserCp = new int[selectedObservations.length];
-		selectedObserCp = (selectedObservations.clone());
-		selectedObservations = new int[selectedObserCp.length + selObs.size()];
-		int j = 0;
-		for (j = 0; j < selectedObserCp.length; j++) {
-			selectedObservations[j] = selectedObserCp[j];
-		}
-		for (Enumeration e = selObs.elements(); e.hasMoreElements();) {
-			Integer anInt = (Integer) e.nextElement();
-			selectedObservations[j] = anInt.intValue();
-			j++;
-		}
-
+		addShapesTouching(selBox);
 	}
 
 	@Override
 	public int findIndication(int x, int y) {
-		for (int i = 0; i < spatialData.length; i++) {
-			Rectangle shpBox = spatialData[i].getBounds();
-			if (shpBox.contains(x, y)) {
-				if (spatialData[i].contains(x, y)) {
-					return i;
-
-				} // end if really intersects
-			} // end if rough intersects
-		} // next
-		// couldn't find anything, so
-		return Integer.MIN_VALUE;
+		return findShapeContaining(x, y);
 	}
 }
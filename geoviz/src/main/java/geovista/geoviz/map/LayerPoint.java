@@ -5,13 +5,11 @@ package geovista.geoviz.map;
 
 import java.awt.Rectangle;
 import java.awt.Shape;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
-import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.Vector;
 
 import geovista.symbolization.glyph.Glyph;
 
@@ -20,7 +18,15 @@ import geovista.symbolization.glyph.Glyph;
  */
 public class LayerPoint extends LayerShape {
 
+    private static final float MARKER_SIZE = 8f;
+
     private Point2D[] originalPoints;
+    // originalPoints as x, y pairs, and where they are on the screen
+    private transient double[] packedPoints;
+    private transient double[] screenPoints;
+    // two sets of markers, used in turn
+    private transient Shape[][] markers;
+    private transient int nextMarkers;
 
     @Override
     public void setGlyphs(Glyph[] glyphs) {
@@ -35,24 +41,7 @@ public class LayerPoint extends LayerShape {
 	    int selectionY1, int selectionY2) {
 	Rectangle selBox = new Rectangle(selectionX1, selectionY1, selectionX2
 		- selectionX1, selectionY2 - selectionY1);
-
-	Vector selObs = new Vector();
-	for (int i = 0; i < spatialData.length; i++) {
-	    Rectangle shpBox = spatialData[i].getBounds();
-	    if (selBox.intersects(shpBox)) {
-		if (spatialData[i].contains(selBox)
-			|| spatialData[i].intersects(selBox)) {
-		    selObs.add(new Integer(i));
-		} // end if really intersects
-	    } // end if rough intersects
-	} // next
-	selectedObservations = new int[selObs.size()];
-	int j = 0;
-	for (Enumeration e = selObs.elements(); e.hasMoreElements();) {
-	    Integer anInt = (Integer) e.nextElement();
-	    selectedObservations[j] = anInt.intValue();
-	    j++;
-	}
+	selectedObservations = findShapesIntersecting(selBox);
     }
 
     /*
@@ -63,46 +52,12 @@ public class LayerPoint extends LayerShape {
 	    int selectionY1, int selectionY2) {
 	Rectangle selBox = new Rectangle(selectionX1, selectionY1, selectionX2
 		- selectionX1, selectionY2 - selectionY1);
-
-	Vector selObs = new Vector();
-	Arrays.sort(selectedObservations); // have to do this for the
-	// searching
-	for (int i = 0; i < spatialData.length; i++) {
-	    Rectangle shpBox = spatialData[i].getBounds();
-	    if (selBox.intersects(shpBox)) {
-		if (Arrays.binarySearch(selectedObservations, i) < 0) {
-		    selObs.add(new Integer(i));
-		}
-	    }
-	}
-	int[] selectedObserCp = new int[selectedObservations.length];
-	selectedObserCp = (selectedObservations.clone());
-	selectedObservations = new int[selectedObserCp.length + selObs.size()];
-	int j = 0;
-	for (j = 0; j < selectedObserCp.length; j++) {
-	    selectedObservations[j] = selectedObserCp[j];
-	}
-	for (Enumeration e = selObs.elements(); e.hasMoreElements();) {
-	    Integer anInt = (Integer) e.nextElement();
-	    selectedObservations[j] = anInt.intValue();
-	    j++;
-	}
-
+	addShapesTouching(selBox);
     }
 
     @Override
     public int findIndication(int x, int y) {
-	for (int i = 0; i < spatialData.length; i++) {
-	    Rectangle shpBox = spatialData[i].getBounds();
-	    if (shpBox.contains(x, y)) {
-		if (spatialData[i].contains(x, y)) {
-		    return i;
-
-		} // end if really intersects
-	    } // end if rough intersects
-	} // next
-	  // couldn't find anything, so
-	return Integer.MIN_VALUE;
+	return findShapeContaining(x, y);
     }
 
     /**
@@ -113,6 +68,9 @@ public class LayerPoint extends LayerShape {
      */
     public void setOriginalPoints(Point2D[] originalPoints) {
 	this.originalPoints = originalPoints;
+	packedPoints = null;
+	screenPoints = null;
+	markers = null;
     }
 
     /**
@@ -160,9 +118,44 @@ public class LayerPoint extends LayerShape {
 	return shapes;
     }
 
+    /**
+     * Markers for the original points, moved to the screen through xForm in
+     * one pass. The markers are reused by the call after next, so that those
+     * handed out last time stay put while they are being drawn.
+     */
+    public Shape[] findShapesForPoints(AffineTransform xForm) {
+	int n = originalPoints.length;
+	if (packedPoints == null) {
+	    packedPoints = new double[2 * n];
+	    for (int i = 0; i < n; i++) {
+		packedPoints[2 * i] = originalPoints[i].getX();
+		packedPoints[2 * i + 1] = originalPoints[i].getY();
+	    }
+	    screenPoints = new double[2 * n];
+	    markers = new Shape[2][];
+	}
+	xForm.transform(packedPoints, 0, screenPoints, 0, n);
+	if (markers[nextMarkers] == null) {
+	    markers[nextMarkers] = new Shape[n];
+	    for (int i = 0; i < n; i++) {
+		markers[nextMarkers][i] = new Ellipse2D.Float();
+	    }
+	}
+	Shape[] shapes = markers[nextMarkers];
+	nextMarkers = 1 - nextMarkers;
+	float half = MARKER_SIZE / 2f;
+	for (int i = 0; i < n; i++) {
+	    ((Ellipse2D.Float) shapes[i]).setFrame(
+		    (float) screenPoints[2 * i] - half,
+		    (float) screenPoints[2 * i + 1] - half, MARKER_SIZE,
+		    MARKER_SIZE);
+	}
+	return shapes;
+    }
+
     public Shape[] findShapesForPoints(Point2D[] points) {
 	Shape[] shapes = new Shape[points.length];
-	float shapeSize = 8f;
+	float shapeSize = MARKER_SIZE;
 	float half = shapeSize / 2f;
 	for (int i = 0; i < shapes.length; i++) {
 	    Point2D pt = points[i];
@@ -15,15 +15,17 @@ import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.Stroke;
 import java.awt.TexturePaint;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import geovista.common.data.DescriptiveStatistics;
+import geovista.common.data.PackedRTree;
+import geovista.common.data.PackedShapes;
+import geovista.common.data.SelectionBitmap;
+import geovista.common.jts.ShapePyramid;
 import geovista.common.ui.Fisheyes;
 import geovista.symbolization.ColorInterpolator;
 import geovista.symbolization.glyph.Glyph;
@@ -45,13 +47,22 @@ public abstract class LayerShape {
     }
 
     public static final int FILL_ORDER_MAX = 3;
+    // how far to look past a tile for strokes this class cannot measure
+    private static final int UNKNOWN_STROKE_REACH = 32;
     protected transient Shape[] spatialData; // in user space
     protected transient Shape[] originalSpatialData; // originalCoordinates
+    // levels of detail of originalSpatialData, or null
+    private transient ShapePyramid originalPyramid;
+    // originalSpatialData packed, if there is no pyramid to pack it
+    private transient PackedShapes packedOriginal;
+    // where the shapes go on the screen
+    private transient PackedShapes.ScreenBuffer screenBuffer;
     protected transient Rectangle[] boundingBoxes;
     protected transient int indication;
     protected transient int[] classification;
     protected transient int[] focus;
     protected transient int[] selectedObservations;
+    protected transient SelectionBitmap selection = SelectionBitmap.EMPTY;
     protected transient int[] selectedObservationsFullIndex;
     protected transient int[] selectedObservationsOld;
     protected transient int[] selectedObservationsOldFullIndex;
@@ -79,8 +90,6 @@ public abstract class LayerShape {
     // protected transient Color colorAuxLine = new Color(232, 232, 191); //
     // kind
     protected transient Color colorAuxLine = Color.DARK_GRAY; // kind
-    protected transient Color colorBlur = new Color(128, 128, 128, 0); // of
-    // tan
     protected transient Color colorBackground = Color.white;
     protected transient float defaultStrokeWidth;
     protected transient Stroke defaultStroke;
@@ -92,6 +101,9 @@ public abstract class LayerShape {
     protected transient float[] spatialDataArea; // area of spatial data in
     // pixels
     transient Fisheyes fisheyes;
+    // bounds of spatialData, built on first use after it changes
+    private transient volatile PackedRTree shapeIndex;
+    private transient PackedRTree.Hits hits;
     transient boolean colorsRecieved = false;
     transient boolean selectionExists = false;
     // selections show colors, unselected are blank, unless none are selected,
@@ -188,6 +200,7 @@ public abstract class LayerShape {
 	 * + numSkipped); } //end if aux //end special stuff for chaomei
 	 */
 	this.spatialData = spatialData;
+	shapeIndex = null;
 
 	// we need to check for null if this is the first time through
 	// we need to check for length in case the spatial data
@@ -257,48 +270,56 @@ public abstract class LayerShape {
 
     // just sets data
     public void setSelectedObservations(int[] selectedObservations) {
+	setSelection(SelectionBitmap.of(selectedObservations),
+		selectedObservations);
+    }
+
+    public void setSelection(SelectionBitmap selection) {
+	setSelection(selection, null);
+    }
+
+    /**
+     * Updates the full index from the previous selection and the new one,
+     * touching only their members rather than every observation.
+     */
+    private void setSelection(SelectionBitmap newSelection, int[] asArray) {
 	if (logger.isLoggable(Level.FINEST)) {
-	    logger.finest(Arrays.toString(selectedObservations));
+	    logger.finest(newSelection.toString());
 	}
 	// check for error condition
-	int maxVal = DescriptiveStatistics.max(selectedObservations);
+	int maxVal = newSelection.max();
 	if (maxVal >= spatialData.length) {
 	    logger.severe("selection index too long, max value = " + maxVal);
 	    return;
 	}
 	// copy old full index values
-	for (int i = 0; i < selectedObservationsFullIndex.length; i++) {
-	    selectedObservationsOldFullIndex[i] = selectedObservationsFullIndex[i];
-	}
+	System.arraycopy(selectedObservationsFullIndex, 0,
+		selectedObservationsOldFullIndex, 0,
+		selectedObservationsFullIndex.length);
 
-	// reset full index array
-	for (int i = 0; i < selectedObservationsFullIndex.length; i++) {
-	    selectedObservationsFullIndex[i] = STATUS_NOT_SELECTED;
-	}
-
-	// set correct selection values in full index
-	for (int obs : selectedObservations) {
-	    selectedObservationsFullIndex[obs] = STATUS_SELECTED;
-	}
+	// clear what was selected, then set what is
+	selection.fill(selectedObservationsFullIndex, STATUS_NOT_SELECTED);
+	newSelection.fill(selectedObservationsFullIndex, STATUS_SELECTED);
 	// set selectionExists for rendering
-	if (selectedObservations.length > 0) {
-	    selectionExists = true;
-	} else {
-	    selectionExists = false;
-	}
+	selectionExists = !newSelection.isEmpty();
 
-	this.selectedObservations = selectedObservations; // this happens
+	selection = newSelection;
+	if (asArray == null) {
+	    asArray = newSelection.toArray();
+	}
+	selectedObservations = asArray; // this happens
 	// anyway
 
 	// copy current selection values to the old one.
 	if (selectedObservationsOld.length != selectedObservations.length) {
 	    selectedObservationsOld = new int[selectedObservations.length];
 	}
+	System.arraycopy(selectedObservations, 0, selectedObservationsOld, 0,
+		selectedObservations.length);
+    }
 
-	for (int i = 0; i < selectedObservations.length; i++) {
-	    selectedObservationsOld[i] = selectedObservations[i];
-
-	}
+    public SelectionBitmap getSelection() {
+	return selection;
     }
 
     public int[] getSelectedObservations() {
@@ -400,12 +421,62 @@ public abstract class LayerShape {
 
     public void setOriginalSpatialData(Shape[] spatialData) {
 	originalSpatialData = spatialData;
+	originalPyramid = null;
+	packedOriginal = null;
+	screenBuffer = null;
     }
 
     public Shape[] getOriginalSpatialData() {
 	return originalSpatialData;
     }
 
+    /**
+     * Gives simplified versions of the original spatial data to draw from at
+     * small scales. Ignored unless built from the current original data.
+     */
+    public void setOriginalPyramid(ShapePyramid pyramid) {
+	if (pyramid != null && pyramid.getLevel(0) == originalSpatialData) {
+	    originalPyramid = pyramid;
+	} else {
+	    originalPyramid = null;
+	}
+	screenBuffer = null;
+    }
+
+    /**
+     * The original spatial data, as simplified as it can be without that
+     * showing when drawn through xForm.
+     */
+    public Shape[] getOriginalSpatialData(AffineTransform xForm) {
+	if (originalPyramid == null) {
+	    return originalSpatialData;
+	}
+	return originalPyramid.getShapes(xForm);
+    }
+
+    /**
+     * The shapes of getOriginalSpatialData(xForm) moved through xForm, with
+     * all their vertices transformed in one pass into a buffer the layer
+     * keeps. The shapes handed out are views of that buffer, reused by the
+     * call after next, so a zoom or pan makes no new shapes.
+     */
+    public Shape[] transformOriginalSpatialData(AffineTransform xForm) {
+	PackedShapes packed;
+	if (originalPyramid != null) {
+	    packed = originalPyramid.getPackedLevel(originalPyramid
+		    .findLevel(ShapePyramid.findScale(xForm)));
+	} else {
+	    if (packedOriginal == null) {
+		packedOriginal = new PackedShapes(originalSpatialData);
+	    }
+	    packed = packedOriginal;
+	}
+	if (screenBuffer == null || !screenBuffer.isFor(packed)) {
+	    screenBuffer = packed.newScreenBuffer();
+	}
+	return screenBuffer.transform(xForm);
+    }
+
     public boolean getIsAuxiliary() {
 	return isAuxiliary;
     }
@@ -452,25 +523,88 @@ public abstract class LayerShape {
      * Selected observations should be rendered with the color "colorSelection".
      */
     public int[] findSelection(Rectangle2D selBox) {
+	return findShapesIntersecting(selBox);
+    }
 
-	Vector selObs = new Vector();
-	for (int i = 0; i < spatialData.length; i++) {
+    /**
+     * Ids, ascending, of the shapes whose bounds overlap selBox, from the
+     * spatial index.
+     */
+    protected PackedRTree.Hits findCandidates(Rectangle2D selBox) {
+	if (shapeIndex == null) {
+	    shapeIndex = PackedRTree.fromShapeBounds(spatialData);
+	}
+	if (hits == null) {
+	    hits = new PackedRTree.Hits();
+	}
+	shapeIndex.search(selBox.getMinX(), selBox.getMinY(), selBox
+		.getMaxX(), selBox.getMaxY(), hits);
+	hits.sort();
+	return hits;
+    }
+
+    /**
+     * The shapes that contain or intersect selBox, ascending.
+     */
+    protected int[] findShapesIntersecting(Rectangle2D selBox) {
+	PackedRTree.Hits candidates = findCandidates(selBox);
+	int[] found = new int[candidates.size()];
+	int nFound = 0;
+	for (int h = 0; h < candidates.size(); h++) {
+	    int i = candidates.id(h);
 	    Rectangle shpBox = spatialData[i].getBounds();
 	    if (selBox.intersects(shpBox)) {
 		if (spatialData[i].contains(selBox)
 			|| spatialData[i].intersects(selBox)) {
-		    selObs.add(new Integer(i));
+		    found[nFound++] = i;
+		} // end if really intersects
+	    } // end if rough intersects
+	}
+	return Arrays.copyOf(found, nFound);
+    }
+
+    /**
+     * The lowest numbered shape containing (x, y), or Integer.MIN_VALUE.
+     */
+    protected int findShapeContaining(int x, int y) {
+	if (spatialData == null) {
+	    return Integer.MIN_VALUE;
+	}
+	PackedRTree.Hits candidates = findCandidates(new Rectangle(x, y, 0, 0));
+	for (int h = 0; h < candidates.size(); h++) {
+	    int i = candidates.id(h);
+	    Rectangle shpBox = spatialData[i].getBounds();
+	    if (shpBox.contains(x, y)) {
+		if (spatialData[i].contains(x, y)) {
+		    return i;
 		} // end if really intersects
 	    } // end if rough intersects
-	} // next
-	int[] selObsInt = new int[selObs.size()];
-	int j = 0;
-	for (Enumeration e = selObs.elements(); e.hasMoreElements();) {
-	    Integer anInt = (Integer) e.nextElement();
-	    selObsInt[j] = anInt.intValue();
-	    j++;
 	}
-	return selObsInt;
+	// couldn't find anything, so
+	return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Adds to selectedObservations the shapes whose bounds overlap selBox
+     * and are not already selected.
+     */
+    protected void addShapesTouching(Rectangle selBox) {
+	Arrays.sort(selectedObservations); // have to do this for the searching
+	PackedRTree.Hits candidates = findCandidates(selBox);
+	int[] added = new int[selectedObservations.length + candidates.size()];
+	System.arraycopy(selectedObservations, 0, added, 0,
+		selectedObservations.length);
+	int j = selectedObservations.length;
+	for (int h = 0; h < candidates.size(); h++) {
+	    int i = candidates.id(h);
+	    Rectangle shpBox = spatialData[i].getBounds();
+	    if (selBox.intersects(shpBox)) {
+		if (Arrays.binarySearch(selectedObservations, i) < 0) {
+		    added[j++] = i;
+		}
+	    }
+	}
+	selectedObservations = Arrays.copyOf(added, j);
     }
 
     @Override
@@ -486,16 +620,21 @@ public abstract class LayerShape {
 	return s;
     }
 
-    void renderBackground(Graphics2D g2) {
+    /**
+     * Paints every shape in its own color mixed with blur, to go under the
+     * selection. Only shapes that can reach area are drawn, or all of them
+     * if area is null.
+     */
+    void renderBackground(Graphics2D g2, Rectangle area, Color blur) {
 	if (objectColors == null) {
 	    return;
 	}
-	for (int path = 0; path < spatialData.length; path++) {
-	    renderBackgroundObservation(path, g2);
+	for (int path : findShapesToRender(area)) {
+	    renderBackgroundObservation(path, g2, blur);
 	}
     }
 
-    void renderBackgroundObservation(int obs, Graphics2D g2) {
+    void renderBackgroundObservation(int obs, Graphics2D g2, Color blur) {
 
 	logger.fine("");
 	if (obs < 0) {
@@ -511,9 +650,9 @@ public abstract class LayerShape {
 
 	Color color = objectColors[obs];
 	if (color == null) {
-	    g2.setColor(colorBlur);
-	} else if (colorBlur.getAlpha() > 0) {
-	    Color newColor = ColorInterpolator.mixColorsRGB(colorBlur, color);
+	    g2.setColor(blur);
+	} else if (blur.getAlpha() > 0) {
+	    Color newColor = ColorInterpolator.mixColorsRGB(blur, color);
 	    g2.setColor(newColor);
 	} else {
 	    g2.setColor(color);
@@ -539,11 +678,6 @@ public abstract class LayerShape {
 	if (fisheyes != null) {
 	    shp = fisheyes.transform(shp);
 
-	}
-	Color color = objectColors[obs];
-	if (obs == indication) {
-	    renderIndication(g2, shp, color);
-
 	}
 	if (conditionArray[obs] > -1) {
 	    g2.setStroke(selectionStroke);
@@ -577,10 +711,6 @@ public abstract class LayerShape {
 
 	}
 	Color color = objectColors[obs];
-	if (obs == indication) {
-	    renderIndication(g2, shp, color);
-
-	}
 	if (conditionArray[obs] > -1) {
 	    g2.setStroke(defaultStroke);
 	    if (selectedObservationsFullIndex[obs] == STATUS_SELECTED
@@ -726,6 +856,16 @@ public abstract class LayerShape {
     }
 
     public void renderSelectedObservations(Graphics2D g2) {
+	renderSelectedObservations(g2, null);
+    }
+
+    /**
+     * Like renderSelectedObservations(Graphics2D), for one tile of the
+     * canvas: shapes that cannot reach area are skipped. A null area means
+     * the whole canvas. The layer is not changed, so tiles can be rendered
+     * at the same time on different threads.
+     */
+    public void renderSelectedObservations(Graphics2D g2, Rectangle area) {
 	logger.fine("");
 
 	if (objectColors == null) {
@@ -744,42 +884,108 @@ public abstract class LayerShape {
 		logger.finest("rendering auxiliary layer....shape. ");
 	    }
 	    try {
-		renderAux(g2);
+		renderAux(g2, area);
 	    } catch (Exception ex) {
 		ex.printStackTrace();
 	    }
 	    return;
 	}
-	// skip indication
-	int tempInd = indication;
-	indication = -1;
+	// indication is drawn by the canvas, over the buffer
 	g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
 		RenderingHints.VALUE_ANTIALIAS_ON);
+	int[] paths = findShapesToRender(area);
 	if (selOutline) {
 	    logger.fine("render outlines");
-	    for (int path = 0; path < spatialData.length; path++) {
+	    for (int path : paths) {
 
 		renderSelectedObservationOutline(path, g2);
 
 	    }
 	} else {
 
-	    for (int path = 0; path < spatialData.length; path++) {
+	    for (int path : paths) {
 		renderSelectedObservationFill(path, g2);
 
 	    }
 	}
 	if (glyphs != null) {
+	    // glyphs are not inside their shapes' bounds, so no culling
 	    for (int path = 0; path < spatialData.length; path++) {
 		renderSelectedObservationGlyph(path, g2);
 
 	    }
 	}
 	// this.renderGlyphs(g2);
-	indication = tempInd;
 
     } // end method
 
+    /**
+     * Ids, ascending, of the shapes that can reach area when drawn: those
+     * whose bounds, grown by renderPad, touch it. All the shapes if area is
+     * null, or if a fisheye lens moves them about.
+     */
+    protected int[] findShapesToRender(Rectangle area) {
+	Shape[] shapes = spatialData;
+	PackedRTree index = shapeIndex;
+	if (area == null || fisheyes != null || index == null) {
+	    int[] all = new int[shapes.length];
+	    for (int i = 0; i < all.length; i++) {
+		all[i] = i;
+	    }
+	    return all;
+	}
+	int pad = renderPad();
+	PackedRTree.Hits found = new PackedRTree.Hits();
+	index.search(area.getMinX() - pad, area.getMinY() - pad,
+		area.getMaxX() + pad, area.getMaxY() + pad, found);
+	found.sort();
+	// the index stops at the first null shape; the rest are not culled
+	int indexed = index.size();
+	int[] paths = Arrays.copyOf(found.toArray(), found.size()
+		+ shapes.length - indexed);
+	for (int i = indexed; i < shapes.length; i++) {
+	    paths[found.size() + i - indexed] = i;
+	}
+	return paths;
+    }
+
+    /**
+     * Builds the spatial index, if needed, so that findShapesToRender can
+     * cull. Called on the event thread before tiles are handed out.
+     */
+    void prepareToRender() {
+	if (shapeIndex == null && spatialData != null) {
+	    shapeIndex = PackedRTree.fromShapeBounds(spatialData);
+	}
+    }
+
+    /**
+     * How far, in pixels, drawing a shape can reach past its bounds: half
+     * the widest stroke, stretched by miter joins, plus a pixel of
+     * antialiasing each way.
+     */
+    int renderPad() {
+	return Math.max(strokeReach(defaultStroke),
+		strokeReach(selectionStroke)) + 2;
+    }
+
+    private static int strokeReach(Stroke stroke) {
+	if (stroke == null) {
+	    return 0;
+	}
+	if (!(stroke instanceof BasicStroke)) {
+	    return UNKNOWN_STROKE_REACH;
+	}
+	BasicStroke basic = (BasicStroke) stroke;
+	float reach = basic.getLineWidth() / 2f;
+	if (basic.getLineJoin() == BasicStroke.JOIN_MITER) {
+	    reach *= Math.max(1f, basic.getMiterLimit());
+	} else if (basic.getEndCap() == BasicStroke.CAP_SQUARE) {
+	    reach *= 1.5f; // a bit more than the root of two
+	}
+	return (int) Math.ceil(reach);
+    }
+
     private void renderGlyph(int obs, Graphics2D g2) {
 	logger.fine("");
 	if (spatialData == null) {
@@ -815,7 +1021,7 @@ public abstract class LayerShape {
 
     }
 
-    protected void renderAux(Graphics2D g2) {
+    protected void renderAux(Graphics2D g2, Rectangle area) {
 	// draw all shapes
 
 	RenderingHints qualityHints = new RenderingHints(null);
@@ -832,9 +1038,7 @@ public abstract class LayerShape {
 	g2.setStroke(selectionStroke);
 
 	if (spatialData != null) {
-	    int numPaths = spatialData.length;
-
-	    for (int path = 0; path < numPaths; path++) {
+	    for (int path : findShapesToRender(area)) {
 		Shape s = spatialData[path];
 		if (fisheyes != null) {
 		    s = fisheyes.transform(s);
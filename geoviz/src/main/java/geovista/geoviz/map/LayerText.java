@@ -8,6 +8,7 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.util.Vector;
 
 import javax.swing.JFrame;
@@ -144,12 +145,13 @@ public class LayerText extends LayerShape {
 	}
 
 	/**
-	 * put your documentation comment here
+	 * Strings are drawn whole; the clip trims them to area.
 	 * 
 	 * @param g2
+	 * @param area
 	 */
 	@Override
-	public void renderSelectedObservations(Graphics2D g2) {
+	public void renderSelectedObservations(Graphics2D g2, Rectangle area) {
 
 		int numStrings = strings.size();
 		for (int stringNum = 0; stringNum < numStrings; stringNum++) {
@@ -13,8 +13,8 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.Stroke;
@@ -43,7 +43,9 @@ import java.util.logging.Logger;
 import javax.swing.JPanel;
 import javax.swing.event.EventListenerList;
 
+import geovista.common.data.CompressedSpatialWeights;
 import geovista.common.data.DataSetForApps;
+import geovista.common.data.SelectionBitmap;
 import geovista.common.data.SpatialWeights;
 import geovista.common.event.DataSetEvent;
 import geovista.common.event.DataSetListener;
@@ -108,6 +110,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
     private transient ShapeTransformer transformer;
 
     private transient int[] selectedObservations;
+    private transient SelectionBitmap selection = SelectionBitmap.EMPTY;
     private transient Color[] objectColors;
     private transient String[] variableNames;
     protected int currColorColumnX = -1; // jin: the index of
@@ -124,7 +127,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
     protected transient BivariateColorClassifierSimple bivarColorClasser = new BivariateColorClassifierSimple();
 
     private transient Rectangle2D savedSrc = null;
-    private transient Image drawingBuff;
+    private transient MapTileRenderer tiles;
     private AffineTransform imagePanningXForm = new AffineTransform();
     protected transient ExcentricLabels exLabels;
     private String tipText = "";
@@ -143,6 +146,10 @@ public class MapCanvas extends JPanel implements ComponentListener,
 
     boolean useNeighbors = false;
 
+    private static final int BLUR_H_RADIUS = 10;
+    private static final int BLUR_V_RADIUS = 3;
+    private static final int BLUR_ITERATIONS = 3;
+
     final static Logger logger = Logger.getLogger(MapCanvas.class.getName());
 
     public MapCanvas() {
@@ -197,14 +204,14 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	ls.setGlyphs(sbs);
 
 	zoomFullExtent();// XXX should not have to do this line
-	paintDrawingBuff();
+	paintOverlayChange();
 	this.repaint();
     }
 
     public void setTextures(TexturePaint[] textures) {
 	LayerShape ls = shapeLayers.get(activeLayer);
 	ls.setTextures(textures);
-	paintDrawingBuff();
+	paintOverlayChange();
 	this.repaint();
 
     }
@@ -235,7 +242,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	LayerShape ls = shapeLayers.get(activeLayer);
 	ls.setObjectColors(objectColors);
 
-	paintDrawingBuff();
+	paintBaseChange();
 	this.repaint();
     }
 
@@ -244,6 +251,30 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	l.setParentSize(getHeight(), getWidth());
     }
 
+    /**
+     * Gives the layer the shape pyramid of data if it is built, or else once
+     * it is, then moving the layer to the level for the current transform
+     * and repainting. Until then the layer draws the original shapes.
+     */
+    private void setPyramidWhenBuilt(final LayerShape ls,
+	    final DataSetForApps data) {
+	ls.setOriginalPyramid(data.getShapePyramid(new Runnable() {
+	    public void run() {
+		if (!shapeLayers.contains(ls)) {
+		    return; // replaced while the pyramid was built
+		}
+		ls.setOriginalPyramid(data.getShapePyramid());
+		AffineTransform xForm = transformer.getXForm();
+		if (xForm != null && ls.getSpatialData() != null) {
+		    sendSpatialDataToLayer(ls, ls
+			    .transformOriginalSpatialData(xForm));
+		    paintDrawingBuff();
+		    repaint();
+		}
+	    }
+	}));
+    }
+
     /**
      * Given a region (defined by a rect), transform all current layers into
      * that region, based on maximising the visibilty of the active layer. It is
@@ -283,17 +314,12 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	    // findbugs happy
 	    transformer.setXForm(xForm);
 	    if (ls instanceof LayerPolygon) {
-		returnShapes = transformer.makeTransformedShapes(
-			originalShapes, xForm);
+		returnShapes = ls.transformOriginalSpatialData(xForm);
 	    } else if (ls instanceof LayerLine) {
-		returnShapes = transformer.makeTransformedShapes(
-			originalShapes, xForm);
+		returnShapes = ls.transformOriginalSpatialData(xForm);
 	    } else if (ls instanceof LayerPoint) {
 		LayerPoint lp = (LayerPoint) ls;
-		Point2D[] userSpacePoints = transformer.makeTransformedPoints(
-			dataSet.getPoint2DData(), xForm);
-		Shape[] circleShapes = lp.findShapesForPoints(userSpacePoints);
-		returnShapes = circleShapes;
+		returnShapes = lp.findShapesForPoints(xForm);
 
 	    } else if (ls instanceof LayerHistogram) {
 		LayerHistogram lp = (LayerHistogram) ls;
@@ -457,6 +483,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
     private void transformCurrShapesLayers(Rectangle2D src, Rectangle2D dest) {
 	AffineTransform xForm = AffineTransformModifier
 		.makeGeogAffineTransform(src, dest, false, false);
+	AffineTransform screenChange = new AffineTransform(xForm);
 	xForm.concatenate(transformer.getXForm());
 	transformer.setXForm(xForm);
 	for (LayerShape ls : shapeLayers) {
@@ -474,20 +501,12 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	    Shape[] returnShapes = preTransformShapes;// just for now, to make
 	    // findbugs happy
 	    if (ls instanceof LayerPolygon || ls instanceof LayerLine) {
-
-		returnShapes = transformer.makeTransformedShapes(
-			preTransformShapes, xForm);
+		// no more detail than shows at this scale, transformed into
+		// the layer's own buffer
+		returnShapes = ls.transformOriginalSpatialData(xForm);
 	    } else if (ls instanceof LayerPoint) {
 		LayerPoint lp = (LayerPoint) ls;
-		// XXX todo
-		// frank -- extra work (points -> shapes -> points -> shapes)
-		// here should be avoided, maybe by setting transformed points?
-		Point2D[] preTransformPoints = lp.getOriginalPoints();
-
-		Point2D[] userSpacePoints = transformer.makeTransformedPoints(
-			preTransformPoints, xForm);
-		Shape[] circleShapes = lp.findShapesForPoints(userSpacePoints);
-		returnShapes = circleShapes;
+		returnShapes = lp.findShapesForPoints(xForm);
 
 	    } else if (ls instanceof LayerHistogram) {
 
@@ -509,6 +528,10 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	    sendSpatialDataToLayer(ls, returnShapes);
 	}
 
+	if (tiles != null) {
+	    // show the old picture moved into place until the new one is in
+	    tiles.invalidateAll(screenChange);
+	}
 	paintDrawingBuff();
 	this.repaint();
 
@@ -565,7 +588,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	    return;
 	}
 	ls.setObjectColors(objectColors);
-	paintDrawingBuff();
+	paintBaseChange();
 	this.repaint();
     } // end method
 
@@ -678,19 +701,19 @@ public class MapCanvas extends JPanel implements ComponentListener,
     }
 
     public void componentResized(ComponentEvent e) {
-	if (shapeLayers.size() == 0 || drawingBuff == null) {
+	if (shapeLayers.size() == 0 || tiles == null) {
 	    return;
 	}
 	if ((shapeLayers.size() > 0) && (getWidth() > 0) && (getHeight() > 0)) {
 	    // find dimension of minimum change
-	    int widthDiff = getWidth() - drawingBuff.getWidth(this);
-	    int heightDiff = getHeight() - drawingBuff.getHeight(this);
+	    int widthDiff = getWidth() - tiles.getWidth();
+	    int heightDiff = getHeight() - tiles.getHeight();
 	    if (Math.abs(widthDiff) <= Math.abs(heightDiff)) {
 		// XXX do width zoom
 	    } else {
 		// XXX do height soom
 	    }
-	    drawingBuff = this.createImage(getWidth(), getHeight());
+	    tiles.setSize(getWidth(), getHeight());
 
 	    for (int i = 0; i < shapeLayers.size(); i++) {
 		LayerShape ls = shapeLayers.get(i);
@@ -790,10 +813,12 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	if (layerType == DataSetForApps.SPATIAL_TYPE_POLYGON) {
 	    ls = new LayerPolygon();
 	    ls.setOriginalSpatialData(auxData.getShapeData());
+	    setPyramidWhenBuilt(ls, auxData);
 
 	} else if (layerType == DataSetForApps.SPATIAL_TYPE_LINE) {
 	    ls = new LayerPolygon();
 	    ls.setOriginalSpatialData(auxData.getShapeData());
+	    setPyramidWhenBuilt(ls, auxData);
 	} else if (layerType == DataSetForApps.SPATIAL_TYPE_POINT) {
 	    LayerPoint lp = new LayerPoint();
 	    lp.setOriginalPoints(auxData.getPoint2DData());
@@ -895,10 +920,12 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	(layerType == DataSetForApps.SPATIAL_TYPE_POLYGON) {
 	    ls = new LayerPolygon();
 	    ls.setOriginalSpatialData(dataSet.getShapeData());
+	    setPyramidWhenBuilt(ls, dataSet);
 	} else if (layerType == DataSetForApps.SPATIAL_TYPE_LINE) {
 
 	    ls = new LayerLine();
 	    ls.setOriginalSpatialData(dataSet.getShapeData());
+	    setPyramidWhenBuilt(ls, dataSet);
 	}
 
 	else if (layerType == DataSetForApps.SPATIAL_TYPE_POINT) {
@@ -913,8 +940,9 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	activeLayer = shapeLayers.size() - 1;
 	zoomFullExtent();
 	// set default data to get color from
-	if ((drawingBuff == null) && (getWidth() > 0) && (getHeight() > 0)) {
-	    drawingBuff = this.createImage(getWidth(), getHeight());
+	if ((tiles == null) && (getWidth() > 0) && (getHeight() > 0)) {
+	    tiles = new MapTileRenderer(this);
+	    tiles.setSize(getWidth(), getHeight());
 	}
 
 	// resizing will autofit if this.autofit = true
@@ -1104,42 +1132,17 @@ public class MapCanvas extends JPanel implements ComponentListener,
     }
 
     public void setSelections(int[] selections) {
-	Vector v = new Vector();
-
-	for (int i = 0; i < selections.length; i++) {
-	    if (selections[i] == 1) {
-		v.add(new Integer(i));
-	    }
-	}
-
-	selectedObservations = new int[v.size()];
-
-	int i = 0;
-
-	for (Enumeration e = v.elements(); e.hasMoreElements();) {
-	    Integer bigIint = (Integer) e.nextElement();
-	    selectedObservations[i] = bigIint.intValue();
-	    i++;
-	}
-
-	setSelectedObservationsInt(selectedObservations);
+	setSelectionBitmap(SelectionBitmap.fromFlags(selections));
     }
 
     public int[] getSelections() {
 	int[] selections = new int[dataColorX.length];
-	if (selectedObservations == null) {
-	    selectedObservations = new int[0];
-	}
-	for (int i = 0; i < selectedObservations.length; i++) {
-	    selections[selectedObservations[i]] = 1;
-	}
-
+	selection.fill(selections, 1);
 	return selections;
     }
 
     public void selectionChanged(SelectionEvent e) {
-	int[] sel = e.getSelection();
-	setSelectedObservationsInt(sel);
+	setSelectionBitmap(e.getSelectionBitmap());
     }
 
     public SelectionEvent getSelectionEvent() {
@@ -1167,7 +1170,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	}
 	LayerShape layer = shapeLayers.get(activeLayer);
 	layer.setGlyphs(e.getGlyphs());
-	paintDrawingBuff();
+	paintOverlayChange();
 	this.repaint();
     }
 
@@ -1179,28 +1182,38 @@ public class MapCanvas extends JPanel implements ComponentListener,
     }
 
     public void setSelectedObservationsInt(int[] selectedObservations) {
-	this.selectedObservations = selectedObservations;
-
 	if (selectedObservations == null) {
+	    this.selectedObservations = null;
 	    return;
 	}
+	setSelectionBitmap(SelectionBitmap.of(selectedObservations));
+    }
+
+    public void setSelectionBitmap(SelectionBitmap newSelection) {
+	selection = newSelection;
+	selectedObservations = newSelection.toArray();
 
-	if ((shapeLayers.size() > 0) && (drawingBuff != null)) {
+	if ((shapeLayers.size() > 0) && (tiles != null)) {
 	    LayerShape ls = shapeLayers.get(activeLayer);
-	    ls.setSelectedObservations(this.selectedObservations);
-	    paintDrawingBuff();
+	    SelectionBitmap before = ls.getSelection();
+	    ls.setSelection(selection);
+	    paintSelectionChange(ls, before);
 	    this.repaint();
-	} else if ((shapeLayers.size() > 0) && (drawingBuff == null)
-		&& (this.selectedObservations.length > 1)) { // means we have
+	} else if ((shapeLayers.size() > 0) && (tiles == null)
+		&& (selection.cardinality() > 1)) { // means we have
 	    // data but are
 	    // not visible
 	    // yet
 
 	    LayerShape ls = shapeLayers.get(activeLayer);
-	    ls.setSelectedObservations(this.selectedObservations);
+	    ls.setSelection(selection);
 	}
     }
 
+    public SelectionBitmap getSelectionBitmap() {
+	return selection;
+    }
+
     public int[] getSelectedObservationsInt() {
 	return selectedObservations;
     }
@@ -1213,7 +1226,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
 		ls.setColorSelection(colorSelection);
 	    }
 
-	    paintDrawingBuff();
+	    paintOverlayChange();
 	    this.repaint();
 	}
     }
@@ -1228,7 +1241,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	    ls.setColorBackground(c);
 	}
 
-	paintDrawingBuff();
+	paintBaseChange();
 	this.repaint();
 
     }
@@ -1237,7 +1250,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
     public void setClusteringColor(Color[] clusteringColor) {
 	LayerShape ls = shapeLayers.get(activeLayer);
 	ls.setObjectColors(clusteringColor);
-	paintDrawingBuff();
+	paintBaseChange();
 	this.repaint();
     }
 
@@ -1247,12 +1260,12 @@ public class MapCanvas extends JPanel implements ComponentListener,
      * @param conditionArray
      */
     public void setConditionArray(int[] conditionArray) {
-	if (shapeLayers.size() > 0 && drawingBuff != null) {
+	if (shapeLayers.size() > 0 && tiles != null) {
 	    for (LayerShape ls : shapeLayers) {
 		ls.setConditionArray(conditionArray);
 	    }
 
-	    paintDrawingBuff();
+	    paintOverlayChange();
 	    this.repaint();
 	}
     }
@@ -1322,13 +1335,15 @@ public class MapCanvas extends JPanel implements ComponentListener,
 
 	if (indic != indication) {
 	    setIndication(indic);
-	    int[] neighbors = {};
+	    // the neighbors of our own indication are drawn straight from the
+	    // weights, and listeners get them the same way
+	    CompressedSpatialWeights bors = null;
 	    if (useNeighbors) {
-		neighbors = getIndicationNeighbors(indic);
-		if (logger.isLoggable(Level.FINEST)) {
-		    logger.info("found bors, n = " + neighbors.length);
+		int[] emptyArray = {};
+		setIndicationNeighbors(emptyArray);
+		if (dataSet.getSpatialWeights() != null) {
+		    bors = dataSet.getSpatialWeights().getCompressed();
 		}
-		setIndicationNeighbors(neighbors);
 	    }
 	    this.repaint();
 	    int xClass = -1;
@@ -1339,7 +1354,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
 		yClass = bivarColorClasser.getClassY(indic);
 	    }
 
-	    fireIndicationChanged(indic, xClass, yClass, neighbors);
+	    fireIndicationChanged(indic, xClass, yClass, bors);
 
 	}
 
@@ -1347,21 +1362,17 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	mouseY2 = e.getY();
     }
 
+    /**
+     * A new array of the neighbors of the observation; drawing and
+     * indication events read them from the weights instead.
+     */
     public int[] getIndicationNeighbors(int indic) {
 	if (indic < 0 || dataSet.getSpatialWeights() == null) {
 	    int[] emptyArray = {};
 	    return emptyArray;
 	}
 
-	List<Integer> intList = dataSet.getSpatialWeights().getNeighborIDs(
-		indic);
-	Object[] intArray = intList.toArray();
-	int[] theInts = new int[intArray.length];
-	for (int i = 0; i < theInts.length; i++) {
-	    theInts[i] = (Integer) intArray[i];
-
-	}
-	return theInts;
+	return dataSet.getSpatialWeights().getCompressed().getNeighborIDs(indic);
     }
 
     /**
@@ -1448,7 +1459,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	setIndication(-1);
 	int[] emptyArray = {};
 	setIndicationNeighbors(emptyArray);
-	fireIndicationChanged(-1, 0, 0, emptyArray);
+	fireIndicationChanged(-1, 0, 0, null);
 
 	if (fisheyes != null) {
 	    fisheyes.setFocus(-1000f, -1000f);
@@ -1496,21 +1507,18 @@ public class MapCanvas extends JPanel implements ComponentListener,
     private void makeSelection(int x1, int x2, int y1, int y2) {
 	int[] newSel = findSelectionInLayers(x1, x2, y1, y2);
 
-	updateSelection(newSel);
+	updateSelection(SelectionBitmap.of(newSel));
     } // method
 
     private void makeSelectionShift(int x1, int x2, int y1, int y2) {
 	int[] newSel = findSelectionInLayers(x1, x2, y1, y2);
-	int[] combinedSel = SelectionEvent.makeAndSelection(
-		selectedObservations, newSel);
-	updateSelection(combinedSel);
+	// shift adds to the selection
+	updateSelection(selection.or(SelectionBitmap.of(newSel)));
     }
 
     private void makeSelectionCtrl(int x1, int x2, int y1, int y2) {
 	int[] newSel = findSelectionInLayers(x1, x2, y1, y2);
-	int[] combinedSel = SelectionEvent.makeXORSelection(
-		selectedObservations, newSel);
-	updateSelection(combinedSel);
+	updateSelection(selection.xor(SelectionBitmap.of(newSel)));
     }
 
     private int[] findSelectionInLayers(int x1, int x2, int y1, int y2) {
@@ -1531,24 +1539,21 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	return selObs;
     }
 
-    private void updateSelection(int[] newSel) {
-	selectedObservations = newSel;
+    private void updateSelection(SelectionBitmap newSel) {
+	selection = newSel;
+	selectedObservations = newSel.toArray();
 	if (shapeLayers.size() > 0) {
 	    LayerShape ls = shapeLayers.get(activeLayer);
 
 	    // let's try just redrawing the selection
-	    // for (int i = 0; i < selectedObservations.length; i++) {
-	    ls.setSelectedObservations(selectedObservations);
+	    SelectionBitmap before = ls.getSelection();
+	    ls.setSelection(selection);
 
 	    fireActionPerformed(LayerShape.COMMAND_SELECTION);
-	    fireSelectionChanged(selectedObservations);
+	    fireSelectionChanged(selection);
 
-	    // unfortunately, we need to completely redraw any aux layers on top
-	    // of our active layer
-	    paintTopAuxLayers();
-
-	    // XXX shouldn't have to do this
-	    paintDrawingBuff();
+	    // repainting a tile repaints the aux layers on top of it too
+	    paintSelectionChange(ls, before);
 	    this.repaint();
 	}
 
@@ -1558,11 +1563,12 @@ public class MapCanvas extends JPanel implements ComponentListener,
 
     /**
      * Attention all layers! Paint yourselves onto the buffer. This can be an
-     * expensive operation, so this method should be called by a RenderThread.
+     * expensive operation, so the buffer is cut into tiles which are painted
+     * on worker threads; the canvas repaints itself when they are done.
      */
     private void paintDrawingBuff() {
 
-	if (drawingBuff == null) {
+	if (tiles == null) {
 	    return;
 	}
 	if (logger.isLoggable(Level.FINEST)) {
@@ -1570,109 +1576,200 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	    // Exception());
 	    logger.finest("painting the buffer... again!");
 	}
-	Graphics g = drawingBuff.getGraphics();
-	Graphics2D g2 = (Graphics2D) g;
-	g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-		RenderingHints.VALUE_ANTIALIAS_OFF);
-	g.setColor(getBackground());
-	g.fillRect(0, 0, getWidth(), getHeight());
-	renderBackgroundLayers(g2);
-	if (useSelectionBlur) {
-
-	    // g.fillRect(0, 0, this.getWidth(), this.getHeight());
-	    BoxBlurFilter filter = new BoxBlurFilter();
-	    filter.setHRadius(10);
-	    filter.setVRadius(3);
-	    filter.setIterations(3);
-	    // maybe we could eliminate the use of the extra buffer?
-	    // we could use the panel itself as one drawing surface
-	    // and the drawingBuff as the other.
-
-	    // OK, new theory. Grabbing bufferedimages this often is causing
-	    // problems
-	    // so we cache.
-	    BufferedImage blurBuff = new BufferedImage(
-		    drawingBuff.getWidth(this), drawingBuff.getHeight(this),
-		    BufferedImage.TYPE_INT_ARGB);
-	    // VolatileImage blurBuff=
-	    // this.getGraphicsConfiguration().createCompatibleVolatileImage(this
-	    // .drawingBuff.getWidth(this),
-	    // this.drawingBuff.getHeight(this));
-	    blurBuff.getGraphics().drawImage(drawingBuff, 0, 0, this);
-	    filter.filter(blurBuff, blurBuff);
-	    g2.drawImage(blurBuff, null, 0, 0);
-	}
-
-	g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-		RenderingHints.VALUE_ANTIALIAS_ON);
-
-	if (shapeLayers.size() > 0) {
-	    for (LayerShape ls : shapeLayers) {
-		ls.fisheyes = fisheyes;
-		ls.renderSelectedObservations(g2); // paint your whole self,
-		// selected observations
-		// only
-	    } // next element
-	} // end if
+	tiles.invalidateAll();
+	tiles.render(makeTilePainter());
+    }
 
+    /**
+     * Repaints the buffer after a change to what the faded shapes under the
+     * selection are drawn from: their colors, the background, fading or
+     * blurring. The auxiliary layers over the selection are kept.
+     */
+    private void paintBaseChange() {
+	if (tiles == null) {
+	    return;
+	}
+	tiles.invalidateBase();
+	tiles.render(makeTilePainter());
     }
 
-    private void renderBackgroundLayers(Graphics2D g2) {
-	for (LayerShape ls : shapeLayers) {
+    /**
+     * Repaints the buffer after a change to how the selection is drawn,
+     * keeping the faded shapes under it and the auxiliary layers over it.
+     */
+    private void paintOverlayChange() {
+	if (tiles == null) {
+	    return;
+	}
+	tiles.invalidateOverlay();
+	tiles.render(makeTilePainter());
+    }
 
-	    if (ls == null) {
-		break;
+    /**
+     * Repaints the tiles under the shapes whose selection changed. Going
+     * from no selection to some, or back, changes how every shape is drawn,
+     * as does a change with glyphs, which can lie outside their shapes; then
+     * the selection is repainted everywhere.
+     */
+    private void paintSelectionChange(LayerShape ls, SelectionBitmap before) {
+	if (tiles == null) {
+	    return;
+	}
+	SelectionBitmap after = ls.getSelection();
+	Shape[] shapes = ls.getSpatialData();
+	if (before.isEmpty() != after.isEmpty() || ls.glyphs != null
+		|| fisheyes != null || shapes == null) {
+	    paintOverlayChange();
+	    return;
+	}
+	int pad = ls.renderPad();
+	SelectionBitmap changed = before.xor(after);
+	for (int obs = changed.next(0); obs >= 0; obs = changed.next(obs + 1)) {
+	    if (obs < shapes.length && shapes[obs] != null) {
+		Rectangle box = shapes[obs].getBounds();
+		box.grow(pad, pad);
+		tiles.invalidateOverlay(box);
 	    }
-	    if (useSelectionFade) {
-		Color beforeColor = new Color(ls.colorBlur.getRGB());
-		Color halfGrey = new Color(248, 248, 248, 230);
-		ls.colorBlur = halfGrey;
-		ls.renderBackground(g2); // paint your whole self
-		// (including
-		// selections)
-		ls.colorBlur = beforeColor;
-	    } else {
-		ls.colorBlur = new Color(0, 0, 0, 0);
-		ls.renderBackground(g2);
+	}
+	tiles.render(makeTilePainter());
+    }
 
+    /**
+     * Takes what the tiles need from the canvas and its layers, on the event
+     * thread, so the workers do not read them while they change.
+     */
+    private MapTileRenderer.TilePainter makeTilePainter() {
+	LayerShape[] layers = shapeLayers.toArray(new LayerShape[shapeLayers
+		.size()]);
+	for (LayerShape ls : layers) {
+	    if (ls != null) {
+		ls.fisheyes = fisheyes;
+		ls.prepareToRender();
 	    }
-
-	} // next element
+	}
+	Color blur;
+	if (useSelectionFade) {
+	    blur = new Color(248, 248, 248, 230);
+	} else {
+	    blur = new Color(0, 0, 0, 0);
+	}
+	return new LayerTilePainter(layers, getBackground(), blur,
+		useSelectionBlur, tiles.getWidth(), tiles.getHeight());
     }
 
     /**
-     * Attention all auxiliary layers! paint yourselves onto the buffer.
-     * 
-     * @param g
+     * Paints the layers into the planes of a tile. The base has every shape
+     * faded, and blurred if asked, then the auxiliary layers that lie under
+     * all the others; the overlay has the selection of the other layers;
+     * the top has the auxiliary layers that lie over them. So only the
+     * overlay depends on the selection.
      */
-    private void paintTopAuxLayers() {
-	if (drawingBuff == null) {
-	    return;
+    static class LayerTilePainter implements
+	    MapTileRenderer.TilePainter {
+	private final LayerShape[] layers;
+	private final Color background;
+	private final Color blur;
+	private final boolean useSelectionBlur;
+	private final Rectangle canvasArea;
+	// the overlay gets layers firstOverlay up to but not including top
+	private final int firstOverlay;
+	private final int firstTop;
+
+	LayerTilePainter(LayerShape[] layers, Color background, Color blur,
+		boolean useSelectionBlur, int width, int height) {
+	    this.layers = layers;
+	    this.background = background;
+	    this.blur = blur;
+	    this.useSelectionBlur = useSelectionBlur;
+	    canvasArea = new Rectangle(0, 0, width, height);
+	    int first = 0;
+	    while (first < layers.length && isAuxiliary(layers[first])) {
+		first++;
+	    }
+	    int top = layers.length;
+	    while (top > first && isAuxiliary(layers[top - 1])) {
+		top--;
+	    }
+	    firstOverlay = first;
+	    firstTop = top;
+	}
+
+	private static boolean isAuxiliary(LayerShape ls) {
+	    return ls != null && ls.isAuxiliary;
+	}
+
+	public void paintBase(BufferedImage base, Rectangle area) {
+	    Graphics2D g2 = base.createGraphics();
+	    g2.translate(-area.x, -area.y);
+	    if (useSelectionBlur) {
+		// pixels this far off the tile are blurred into it, so they
+		// are painted too
+		Rectangle reach = new Rectangle(area);
+		reach.grow(BLUR_H_RADIUS * BLUR_ITERATIONS, BLUR_V_RADIUS
+			* BLUR_ITERATIONS);
+		reach = reach.intersection(canvasArea);
+		BufferedImage blurBuff = new BufferedImage(reach.width,
+			reach.height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D blurG2 = blurBuff.createGraphics();
+		blurG2.translate(-reach.x, -reach.y);
+		renderBackgroundLayers(blurG2, reach);
+		blurG2.dispose();
+
+		BoxBlurFilter filter = new BoxBlurFilter();
+		filter.setHRadius(BLUR_H_RADIUS);
+		filter.setVRadius(BLUR_V_RADIUS);
+		filter.setIterations(BLUR_ITERATIONS);
+		filter.filter(blurBuff, blurBuff);
+		g2.drawImage(blurBuff, null, reach.x, reach.y);
+	    } else {
+		renderBackgroundLayers(g2, area);
+	    }
+	    renderLayers(g2, area, 0, firstOverlay);
+	    g2.dispose();
 	}
 
-	Graphics g = drawingBuff.getGraphics();
-	Graphics2D g2 = (Graphics2D) g;
+	public void paintOverlay(BufferedImage tile, Rectangle area) {
+	    Graphics2D g2 = tile.createGraphics();
+	    g2.translate(-area.x, -area.y);
+	    renderLayers(g2, area, firstOverlay, firstTop);
+	    g2.dispose();
+	}
 
-	if (shapeLayers.size() > 0) {
-	    int layerNum = 0;
-	    for (LayerShape ls : shapeLayers) {
-		if (logger.isLoggable(Level.FINEST)) {
-		    logger.finest("layerNum = " + layerNum + ", activeLayer = "
-			    + activeLayer);
+	public boolean hasTop() {
+	    return firstTop < layers.length;
+	}
+
+	public void paintTop(BufferedImage top, Rectangle area) {
+	    Graphics2D g2 = top.createGraphics();
+	    g2.translate(-area.x, -area.y);
+	    renderLayers(g2, area, firstTop, layers.length);
+	    g2.dispose();
+	}
+
+	private void renderLayers(Graphics2D g2, Rectangle area, int from,
+		int to) {
+	    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+		    RenderingHints.VALUE_ANTIALIAS_ON);
+	    for (int i = from; i < to; i++) {
+		if (layers[i] != null) {
+		    layers[i].renderSelectedObservations(g2, area); // paint
+		    // your whole self, selected observations only
+		}
+	    } // next element
+	}
+
+	private void renderBackgroundLayers(Graphics2D g2, Rectangle area) {
+	    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+		    RenderingHints.VALUE_ANTIALIAS_OFF);
+	    g2.setColor(background);
+	    g2.fillRect(area.x, area.y, area.width, area.height);
+	    for (LayerShape ls : layers) {
+		if (ls == null) {
+		    break;
 		}
-		if (ls.getIsAuxiliary() && layerNum > activeLayer) { // if
-		    // you
-		    // are
-		    // aux
-		    // and
-		    // on
-		    // top
-		    ls.fisheyes = fisheyes;
-		    ls.renderSelectedObservations(g2); // paint your whole self
-		} // end if aux
-		layerNum++;
+		ls.renderBackground(g2, area, blur); // paint your whole self
 	    } // next element
-	} // end if
+	}
     }
 
     /**
@@ -1690,16 +1787,20 @@ public class MapCanvas extends JPanel implements ComponentListener,
 	}
 	Graphics2D g2 = (Graphics2D) g;
 
-	if ((drawingBuff == null) || (fisheyes != null)) {
-	    drawingBuff = this.createImage(getWidth(), getHeight());
+	if ((tiles == null) && (getWidth() > 0) && (getHeight() > 0)) {
+	    tiles = new MapTileRenderer(this);
+	    tiles.setSize(getWidth(), getHeight());
 	    paintDrawingBuff();
 	}
+	if ((tiles != null) && (fisheyes != null)) {
+	    // the lens follows the mouse, so there is no waiting for the tiles
+	    tiles.invalidateAll();
+	    tiles.renderNow(makeTilePainter());
+	}
 
 	// Draw buff
-	if (drawingBuff != null) {
-	    g2.drawImage(drawingBuff, imagePanningXForm, this);
-
-	    // g.drawImage(this.drawingBuff,0,0,this);
+	if (tiles != null) {
+	    tiles.paint(g2, imagePanningXForm);
 	}
 	// Just draw background
 	else {
@@ -1724,11 +1825,10 @@ public class MapCanvas extends JPanel implements ComponentListener,
 		if (useNeighbors) {
 		    SpatialWeights sw = dataSet.getSpatialWeights();
 		    if (sw != null) {
-			List<Integer> bors = sw.getNeighborIDs(indication);
-
-			for (Integer obsBor : bors) {
-			    ls.renderSecondaryIndication(g2, obsBor);
-			    // logger.info("obsBor = " + obsBor);
+			CompressedSpatialWeights bors = sw.getCompressed();
+			int end = bors.neighborEnd(indication);
+			for (int k = bors.neighborStart(indication); k < end; k++) {
+			    ls.renderSecondaryIndication(g2, bors.neighborAt(k));
 			}
 		    }
 		}
@@ -2009,7 +2109,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
      * @see EventListenerList
      */
     private void fireIndicationChanged(int newIndication, int xClass,
-	    int yClass, int[] neighbors) {
+	    int yClass, CompressedSpatialWeights bors) {
 	// Guaranteed to return a non-null array
 	Object[] listeners = listenerList.getListenerList();
 	IndicationEvent e = null;
@@ -2021,7 +2121,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
 		// Lazily create the event:
 		if (e == null) {
 		    e = new IndicationEvent(this, newIndication, xClass,
-			    yClass, neighbors);
+			    yClass, bors);
 		}
 
 		((IndicationListener) listeners[i + 1]).indicationChanged(e);
@@ -2053,7 +2153,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
      * 
      * @see EventListenerList
      */
-    private void fireSelectionChanged(int[] newSelection) {
+    private void fireSelectionChanged(SelectionBitmap newSelection) {
 	// Guaranteed to return a non-null array
 	Object[] listeners = listenerList.getListenerList();
 	SelectionEvent e = null;
@@ -2127,6 +2227,8 @@ public class MapCanvas extends JPanel implements ComponentListener,
 		    (shapeLayers.get(i)).setIsAuxiliary(true);
 		}
 	    }
+	    // which layers go over and under the selection may have changed
+	    paintDrawingBuff();
 	    validate();
 	    this.repaint();
 	}
@@ -2156,14 +2258,14 @@ public class MapCanvas extends JPanel implements ComponentListener,
 
     public void setSelectionColor(Color selColor) {
 	getActiveLayer().colorSelection = selColor;
-	paintDrawingBuff();
+	paintOverlayChange();
 	this.repaint();
     }
 
     public void useSelectionBlur(boolean selBlur) {
 
 	useSelectionBlur = selBlur;
-	paintDrawingBuff();
+	paintBaseChange();
 	this.repaint();
 
     }
@@ -2171,7 +2273,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
     public void useSelectionFade(boolean selFade) {
 
 	useSelectionFade = selFade;
-	paintDrawingBuff();
+	paintBaseChange();
 	this.repaint();
 
     }
@@ -2215,7 +2317,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
     public void useSelectionOutline(boolean selOutline) {
 	this.selOutline = selOutline;
 	getActiveLayer().useSelectionOutline(selOutline);
-	paintDrawingBuff();
+	paintOverlayChange();
 	repaint();
     }
 
@@ -2235,7 +2337,7 @@ public class MapCanvas extends JPanel implements ComponentListener,
 
     public void setSelectionLineWidth(int width) {
 	getActiveLayer().setSelectionLineWidth(width);
-	paintDrawingBuff();
+	paintOverlayChange();
 	repaint();
 
     }
@@ -0,0 +1,508 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.geoviz.map;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * The offscreen buffer of a MapCanvas, cut into square tiles which are
+ * rendered on a pool of worker threads shared by all canvases.
+ *
+ * Changes mark the tiles under them as dirty, and render hands the dirty
+ * tiles to the workers, each drawing into an image of its own. When a batch
+ * is done its images are swapped in on the event thread, except for tiles
+ * that have been dirtied again meanwhile, and the canvas is repainted. The
+ * event thread only blits images. Until the first batch is in, paint
+ * renders the tiles itself, so the first frame is complete.
+ *
+ * A tile is put together from three planes: the base, the overlay on it,
+ * and the top over that. The base and the top are kept in images of their
+ * own, so that a change to the overlay alone, such as a new selection, costs
+ * only the overlay and two blits. What drops which planes is up to the
+ * caller:
+ * <ul>
+ * <li>invalidateAll, for anything that moves the shapes (extent, size,
+ * layers), drops all of them;</li>
+ * <li>invalidateBase, for what the base is drawn from (colors, background,
+ * fading and blurring), drops the bases;</li>
+ * <li>invalidateOverlay drops neither, and just has the tiles put together
+ * again.</li>
+ * </ul>
+ *
+ * All methods are to be called on the event thread.
+ */
+class MapTileRenderer {
+
+    /**
+     * Draws the planes of a tile. Called on worker threads, so it should not
+     * depend on state the event thread may change while it runs.
+     */
+    interface TilePainter {
+	/**
+	 * Paints the bottom plane of canvas region area into base, which is
+	 * opaque and area's size.
+	 */
+	void paintBase(BufferedImage base, Rectangle area);
+
+	/**
+	 * Paints the middle plane of canvas region area over the base, which
+	 * is already in tile.
+	 */
+	void paintOverlay(BufferedImage tile, Rectangle area);
+
+	/**
+	 * Whether there is a top plane at all.
+	 */
+	boolean hasTop();
+
+	/**
+	 * Paints the top plane of canvas region area into top, which is
+	 * transparent and area's size.
+	 */
+	void paintTop(BufferedImage top, Rectangle area);
+    }
+
+    static final int TILE_SIZE = 128;
+
+    // planes kept in images, as bits of cached
+    private static final int BASE = 1;
+    private static final int TOP = 2;
+
+    private static final ExecutorService pool = Executors.newFixedThreadPool(
+	    Runtime.getRuntime().availableProcessors(),
+	    new TileThreadFactory());
+
+    final static Logger logger = Logger.getLogger(MapTileRenderer.class
+	    .getName());
+
+    private final Component canvas;
+    private int width;
+    private int height;
+    private int cols;
+    private int rows;
+    private BufferedImage[] images = new BufferedImage[0];
+    private BufferedImage[] bases = new BufferedImage[0];
+    private BufferedImage[] tops = new BufferedImage[0];
+    // the planes whose images are up to date
+    private int[] cached = new int[0];
+    private boolean[] dirty = new boolean[0];
+    // bumped when a tile, its base or its top is dirtied, to spot results
+    // that are out of date
+    private int[] stamps = new int[0];
+    private int[] baseStamps = new int[0];
+    private int[] topStamps = new int[0];
+    // moves each image shown to where it belongs after a zoom or pan,
+    // until a new one is in; null for none
+    private AffineTransform[] moves = new AffineTransform[0];
+    private TilePainter painter;
+    private boolean installedAny;
+
+    MapTileRenderer(Component canvas) {
+	this.canvas = canvas;
+    }
+
+    int getWidth() {
+	return width;
+    }
+
+    int getHeight() {
+	return height;
+    }
+
+    /**
+     * Sizes the grid to the canvas. Images of tiles that keep their place
+     * and size are kept, to show until the new ones are in.
+     */
+    void setSize(int width, int height) {
+	if (width == this.width && height == this.height) {
+	    return;
+	}
+	int newCols = (width + TILE_SIZE - 1) / TILE_SIZE;
+	int newRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+	BufferedImage[] newImages = new BufferedImage[newCols * newRows];
+	AffineTransform[] newMoves = new AffineTransform[newImages.length];
+	for (int row = 0; row < Math.min(rows, newRows); row++) {
+	    for (int col = 0; col < Math.min(cols, newCols); col++) {
+		BufferedImage old = images[row * cols + col];
+		Rectangle area = tileArea(col, row, width, height);
+		if (old != null && old.getWidth() == area.width
+			&& old.getHeight() == area.height) {
+		    newImages[row * newCols + col] = old;
+		    newMoves[row * newCols + col] = moves[row * cols + col];
+		}
+	    }
+	}
+	this.width = width;
+	this.height = height;
+	cols = newCols;
+	rows = newRows;
+	images = newImages;
+	moves = newMoves;
+	bases = new BufferedImage[images.length];
+	tops = new BufferedImage[images.length];
+	cached = new int[images.length];
+	dirty = new boolean[images.length];
+	stamps = new int[images.length];
+	baseStamps = new int[images.length];
+	topStamps = new int[images.length];
+	invalidateAll();
+    }
+
+    private static Rectangle tileArea(int col, int row, int width, int height) {
+	int x = col * TILE_SIZE;
+	int y = row * TILE_SIZE;
+	return new Rectangle(x, y, Math.min(TILE_SIZE, width - x), Math.min(
+		TILE_SIZE, height - y));
+    }
+
+    private void invalidate(int tile, int planes) {
+	dirty[tile] = true;
+	stamps[tile]++;
+	if ((planes & BASE) != 0) {
+	    cached[tile] &= ~BASE;
+	    bases[tile] = null;
+	    baseStamps[tile]++;
+	}
+	if ((planes & TOP) != 0) {
+	    cached[tile] &= ~TOP;
+	    tops[tile] = null;
+	    topStamps[tile]++;
+	}
+    }
+
+    void invalidateAll() {
+	for (int i = 0; i < dirty.length; i++) {
+	    invalidate(i, BASE | TOP);
+	}
+    }
+
+    /**
+     * As invalidateAll, for a change that moves everything on the canvas
+     * through screenChange; the images shown are moved the same way until
+     * the new ones are in.
+     */
+    void invalidateAll(AffineTransform screenChange) {
+	for (int i = 0; i < moves.length; i++) {
+	    if (moves[i] == null) {
+		moves[i] = new AffineTransform(screenChange);
+	    } else {
+		moves[i].preConcatenate(screenChange);
+	    }
+	}
+	invalidateAll();
+    }
+
+    /**
+     * Marks every tile as dirty, with its base.
+     */
+    void invalidateBase() {
+	for (int i = 0; i < dirty.length; i++) {
+	    invalidate(i, BASE);
+	}
+    }
+
+    /**
+     * Marks every tile as dirty, keeping its base and top.
+     */
+    void invalidateOverlay() {
+	for (int i = 0; i < dirty.length; i++) {
+	    invalidate(i, 0);
+	}
+    }
+
+    /**
+     * Marks the tiles touching the given canvas region as dirty, keeping
+     * their bases and tops.
+     */
+    void invalidateOverlay(Rectangle region) {
+	Rectangle r = region.intersection(new Rectangle(0, 0, width, height));
+	if (r.isEmpty()) {
+	    return;
+	}
+	int lastCol = (r.x + r.width - 1) / TILE_SIZE;
+	int lastRow = (r.y + r.height - 1) / TILE_SIZE;
+	for (int row = r.y / TILE_SIZE; row <= lastRow; row++) {
+	    for (int col = r.x / TILE_SIZE; col <= lastCol; col++) {
+		invalidate(row * cols + col, 0);
+	    }
+	}
+    }
+
+    /**
+     * Hands the dirty tiles to the workers, to be drawn by tilePainter.
+     */
+    void render(TilePainter tilePainter) {
+	painter = tilePainter;
+	final Batch batch = takeDirty(tilePainter);
+	if (batch == null) {
+	    return;
+	}
+	final AtomicInteger remaining = new AtomicInteger(batch.size());
+	for (int k = 0; k < batch.size(); k++) {
+	    final int job = k;
+	    pool.execute(new Runnable() {
+		public void run() {
+		    batch.paint(job);
+		    if (remaining.decrementAndGet() == 0) {
+			SwingUtilities.invokeLater(new Runnable() {
+			    public void run() {
+				install(batch);
+			    }
+			});
+		    }
+		}
+	    });
+	}
+    }
+
+    /**
+     * Renders the dirty tiles now, on the workers, and waits for them.
+     */
+    void renderNow(TilePainter tilePainter) {
+	painter = tilePainter;
+	final Batch batch = takeDirty(tilePainter);
+	if (batch == null) {
+	    return;
+	}
+	List<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+	for (int k = 0; k < batch.size(); k++) {
+	    final int job = k;
+	    jobs.add(new Callable<Object>() {
+		public Object call() {
+		    batch.paint(job);
+		    return null;
+		}
+	    });
+	}
+	try {
+	    for (Future<Object> f : pool.invokeAll(jobs)) {
+		f.get();
+	    }
+	} catch (InterruptedException ex) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException(ex);
+	} catch (ExecutionException ex) {
+	    throw new IllegalStateException(ex.getCause());
+	}
+	install(batch);
+    }
+
+    private Batch takeDirty(TilePainter tilePainter) {
+	Batch batch = new Batch(tilePainter);
+	for (int row = 0; row < rows; row++) {
+	    for (int col = 0; col < cols; col++) {
+		int i = row * cols + col;
+		if (dirty[i]) {
+		    dirty[i] = false;
+		    // a plane not cached, even if a batch out is bringing it,
+		    // is painted again, as the one coming may be stale
+		    batch.add(i, tileArea(col, row, width, height), stamps[i],
+			    baseStamps[i], topStamps[i], bases[i], tops[i],
+			    cached[i]);
+		}
+	    }
+	}
+	return batch.size() == 0 ? null : batch;
+    }
+
+    private void install(Batch batch) {
+	Rectangle changed = null;
+	for (int k = 0; k < batch.size(); k++) {
+	    int i = batch.tiles[k];
+	    if (i >= stamps.length) {
+		continue; // resized meanwhile
+	    }
+	    // planes can be good even when the tile is not, if only the
+	    // overlay was dirtied again
+	    if ((batch.painted[k] & BASE) != 0
+		    && baseStamps[i] == batch.baseStamps[k]) {
+		bases[i] = batch.bases[k];
+		cached[i] |= BASE;
+	    }
+	    if ((batch.painted[k] & TOP) != 0
+		    && topStamps[i] == batch.topStamps[k]) {
+		tops[i] = batch.tops[k];
+		cached[i] |= TOP;
+	    }
+	    if (stamps[i] != batch.stamps[k]) {
+		continue; // dirtied again, another batch will bring it
+	    }
+	    if (batch.images[k] == null) {
+		logger.log(Level.SEVERE, "could not paint tile "
+			+ batch.areas[k], batch.failures[k]);
+		continue;
+	    }
+	    images[i] = batch.images[k];
+	    moves[i] = null;
+	    changed = changed == null ? batch.areas[k] : changed
+		    .union(batch.areas[k]);
+	}
+	installedAny = true;
+	if (changed != null) {
+	    canvas.repaint(changed.x, changed.y, changed.width,
+		    changed.height);
+	}
+    }
+
+    /**
+     * Blits the tiles, moved by xForm (for panning).
+     */
+    void paint(Graphics2D g2, AffineTransform xForm) {
+	if (!installedAny && painter != null) {
+	    // no waiting for the first frame, even if a batch is out
+	    Arrays.fill(dirty, true);
+	    renderNow(painter);
+	}
+	Graphics2D g = (Graphics2D) g2.create();
+	g.transform(xForm);
+	boolean gaps = false;
+	for (int i = 0; i < images.length; i++) {
+	    gaps |= images[i] == null || moves[i] != null;
+	}
+	if (gaps) {
+	    Color background = canvas.getBackground();
+	    g.setColor(background);
+	    g.fillRect(0, 0, width, height);
+	}
+	// moved images first, so the ones that are in place go on top
+	for (int pass = 0; pass < 2; pass++) {
+	    for (int row = 0; row < rows; row++) {
+		for (int col = 0; col < cols; col++) {
+		    int i = row * cols + col;
+		    if (images[i] == null || (moves[i] == null) == (pass == 0)) {
+			continue;
+		    }
+		    AffineTransform saved = g.getTransform();
+		    if (moves[i] != null) {
+			g.transform(moves[i]);
+		    }
+		    g.drawImage(images[i], col * TILE_SIZE, row * TILE_SIZE,
+			    null);
+		    g.setTransform(saved);
+		}
+	    }
+	}
+	g.dispose();
+    }
+
+    /**
+     * Tiles handed out together, with the images they are drawn into.
+     */
+    private static class Batch {
+	final TilePainter painter;
+	int size;
+	int[] tiles = new int[16];
+	int[] stamps = new int[16];
+	int[] baseStamps = new int[16];
+	int[] topStamps = new int[16];
+	Rectangle[] areas = new Rectangle[16];
+	// on the way in the cached planes, on the way out the painted ones
+	BufferedImage[] bases = new BufferedImage[16];
+	BufferedImage[] tops = new BufferedImage[16];
+	int[] painted = new int[16];
+	BufferedImage[] images = new BufferedImage[16];
+	RuntimeException[] failures = new RuntimeException[16];
+
+	Batch(TilePainter painter) {
+	    this.painter = painter;
+	}
+
+	int size() {
+	    return size;
+	}
+
+	void add(int tile, Rectangle area, int stamp, int baseStamp,
+		int topStamp, BufferedImage base, BufferedImage top,
+		int cached) {
+	    if (size == tiles.length) {
+		int n = size * 2;
+		tiles = Arrays.copyOf(tiles, n);
+		stamps = Arrays.copyOf(stamps, n);
+		baseStamps = Arrays.copyOf(baseStamps, n);
+		topStamps = Arrays.copyOf(topStamps, n);
+		areas = Arrays.copyOf(areas, n);
+		bases = Arrays.copyOf(bases, n);
+		tops = Arrays.copyOf(tops, n);
+		painted = Arrays.copyOf(painted, n);
+		images = Arrays.copyOf(images, n);
+		failures = Arrays.copyOf(failures, n);
+	    }
+	    tiles[size] = tile;
+	    stamps[size] = stamp;
+	    baseStamps[size] = baseStamp;
+	    topStamps[size] = topStamp;
+	    areas[size] = area;
+	    bases[size] = base;
+	    tops[size] = top;
+	    painted[size] = ~cached & (BASE | TOP);
+	    size++;
+	}
+
+	void paint(int k) {
+	    Rectangle area = areas[k];
+	    try {
+		if ((painted[k] & BASE) != 0) {
+		    bases[k] = new BufferedImage(area.width, area.height,
+			    BufferedImage.TYPE_INT_RGB);
+		    painter.paintBase(bases[k], area);
+		}
+		if ((painted[k] & TOP) != 0) {
+		    tops[k] = null;
+		    if (painter.hasTop()) {
+			tops[k] = new BufferedImage(area.width, area.height,
+				BufferedImage.TYPE_INT_ARGB);
+			painter.paintTop(tops[k], area);
+		    }
+		}
+		BufferedImage image = new BufferedImage(area.width,
+			area.height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = image.createGraphics();
+		g2.drawImage(bases[k], 0, 0, null);
+		g2.dispose();
+		painter.paintOverlay(image, area);
+		if (tops[k] != null) {
+		    g2 = image.createGraphics();
+		    g2.drawImage(tops[k], 0, 0, null);
+		    g2.dispose();
+		}
+		images[k] = image;
+	    } catch (RuntimeException ex) {
+		// most likely the layers changed under us, and a newer batch
+		// is on its way; install reports it if not
+		painted[k] = 0;
+		failures[k] = ex;
+	    }
+	}
+    }
+
+    private static class TileThreadFactory implements ThreadFactory {
+	private final AtomicInteger count = new AtomicInteger();
+
+	public Thread newThread(Runnable r) {
+	    Thread t = new Thread(r, "map-tiles-" + count.incrementAndGet());
+	    t.setDaemon(true);
+	    return t;
+	}
+    }
+}
@@ -49,6 +49,12 @@ public class BasicParallelDisplayUI extends ParallelDisplayUI implements
 	protected final static Logger logger = Logger
 			.getLogger(BasicParallelDisplayUI.class.getName());
 
+	/**
+	 * Above this many records, records are drawn as a line density raster
+	 * rather than one path at a time.
+	 */
+	public static final int DEFAULT_DENSITY_THRESHOLD = 10000;
+
 	static JPanel observer = new JPanel();
 
 	volatile boolean useSelectionFade = true;
@@ -101,6 +107,8 @@ public class BasicParallelDisplayUI extends ParallelDisplayUI implements
 	Color indicationColor = Color.YELLOW;
 	Color secondaryIndicationColor = Color.GREEN;
 
+	int densityThreshold = DEFAULT_DENSITY_THRESHOLD;
+
 	// ParallelDisplay comp;
 
 	/**
@@ -546,6 +554,70 @@ public class BasicParallelDisplayUI extends ParallelDisplayUI implements
 		g2.draw(rPath);
 	}
 
+	/**
+	 * Whether there are enough records for them to be drawn as a line
+	 * density raster.
+	 */
+	boolean isDensityMode(ParallelDisplay comp) {
+		return comp.getNumRecords() > densityThreshold;
+	}
+
+	public int getDensityThreshold() {
+		return densityThreshold;
+	}
+
+	/**
+	 * Sets how many records there must be for them to be drawn as a line
+	 * density raster; Integer.MAX_VALUE to always draw them one by one.
+	 */
+	public void setDensityThreshold(int densityThreshold) {
+		this.densityThreshold = densityThreshold;
+	}
+
+	/**
+	 * Whether drawRecord would draw the record, leaving aside its values.
+	 */
+	boolean isRecordDrawn(int num) {
+		if (numRecords <= 0) {
+			return false;
+		}
+		if (conditioning.length != numRecords) {
+			conditioning = new int[numRecords];
+		}
+		if (conditioning[num] < 0) {
+			return false;
+		}
+		return colors == null || num < colors.length;
+	}
+
+	/**
+	 * The color drawRecord draws the record in, given the color of the
+	 * rendering.
+	 */
+	Color getRecordColor(int num, Color renderColor) {
+		if (inBrush) {
+			return Color.blue;
+		}
+		if (colors != null && colors[num] != null) {
+			return colors[num];
+		}
+		return renderColor;
+	}
+
+	/**
+	 * The y values of all records on the axis, as getYValue gives them.
+	 */
+	float[] getYValues(int axis, ParallelDisplay comp) {
+		float[] values = new float[comp.getNumRecords()];
+		float offset = comp.getAxisOffset(axis);
+		float scale = (comp.getHeight() - 2 * borderV)
+				/ comp.getAxisScale(axis);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (comp.getValue(i, axis) - offset) * scale;
+		}
+		return values;
+	}
+
 	void drawBrushedRecord(Graphics2D g2, ParallelDisplay comp, int num,
 			int startAxis, int stopAxis) {
 		if (conditioning[num] < 0) {
@@ -0,0 +1,284 @@
+/*
+ * LineDensityRaster.java
+ *
+ * Licensed under GNU General Public License (GPL).
+ * See http://www.gnu.org/copyleft/gpl.html
+ */
+
+package geovista.geoviz.parvis;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Draws the polylines of a large number of records as a raster of how many
+ * lines cross each pixel, for parallel coordinate plots with too many
+ * records to draw one by one, where they would hide each other anyway.
+ *
+ * Each record adds its weight and its weighted color to every pixel its
+ * segments cross. A pixel is drawn in the mean color of its lines, more
+ * opaque the more lines there are, on a log ramp up to the fullest pixel.
+ *
+ * The segments between two neighbouring axes fall in the columns between
+ * them, so each pair of axes is binned and drawn as one job on a worker
+ * pool, into columns no other job touches. A raster keeps its arrays from
+ * one render to the next, and is for one thread.
+ */
+class LineDensityRaster {
+
+	/** Weight of a record drawn in full. */
+	static final int FULL_WEIGHT = 8;
+
+	// opacity of a pixel with a single line on it
+	private static final int MIN_ALPHA = 96;
+	private static final double LOG_ONE = Math.log1p(1);
+	// records between checks for cancellation
+	private static final int CHECK_INTERVAL = 1024;
+
+	private static final ExecutorService pool = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(),
+			new LineDensityThreadFactory());
+
+	protected final static Logger logger = Logger
+			.getLogger(LineDensityRaster.class.getName());
+
+	private final int width;
+	private final int height;
+	// summed weight and weighted red, green, blue of each pixel, side by
+	// side so that a pixel is binned in one cache line
+	private final int[] bins;
+	// log of the lines on the fullest pixel of the render
+	private double logMax;
+	private volatile boolean cancelled;
+
+	LineDensityRaster(int width, int height) {
+		this.width = width;
+		this.height = height;
+		bins = new int[4 * width * height];
+	}
+
+	int getWidth() {
+		return width;
+	}
+
+	int getHeight() {
+		return height;
+	}
+
+	/**
+	 * The summed weight of the lines binned into the pixel at x, y by the
+	 * last render.
+	 */
+	int getWeight(int x, int y) {
+		return bins[4 * (y * width + x)];
+	}
+
+	/**
+	 * Bins the segments between axes firstAxis and lastAxis and draws them
+	 * into target, which must be TYPE_INT_ARGB and of the raster's size;
+	 * columns outside those axes are left alone.
+	 *
+	 * Axis a is at column axisX[a], and record r crosses it at row
+	 * axisY[a][r], NaN where the record has no value. Record r is colored
+	 * recordRGB[r] and weighs recordWeight[r], FULL_WEIGHT for a record
+	 * drawn in full; records of weight 0 are left out. With a stride above
+	 * 1 only every stride-th record is binned, each standing for stride
+	 * records, for a quick preview.
+	 *
+	 * Returns false, having drawn nothing, if the calling thread was
+	 * interrupted; the interrupt is taken as the cancellation and cleared.
+	 */
+	boolean render(BufferedImage target, final int[] axisX,
+			final float[][] axisY, int firstAxis, int lastAxis,
+			final int[] recordRGB, final int[] recordWeight, final int stride) {
+		final int[] pixels = ((DataBufferInt) target.getRaster()
+				.getDataBuffer()).getData();
+		List<Callable<int[]>> binJobs = new ArrayList<Callable<int[]>>();
+		List<Callable<int[]>> drawJobs = new ArrayList<Callable<int[]>>();
+		for (int a = firstAxis; a < lastAxis; a++) {
+			final int axis = a;
+			// the column of the right axis belongs to the next pair, if any
+			int right = a + 1 == lastAxis ? axisX[a + 1] : axisX[a + 1] - 1;
+			final int col0 = Math.max(0, axisX[a]);
+			final int col1 = Math.min(width - 1, right);
+			if (col0 > col1) {
+				continue;
+			}
+			binJobs.add(new Callable<int[]>() {
+				public int[] call() {
+					return binPair(axis, col0, col1, axisX, axisY, recordRGB,
+							recordWeight, stride);
+				}
+			});
+			drawJobs.add(new Callable<int[]>() {
+				public int[] call() {
+					drawColumns(col0, col1, pixels, stride);
+					return null;
+				}
+			});
+		}
+		cancelled = false;
+		List<int[]> maxWeights = runAll(binJobs);
+		if (maxWeights == null) {
+			return false;
+		}
+		int maxWeight = 0;
+		for (int[] pairMax : maxWeights) {
+			maxWeight = Math.max(maxWeight, pairMax[0]);
+		}
+		logMax = Math.log1p((double) maxWeight * stride / FULL_WEIGHT);
+		return runAll(drawJobs) != null;
+	}
+
+	/**
+	 * Runs the jobs and waits for all of them. If the calling thread is
+	 * interrupted, the jobs are told to stop and waited for still, as they
+	 * write to the raster's arrays, and null is returned.
+	 */
+	private List<int[]> runAll(List<Callable<int[]>> jobs) {
+		List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+		for (Callable<int[]> job : jobs) {
+			futures.add(pool.submit(job));
+		}
+		List<int[]> results = new ArrayList<int[]>();
+		boolean interrupted = false;
+		for (Future<int[]> f : futures) {
+			while (true) {
+				try {
+					results.add(f.get());
+					break;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+					cancelled = true;
+				} catch (ExecutionException ex) {
+					throw new IllegalStateException(ex.getCause());
+				}
+			}
+		}
+		if (interrupted || cancelled) {
+			return null;
+		}
+		return results;
+	}
+
+	/**
+	 * Clears the columns from col0 to col1 and bins into them the segments
+	 * between axis and the next. Returns the largest weight binned.
+	 */
+	private int[] binPair(int axis, int col0, int col1, int[] axisX,
+			float[][] axisY, int[] recordRGB, int[] recordWeight, int stride) {
+		for (int row = 0; row < height; row++) {
+			Arrays.fill(bins, 4 * (row * width + col0), 4 * (row * width
+					+ col1 + 1), 0);
+		}
+		int maxWeight = 0;
+		float[] leftY = axisY[axis];
+		float[] rightY = axisY[axis + 1];
+		int x0 = axisX[axis];
+		float span = axisX[axis + 1] - x0;
+		// rows are shifted up by height before truncating, so that rows
+		// above the image truncate as floor would
+		int shift = height;
+		int sinceCheck = 0;
+		for (int r = 0; r < leftY.length; r += stride) {
+			if (++sinceCheck == CHECK_INTERVAL) {
+				sinceCheck = 0;
+				if (cancelled) {
+					break;
+				}
+			}
+			int w = recordWeight[r];
+			float y0 = leftY[r];
+			float y1 = rightY[r];
+			if (w <= 0 || Float.isNaN(y0) || Float.isNaN(y1)) {
+				continue;
+			}
+			int rgb = recordRGB[r];
+			int red = w * ((rgb >> 16) & 0xFF);
+			int green = w * ((rgb >> 8) & 0xFF);
+			int blue = w * (rgb & 0xFF);
+			float slope = span > 0 ? (y1 - y0) / span : 0;
+			for (int x = col0; x <= col1; x++) {
+				// the rows the line passes through within the column
+				float ya = y0 + slope * (x - x0) + shift;
+				float yb = x < x0 + span ? ya + slope : ya;
+				int row0;
+				int row1;
+				if (slope < 0) {
+					row0 = (int) yb - shift;
+					row1 = (int) ya - shift;
+				} else {
+					row0 = (int) ya - shift;
+					row1 = (int) yb - shift;
+				}
+				if (row1 < 0 || row0 >= height) {
+					continue;
+				}
+				if (row0 < 0) {
+					row0 = 0;
+				}
+				if (row1 >= height) {
+					row1 = height - 1;
+				}
+				int end = 4 * (row1 * width + x);
+				for (int k = 4 * (row0 * width + x); k <= end; k += 4 * width) {
+					int sum = bins[k] + w;
+					bins[k] = sum;
+					if (sum > maxWeight) {
+						maxWeight = sum;
+					}
+					bins[k + 1] += red;
+					bins[k + 2] += green;
+					bins[k + 3] += blue;
+				}
+			}
+		}
+		return new int[] { maxWeight };
+	}
+
+	private void drawColumns(int col0, int col1, int[] pixels, int stride) {
+		for (int row = 0; row < height; row++) {
+			for (int p = row * width + col0; p <= row * width + col1; p++) {
+				int k = 4 * p;
+				int weight = bins[k];
+				if (weight == 0) {
+					pixels[p] = 0;
+					continue;
+				}
+				// a single line gets MIN_ALPHA, the fullest pixel 255
+				int alpha = MIN_ALPHA;
+				if (logMax > LOG_ONE) {
+					double lines = (double) weight * stride / FULL_WEIGHT;
+					alpha += (int) ((255 - MIN_ALPHA)
+							* (Math.log1p(lines) - LOG_ONE) / (logMax - LOG_ONE));
+					alpha = Math.max(0, Math.min(255, alpha));
+				}
+				int r = bins[k + 1] / weight;
+				int g = bins[k + 2] / weight;
+				int b = bins[k + 3] / weight;
+				pixels[p] = (alpha << 24) | (r << 16) | (g << 8) | b;
+			}
+		}
+	}
+
+	private static class LineDensityThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "line-density-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
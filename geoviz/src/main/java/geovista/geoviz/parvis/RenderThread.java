@@ -30,6 +30,9 @@ class RenderThread extends Thread {
 	protected final static Logger logger = Logger.getLogger(RenderThread.class
 			.getName());
 
+	/** records binned by the preview pass of a progressive density render */
+	static final int PREVIEW_RECORDS = 20000;
+
 	volatile boolean useSelectionBlur = true;
 	/** flags to control rendering */
 	volatile boolean quality = false;
@@ -51,6 +54,8 @@ class RenderThread extends Thread {
 
 	int ids[] = null;
 	BufferedImage renderedImage = null;
+	// for drawing many records as a density raster, made when first needed
+	LineDensityRaster densityRaster = null;
 
 	Stroke stroke = new BasicStroke();
 	Color color = Color.black;
@@ -195,75 +200,14 @@ class RenderThread extends Thread {
 
 				BufferedImage img = new BufferedImage(comp.getWidth(), comp
 						.getHeight(), BufferedImage.TYPE_INT_ARGB);
-				Graphics2D g2 = (Graphics2D) img.getGraphics();
-				setupRendering(g2, quality, stroke, color);
-
-				// render all records
-				int i = 0;
-				float brushVal = 0.0f;
-				if (isBrushThread) {
-					// color = comp.getBrushedColor();// changed fah july 30 02
-				}
-
-				for (; i < comp.getNumRecords(); i++) {
-					if (i % 300 == 0) {
-						comp.fireProgressEvent(new ProgressEvent(comp,
-								ProgressEvent.PROGRESS_UPDATE, ((float) i)
-										/ comp.getNumRecords(), "rendering "
-										+ modestr));
-					}
-
-					if (!isBrushThread
-							|| (brushVal = comp.getBrushValue(i)) > 0.0f) {
-						// select records in brushmode, render all in normal
-						// mode
-						// skip soft edges
-
-						if (!quality && isBrushThread && brushVal < 0.8) {
-							continue;
-						}
-
-						if (isBrushThread && quality) {
-
-							Color col = new Color(color.getRed(), color
-									.getBlue(), color.getGreen(),
-									(int) (255 * brushVal));
-							if (logger.isLoggable(Level.FINEST)) {
-								logger.finest("Brush value: " + brushVal
-										+ " alpha: " + col.getAlpha());
-							}
-
-							ui.drawRecord(g2, comp, i, progressiveStartAxis,
-									progressiveStopAxis, brushVal);
-
-						}
-
-						if (secondPass) {
-
-							ui.drawRecord(g2, comp, i, progressiveStartAxis,
-									progressiveStopAxis, brushVal);
-
-						} else {
-
-							ui.drawRecord(g2, comp, i, startAxis, stopAxis,
-									brushVal);
-
-						}
-
-						if (qualitychanged || secondPass) {
-							// 2nd pass: lower priority, keep response time low
-							Thread.yield();
-							if (Thread.interrupted()) {
-								progressiveInterrupted = true;
-								logger.finest("### breaking!");
-								break;
-							}
-						}
-					}
-
+				boolean finished;
+				if (ui.isDensityMode(comp)) {
+					finished = renderDensity(img);
+				} else {
+					finished = drawRecords(img, modestr);
 				}
 
-				if (i == comp.getNumRecords()) {
+				if (finished) {
 					// finished all records
 					wasInterrupted = false;
 
@@ -345,6 +289,136 @@ class RenderThread extends Thread {
 		}
 	}
 
+	/**
+	 * Draws the records one by one as paths into img. Returns whether all
+	 * records were drawn, rather than the rendering being interrupted.
+	 */
+	private boolean drawRecords(BufferedImage img, String modestr) {
+		Graphics2D g2 = (Graphics2D) img.getGraphics();
+		setupRendering(g2, quality, stroke, color);
+
+		// render all records
+		int i = 0;
+		float brushVal = 0.0f;
+		if (isBrushThread) {
+			// color = comp.getBrushedColor();// changed fah july 30 02
+		}
+
+		for (; i < comp.getNumRecords(); i++) {
+			if (i % 300 == 0) {
+				comp.fireProgressEvent(new ProgressEvent(comp,
+						ProgressEvent.PROGRESS_UPDATE, ((float) i)
+								/ comp.getNumRecords(), "rendering "
+								+ modestr));
+			}
+
+			if (!isBrushThread
+					|| (brushVal = comp.getBrushValue(i)) > 0.0f) {
+				// select records in brushmode, render all in normal
+				// mode
+				// skip soft edges
+
+				if (!quality && isBrushThread && brushVal < 0.8) {
+					continue;
+				}
+
+				if (isBrushThread && quality) {
+
+					Color col = new Color(color.getRed(), color
+							.getBlue(), color.getGreen(),
+							(int) (255 * brushVal));
+					if (logger.isLoggable(Level.FINEST)) {
+						logger.finest("Brush value: " + brushVal
+								+ " alpha: " + col.getAlpha());
+					}
+
+					ui.drawRecord(g2, comp, i, progressiveStartAxis,
+							progressiveStopAxis, brushVal);
+
+				}
+
+				if (secondPass) {
+
+					ui.drawRecord(g2, comp, i, progressiveStartAxis,
+							progressiveStopAxis, brushVal);
+
+				} else {
+
+					ui.drawRecord(g2, comp, i, startAxis, stopAxis,
+							brushVal);
+
+				}
+
+				if (qualitychanged || secondPass) {
+					// 2nd pass: lower priority, keep response time low
+					Thread.yield();
+					if (Thread.interrupted()) {
+						progressiveInterrupted = true;
+						logger.finest("### breaking!");
+						break;
+					}
+				}
+			}
+
+		}
+		return i == comp.getNumRecords();
+	}
+
+	/**
+	 * Draws the records as a line density raster into img. The preview
+	 * pass of a progressive rendering bins a sample of the records, the
+	 * quality pass all of them. Returns whether the raster was drawn, rather
+	 * than the rendering being interrupted.
+	 */
+	private boolean renderDensity(BufferedImage img) {
+		int start = secondPass ? progressiveStartAxis : startAxis;
+		int stop = secondPass ? progressiveStopAxis : stopAxis;
+		int numRecords = comp.getNumRecords();
+		int stride = 1;
+		if (progressive && !secondPass) {
+			stride = Math.max(1, numRecords / PREVIEW_RECORDS);
+		}
+		if (densityRaster == null || densityRaster.getWidth() != img.getWidth()
+				|| densityRaster.getHeight() != img.getHeight()) {
+			densityRaster = new LineDensityRaster(img.getWidth(), img
+					.getHeight());
+		}
+		int[] axisX = new int[ui.numDimensions];
+		float[][] axisY = new float[ui.numDimensions][];
+		for (int a = start; a <= stop; a++) {
+			axisX[a] = ui.stepx * a;
+			axisY[a] = ui.getYValues(a, comp);
+		}
+		int[] rgbs = new int[numRecords];
+		int[] weights = new int[numRecords];
+		for (int i = 0; i < numRecords; i++) {
+			float brushVal = 1.0f;
+			if (isBrushThread) {
+				brushVal = comp.getBrushValue(i);
+				if (brushVal <= 0.0f || (!quality && brushVal < 0.8)) {
+					// skip soft edges
+					continue;
+				}
+				if (!quality) {
+					brushVal = 1.0f;
+				}
+			}
+			if (!ui.isRecordDrawn(i)) {
+				continue;
+			}
+			rgbs[i] = ui.getRecordColor(i, color).getRGB();
+			weights[i] = Math.max(1, Math.round(brushVal
+					* LineDensityRaster.FULL_WEIGHT));
+		}
+		if (!densityRaster.render(img, axisX, axisY, start, stop, rgbs,
+				weights, stride)) {
+			progressiveInterrupted = true;
+			logger.finest("### breaking!");
+			return false;
+		}
+		return true;
+	}
+
 	synchronized void render() {
 		logger.finest(getName() + ".render() called");
 		if (isWorking) {
@@ -29,6 +29,24 @@ public class DataArray {
 		calculateExtents(this.dataArray);
 	}
 
+	/**
+	 * A copy of other, sharing its data but with extents of its own, so the
+	 * extents can be changed without touching other's.
+	 * 
+	 * @param other
+	 */
+	public DataArray(DataArray other) {
+		dataArray = other.dataArray;
+		if (other.extent == other.dataExtent) {
+			extent = dataExtent;
+		} else {
+			extent = other.extent.clone();
+		}
+		System.arraycopy(other.dataExtent, 0, dataExtent, 0, 2);
+		System.arraycopy(other.MMExtent, 0, MMExtent, 0, 2);
+		alterBase = other.alterBase;
+	}
+
 	/**
 	 * calculates extents
 	 * 
@@ -0,0 +1,273 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.geoviz.scatterplot;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Draws a large number of points as a raster of how many fall on each pixel,
+ * for scatterplots with too many points to draw one by one, where they would
+ * hide each other anyway.
+ * 
+ * Each point is binned into its pixel in one of two layers, deselected or
+ * selected, which keep a count and the summed color of their points per
+ * pixel. A pixel is drawn in the mean color of its points, more opaque the
+ * more points there are, on a log ramp up to the fullest pixel of the layer.
+ * Where there are selected points the selected layer is drawn, so that the
+ * selection shows over the rest.
+ * 
+ * The raster is split into bands of rows, binned and drawn at once on a
+ * worker pool. With more than one band the points are first sorted into
+ * their bands, so each band bins only its own points and the bands need no
+ * merging. A raster keeps its arrays and image from one render to the
+ * next, and is for one thread.
+ */
+public class PointDensityRaster {
+
+	/** Layer of a point that is not drawn. */
+	public static final byte HIDDEN = 0;
+	public static final byte DESELECTED = 1;
+	public static final byte SELECTED = 2;
+
+	// opacity of a pixel with a single point on it
+	private static final int MIN_ALPHA = 96;
+	private static final double LOG_ONE = Math.log1p(1);
+
+	private static final int NUM_BANDS = Runtime.getRuntime()
+			.availableProcessors();
+	private static final ExecutorService pool = Executors.newFixedThreadPool(
+			NUM_BANDS, new DensityThreadFactory());
+
+	final static Logger logger = Logger.getLogger(PointDensityRaster.class
+			.getName());
+
+	private final int width;
+	private final int height;
+	private final BufferedImage image;
+	// count and red, green, blue sums of each pixel, for each drawn layer
+	private final int[][] counts = new int[SELECTED + 1][];
+	private final int[][] sums = new int[SELECTED + 1][];
+	private final int[] maxCounts = new int[SELECTED + 1];
+	// the band of each row
+	private final int[] bandOfRow;
+	// the drawn points on the raster, by band; the points of band b are
+	// from bandStarts[b] up to bandStarts[b + 1]
+	private int[] bandPoints = new int[0];
+	private final int[] bandStarts = new int[NUM_BANDS + 1];
+
+	public PointDensityRaster(int width, int height) {
+		this.width = width;
+		this.height = height;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		for (int layer = DESELECTED; layer <= SELECTED; layer++) {
+			counts[layer] = new int[width * height];
+			sums[layer] = new int[3 * width * height];
+		}
+		bandOfRow = new int[height];
+		for (int b = 0; b < NUM_BANDS; b++) {
+			int row0 = height * b / NUM_BANDS;
+			int row1 = height * (b + 1) / NUM_BANDS;
+			Arrays.fill(bandOfRow, row0, row1, b);
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * The number of points of the layer binned into the pixel at x, y by
+	 * the last render.
+	 */
+	public int getCount(byte layer, int x, int y) {
+		return counts[layer][y * width + x];
+	}
+
+	/**
+	 * Bins the points and draws them. Point i is at xs[i], ys[i] in pixels,
+	 * colored rgbs[i], and is in layer layers[i]; points off the raster are
+	 * left out. The image returned is reused by the next render.
+	 */
+	public BufferedImage render(final int[] xs, final int[] ys,
+			final int[] rgbs, final byte[] layers) {
+		final int[] pixels = ((DataBufferInt) image.getRaster()
+				.getDataBuffer()).getData();
+		sortIntoBands(xs, ys, layers);
+		List<Callable<int[]>> binJobs = new ArrayList<Callable<int[]>>();
+		List<Callable<int[]>> drawJobs = new ArrayList<Callable<int[]>>();
+		for (int b = 0; b < NUM_BANDS; b++) {
+			final int band = b;
+			final int row0 = height * b / NUM_BANDS;
+			final int row1 = height * (b + 1) / NUM_BANDS;
+			binJobs.add(new Callable<int[]>() {
+				public int[] call() {
+					return binBand(band, row0, row1, xs, ys, rgbs, layers);
+				}
+			});
+			drawJobs.add(new Callable<int[]>() {
+				public int[] call() {
+					drawBand(row0, row1, pixels);
+					return null;
+				}
+			});
+		}
+		maxCounts[DESELECTED] = 0;
+		maxCounts[SELECTED] = 0;
+		for (int[] bandMax : runAll(binJobs)) {
+			for (int layer = DESELECTED; layer <= SELECTED; layer++) {
+				maxCounts[layer] = Math.max(maxCounts[layer], bandMax[layer]);
+			}
+		}
+		runAll(drawJobs);
+		return image;
+	}
+
+	private static List<int[]> runAll(List<Callable<int[]>> jobs) {
+		List<int[]> results = new ArrayList<int[]>();
+		try {
+			for (Future<int[]> f : pool.invokeAll(jobs)) {
+				results.add(f.get());
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * Counts the drawn points on the raster in each band, then lists them
+	 * in bandPoints band by band, keeping their order within a band.
+	 */
+	private void sortIntoBands(int[] xs, int[] ys, byte[] layers) {
+		if (NUM_BANDS == 1) {
+			return; // the one band bins them straight from the arrays
+		}
+		int n = xs.length;
+		if (bandPoints.length < n) {
+			bandPoints = new int[n];
+		}
+		Arrays.fill(bandStarts, 0);
+		for (int i = 0; i < n; i++) {
+			if (isOnRaster(xs[i], ys[i], layers[i])) {
+				bandStarts[bandOfRow[ys[i]] + 1]++;
+			}
+		}
+		for (int b = 0; b < NUM_BANDS; b++) {
+			bandStarts[b + 1] += bandStarts[b];
+		}
+		int[] next = Arrays.copyOf(bandStarts, NUM_BANDS);
+		for (int i = 0; i < n; i++) {
+			if (isOnRaster(xs[i], ys[i], layers[i])) {
+				bandPoints[next[bandOfRow[ys[i]]]++] = i;
+			}
+		}
+	}
+
+	private boolean isOnRaster(int x, int y, byte layer) {
+		return y >= 0 && y < height && x >= 0 && x < width
+				&& layer != HIDDEN;
+	}
+
+	/**
+	 * Clears the rows from row0 up to row1 and bins the points of the band
+	 * on them. Returns the largest count of each layer in the band.
+	 */
+	private int[] binBand(int band, int row0, int row1, int[] xs, int[] ys,
+			int[] rgbs, byte[] layers) {
+		for (int layer = DESELECTED; layer <= SELECTED; layer++) {
+			Arrays.fill(counts[layer], row0 * width, row1 * width, 0);
+			Arrays.fill(sums[layer], 3 * row0 * width, 3 * row1
+					* width, 0);
+		}
+		int[] bandMax = new int[SELECTED + 1];
+		if (NUM_BANDS == 1) {
+			for (int i = 0; i < xs.length; i++) {
+				if (isOnRaster(xs[i], ys[i], layers[i])) {
+					binPoint(i, xs, ys, rgbs, layers, bandMax);
+				}
+			}
+		} else {
+			int end = bandStarts[band + 1];
+			for (int k = bandStarts[band]; k < end; k++) {
+				binPoint(bandPoints[k], xs, ys, rgbs, layers, bandMax);
+			}
+		}
+		return bandMax;
+	}
+
+	private void binPoint(int i, int[] xs, int[] ys, int[] rgbs,
+			byte[] layers, int[] bandMax) {
+		byte layer = layers[i];
+		int p = ys[i] * width + xs[i];
+		int count = ++counts[layer][p];
+		if (count > bandMax[layer]) {
+			bandMax[layer] = count;
+		}
+		int rgb = rgbs[i];
+		int[] sum = sums[layer];
+		sum[3 * p] += (rgb >> 16) & 0xFF;
+		sum[3 * p + 1] += (rgb >> 8) & 0xFF;
+		sum[3 * p + 2] += rgb & 0xFF;
+	}
+
+	private void drawBand(int row0, int row1, int[] pixels) {
+		double[] logMax = new double[SELECTED + 1];
+		for (int layer = DESELECTED; layer <= SELECTED; layer++) {
+			logMax[layer] = Math.log1p(maxCounts[layer]);
+		}
+		for (int p = row0 * width; p < row1 * width; p++) {
+			byte layer = SELECTED;
+			int count = counts[SELECTED][p];
+			if (count == 0) {
+				layer = DESELECTED;
+				count = counts[DESELECTED][p];
+			}
+			if (count == 0) {
+				pixels[p] = 0;
+				continue;
+			}
+			// a single point gets MIN_ALPHA, the fullest pixel 255
+			int alpha = MIN_ALPHA;
+			if (logMax[layer] > LOG_ONE) {
+				alpha += (int) ((255 - MIN_ALPHA)
+						* (Math.log1p(count) - LOG_ONE) / (logMax[layer] - LOG_ONE));
+			}
+			int[] sum = sums[layer];
+			int r = sum[3 * p] / count;
+			int g = sum[3 * p + 1] / count;
+			int b = sum[3 * p + 2] / count;
+			pixels[p] = (alpha << 24) | (r << 16) | (g << 8) | b;
+		}
+	}
+
+	private static class DensityThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "point-density-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
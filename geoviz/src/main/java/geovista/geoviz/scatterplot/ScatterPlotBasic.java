@@ -53,6 +53,7 @@ import javax.swing.event.EventListenerList;
 
 import geovista.common.data.DataSetForApps;
 import geovista.common.data.DescriptiveStatistics;
+import geovista.common.data.PointGridIndex;
 import geovista.common.event.IndicationEvent;
 import geovista.common.event.IndicationListener;
 import geovista.common.ui.ExcentricLabelClient;
@@ -76,6 +77,11 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 	public static final String COMMAND_POINT_SELECTED = "cmdSel";
 	public static final String COMMAND_DATARANGE_SET = "cmdset";
 	protected final static int RADIUS = 5; // Glyph size
+	/**
+	 * Above this many observations, points are drawn as a density raster
+	 * rather than one by one.
+	 */
+	public static final int DEFAULT_DENSITY_THRESHOLD = 200000;
 	protected int pointSize = RADIUS;
 	transient protected int plotOriginX;
 	transient protected int plotOriginY;
@@ -162,6 +168,17 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 	private final BufferedImage indicationStamp;
 	private final int stampSize = 80;
 	private transient Image drawingBuff;
+	protected int densityThreshold = DEFAULT_DENSITY_THRESHOLD;
+	private transient PointDensityRaster densityRaster;
+	// per observation colors and layers handed to densityRaster
+	private transient int[] densityColors;
+	private transient byte[] densityLayers;
+	// grid over exsint, whyint for picking, built when first needed
+	private transient PointGridIndex pointIndex;
+	// shared with the other plots of a matrix, when in one
+	private transient ScatterPlotCache plotCache;
+	// the size drawingBuff was last made and drawn for
+	private transient Dimension preparedSize;
 
 	static final Logger logger = Logger.getLogger(ScatterPlotBasic.class
 			.getName());
@@ -451,8 +468,13 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 		if (dataX == null) {
 			return;
 		}
-		dataArrayX = new DataArray(dataX);
-		dataArrayY = new DataArray(dataY);
+		if (usesPlotCache()) {
+			dataArrayX = plotCache.getDataArray(dataIndices[0]);
+			dataArrayY = plotCache.getDataArray(dataIndices[1]);
+		} else {
+			dataArrayX = new DataArray(dataX);
+			dataArrayY = new DataArray(dataY);
+		}
 		conditionArray = new int[dataX.length];
 		setBorder(BorderFactory.createLineBorder(Color.gray));
 		if (axisOn) {
@@ -526,7 +548,10 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 		g.setColor(foreground);
 		paintBorder(g);
 
-		if (useSelectionBlur) {
+		if (isDensityMode()) {
+			// too many points to draw one by one
+			paintDensity(g2);
+		} else if (useSelectionBlur) {
 			paintOnlyDeselected(g2);
 
 			// drawSlections(g, pointColors, dataArrayX.length());
@@ -669,6 +694,92 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 		}
 	}
 
+	/**
+	 * Draws the points binned into a raster of the plot's size, deselected
+	 * points faded as paintOnlyDeselected does, with the selected points as
+	 * a layer over them.
+	 */
+	private void paintDensity(Graphics2D g2) {
+		if (dataArrayX == null || pointColors == null) {
+			return;
+		}
+		int len = dataArrayX.length();
+		if (selections.length == 0) {
+			selections = new int[len];
+			for (int i : selections) {
+				selections[i] = 1;
+			}
+		}
+		if (pointColors.length != len) {
+			makeColors();
+		}
+		if (densityRaster == null || densityRaster.getWidth() != getWidth()
+				|| densityRaster.getHeight() != getHeight()) {
+			densityRaster = new PointDensityRaster(getWidth(), getHeight());
+		}
+		if (densityColors == null || densityColors.length != len) {
+			densityColors = new int[len];
+			densityLayers = new byte[len];
+		}
+		Color colorBlur = new Color(248, 248, 248, 255);
+		for (int i = 0; i < len; i++) {
+			Color drawColor = pointColors[i];
+			if (drawColor == null || conditionArray[i] <= -1) {
+				densityLayers[i] = PointDensityRaster.HIDDEN;
+				continue;
+			}
+			if (selections[i] == 1) {
+				densityLayers[i] = PointDensityRaster.SELECTED;
+				densityColors[i] = drawColor.getRGB();
+			} else {
+				densityLayers[i] = PointDensityRaster.DESELECTED;
+				int rgb = drawColor.getRGB();
+				if (useSelectionFade) {
+					// as ColorInterpolator.mixColorsRGB, without the Color
+					int r = (((rgb >> 16) & 0xFF) + colorBlur.getRed()) / 2;
+					int g = (((rgb >> 8) & 0xFF) + colorBlur.getGreen()) / 2;
+					int b = ((rgb & 0xFF) + colorBlur.getBlue()) / 2;
+					rgb = (r << 16) | (g << 8) | b;
+				}
+				densityColors[i] = rgb;
+			}
+		}
+		g2.drawImage(densityRaster.render(exsint, whyint, densityColors,
+				densityLayers), 0, 0, null);
+	}
+
+	/**
+	 * Whether there are enough observations for the points to be drawn as a
+	 * density raster.
+	 */
+	public boolean isDensityMode() {
+		return dataX != null && dataX.length > densityThreshold;
+	}
+
+	public int getDensityThreshold() {
+		return densityThreshold;
+	}
+
+	/**
+	 * Sets how many observations there can be before the points are drawn
+	 * as a density raster.
+	 */
+	public void setDensityThreshold(int densityThreshold) {
+		this.densityThreshold = densityThreshold;
+		paintDrawingBuff();
+		repaint();
+	}
+
+	/**
+	 * Grid over the points' screen positions, rebuilt when they move.
+	 */
+	protected PointGridIndex getPointIndex() {
+		if (pointIndex == null || !pointIndex.isFor(exsint, whyint)) {
+			pointIndex = new PointGridIndex(exsint, whyint);
+		}
+		return pointIndex;
+	}
+
 	/**
 	 * Draw the scatter plot.
 	 * 
@@ -1124,15 +1235,7 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 	 */
 	protected int[] getValueScreen(double[] dataArray, double scale, int min,
 			double dataMin) {
-		int[] valueScreen = new int[dataArray.length];
-		for (int i = 0; i < dataArray.length; i++) {
-			if (Double.isNaN(dataArray[i])) {
-				valueScreen[i] = Integer.MIN_VALUE;
-			} else {
-				valueScreen[i] = (int) ((dataArray[i] - dataMin) * scale + min);
-			}
-		}
-		return valueScreen;
+		return ScatterPlotCache.toScreen(dataArray, scale, min, dataMin);
 	}
 
 	protected void setupDataforDisplay() {
@@ -1148,14 +1251,15 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 			return;
 		}
 		// get positions on screen
-		double xScale;
-		double yScale;
-		xScale = getScale(plotOriginX, plotEndX, xAxisExtents[0],
-				xAxisExtents[1]);
-		exsint = getValueScreen(dataX, xScale, plotOriginX, xAxisExtents[0]);
-		yScale = getScale(plotOriginY, plotEndY, yAxisExtents[0],
-				yAxisExtents[1]);
-		whyint = getValueScreen(dataY, yScale, plotOriginY, yAxisExtents[0]);
+		if (usesPlotCache()) {
+			// worked out once for each column and row of the matrix
+			exsint = plotCache.getScreenValues(dataIndices[0],
+					xAxisExtents[0], xAxisExtents[1], plotOriginX, plotEndX);
+			whyint = plotCache.getScreenValues(dataIndices[1],
+					yAxisExtents[0], yAxisExtents[1], plotOriginY, plotEndY);
+		} else {
+			setupScreenValues();
+		}
 
 		if (pointSelected && plotLineForSelections) {
 			setUpRegressionLine(slope, intercept, true);
@@ -1169,6 +1273,67 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 
 	}
 
+	private void setupScreenValues() {
+		double xScale;
+		double yScale;
+		xScale = getScale(plotOriginX, plotEndX, xAxisExtents[0],
+				xAxisExtents[1]);
+		exsint = getValueScreen(dataX, xScale, plotOriginX, xAxisExtents[0]);
+		yScale = getScale(plotOriginY, plotEndY, yAxisExtents[0],
+				yAxisExtents[1]);
+		whyint = getValueScreen(dataY, yScale, plotOriginY, yAxisExtents[0]);
+	}
+
+	/**
+	 * Shares what is worked out from each variable with the other plots of a
+	 * matrix. Only used while the plot shows variables of the cache's data
+	 * set.
+	 */
+	public void setPlotCache(ScatterPlotCache plotCache) {
+		this.plotCache = plotCache;
+	}
+
+	public ScatterPlotCache getPlotCache() {
+		return plotCache;
+	}
+
+	private boolean usesPlotCache() {
+		return plotCache != null && plotCache.isFor(dataSet)
+				&& plotCache.holds(dataIndices, dataX, dataY);
+	}
+
+	/**
+	 * First half of a resize done for many plots at once: makes the drawing
+	 * buffer for the new size, on the event thread. Returns whether the size
+	 * has changed since the plot was last drawn, that is, whether
+	 * setupForSize needs to be called.
+	 */
+	public boolean prepareForSize() {
+		Dimension current = getSize();
+		if (current.width <= 0 || current.height <= 0
+				|| (current.equals(preparedSize) && drawingBuff != null)) {
+			return false;
+		}
+		drawingBuff = this.createImage(current.width, current.height);
+		if (drawingBuff == null) {
+			// not shown yet; drawn now, so it is ready when it is
+			drawingBuff = new BufferedImage(current.width, current.height,
+					BufferedImage.TYPE_INT_RGB);
+		}
+		preparedSize = current;
+		return true;
+	}
+
+	/**
+	 * Second half of a resize done for many plots at once: works out the
+	 * screen positions and draws the buffer at the size prepareForSize made
+	 * it. This can be run off the event thread, so long as nothing else uses
+	 * the plot meanwhile.
+	 */
+	public void setupForSize() {
+		setupDataforDisplay();
+	}
+
 	// start excentric labeling stuff
 	protected void initExcentricLabels() {
 		exLabels = new ExcentricLabels();
@@ -1197,20 +1362,19 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 	}
 
 	public int[] pickAll(Rectangle2D hitBox) {
-		Vector hits = new Vector();
-		for (int i = 0; i < dataX.length; i++) {
-			if (hitBox.contains(exsint[i], whyint[i])
-					&& (conditionArray[i] > -1)) {
-				Integer bigI = new Integer(i);
-				hits.add(bigI);
+		// the whole pixels hitBox contains, edges as Rectangle2D.contains
+		int x0 = (int) Math.ceil(hitBox.getMinX());
+		int y0 = (int) Math.ceil(hitBox.getMinY());
+		int x1 = (int) Math.ceil(hitBox.getMaxX());
+		int y1 = (int) Math.ceil(hitBox.getMaxY());
+		int[] hits = getPointIndex().findInRect(x0, y0, x1 - x0, y1 - y0);
+		int n = 0;
+		for (int i : hits) {
+			if (conditionArray[i] > -1) {
+				hits[n++] = i;
 			}
 		}
-		int[] intHits = new int[hits.size()];
-		for (int i = 0; i < hits.size(); i++) {
-
-			intHits[i] = ((Integer) hits.get(i)).intValue();
-		}
-		return intHits;
+		return Arrays.copyOf(hits, n);
 	}
 
 	// end excentric labeling stuff
@@ -1224,8 +1388,14 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 	}
 
 	public void componentResized(ComponentEvent e) {
+		if (drawingBuff != null && getSize().equals(preparedSize)) {
+			// already drawn at this size, as by a matrix laying out
+			this.repaint();
+			return;
+		}
 		if (getWidth() > 0 && (getHeight() > 0)) {
 			drawingBuff = this.createImage(getWidth(), getHeight());
+			preparedSize = drawingBuff == null ? null : getSize();
 		}
 		setupDataforDisplay();
 		paintDrawingBuff();
@@ -1308,8 +1478,9 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 				selectHeight);
 		pointSelected = false;
 		// int j = 0;
-		for (int i = 0; i < dataX.length; i++) {
-			if (rec.contains(exsint[i], whyint[i]) && (conditionArray[i] > -1)) {
+		for (int i : getPointIndex().findInRect(rec.x, rec.y, rec.width,
+				rec.height)) {
+			if (conditionArray[i] > -1) {
 				if (e.isControlDown()) {
 					if (selections[i] >= 1) {
 						selections[i] = 0;
@@ -1478,11 +1649,11 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 		}
 		if ((dataIndices[0] != dataIndices[1]) && (exsint != null)
 				&& (whyint != null)) {
-			for (int i = 0; i < dataX.length; i++) {
-				if ((exsint[i] - tolerance < x) && (x <= exsint[i] + tolerance)
-						&& (whyint[i] - tolerance < y)
-						&& (y <= whyint[i] + tolerance)
-						&& (conditionArray[i] > -1)) {
+			// points with x - tolerance <= exsint[i] < x + tolerance, and
+			// the same for y
+			for (int i : getPointIndex().findInRect(x - tolerance,
+					y - tolerance, 2 * tolerance, 2 * tolerance)) {
+				if (conditionArray[i] > -1) {
 					// pointMove = true;
 					arrayIndex = i;
 					return arrayIndex;
@@ -1494,12 +1665,10 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 
 	protected void selectAPoint(int[] mousePos) {
 		if (dataIndices[0] != dataIndices[1]) {
-			for (int i = 0; i < dataX.length; i++) {
-				if ((exsint[i] - 5 < mousePos[0])
-						&& (mousePos[0] < exsint[i] + 5)
-						&& (whyint[i] - 5 < mousePos[1])
-						&& (mousePos[1] < whyint[i] + 5)
-						&& (conditionArray[i] > -1)) {
+			// points within four pixels either way
+			for (int i : getPointIndex().findInRect(mousePos[0] - 4,
+					mousePos[1] - 4, 9, 9)) {
+				if (conditionArray[i] > -1) {
 					selections[i] = 1;
 				}
 			}
@@ -2238,7 +2407,12 @@ public class ScatterPlotBasic extends JPanel implements ComponentListener,
 
 	public void makeColors() {
 		if (dataX != null && dataY != null) {
-			pointColors = bivarColorClasser.symbolize(dataX, dataY);
+			if (usesPlotCache()) {
+				pointColors = plotCache.getColors(bivarColorClasser,
+						dataIndices[0], dataIndices[1]);
+			} else {
+				pointColors = bivarColorClasser.symbolize(dataX, dataY);
+			}
 		}
 	}
 
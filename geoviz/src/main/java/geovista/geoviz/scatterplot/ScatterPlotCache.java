@@ -0,0 +1,241 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.geoviz.scatterplot;
+
+import java.awt.Color;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+import geovista.common.data.DataSetForApps;
+import geovista.symbolization.BivariateColorClassifier;
+
+/**
+ * What the scatterplots of a matrix work out from each variable, kept once
+ * for all of them: the extents and ticks of each variable, its screen
+ * positions for a given axis range and pixel span, and the class colors of
+ * each pair of variables. The plots in a column of a matrix share their x
+ * positions and those in a row their y positions, so a resize works each
+ * out once rather than once per plot.
+ * 
+ * Screen positions can be asked for from several threads at once, and each
+ * is worked out by the first to ask. Arrays handed out are shared between
+ * the plots, so they must not be written to. Colors are worked out while
+ * holding the classifier, which keeps state of its own; the matrix clears
+ * them when the classifier changes.
+ */
+public class ScatterPlotCache {
+
+	// screen positions kept, at most; a few resizes' worth
+	private static final int MAX_SCREEN_ENTRIES = 64;
+
+	final static Logger logger = Logger.getLogger(ScatterPlotCache.class
+			.getName());
+
+	private final DataSetForApps dataSet;
+	private final DataArray[] dataArrays;
+	private final ConcurrentHashMap<ScreenKey, FutureTask<int[]>> screenValues = new ConcurrentHashMap<ScreenKey, FutureTask<int[]>>();
+	private final Map<ColorKey, Color[]> colors = new HashMap<ColorKey, Color[]>();
+
+	public ScatterPlotCache(DataSetForApps dataSet) {
+		this.dataSet = dataSet;
+		dataArrays = new DataArray[dataSet.getNumberNumericAttributes()];
+	}
+
+	/**
+	 * Whether this cache holds the variables of the data set.
+	 */
+	public boolean isFor(DataSetForApps data) {
+		return dataSet == data;
+	}
+
+	/**
+	 * Whether the arrays are the numeric variables of the data set at the
+	 * given indices, so that what is kept for those variables holds for
+	 * them.
+	 */
+	public boolean holds(int[] dataIndices, double[] dataX, double[] dataY) {
+		return dataIndices != null && dataX != null && dataY != null
+				&& dataX == values(dataIndices[0])
+				&& dataY == values(dataIndices[1]);
+	}
+
+	/**
+	 * The values of the numeric variable, the same array on every call.
+	 */
+	private double[] values(int var) {
+		return dataSet.getNumericColumn(var).getDoubles();
+	}
+
+	/**
+	 * A DataArray of the numeric variable, for the caller to keep: it is a
+	 * copy, as a plot can change its extent.
+	 */
+	public DataArray getDataArray(int var) {
+		DataArray template;
+		synchronized (dataArrays) {
+			template = dataArrays[var];
+			if (template == null) {
+				template = new DataArray(values(var));
+				dataArrays[var] = template;
+			}
+		}
+		return new DataArray(template);
+	}
+
+	/**
+	 * Screen positions of the numeric variable, with dataMin to dataMax
+	 * going to pixelMin to pixelMax, as ScatterPlotBasic.getValueScreen
+	 * works them out.
+	 */
+	public int[] getScreenValues(final int var, final double dataMin,
+			final double dataMax, final int pixelMin, final int pixelMax) {
+		ScreenKey key = new ScreenKey(var, dataMin, dataMax, pixelMin,
+				pixelMax);
+		FutureTask<int[]> task = screenValues.get(key);
+		if (task == null) {
+			FutureTask<int[]> newTask = new FutureTask<int[]>(
+					new Callable<int[]>() {
+						public int[] call() {
+							double scale = (pixelMax - pixelMin)
+									/ (dataMax - dataMin);
+							return toScreen(values(var), scale, pixelMin,
+									dataMin);
+						}
+					});
+			if (screenValues.size() >= MAX_SCREEN_ENTRIES) {
+				screenValues.clear();
+			}
+			task = screenValues.putIfAbsent(key, newTask);
+			if (task == null) {
+				task = newTask;
+				task.run();
+			}
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause());
+		}
+	}
+
+	/**
+	 * The colors the classifier gives the pair of numeric variables, x then
+	 * y.
+	 */
+	public Color[] getColors(BivariateColorClassifier classer, int xVar,
+			int yVar) {
+		ColorKey key = new ColorKey(classer, xVar, yVar);
+		synchronized (classer) {
+			Color[] pairColors;
+			synchronized (colors) {
+				pairColors = colors.get(key);
+			}
+			if (pairColors == null) {
+				pairColors = classer.symbolize(values(xVar), values(yVar));
+				synchronized (colors) {
+					colors.put(key, pairColors);
+				}
+			}
+			return pairColors;
+		}
+	}
+
+	/**
+	 * Forgets the colors, for when a classifier has changed.
+	 */
+	public void clearColors() {
+		synchronized (colors) {
+			colors.clear();
+		}
+	}
+
+	/**
+	 * Screen positions of data, NaN going to Integer.MIN_VALUE.
+	 */
+	static int[] toScreen(double[] data, double scale, int min, double dataMin) {
+		int[] valueScreen = new int[data.length];
+		for (int i = 0; i < data.length; i++) {
+			if (Double.isNaN(data[i])) {
+				valueScreen[i] = Integer.MIN_VALUE;
+			} else {
+				valueScreen[i] = (int) ((data[i] - dataMin) * scale + min);
+			}
+		}
+		return valueScreen;
+	}
+
+	private static class ScreenKey {
+		final int var;
+		final double dataMin;
+		final double dataMax;
+		final int pixelMin;
+		final int pixelMax;
+
+		ScreenKey(int var, double dataMin, double dataMax, int pixelMin,
+				int pixelMax) {
+			this.var = var;
+			this.dataMin = dataMin;
+			this.dataMax = dataMax;
+			this.pixelMin = pixelMin;
+			this.pixelMax = pixelMax;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ScreenKey)) {
+				return false;
+			}
+			ScreenKey other = (ScreenKey) obj;
+			return var == other.var
+					&& Double.compare(dataMin, other.dataMin) == 0
+					&& Double.compare(dataMax, other.dataMax) == 0
+					&& pixelMin == other.pixelMin
+					&& pixelMax == other.pixelMax;
+		}
+
+		@Override
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(dataMin) * 31
+					+ Double.doubleToLongBits(dataMax);
+			return (((var * 31 + (int) (bits ^ (bits >>> 32))) * 31 + pixelMin) * 31)
+					+ pixelMax;
+		}
+	}
+
+	private static class ColorKey {
+		final BivariateColorClassifier classer;
+		final int xVar;
+		final int yVar;
+
+		ColorKey(BivariateColorClassifier classer, int xVar, int yVar) {
+			this.classer = classer;
+			this.xVar = xVar;
+			this.yVar = yVar;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ColorKey)) {
+				return false;
+			}
+			ColorKey other = (ColorKey) obj;
+			return classer == other.classer && xVar == other.xVar
+					&& yVar == other.yVar;
+		}
+
+		@Override
+		public int hashCode() {
+			return (System.identityHashCode(classer) * 31 + xVar) * 31 + yVar;
+		}
+	}
+}
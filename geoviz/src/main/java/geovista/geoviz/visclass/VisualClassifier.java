@@ -272,8 +272,8 @@ public class VisualClassifier extends JPanel implements ActionListener,
 	if (currVar > classPick.getDataSet().getNumberNumericAttributes()) {
 	    return null;
 	}
-	double[] data = classPick.getDataSet().getNumericDataAsDouble(currVar);
-	int[] classedData = classer.classify(data, classPick.getNClasses());
+	int[] classedData = ClassifierPicker.classify(classer, classPick
+		.getDataSet(), currVar, classPick.getNClasses());
 	if (dataColors == null || dataColors.length != classedData.length) {
 	    dataColors = new Color[classedData.length];
 	}
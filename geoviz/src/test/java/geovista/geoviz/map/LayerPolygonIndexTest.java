@@ -0,0 +1,167 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.geoviz.map;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the indexed hit-testing of LayerShape against a scan of every
+ * shape, and logs how long each takes on a large grid of polygons.
+ */
+public class LayerPolygonIndexTest extends TestCase {
+	final static Logger logger = Logger.getLogger(LayerPolygonIndexTest.class
+			.getName());
+
+	private static final int COLS = 280;
+	private static final int ROWS = 250;
+	private static final int CELL = 6;
+
+	private Shape[] shapes;
+	private LayerPolygon layer;
+
+	@Override
+	protected void setUp() {
+		shapes = makeGrid();
+		layer = new LayerPolygon();
+		layer.setSpatialData(shapes);
+	}
+
+	/**
+	 * Diamonds, so that bounding boxes of neighbors overlap but the shapes
+	 * mostly do not.
+	 */
+	private static Shape[] makeGrid() {
+		Shape[] grid = new Shape[COLS * ROWS];
+		for (int row = 0; row < ROWS; row++) {
+			for (int col = 0; col < COLS; col++) {
+				int cx = col * CELL;
+				int cy = row * CELL;
+				int r = CELL / 2 + 1;
+				grid[row * COLS + col] = new Polygon(new int[] { cx - r, cx,
+						cx + r, cx }, new int[] { cy, cy - r, cy, cy + r }, 4);
+			}
+		}
+		return grid;
+	}
+
+	private int[] scanSelection(Rectangle selBox) {
+		int[] found = new int[shapes.length];
+		int n = 0;
+		for (int i = 0; i < shapes.length; i++) {
+			Rectangle shpBox = shapes[i].getBounds();
+			if (selBox.intersects(shpBox)) {
+				if (shapes[i].contains(selBox) || shapes[i].intersects(selBox)) {
+					found[n++] = i;
+				}
+			}
+		}
+		return Arrays.copyOf(found, n);
+	}
+
+	private int scanIndication(int x, int y) {
+		for (int i = 0; i < shapes.length; i++) {
+			Rectangle shpBox = shapes[i].getBounds();
+			if (shpBox.contains(x, y) && shapes[i].contains(x, y)) {
+				return i;
+			}
+		}
+		return Integer.MIN_VALUE;
+	}
+
+	public void testSelectionMatchesScan() {
+		Random rand = new Random(11);
+		for (int q = 0; q < 200; q++) {
+			int x1 = rand.nextInt(COLS * CELL) - CELL;
+			int y1 = rand.nextInt(ROWS * CELL) - CELL;
+			int x2 = x1 + rand.nextInt(20 * CELL);
+			int y2 = y1 + rand.nextInt(20 * CELL);
+			layer.findSelection(x1, x2, y1, y2);
+			int[] expected = scanSelection(new Rectangle(x1, y1, x2 - x1, y2
+					- y1));
+			assertTrue(Arrays.equals(expected, layer.selectedObservations));
+		}
+	}
+
+	public void testSelectionShiftAddsTouching() {
+		layer.findSelection(0, 30, 0, 30);
+		int[] first = layer.selectedObservations.clone();
+		layer.findSelectionShift(20, 60, 20, 60);
+		int[] both = layer.selectedObservations.clone();
+		Arrays.sort(both);
+		for (int i = 1; i < both.length; i++) {
+			assertTrue(both[i - 1] < both[i]);
+		}
+		for (int id : first) {
+			assertTrue(Arrays.binarySearch(both, id) >= 0);
+		}
+		Rectangle box = new Rectangle(20, 20, 40, 40);
+		for (int i = 0; i < shapes.length; i++) {
+			boolean touching = box.intersects(shapes[i].getBounds());
+			boolean wasSelected = Arrays.binarySearch(first, i) >= 0;
+			assertEquals(touching || wasSelected, Arrays
+					.binarySearch(both, i) >= 0);
+		}
+	}
+
+	public void testIndicationMatchesScan() {
+		Random rand = new Random(12);
+		for (int q = 0; q < 2000; q++) {
+			int x = rand.nextInt(COLS * CELL + 2 * CELL) - CELL;
+			int y = rand.nextInt(ROWS * CELL + 2 * CELL) - CELL;
+			assertEquals(scanIndication(x, y), layer.findIndication(x, y));
+		}
+	}
+
+	public void testTimings() {
+		Random rand = new Random(13);
+		int nQueries = 500;
+		int[] xs = new int[nQueries];
+		int[] ys = new int[nQueries];
+		for (int q = 0; q < nQueries; q++) {
+			xs[q] = rand.nextInt(COLS * CELL);
+			ys[q] = rand.nextInt(ROWS * CELL);
+		}
+		// build the index outside the timings
+		layer.findIndication(0, 0);
+
+		long start = System.nanoTime();
+		int sum = 0;
+		for (int q = 0; q < nQueries; q++) {
+			sum += scanIndication(xs[q], ys[q]);
+		}
+		long scanNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int q = 0; q < nQueries; q++) {
+			sum -= layer.findIndication(xs[q], ys[q]);
+		}
+		long indexNanos = System.nanoTime() - start;
+		assertEquals(0, sum);
+		logger.info(shapes.length + " shapes, indication: scan "
+				+ scanNanos / nQueries / 1000 + " us, index "
+				+ indexNanos / nQueries / 1000 + " us per query");
+
+		start = System.nanoTime();
+		for (int q = 0; q < nQueries; q++) {
+			scanSelection(new Rectangle(xs[q], ys[q], 10 * CELL, 10 * CELL));
+		}
+		scanNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int q = 0; q < nQueries; q++) {
+			layer.findSelection(xs[q], xs[q] + 10 * CELL, ys[q], ys[q] + 10
+					* CELL);
+		}
+		indexNanos = System.nanoTime() - start;
+		logger.info(shapes.length + " shapes, box selection: scan "
+				+ scanNanos / nQueries / 1000 + " us, index "
+				+ indexNanos / nQueries / 1000 + " us per query");
+	}
+}
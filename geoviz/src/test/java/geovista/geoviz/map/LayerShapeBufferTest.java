@@ -0,0 +1,173 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.geoviz.map;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the shapes LayerShape and LayerPoint transform into their own
+ * buffers act as the originals moved through the same transform, and that
+ * the buffers are reused rather than made again.
+ */
+public class LayerShapeBufferTest extends TestCase {
+	final static Logger logger = Logger.getLogger(LayerShapeBufferTest.class
+			.getName());
+
+	private static final int NUM_SHAPES = 400;
+
+	private Shape[] shapes;
+	private LayerPolygon layer;
+
+	@Override
+	protected void setUp() {
+		shapes = makeShapes(NUM_SHAPES);
+		layer = new LayerPolygon();
+		layer.setOriginalSpatialData(shapes);
+	}
+
+	private static Shape[] makeShapes(int n) {
+		Random rand = new Random(21);
+		Shape[] shapes = new Shape[n];
+		for (int i = 0; i < n; i++) {
+			double x = rand.nextDouble() * 100;
+			double y = rand.nextDouble() * 100;
+			double size = 1 + rand.nextDouble() * 5;
+			if (i % 7 == 3) {
+				shapes[i] = null; // no geometry for this observation
+			} else if (i % 5 == 0) {
+				// a ring with a hole, left open without closePath
+				GeneralPath path = new GeneralPath(GeneralPath.WIND_EVEN_ODD);
+				path.append(new Rectangle2D.Double(x, y, size, size), false);
+				path.append(new Rectangle2D.Double(x + size / 4, y + size / 4,
+						size / 2, size / 2), false);
+				shapes[i] = path;
+			} else {
+				GeneralPath path = new GeneralPath();
+				path.moveTo(x, y);
+				path.lineTo(x + size, y + rand.nextDouble() * size);
+				path.lineTo(x + rand.nextDouble() * size, y + size);
+				path.closePath();
+				shapes[i] = path;
+			}
+		}
+		return shapes;
+	}
+
+	private static AffineTransform makeTransform(double scale, double dx,
+			double dy) {
+		AffineTransform xForm = new AffineTransform();
+		xForm.translate(dx, dy);
+		xForm.scale(scale, -scale);
+		return xForm;
+	}
+
+	private static void assertSamePath(Shape expected, Shape actual) {
+		PathIterator a = expected.getPathIterator(null);
+		PathIterator b = actual.getPathIterator(null);
+		assertEquals(a.getWindingRule(), b.getWindingRule());
+		double[] ca = new double[6];
+		double[] cb = new double[6];
+		for (; !a.isDone(); a.next(), b.next()) {
+			assertFalse(b.isDone());
+			int type = a.currentSegment(ca);
+			assertEquals(type, b.currentSegment(cb));
+			if (type != PathIterator.SEG_CLOSE) {
+				assertEquals(ca[0], cb[0], 1e-3);
+				assertEquals(ca[1], cb[1], 1e-3);
+			}
+		}
+		assertTrue(b.isDone());
+	}
+
+	public void testViewsMatchTransformedShapes() {
+		AffineTransform xForm = makeTransform(6, 10, 650);
+		Shape[] views = layer.transformOriginalSpatialData(xForm);
+		assertEquals(NUM_SHAPES, views.length);
+		Random rand = new Random(22);
+		for (int i = 0; i < NUM_SHAPES; i++) {
+			if (shapes[i] == null) {
+				assertNull(views[i]);
+				continue;
+			}
+			Shape expected = xForm.createTransformedShape(shapes[i]);
+			assertSamePath(expected, views[i]);
+			Rectangle2D box = expected.getBounds2D();
+			Rectangle2D viewBox = views[i].getBounds2D();
+			assertEquals(box.getMinX(), viewBox.getMinX(), 1e-3);
+			assertEquals(box.getMaxY(), viewBox.getMaxY(), 1e-3);
+			assertEquals(expected.getBounds(), views[i].getBounds());
+			for (int q = 0; q < 20; q++) {
+				double x = box.getX() - 2 + rand.nextDouble()
+						* (box.getWidth() + 4);
+				double y = box.getY() - 2 + rand.nextDouble()
+						* (box.getHeight() + 4);
+				assertEquals(expected.contains(x, y), views[i].contains(x, y));
+				Rectangle r = new Rectangle((int) x, (int) y, 3, 2);
+				assertEquals(expected.intersects(r), views[i].intersects(r));
+				assertEquals(expected.contains(r), views[i].contains(r));
+			}
+		}
+	}
+
+	public void testBuffersAreReused() {
+		Shape[] first = layer
+				.transformOriginalSpatialData(makeTransform(4, 0, 400));
+		Rectangle2D firstBox = first[1].getBounds2D();
+		Shape[] second = layer
+				.transformOriginalSpatialData(makeTransform(5, 3, 500));
+		assertNotSame(first, second);
+		// the last shapes handed out stay put while the next are made
+		assertEquals(firstBox, first[1].getBounds2D());
+		Shape[] third = layer
+				.transformOriginalSpatialData(makeTransform(7, 1, 700));
+		assertSame(first, third);
+		assertSame(first[1], third[1]);
+		assertSamePath(makeTransform(7, 1, 700).createTransformedShape(
+				shapes[1]), third[1]);
+
+		layer.setOriginalSpatialData(shapes.clone());
+		Shape[] fresh = layer
+				.transformOriginalSpatialData(makeTransform(7, 1, 700));
+		assertNotSame(first, fresh);
+	}
+
+	public void testPointMarkers() {
+		Random rand = new Random(23);
+		Point2D[] points = new Point2D[NUM_SHAPES];
+		for (int i = 0; i < NUM_SHAPES; i++) {
+			points[i] = new Point2D.Double(rand.nextDouble() * 100, rand
+					.nextDouble() * 100);
+		}
+		LayerPoint lp = new LayerPoint();
+		lp.setOriginalPoints(points);
+		AffineTransform xForm = makeTransform(6, 10, 650);
+		Point2D[] moved = new Point2D[NUM_SHAPES];
+		xForm.transform(points, 0, moved, 0, NUM_SHAPES);
+		Shape[] oldMarkers = lp.findShapesForPoints(moved);
+		Shape[] markers = lp.findShapesForPoints(xForm);
+		for (int i = 0; i < NUM_SHAPES; i++) {
+			Rectangle2D oldBox = oldMarkers[i].getBounds2D();
+			Rectangle2D box = markers[i].getBounds2D();
+			assertEquals(oldBox.getCenterX(), box.getCenterX(), 1e-3);
+			assertEquals(oldBox.getCenterY(), box.getCenterY(), 1e-3);
+			assertEquals(oldBox.getWidth(), box.getWidth(), 1e-3);
+			assertTrue(markers[i] instanceof Ellipse2D);
+		}
+		Shape[] next = lp.findShapesForPoints(makeTransform(2, 0, 0));
+		assertNotSame(markers, next);
+		assertSame(markers, lp.findShapesForPoints(xForm));
+	}
+}
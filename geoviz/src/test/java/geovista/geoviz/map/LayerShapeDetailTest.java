@@ -0,0 +1,166 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.geoviz.map;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import geovista.common.jts.ShapePyramid;
+
+/**
+ * Checks that a layer draws its shapes from the level of detail that suits
+ * the scale, and that the simplified shapes stay within the error the
+ * pyramid claims for them.
+ */
+public class LayerShapeDetailTest extends TestCase {
+	final static Logger logger = Logger.getLogger(LayerShapeDetailTest.class
+			.getName());
+
+	private static final int VERTICES = 20000;
+
+	private Shape[] shapes;
+	private ShapePyramid pyramid;
+	private LayerPolygon layer;
+
+	@Override
+	protected void setUp() {
+		shapes = new Shape[] { makeIsland(new Random(3), 0, 0, 100),
+				makeIsland(new Random(4), 300, 50, 40) };
+		pyramid = new ShapePyramid(shapes);
+		layer = new LayerPolygon();
+		layer.setOriginalSpatialData(shapes);
+		layer.setOriginalPyramid(pyramid);
+	}
+
+	/**
+	 * A ragged coastline around (x, y), with a lake in the middle.
+	 */
+	private static Shape makeIsland(Random rand, double x, double y,
+			double radius) {
+		Path2D.Double path = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+		double r = radius;
+		for (int i = 0; i < VERTICES; i++) {
+			double angle = 2 * Math.PI * i / VERTICES;
+			r += (rand.nextDouble() - 0.5) * radius / 50;
+			r += (radius - r) / 100;
+			if (i == 0) {
+				path.moveTo(x + r * Math.cos(angle), y + r * Math.sin(angle));
+			} else {
+				path.lineTo(x + r * Math.cos(angle), y + r * Math.sin(angle));
+			}
+		}
+		path.closePath();
+		path.moveTo(x - radius / 4, y - radius / 4);
+		path.lineTo(x + radius / 4, y - radius / 4);
+		path.lineTo(x + radius / 4, y + radius / 4);
+		path.lineTo(x - radius / 4, y + radius / 4);
+		path.closePath();
+		return path;
+	}
+
+	private static List<double[]> rings(Shape shp) {
+		List<double[]> rings = new ArrayList<double[]>();
+		double[] coords = new double[6];
+		double[] ring = null;
+		int n = 0;
+		for (PathIterator it = shp.getPathIterator(null); !it.isDone(); it
+				.next()) {
+			int type = it.currentSegment(coords);
+			if (type == PathIterator.SEG_MOVETO) {
+				ring = new double[2 * VERTICES + 2];
+				rings.add(ring);
+				n = 0;
+			}
+			if (type != PathIterator.SEG_CLOSE) {
+				ring[n++] = coords[0];
+				ring[n++] = coords[1];
+			} else {
+				rings.set(rings.size() - 1, Arrays.copyOf(ring, n));
+			}
+		}
+		return rings;
+	}
+
+	/**
+	 * The farthest any vertex of a ring of original is from the same ring
+	 * of simpler.
+	 */
+	private static double maxDistance(Shape original, Shape simpler) {
+		List<double[]> from = rings(original);
+		List<double[]> to = rings(simpler);
+		assertEquals(from.size(), to.size());
+		double max = 0;
+		for (int r = 0; r < from.size(); r++) {
+			double[] a = from.get(r);
+			double[] b = to.get(r);
+			for (int i = 0; i < a.length; i += 2) {
+				double best = Double.MAX_VALUE;
+				for (int j = 0; j < b.length; j += 2) {
+					int k = (j + 2) % b.length;
+					best = Math.min(best, Line2D.ptSegDist(b[j], b[j + 1],
+							b[k], b[k + 1], a[i], a[i + 1]));
+				}
+				max = Math.max(max, best);
+			}
+		}
+		return max;
+	}
+
+	public void testLevelsStayWithinTheirError() {
+		for (int level = 1; level < pyramid.getNumLevels(); level++) {
+			Shape[] simpler = pyramid.getLevel(level);
+			for (int i = 0; i < shapes.length; i++) {
+				double distance = maxDistance(shapes[i], simpler[i]);
+				assertTrue("level " + level + " strays " + distance,
+						distance <= pyramid.getError(level) + 1e-6);
+			}
+			assertTrue(pyramid.getNumPoints(level) <= pyramid
+					.getNumPoints(level - 1));
+		}
+	}
+
+	public void testScalePicksLevel() {
+		// the whole map across a thumbnail, a window, and zoomed far in
+		long thumbnail = countPoints(layer.getOriginalSpatialData(AffineTransform
+				.getScaleInstance(0.25, -0.25)));
+		long window = countPoints(layer.getOriginalSpatialData(AffineTransform
+				.getScaleInstance(2.5, -2.5)));
+		Shape[] zoomedIn = layer.getOriginalSpatialData(AffineTransform
+				.getScaleInstance(2000, -2000));
+		logger.info("points drawn: thumbnail " + thumbnail + ", window "
+				+ window + ", original " + pyramid.getNumPoints(0));
+		assertTrue(thumbnail < window);
+		assertTrue(window < pyramid.getNumPoints(0) / 2);
+		assertSame(shapes, zoomedIn);
+	}
+
+	public void testPyramidOfOtherShapesIsIgnored() {
+		layer.setOriginalSpatialData(shapes.clone());
+		layer.setOriginalPyramid(pyramid);
+		assertSame(layer.getOriginalSpatialData(), layer
+				.getOriginalSpatialData(AffineTransform.getScaleInstance(
+						0.25, 0.25)));
+	}
+
+	private static long countPoints(Shape[] someShapes) {
+		long count = 0;
+		for (Shape shp : someShapes) {
+			for (double[] ring : rings(shp)) {
+				count += ring.length / 2;
+			}
+		}
+		return count;
+	}
+}
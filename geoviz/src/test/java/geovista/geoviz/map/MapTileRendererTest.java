@@ -0,0 +1,256 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.geoviz.map;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+import geovista.common.data.SelectionBitmap;
+
+/**
+ * Checks that the tiled buffer of MapCanvas comes out as painting
+ * the whole canvas at once, blur and all, and that a selection change only
+ * repaints the tiles it touches.
+ */
+public class MapTileRendererTest extends TestCase {
+	final static Logger logger = Logger.getLogger(MapTileRendererTest.class
+			.getName());
+
+	private static final int WIDTH = 700;
+	private static final int HEIGHT = 500;
+	private static final int NUM_SHAPES = 3000;
+
+	private LayerPolygon layer;
+	private LayerPolygon auxLayer;
+
+	@Override
+	protected void setUp() {
+		Random rand = new Random(5);
+		Shape[] shapes = new Shape[NUM_SHAPES];
+		Color[] colors = new Color[NUM_SHAPES];
+		for (int i = 0; i < NUM_SHAPES; i++) {
+			int x = rand.nextInt(WIDTH + 40) - 20;
+			int y = rand.nextInt(HEIGHT + 40) - 20;
+			// mostly small, some across several tiles
+			int size = rand.nextInt(10) == 0 ? 150 : 12;
+			shapes[i] = new Polygon(new int[] { x, x + size,
+					x + rand.nextInt(size) }, new int[] { y,
+					y + rand.nextInt(size), y + size }, 3);
+			colors[i] = new Color(rand.nextInt(0xFFFFFF));
+		}
+		layer = new LayerPolygon();
+		layer.setSpatialData(shapes);
+		layer.setObjectColors(colors);
+
+		Shape[] outlines = new Shape[20];
+		for (int i = 0; i < outlines.length; i++) {
+			outlines[i] = new Rectangle(i * 35, i * 25, 200, 120);
+		}
+		auxLayer = new LayerPolygon();
+		auxLayer.setSpatialData(outlines);
+		auxLayer.setObjectColors(new Color[outlines.length]);
+		auxLayer.isAuxiliary = true;
+	}
+
+	private MapCanvas.LayerTilePainter makePainter(boolean blur) {
+		layer.prepareToRender();
+		auxLayer.prepareToRender();
+		return new MapCanvas.LayerTilePainter(new LayerShape[] { layer,
+				auxLayer }, Color.white, new Color(248, 248, 248, 230), blur,
+				WIDTH, HEIGHT);
+	}
+
+	private BufferedImage paintWhole(MapTileRenderer.TilePainter painter) {
+		Rectangle area = new Rectangle(0, 0, WIDTH, HEIGHT);
+		BufferedImage whole = new BufferedImage(WIDTH, HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		painter.paintBase(whole, area);
+		painter.paintOverlay(whole, area);
+		if (painter.hasTop()) {
+			BufferedImage top = new BufferedImage(WIDTH, HEIGHT,
+					BufferedImage.TYPE_INT_ARGB);
+			painter.paintTop(top, area);
+			Graphics2D g2 = whole.createGraphics();
+			g2.drawImage(top, 0, 0, null);
+			g2.dispose();
+		}
+		return whole;
+	}
+
+	/**
+	 * Counts the planes painted through it.
+	 */
+	private static class CountingPainter implements
+			MapTileRenderer.TilePainter {
+		final MapTileRenderer.TilePainter painter;
+		final AtomicInteger bases = new AtomicInteger();
+		final AtomicInteger overlays = new AtomicInteger();
+		final AtomicInteger tops = new AtomicInteger();
+
+		CountingPainter(MapTileRenderer.TilePainter painter) {
+			this.painter = painter;
+		}
+
+		public void paintBase(BufferedImage base, Rectangle area) {
+			bases.incrementAndGet();
+			painter.paintBase(base, area);
+		}
+
+		public void paintOverlay(BufferedImage tile, Rectangle area) {
+			overlays.incrementAndGet();
+			painter.paintOverlay(tile, area);
+		}
+
+		public boolean hasTop() {
+			return painter.hasTop();
+		}
+
+		public void paintTop(BufferedImage top, Rectangle area) {
+			tops.incrementAndGet();
+			painter.paintTop(top, area);
+		}
+	}
+
+	private static BufferedImage blit(MapTileRenderer tiles) {
+		BufferedImage out = new BufferedImage(WIDTH, HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = out.createGraphics();
+		tiles.paint(g2, new AffineTransform());
+		g2.dispose();
+		return out;
+	}
+
+	/**
+	 * Java2D does not rasterize an edge quite the same at every offset, so
+	 * a tile and the whole canvas can differ at a few edge pixels, which
+	 * the blur then spreads by a shade or two.
+	 */
+	private static void assertAlike(String message, BufferedImage a,
+			BufferedImage b) {
+		int diffs = countDifferences(a, b);
+		logger.info(message + ": " + diffs + " pixels differ");
+		assertTrue(message, diffs < WIDTH * HEIGHT / 200);
+	}
+
+	private static int countDifferences(BufferedImage a, BufferedImage b) {
+		int diffs = 0;
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				if (a.getRGB(x, y) != b.getRGB(x, y)) {
+					diffs++;
+				}
+			}
+		}
+		return diffs;
+	}
+
+	public void testTilesMatchWholeCanvas() {
+		layer.setSelection(SelectionBitmap.range(0, NUM_SHAPES / 3));
+		for (int pass = 0; pass < 2; pass++) {
+			boolean blur = pass == 0;
+			MapCanvas.LayerTilePainter painter = makePainter(blur);
+			MapTileRenderer tiles = new MapTileRenderer(new JPanel());
+			tiles.setSize(WIDTH, HEIGHT);
+			tiles.renderNow(painter);
+			assertAlike("blur " + blur, paintWhole(painter), blit(tiles));
+		}
+	}
+
+	public void testSelectionRepaintsTouchedTiles() {
+		layer.setSelection(SelectionBitmap.range(0, 1000));
+		CountingPainter counting = new CountingPainter(makePainter(true));
+		MapTileRenderer tiles = new MapTileRenderer(new JPanel());
+		tiles.setSize(WIDTH, HEIGHT);
+		tiles.renderNow(counting);
+		int allTiles = counting.overlays.getAndSet(0);
+		assertEquals(allTiles, counting.bases.getAndSet(0));
+		assertEquals(allTiles, counting.tops.getAndSet(0));
+
+		// as MapCanvas.paintSelectionChange does
+		SelectionBitmap before = layer.getSelection();
+		layer.setSelection(before.xor(SelectionBitmap.of(new int[] { 3, 17,
+				29 })));
+		SelectionBitmap changed = before.xor(layer.getSelection());
+		int pad = layer.renderPad();
+		for (int obs = changed.next(0); obs >= 0; obs = changed.next(obs + 1)) {
+			Rectangle box = layer.getSpatialData()[obs].getBounds();
+			box.grow(pad, pad);
+			tiles.invalidateOverlay(box);
+		}
+		tiles.renderNow(counting);
+		logger.info("selection change repainted " + counting.overlays.get()
+				+ " of " + allTiles + " tiles");
+		assertTrue(counting.overlays.get() < allTiles);
+		// brushing does not touch the blurred base nor the outlines on top
+		assertEquals(0, counting.bases.get());
+		assertEquals(0, counting.tops.get());
+		assertAlike("after selection change", paintWhole(counting.painter),
+				blit(tiles));
+	}
+
+	public void testColorChangeKeepsTop() {
+		CountingPainter counting = new CountingPainter(makePainter(true));
+		MapTileRenderer tiles = new MapTileRenderer(new JPanel());
+		tiles.setSize(WIDTH, HEIGHT);
+		tiles.renderNow(counting);
+		int allTiles = counting.overlays.getAndSet(0);
+		counting.bases.set(0);
+		counting.tops.set(0);
+
+		Color[] colors = layer.objectColors.clone();
+		for (int i = 0; i < colors.length; i += 2) {
+			colors[i] = colors[i].darker();
+		}
+		layer.setObjectColors(colors);
+		counting = new CountingPainter(makePainter(true));
+		tiles.invalidateBase();
+		tiles.renderNow(counting);
+		assertEquals(allTiles, counting.bases.get());
+		assertEquals(allTiles, counting.overlays.get());
+		assertEquals(0, counting.tops.get());
+		assertAlike("after color change", paintWhole(counting.painter),
+				blit(tiles));
+	}
+
+	public void testStaleBaseIsNotUsed() throws Exception {
+		final BufferedImage[] results = new BufferedImage[2];
+		// on the event thread, so the first batch cannot come in before
+		// the second is put together
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				MapTileRenderer tiles = new MapTileRenderer(new JPanel());
+				tiles.setSize(WIDTH, HEIGHT);
+				tiles.renderNow(makePainter(false));
+				// the base is dropped, then the overlay dirtied before the
+				// new base is in
+				Color[] colors = new Color[NUM_SHAPES];
+				Arrays.fill(colors, Color.blue);
+				layer.setObjectColors(colors);
+				tiles.invalidateBase();
+				tiles.render(makePainter(false));
+				tiles.invalidateOverlay(new Rectangle(0, 0, WIDTH, HEIGHT));
+				MapCanvas.LayerTilePainter painter = makePainter(false);
+				tiles.renderNow(painter);
+				results[0] = paintWhole(painter);
+				results[1] = blit(tiles);
+			}
+		});
+		assertAlike("after overlapping batches", results[0], results[1]);
+	}
+}
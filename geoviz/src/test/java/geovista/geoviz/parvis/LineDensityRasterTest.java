@@ -0,0 +1,183 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.geoviz.parvis;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the line density raster of the parallel coordinate plot
+ * covers each segment's pixels, keeps to the axes it is asked for, and
+ * stops when interrupted.
+ */
+public class LineDensityRasterTest extends TestCase {
+	final static Logger logger = Logger.getLogger(LineDensityRasterTest.class
+			.getName());
+
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 400;
+	private static final int NUM_AXES = 6;
+	private static final int STEP = 120;
+
+	private int[] axisX;
+
+	@Override
+	protected void setUp() {
+		axisX = new int[NUM_AXES];
+		for (int a = 0; a < NUM_AXES; a++) {
+			axisX[a] = a * STEP;
+		}
+	}
+
+	private static float[][] randomRecords(int numRecords, long seed) {
+		Random rand = new Random(seed);
+		float[][] axisY = new float[NUM_AXES][numRecords];
+		for (int a = 0; a < NUM_AXES; a++) {
+			for (int i = 0; i < numRecords; i++) {
+				// some off the plot
+				axisY[a][i] = (float) (rand.nextDouble() * (HEIGHT + 100) - 50);
+			}
+		}
+		return axisY;
+	}
+
+	private static int[] fill(int n, int value) {
+		int[] array = new int[n];
+		Arrays.fill(array, value);
+		return array;
+	}
+
+	private static BufferedImage newImage() {
+		return new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	public void testSegmentsAreCovered() {
+		for (int trial = 0; trial < 20; trial++) {
+			float[][] axisY = randomRecords(1, trial);
+			LineDensityRaster raster = new LineDensityRaster(WIDTH, HEIGHT);
+			assertTrue(raster.render(newImage(), axisX, axisY, 0,
+					NUM_AXES - 1, new int[] { 0xFF0000 },
+					new int[] { LineDensityRaster.FULL_WEIGHT }, 1));
+			for (int a = 0; a < NUM_AXES - 1; a++) {
+				float y0 = axisY[a][0];
+				float y1 = axisY[a + 1][0];
+				for (int x = axisX[a]; x < axisX[a + 1]; x++) {
+					float y = y0 + (y1 - y0) * (x - axisX[a]) / STEP;
+					int covered = 0;
+					for (int row = 0; row < HEIGHT; row++) {
+						int w = raster.getWeight(x, row);
+						assertTrue(w == 0 || w == LineDensityRaster.FULL_WEIGHT);
+						if (w > 0) {
+							covered++;
+						}
+					}
+					int row = (int) Math.floor(y);
+					if (row >= 0 && row < HEIGHT) {
+						assertEquals("x " + x,
+								LineDensityRaster.FULL_WEIGHT, raster
+										.getWeight(x, row));
+					}
+					// a connected run no taller than the step in the column
+					assertTrue(covered <= Math.abs(y1 - y0) / STEP + 2);
+				}
+			}
+		}
+	}
+
+	public void testMissingValuesAndWeights() {
+		float[][] axisY = new float[NUM_AXES][3];
+		for (int a = 0; a < NUM_AXES; a++) {
+			axisY[a][0] = 100;
+			axisY[a][1] = 100;
+			axisY[a][2] = 200;
+		}
+		axisY[2][2] = Float.NaN;
+		LineDensityRaster raster = new LineDensityRaster(WIDTH, HEIGHT);
+		BufferedImage image = newImage();
+		assertTrue(raster.render(image, axisX, axisY, 0, NUM_AXES - 1,
+				new int[] { 0xFF0000, 0x0000FF, 0x00FF00 }, new int[] {
+						LineDensityRaster.FULL_WEIGHT,
+						LineDensityRaster.FULL_WEIGHT / 2, 0 }, 1));
+		for (int x = 0; x < WIDTH - 40; x++) {
+			assertEquals(LineDensityRaster.FULL_WEIGHT * 3 / 2, raster
+					.getWeight(x, 100));
+			assertEquals(0, raster.getWeight(x, 200));
+		}
+		// the mean of red and half as much blue
+		int rgb = image.getRGB(STEP, 100);
+		assertEquals(170, (rgb >> 16) & 0xFF);
+		assertEquals(85, rgb & 0xFF);
+
+		// a record is left out between the axes where it has no value
+		raster.render(newImage(), axisX, axisY, 0, NUM_AXES - 1, new int[3],
+				new int[] { 0, 0, LineDensityRaster.FULL_WEIGHT }, 1);
+		assertTrue(raster.getWeight(STEP / 2, 200) > 0);
+		assertEquals(0, raster.getWeight(STEP + STEP / 2, 200));
+		assertEquals(0, raster.getWeight(2 * STEP + STEP / 2, 200));
+		assertTrue(raster.getWeight(3 * STEP + STEP / 2, 200) > 0);
+	}
+
+	public void testRegionOnly() {
+		float[][] axisY = randomRecords(500, 7);
+		LineDensityRaster raster = new LineDensityRaster(WIDTH, HEIGHT);
+		BufferedImage image = newImage();
+		int marker = 0x12345678;
+		for (int x = 0; x < WIDTH; x++) {
+			for (int y = 0; y < HEIGHT; y++) {
+				image.setRGB(x, y, marker);
+			}
+		}
+		assertTrue(raster.render(image, axisX, axisY, 2, 4, fill(500,
+				0xFFFFFF), fill(500, LineDensityRaster.FULL_WEIGHT), 1));
+		for (int y = 0; y < HEIGHT; y++) {
+			assertEquals(marker, image.getRGB(2 * STEP - 1, y));
+			assertEquals(marker, image.getRGB(4 * STEP + 1, y));
+		}
+		boolean drawn = false;
+		for (int y = 0; y < HEIGHT; y++) {
+			drawn |= image.getRGB(3 * STEP, y) != marker;
+		}
+		assertTrue(drawn);
+	}
+
+	public void testPreviewSamplesRecords() {
+		int numRecords = 4000;
+		float[][] axisY = randomRecords(numRecords, 11);
+		int[] weights = fill(numRecords, LineDensityRaster.FULL_WEIGHT);
+		LineDensityRaster full = new LineDensityRaster(WIDTH, HEIGHT);
+		LineDensityRaster preview = new LineDensityRaster(WIDTH, HEIGHT);
+		full.render(newImage(), axisX, axisY, 0, NUM_AXES - 1, new int[numRecords],
+				weights, 1);
+		preview.render(newImage(), axisX, axisY, 0, NUM_AXES - 1,
+				new int[numRecords], weights, 4);
+		long fullSum = 0;
+		long previewSum = 0;
+		for (int x = 0; x < WIDTH; x++) {
+			for (int y = 0; y < HEIGHT; y++) {
+				fullSum += full.getWeight(x, y);
+				previewSum += preview.getWeight(x, y);
+			}
+		}
+		double ratio = (double) fullSum / previewSum;
+		logger.info("full over preview weight: " + ratio);
+		assertTrue(ratio > 3.5 && ratio < 4.5);
+	}
+
+	public void testInterruptCancels() {
+		float[][] axisY = randomRecords(1000, 13);
+		LineDensityRaster raster = new LineDensityRaster(WIDTH, HEIGHT);
+		Thread.currentThread().interrupt();
+		assertFalse(raster.render(newImage(), axisX, axisY, 0, NUM_AXES - 1,
+				new int[1000], fill(1000, LineDensityRaster.FULL_WEIGHT), 1));
+		assertFalse(Thread.interrupted());
+		// and the next render runs as usual
+		assertTrue(raster.render(newImage(), axisX, axisY, 0, NUM_AXES - 1,
+				new int[1000], fill(1000, LineDensityRaster.FULL_WEIGHT), 1));
+	}
+}
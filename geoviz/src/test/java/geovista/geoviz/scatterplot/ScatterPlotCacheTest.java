@@ -0,0 +1,160 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.geoviz.scatterplot;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import geovista.common.data.DataSetForApps;
+import geovista.symbolization.BivariateColorClassifier;
+import geovista.symbolization.BivariateColorClassifierSimple;
+
+/**
+ * Checks that scatterplots sharing a ScatterPlotCache, as the cells of a
+ * matrix do, come out as plots working everything out for themselves.
+ */
+public class ScatterPlotCacheTest extends TestCase {
+	final static Logger logger = Logger.getLogger(ScatterPlotCacheTest.class
+			.getName());
+
+	private static final int NUM_VARS = 5;
+	private static final int NUM_OBS = 20000;
+	private static final int WIDTH = 140;
+	private static final int HEIGHT = 110;
+
+	private DataSetForApps dataSet;
+	private BivariateColorClassifier classer;
+
+	@Override
+	protected void setUp() {
+		Random rand = new Random(17);
+		Object[] data = new Object[NUM_VARS + 1];
+		String[] names = new String[NUM_VARS];
+		for (int v = 0; v < NUM_VARS; v++) {
+			names[v] = "var" + v;
+			double[] values = new double[NUM_OBS];
+			for (int i = 0; i < NUM_OBS; i++) {
+				values[i] = rand.nextGaussian() * (v + 1) + v * 10;
+				if (i % (50 + v) == 0) {
+					values[i] = Double.NaN;
+				}
+			}
+			data[v + 1] = values;
+		}
+		data[0] = names;
+		dataSet = new DataSetForApps(data);
+		classer = new BivariateColorClassifierSimple();
+	}
+
+	private ScatterPlotBasic makePlot(ScatterPlotCache cache, int x, int y) {
+		ScatterPlotBasic plot = new ScatterPlotBasic();
+		plot.setPlotCache(cache);
+		plot.setAxisOn(false);
+		plot.setDataSet(dataSet);
+		plot.setDataIndices(new int[] { x, y });
+		plot.setBivarColorClasser(classer, false);
+		plot.setSize(WIDTH, HEIGHT);
+		if (plot.prepareForSize()) {
+			plot.setupForSize();
+		}
+		return plot;
+	}
+
+	public void testCachedPlotsMatchUncached() {
+		ScatterPlotCache cache = new ScatterPlotCache(dataSet);
+		for (int x = 0; x < NUM_VARS; x++) {
+			for (int y = 0; y < NUM_VARS; y++) {
+				if (x == y) {
+					continue;
+				}
+				ScatterPlotBasic plain = makePlot(null, x, y);
+				ScatterPlotBasic cached = makePlot(cache, x, y);
+				String cell = "cell " + x + ", " + y;
+				assertTrue(cell, Arrays.equals(plain.exsint, cached.exsint));
+				assertTrue(cell, Arrays.equals(plain.whyint, cached.whyint));
+				assertTrue(cell, Arrays.equals(plain.pointColors,
+						cached.pointColors));
+				assertTrue(cell, Arrays.equals(plain.xAxisExtents,
+						cached.xAxisExtents));
+				assertTrue(cell, Arrays.equals(plain.yAxisExtents,
+						cached.yAxisExtents));
+			}
+		}
+	}
+
+	public void testColumnsShareScreenValues() {
+		ScatterPlotCache cache = new ScatterPlotCache(dataSet);
+		ScatterPlotBasic first = makePlot(cache, 0, 1);
+		ScatterPlotBasic second = makePlot(cache, 0, 2);
+		assertSame(first.exsint, second.exsint);
+		assertNotSame(first.whyint, second.whyint);
+
+		// a plot of its own size works its positions out anew
+		ScatterPlotBasic bigger = makePlot(cache, 0, 3);
+		bigger.setSize(WIDTH * 2, HEIGHT);
+		assertTrue(bigger.prepareForSize());
+		bigger.setupForSize();
+		assertNotSame(first.exsint, bigger.exsint);
+		assertFalse(bigger.prepareForSize());
+	}
+
+	public void testExtentsAreNotShared() {
+		ScatterPlotCache cache = new ScatterPlotCache(dataSet);
+		ScatterPlotBasic first = makePlot(cache, 0, 1);
+		ScatterPlotBasic second = makePlot(cache, 0, 2);
+		double[] before = second.dataArrayX.getExtent().clone();
+		first.dataArrayX.setExtent(new double[] { -1, 1 });
+		assertTrue(Arrays.equals(before, second.dataArrayX.getExtent()));
+		assertTrue(Arrays.equals(before, cache.getDataArray(0).getExtent()));
+	}
+
+	/**
+	 * The values of an int column are converted to doubles; plots of int
+	 * columns must still be recognised, and served, by the cache.
+	 */
+	public void testIntColumns() {
+		Random rand = new Random(23);
+		Object[] data = new Object[NUM_VARS + 1];
+		String[] names = new String[NUM_VARS];
+		for (int v = 0; v < NUM_VARS; v++) {
+			names[v] = "int" + v;
+			int[] values = new int[NUM_OBS];
+			for (int i = 0; i < NUM_OBS; i++) {
+				values[i] = rand.nextInt(100 * (v + 1));
+				if (i % (50 + v) == 0) {
+					values[i] = DataSetForApps.NULL_INT_VALUE;
+				}
+			}
+			data[v + 1] = values;
+		}
+		data[0] = names;
+		dataSet = new DataSetForApps(data);
+
+		ScatterPlotCache cache = new ScatterPlotCache(dataSet);
+		ScatterPlotBasic first = makePlot(cache, 0, 1);
+		ScatterPlotBasic second = makePlot(cache, 0, 2);
+		assertTrue(cache.holds(first.dataIndices, first.dataX, first.dataY));
+		assertSame(first.exsint, second.exsint);
+
+		ScatterPlotBasic plain = makePlot(null, 0, 1);
+		assertTrue(Arrays.equals(plain.exsint, first.exsint));
+		assertTrue(Arrays.equals(plain.whyint, first.whyint));
+		assertTrue(Arrays.equals(plain.pointColors, first.pointColors));
+	}
+
+	public void testClearColors() {
+		ScatterPlotCache cache = new ScatterPlotCache(dataSet);
+		Color[] colors = cache.getColors(classer, 1, 2);
+		assertSame(colors, cache.getColors(classer, 1, 2));
+		cache.clearColors();
+		Color[] again = cache.getColors(classer, 1, 2);
+		assertNotSame(colors, again);
+		assertTrue(Arrays.equals(colors, again));
+	}
+}
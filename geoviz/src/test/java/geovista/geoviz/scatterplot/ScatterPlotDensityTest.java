@@ -0,0 +1,143 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.geoviz.scatterplot;
+
+import java.awt.Color;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the density raster of ScatterPlotBasic against counting the points
+ * by hand, and its grid picking against a scan of every point.
+ */
+public class ScatterPlotDensityTest extends TestCase {
+	final static Logger logger = Logger.getLogger(ScatterPlotDensityTest.class
+			.getName());
+
+	private static final int WIDTH = 300;
+	private static final int HEIGHT = 200;
+	private static final int NUM_POINTS = 50000;
+
+	private int[] xs;
+	private int[] ys;
+	private ScatterPlotBasic plot;
+
+	@Override
+	protected void setUp() {
+		Random rand = new Random(31);
+		xs = new int[NUM_POINTS];
+		ys = new int[NUM_POINTS];
+		int[] conditions = new int[NUM_POINTS];
+		for (int i = 0; i < NUM_POINTS; i++) {
+			// clumped, some off the plot and some missing
+			xs[i] = (int) (WIDTH / 2 + rand.nextGaussian() * WIDTH / 4);
+			ys[i] = (int) (HEIGHT / 2 + rand.nextGaussian() * HEIGHT / 4);
+			if (i % 101 == 0) {
+				xs[i] = Integer.MIN_VALUE;
+			}
+			if (i % 13 == 0) {
+				conditions[i] = -1;
+			}
+		}
+		plot = new ScatterPlotBasic();
+		plot.dataX = new double[NUM_POINTS];
+		plot.exsint = xs;
+		plot.whyint = ys;
+		plot.conditionArray = conditions;
+		plot.dataIndices = new int[] { 0, 1 };
+	}
+
+	public void testRasterCountsPoints() {
+		byte[] layers = new byte[NUM_POINTS];
+		int[] rgbs = new int[NUM_POINTS];
+		for (int i = 0; i < NUM_POINTS; i++) {
+			layers[i] = (byte) (i % 3);
+			rgbs[i] = i % 2 == 0 ? 0xFF0000 : 0x0000FF;
+		}
+		PointDensityRaster raster = new PointDensityRaster(WIDTH, HEIGHT);
+		BufferedImage image = raster.render(xs, ys, rgbs, layers);
+		int[][][] expected = new int[3][WIDTH][HEIGHT];
+		int[][] reds = new int[WIDTH][HEIGHT];
+		for (int i = 0; i < NUM_POINTS; i++) {
+			if (xs[i] >= 0 && xs[i] < WIDTH && ys[i] >= 0 && ys[i] < HEIGHT) {
+				expected[layers[i]][xs[i]][ys[i]]++;
+				if (layers[i] == PointDensityRaster.SELECTED && rgbs[i] != 0xFF) {
+					reds[xs[i]][ys[i]]++;
+				}
+			}
+		}
+		for (int x = 0; x < WIDTH; x++) {
+			for (int y = 0; y < HEIGHT; y++) {
+				int sel = expected[PointDensityRaster.SELECTED][x][y];
+				int desel = expected[PointDensityRaster.DESELECTED][x][y];
+				assertEquals(sel, raster.getCount(PointDensityRaster.SELECTED,
+						x, y));
+				assertEquals(desel, raster.getCount(
+						PointDensityRaster.DESELECTED, x, y));
+				Color pixel = new Color(image.getRGB(x, y), true);
+				if (sel + desel == 0) {
+					assertEquals(0, pixel.getAlpha());
+				} else {
+					assertTrue(pixel.getAlpha() > 0);
+				}
+				if (sel > 0) {
+					// the mean color of the selected points there
+					assertEquals(255 * reds[x][y] / sel, pixel.getRed());
+				}
+			}
+		}
+	}
+
+	private int[] scanPick(Rectangle2D box) {
+		int[] found = new int[NUM_POINTS];
+		int n = 0;
+		for (int i = 0; i < NUM_POINTS; i++) {
+			if (box.contains(xs[i], ys[i]) && plot.conditionArray[i] > -1) {
+				found[n++] = i;
+			}
+		}
+		return Arrays.copyOf(found, n);
+	}
+
+	public void testPickAllMatchesScan() {
+		Random rand = new Random(32);
+		for (int q = 0; q < 300; q++) {
+			Rectangle2D box = new Rectangle2D.Double(rand.nextDouble() * WIDTH
+					- 20, rand.nextDouble() * HEIGHT - 20,
+					rand.nextDouble() * 60, rand.nextDouble() * 60);
+			assertTrue(Arrays.equals(scanPick(box), plot.pickAll(box)));
+		}
+	}
+
+	public void testCoveredPointMatchesScan() {
+		Random rand = new Random(33);
+		int tolerance = Math.max(3, plot.pointSize);
+		for (int q = 0; q < 1000; q++) {
+			int x = rand.nextInt(WIDTH + 40) - 20;
+			int y = rand.nextInt(HEIGHT + 40) - 20;
+			int expected = -1;
+			for (int i = 0; i < NUM_POINTS; i++) {
+				if ((xs[i] - tolerance < x) && (x <= xs[i] + tolerance)
+						&& (ys[i] - tolerance < y) && (y <= ys[i] + tolerance)
+						&& (plot.conditionArray[i] > -1)) {
+					expected = i;
+					break;
+				}
+			}
+			assertEquals(expected, plot.findCoveredDataId(x, y));
+		}
+	}
+
+	public void testDensityModeThreshold() {
+		assertFalse(plot.isDensityMode());
+		plot.setDensityThreshold(NUM_POINTS - 1);
+		assertTrue(plot.isDensityMode());
+	}
+}
@@ -218,8 +218,10 @@ public class PurdueDataReader implements GeoDataSource {
 			}
 			double[] zScores = DescriptiveStatistics.calculateZScores(rowData);
 			for (int var = 0; var < data.getNumberNumericAttributes(); var++) {
-				double[] numericVar = data.getNumericDataAsDouble(var);
-				numericVar[obs] = zScores[var];
+				Object numericVar = data.getAttributeNumeric(var);
+				if (numericVar instanceof double[]) {
+					((double[]) numericVar)[obs] = zScores[var];
+				}
 			}
 		}
 
@@ -18,8 +18,17 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.swing.ImageIcon;
@@ -44,6 +53,8 @@ import geovista.common.event.SelectionEvent;
 import geovista.common.event.SelectionListener;
 import geovista.common.event.SubspaceEvent;
 import geovista.common.event.SubspaceListener;
+import geovista.geoviz.scatterplot.ScatterPlotBasic;
+import geovista.geoviz.scatterplot.ScatterPlotCache;
 import geovista.symbolization.BivariateColorClassifier;
 import geovista.symbolization.BivariateColorClassifierSimple;
 import geovista.symbolization.ColorSymbolClassificationSimple;
@@ -61,6 +72,13 @@ public abstract class AbstractMatrix extends JPanel implements MouseListener,
 	protected static final int DEFAULT_PANEL_HEIGHT_PIXELS = 300;
 	protected static final int DEFAULT_PANEL_WIDTH_PIXELS = 300;
 	protected static final int DEFAULT_BUTTON_CONSTRAINTS = 4;
+	// a cell is a few hundred pixels at most, so points are drawn as density
+	// sooner than in a plot of its own
+	protected static final int DEFAULT_CELL_DENSITY_THRESHOLD = 20000;
+	// draws the cells after a resize
+	private static final ExecutorService cellPool = Executors
+			.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new CellThreadFactory());
 	protected transient Class elementClass;
 	protected transient Object[] dataObject;
 	protected transient DataSetForApps dataSet;
@@ -100,9 +118,88 @@ public abstract class AbstractMatrix extends JPanel implements MouseListener,
 	protected SPTagButton[] columnButton;
 	protected SPTagButton[] rowButton;
 	protected JButton configButton;
+	// what the scatterplot cells work out from each variable, for dataSet
+	private transient ScatterPlotCache plotCache;
 
 	protected abstract void createMatrix();
 
+	/**
+	 * Readies a newly made cell for the matrix, before its data indices are
+	 * set: scatterplots are given the cache they share with the other cells.
+	 * 
+	 * @param cell
+	 */
+	protected void prepareElement(MatrixElement cell) {
+		if (cell instanceof ScatterPlotBasic) {
+			ScatterPlotBasic plot = (ScatterPlotBasic) cell;
+			if (plotCache == null || !plotCache.isFor(dataSet)) {
+				plotCache = new ScatterPlotCache(dataSet);
+			}
+			plot.setPlotCache(plotCache);
+			plot.setDensityThreshold(DEFAULT_CELL_DENSITY_THRESHOLD);
+		}
+	}
+
+	/**
+	 * Lays the cells out, then draws the scatterplots whose size has changed
+	 * all at once on a pool of threads, rather than one by one on the event
+	 * thread as each hears it has been resized.
+	 */
+	@Override
+	public void doLayout() {
+		super.doLayout();
+		if (element == null) {
+			return;
+		}
+		List<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+		for (MatrixElement cell : element) {
+			if (cell instanceof ScatterPlotBasic
+					&& ((ScatterPlotBasic) cell).prepareForSize()) {
+				final ScatterPlotBasic plot = (ScatterPlotBasic) cell;
+				jobs.add(new Callable<Object>() {
+					public Object call() {
+						plot.setupForSize();
+						return null;
+					}
+				});
+			}
+		}
+		if (jobs.isEmpty()) {
+			return;
+		}
+		// the event thread waits, so no cell is used by two threads at once
+		try {
+			for (Future<Object> f : cellPool.invokeAll(jobs)) {
+				f.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause());
+		}
+	}
+
+	private static class CellThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "matrix-cells-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	/**
+	 * Drops the classification colors the scatterplot cells share, for when
+	 * the classifier may have changed.
+	 */
+	protected void clearPlotColors() {
+		if (plotCache != null) {
+			plotCache.clearColors();
+		}
+	}
+
 	public AbstractMatrix() {
 		setPreferredSize(new Dimension(300, 300));
 	}
@@ -341,6 +438,7 @@ public abstract class AbstractMatrix extends JPanel implements MouseListener,
 		if (this.bivarColorClasser == null) {
 			return;
 		}
+		clearPlotColors();
 		int row, column;
 		boolean reverseColor = false;
 		for (int k = 0; k < element.length; k++) {
@@ -812,6 +910,7 @@ public abstract class AbstractMatrix extends JPanel implements MouseListener,
 			biColor.setClasserY(classer);
 			biColor.setColorerY(colorer);
 		}
+		clearPlotColors();
 		// BivariateColorSymbolClassificationSimple biColor2 = new
 		// BivariateColorSymbolClassificationSimple();
 		// ColorSymbolizer xSym = biColor.getColorerX();
@@ -302,6 +302,7 @@ public class BiPlotMatrix extends AbstractMatrix {
 										.newInstance();
 							}
 						}
+						prepareElement(element[indexCurrent]);
 						element[indexCurrent].setAxisOn(false);
 						element[indexCurrent].setDataSet(dataSet);
 
@@ -408,6 +409,7 @@ public class BiPlotMatrix extends AbstractMatrix {
 		} else if (command
 				.compareTo(MatrixElement.COMMAND_COLOR_CLASSFICIATION) == 0) {
 			bivarColorClasser = source.getBivarColorClasser();
+			clearPlotColors();
 			boolean reverseColor = false;
 			int row, column;
 			for (int k = 0; k < plotNumber * plotNumber; k++) {
@@ -333,6 +333,7 @@ public class FixedRowMatrix extends AbstractMatrix {
 						element[indexCurrent] = (MatrixElement) elementClasses[i - 1]
 								.newInstance();
 						logger.info(element[indexCurrent].getClass().getName());
+						prepareElement(element[indexCurrent]);
 						element[indexCurrent].setAxisOn(false);
 						element[indexCurrent].setDataSet(dataSet);
 						element[indexCurrent].setSelectionColor(selectionColor);
@@ -429,6 +430,7 @@ public class FixedRowMatrix extends AbstractMatrix {
 		} else if (command
 				.compareTo(MatrixElement.COMMAND_COLOR_CLASSFICIATION) == 0) {
 			bivarColorClasser = source.getBivarColorClasser();
+			clearPlotColors();
 			for (int k = 0; k < plotNumber * graphTypeNumber; k++) {
 				MatrixElement otherElement = element[k];
 				// Don't recall the scatterplot which generated the original
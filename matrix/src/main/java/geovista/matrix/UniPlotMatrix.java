@@ -232,6 +232,7 @@ public class UniPlotMatrix extends AbstractMatrix {
 						// construct of each element
 						element[indexCurrent] = (MatrixElement) elementClass
 								.newInstance();
+						prepareElement(element[indexCurrent]);
 						element[indexCurrent].setAxisOn(false);
 						element[indexCurrent].setDataSet(dataSet);
 						element[indexCurrent].setBackground(background);
@@ -331,6 +332,7 @@ public class UniPlotMatrix extends AbstractMatrix {
 				.compareTo(MatrixElement.COMMAND_COLOR_CLASSFICIATION) == 0) {
 			// For classification color event.
 			bivarColorClasser = source.getBivarColorClasser();
+			clearPlotColors();
 			for (int k = 0; k < plotNumber * plotNumber; k++) {
 				MatrixElement otherElement = element[k];
 				// Don't recall the scatterplot which generated the original
@@ -283,6 +283,7 @@ public class UniformBivariateSmallMultiple extends AbstractMatrix {
 						// construct of each element
 						element[indexCurrent] = (MatrixElement) elementClass
 								.newInstance();
+						prepareElement(element[indexCurrent]);
 						element[indexCurrent].setAxisOn(false);
 						element[indexCurrent].setDataSet(dataSet);
 						element[indexCurrent].setSelectionColor(selectionColor);
@@ -370,6 +371,7 @@ public class UniformBivariateSmallMultiple extends AbstractMatrix {
 		} else if (command
 				.compareTo(MatrixElement.COMMAND_COLOR_CLASSFICIATION) == 0) {
 			bivarColorClasser = source.getBivarColorClasser();
+			clearPlotColors();
 			for (int k = 0; k < plotNumber * rowVarNumber; k++) {
 				MatrixElement otherElement = element[k];
 				// Don't recall the scatterplot which generated the original
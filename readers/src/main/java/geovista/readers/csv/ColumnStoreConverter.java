@@ -0,0 +1,328 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.readers.csv;
+
+import geovista.common.data.ColumnStoreWriter;
+import geovista.common.data.DataSetForApps;
+import geovista.readers.shapefile.ShapeFileDataReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.supercsv.io.CsvListReader;
+import org.supercsv.io.ICsvListReader;
+import org.supercsv.prefs.CsvPreference;
+
+/**
+ * Converts shapefiles and csv files to the column file format read by
+ * geovista.common.data.ColumnStore.
+ *
+ * Shapefiles are read whole through ShapeFileDataReader, and their shapes
+ * are kept as centroids. Csv files are streamed, so they can be larger than
+ * the heap: the file is read once to find the column types, unless the
+ * first line gives them (int, double, string) as for GeogCSVReader, and
+ * once more to write the rows. Empty cells, -999 and NA are stored as
+ * nulls, as in GeogCSVReader. If x and y column names are given, those
+ * columns become the locations of the rows instead of attributes.
+ */
+public class ColumnStoreConverter {
+
+    final static Logger logger = Logger.getLogger(ColumnStoreConverter.class
+	    .getName());
+
+    private char delimiter = ',';
+    private String xColumn;
+    private String yColumn;
+
+    public ColumnStoreConverter() {
+    }
+
+    public void setDelimiter(char delimiter) {
+	this.delimiter = delimiter;
+    }
+
+    /**
+     * Names of the csv columns holding the x and y of each row, or null for
+     * no locations.
+     */
+    public void setLocationColumns(String xColumn, String yColumn) {
+	this.xColumn = xColumn;
+	this.yColumn = yColumn;
+    }
+
+    public void convertShapefile(File shp, File out) throws IOException {
+	ShapeFileDataReader reader = new ShapeFileDataReader();
+	reader.setFileName(shp.getPath());
+	DataSetForApps dataSet = reader.getDataForApps();
+	if (dataSet == null) {
+	    throw new IOException("could not read " + shp);
+	}
+	ColumnStoreWriter.write(dataSet, out);
+    }
+
+    public void convertCsv(File csv, File out) throws IOException {
+	ICsvListReader reader = open(csv);
+	String[] headers;
+	int[] types;
+	boolean typeLine;
+	try {
+	    String[] first = readLine(reader);
+	    if (first == null) {
+		throw new IOException(csv + " is empty");
+	    }
+	    typeLine = isTypeLine(first);
+	    if (typeLine) {
+		headers = readLine(reader);
+		if (headers == null) {
+		    throw new IOException(csv + " has types but no header");
+		}
+		types = parseTypes(first);
+	    } else {
+		headers = first;
+		types = sniffTypes(reader, headers.length);
+	    }
+	} finally {
+	    reader.close();
+	}
+
+	int xCol = indexOf(headers, xColumn);
+	int yCol = indexOf(headers, yColumn);
+	boolean locations = xCol >= 0 && yCol >= 0;
+	if ((xColumn != null || yColumn != null) && !locations) {
+	    throw new IllegalArgumentException("no location columns "
+		    + xColumn + ", " + yColumn + " in " + csv);
+	}
+	int nAtts = headers.length - (locations ? 2 : 0);
+	String[] names = new String[nAtts];
+	int[] storeTypes = new int[nAtts];
+	int[] storeCols = new int[headers.length];
+	int at = 0;
+	for (int i = 0; i < headers.length; i++) {
+	    if (locations && (i == xCol || i == yCol)) {
+		storeCols[i] = -1;
+		continue;
+	    }
+	    names[at] = headers[i];
+	    storeTypes[at] = types[i];
+	    storeCols[i] = at++;
+	}
+
+	ColumnStoreWriter writer = new ColumnStoreWriter(out, names,
+		storeTypes, locations);
+	reader = open(csv);
+	try {
+	    readLine(reader);
+	    if (typeLine) {
+		readLine(reader);
+	    }
+	    String[] line;
+	    while ((line = readLine(reader)) != null) {
+		for (int i = 0; i < line.length && i < headers.length; i++) {
+		    int col = storeCols[i];
+		    if (col < 0 || isNull(line[i])) {
+			continue;
+		    }
+		    if (types[i] == DataSetForApps.TYPE_INTEGER) {
+			writer.setInt(col, parseInt(line[i], headers[i]));
+		    } else if (types[i] == DataSetForApps.TYPE_DOUBLE) {
+			writer.setDouble(col, parseDouble(line[i], headers[i]));
+		    } else {
+			writer.setString(col, line[i]);
+		    }
+		}
+		if (locations) {
+		    writer.setLocation(parseLocation(line, xCol, headers),
+			    parseLocation(line, yCol, headers));
+		}
+		writer.endRow();
+	    }
+	    writer.close();
+	} catch (IOException e) {
+	    writer.abort();
+	    throw e;
+	} catch (RuntimeException e) {
+	    writer.abort();
+	    throw e;
+	} finally {
+	    reader.close();
+	}
+	logger.info("wrote " + writer.getNumRows() + " rows of " + csv
+		+ " to " + out);
+    }
+
+    private ICsvListReader open(File csv) throws IOException {
+	CsvPreference standard = CsvPreference.STANDARD_PREFERENCE;
+	CsvPreference prefs = new CsvPreference.Builder((char) standard
+		.getQuoteChar(), delimiter, standard.getEndOfLineSymbols())
+		.build();
+	return new CsvListReader(new InputStreamReader(new FileInputStream(
+		csv), "UTF-8"), prefs);
+    }
+
+    private static String[] readLine(ICsvListReader reader)
+	    throws IOException {
+	List<String> line = reader.read();
+	if (line == null) {
+	    return null;
+	}
+	return line.toArray(new String[line.size()]);
+    }
+
+    private static boolean isTypeLine(String[] line) {
+	for (String type : line) {
+	    if (!"int".equalsIgnoreCase(type)
+		    && !"double".equalsIgnoreCase(type)
+		    && !"string".equalsIgnoreCase(type)) {
+		return false;
+	    }
+	}
+	return line.length > 0;
+    }
+
+    private static int[] parseTypes(String[] line) {
+	int[] types = new int[line.length];
+	for (int i = 0; i < line.length; i++) {
+	    if ("int".equalsIgnoreCase(line[i])) {
+		types[i] = DataSetForApps.TYPE_INTEGER;
+	    } else if ("double".equalsIgnoreCase(line[i])) {
+		types[i] = DataSetForApps.TYPE_DOUBLE;
+	    } else {
+		types[i] = DataSetForApps.TYPE_NAME;
+	    }
+	}
+	return types;
+    }
+
+    /**
+     * A column is int if every non-null cell is a whole number, double if
+     * every one is a number, and string otherwise.
+     */
+    private static int[] sniffTypes(ICsvListReader reader, int nCols)
+	    throws IOException {
+	boolean[] notInt = new boolean[nCols];
+	boolean[] notNumber = new boolean[nCols];
+	String[] line;
+	while ((line = readLine(reader)) != null) {
+	    for (int i = 0; i < line.length && i < nCols; i++) {
+		String cell = line[i];
+		if (notNumber[i] || isNull(cell)) {
+		    continue;
+		}
+		if (!isWhole(cell)) {
+		    notInt[i] = true;
+		    if (!isNumber(cell)) {
+			notNumber[i] = true;
+		    }
+		}
+	    }
+	}
+	int[] types = new int[nCols];
+	for (int i = 0; i < nCols; i++) {
+	    if (notNumber[i]) {
+		types[i] = DataSetForApps.TYPE_NAME;
+	    } else if (notInt[i]) {
+		types[i] = DataSetForApps.TYPE_DOUBLE;
+	    } else {
+		types[i] = DataSetForApps.TYPE_INTEGER;
+	    }
+	}
+	return types;
+    }
+
+    private static boolean isNull(String cell) {
+	if (cell == null) {
+	    return true;
+	}
+	return cell.equals(GeogCSVReader.NULL_STRING)
+		|| cell.equals(GeogCSVReader.NULL_STRING_TWO)
+		|| cell.equals(GeogCSVReader.NULL_STRING_THREE);
+    }
+
+    private static boolean isWhole(String cell) {
+	int start = cell.startsWith("-") ? 1 : 0;
+	if (cell.length() == start || cell.length() - start > 9) {
+	    return false;
+	}
+	for (int i = start; i < cell.length(); i++) {
+	    if (!Character.isDigit(cell.charAt(i))) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private static boolean isNumber(String cell) {
+	try {
+	    Double.parseDouble(cell);
+	    return true;
+	} catch (NumberFormatException ex) {
+	    return false;
+	}
+    }
+
+    private static int parseInt(String cell, String column) {
+	try {
+	    return Integer.parseInt(cell);
+	} catch (NumberFormatException nfe) {
+	    logger.warning("could not parse " + cell + " in column " + column);
+	    return DataSetForApps.NULL_INT_VALUE;
+	}
+    }
+
+    private static double parseDouble(String cell, String column) {
+	try {
+	    return Double.parseDouble(cell);
+	} catch (NumberFormatException nfe) {
+	    logger.fine("forced " + cell + " in column " + column + " to NaN");
+	    return Double.NaN;
+	}
+    }
+
+    private static double parseLocation(String[] line, int col,
+	    String[] headers) {
+	if (col >= line.length || isNull(line[col])) {
+	    return Double.NaN;
+	}
+	return parseDouble(line[col], headers[col]);
+    }
+
+    private static int indexOf(String[] headers, String name) {
+	if (name == null) {
+	    return -1;
+	}
+	for (int i = 0; i < headers.length; i++) {
+	    if (name.equals(headers[i])) {
+		return i;
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Usage: ColumnStoreConverter input.(shp|dbf|csv) output [x y]
+     */
+    public static void main(String[] args) throws IOException {
+	if (args.length != 2 && args.length != 4) {
+	    System.err.println("usage: ColumnStoreConverter "
+		    + "input.(shp|dbf|csv) output [xColumn yColumn]");
+	    return;
+	}
+	File in = new File(args[0]);
+	File out = new File(args[1]);
+	ColumnStoreConverter converter = new ColumnStoreConverter();
+	if (args[0].toLowerCase().endsWith(".csv")) {
+	    if (args.length == 4) {
+		converter.setLocationColumns(args[2], args[3]);
+	    }
+	    converter.convertCsv(in, out);
+	} else {
+	    converter.convertShapefile(in, out);
+	}
+    }
+}
@@ -19,7 +19,6 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.Vector;
 import java.util.logging.Logger;
@@ -36,6 +35,7 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
 
+import geovista.common.data.ContiguityWeightsBuilder;
 import geovista.common.data.DataSetForApps;
 import geovista.common.data.SpatialWeights;
 import geovista.common.event.DataSetEvent;
@@ -446,13 +446,9 @@ public class ShapeFileDataReader implements Serializable {
     }
 
     public static SpatialWeights findSpatialWeights(Geometry[] geoms) {
-	SpatialWeights weights = new SpatialWeights(geoms.length);
-	ArrayList<Geometry> geomList = new ArrayList();
-	for (Geometry g : geoms) {
-	    geomList.add(g);
-	}
-	weights.findNeighbors(geomList);
-	return weights;
+	ContiguityWeightsBuilder builder = new ContiguityWeightsBuilder(
+		ContiguityWeightsBuilder.Criterion.TOUCHES);
+	return builder.findWeights(geoms);
     }
 
     @SuppressWarnings("unused")
@@ -0,0 +1,815 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.satscan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import geovista.common.data.DataSetForApps;
+import geovista.common.data.DistanceWeightsBuilder;
+import geovista.common.data.KDTree;
+
+/**
+ * Kulldorff's circular spatial scan statistic, with the Poisson or the
+ * Bernoulli model, as SaTScan computes it for purely spatial analyses.
+ *
+ * Each region's location is the center of a set of circular windows: its
+ * neighbors are taken nearest first, from a KDTree, and every circle that
+ * holds no more than maxPopulationFraction of the population is a window.
+ * Regions at the same distance enter a window together. The window with the
+ * highest likelihood ratio is the most likely cluster; the best windows of
+ * the other centers that share no region with a cluster already found are
+ * the secondary clusters. Only windows with more cases than expected count.
+ *
+ * Significance comes from Monte Carlo replications of the data under the
+ * null hypothesis, with the total number of cases fixed: spread over the
+ * regions in proportion to population for the Poisson model, and drawn
+ * without replacement from the population for the Bernoulli model. A
+ * cluster's p-value is the rank of its likelihood ratio among the largest
+ * ratios of the replications. Replications are cut into fixed size blocks,
+ * each with its own generator seeded from the seed and the block number, so
+ * the result depends only on the seed, never on how many threads ran them.
+ *
+ * Most windows of a replication are dismissed without logarithms: the log
+ * likelihood ratio is a Kullback-Leibler divergence, and so no larger than
+ * the chi-square bound (c - e)^2 / variance, which is checked against the
+ * largest ratio found so far first. The replications of a block are scanned
+ * together, so that each pass over the windows serves all of them. The
+ * windows take 12 bytes for each region of each, some 50 MB for 3000
+ * regions at the default population limit.
+ */
+public class KulldorffScan {
+
+	private static final Logger logger = Logger.getLogger(KulldorffScan.class
+			.getName());
+
+	public enum Model {
+		POISSON, BERNOULLI
+	}
+
+	public static final double DEFAULT_MAX_POPULATION_FRACTION = 0.5;
+	public static final int DEFAULT_REPLICATIONS = 999;
+	public static final int DEFAULT_MAX_CLUSTERS = 10;
+	public static final int DEFAULT_BLOCK_SIZE = 32;
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	// the fewest neighbors asked of the tree at first; doubled until the
+	// windows of a center reach the population limit
+	private static final int FIRST_NEIGHBORS = 64;
+	// centers per task, in building the windows and in the observed scan
+	private static final int CENTER_CHUNK = 64;
+
+	private final double[] x;
+	private final double[] y;
+	private final KDTree tree;
+	private final Model model;
+	private double maxPopulationFraction = DEFAULT_MAX_POPULATION_FRACTION;
+	private int replications = DEFAULT_REPLICATIONS;
+	private int maxClusters = DEFAULT_MAX_CLUSTERS;
+	private int nThreads;
+	private long seed;
+
+	public KulldorffScan(double[] x, double[] y, Model model) {
+		if (x.length != y.length) {
+			throw new IllegalArgumentException("x and y lengths differ");
+		}
+		this.x = x;
+		this.y = y;
+		this.model = model;
+		tree = new KDTree(x, y);
+		nThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Scans the observations of the data set at their centroids, see
+	 * DistanceWeightsBuilder.findCentroids.
+	 */
+	public KulldorffScan(DataSetForApps dataSet, Model model) {
+		this(DistanceWeightsBuilder.findCentroids(dataSet), model);
+	}
+
+	private KulldorffScan(double[][] centroids, Model model) {
+		this(centroids[0], centroids[1], model);
+	}
+
+	public Model getModel() {
+		return model;
+	}
+
+	public double getMaxPopulationFraction() {
+		return maxPopulationFraction;
+	}
+
+	/**
+	 * The largest share of the total population a window may hold, above 0
+	 * and at most 1; SaTScan's default is one half.
+	 */
+	public void setMaxPopulationFraction(double maxPopulationFraction) {
+		if (!(maxPopulationFraction > 0 && maxPopulationFraction <= 1)) {
+			throw new IllegalArgumentException(
+					"maxPopulationFraction must be in (0, 1]");
+		}
+		this.maxPopulationFraction = maxPopulationFraction;
+	}
+
+	public int getReplications() {
+		return replications;
+	}
+
+	public void setReplications(int replications) {
+		if (replications < 0) {
+			throw new IllegalArgumentException(
+					"replications must not be negative");
+		}
+		this.replications = replications;
+	}
+
+	public int getMaxClusters() {
+		return maxClusters;
+	}
+
+	/**
+	 * The most clusters reported: the most likely one and the secondary
+	 * ones after it.
+	 */
+	public void setMaxClusters(int maxClusters) {
+		if (maxClusters < 1) {
+			throw new IllegalArgumentException("maxClusters must be positive");
+		}
+		this.maxClusters = maxClusters;
+	}
+
+	public int getThreadCount() {
+		return nThreads;
+	}
+
+	public void setThreadCount(int nThreads) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException("nThreads must be positive");
+		}
+		this.nThreads = nThreads;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Finds the clusters, most likely first. Cases and population are
+	 * counts, and are rounded to whole numbers; for the Bernoulli model the
+	 * population of a region is its cases and controls together. The
+	 * p-values are those of the replications, or 1 with no replications.
+	 */
+	public Cluster[] findClusters(double[] cases, double[] population) {
+		int n = x.length;
+		if (cases.length != n || population.length != n) {
+			throw new IllegalArgumentException("data lengths differ from the "
+					+ n + " locations");
+		}
+		final int[] caseCounts = new int[n];
+		final double[] pops = new double[n];
+		long totalCases = 0;
+		double totalPop = 0;
+		for (int i = 0; i < n; i++) {
+			if (!(cases[i] >= 0) || !(population[i] >= 0)) {
+				throw new IllegalArgumentException("region " + i
+						+ " has a negative or missing count");
+			}
+			caseCounts[i] = (int) Math.round(cases[i]);
+			pops[i] = model == Model.BERNOULLI ? Math.round(population[i])
+					: population[i];
+			if (caseCounts[i] > 0 && pops[i] == 0
+					|| model == Model.BERNOULLI && caseCounts[i] > pops[i]) {
+				throw new IllegalArgumentException("region " + i + " has "
+						+ caseCounts[i] + " cases in a population of "
+						+ pops[i]);
+			}
+			totalCases += caseCounts[i];
+			totalPop += pops[i];
+		}
+		if (totalCases == 0 || totalCases > Integer.MAX_VALUE
+				|| totalPop > Integer.MAX_VALUE && model == Model.BERNOULLI) {
+			throw new IllegalArgumentException("cannot scan " + totalCases
+					+ " cases in a population of " + totalPop);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads,
+				new ScanThreadFactory());
+		try {
+			final Windows windows = new Windows(pops, totalPop);
+			buildWindows(windows, pool);
+			final LikelihoodRatio ratio = new LikelihoodRatio(model,
+					(int) totalCases, totalPop);
+			Cluster[] clusters = findBestWindows(windows, caseCounts, ratio,
+					pool);
+			if (replications > 0 && clusters.length > 0) {
+				double[] maxima = replicate(windows, caseCounts, ratio, pool);
+				for (Cluster cluster : clusters) {
+					int above = 0;
+					for (double max : maxima) {
+						if (max >= cluster.logLikelihoodRatio) {
+							above++;
+						}
+					}
+					cluster.pValue = (above + 1.0) / (replications + 1.0);
+				}
+			}
+			return clusters;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * For each region, the number of the cluster it is in, 1 for the most
+	 * likely cluster, or 0 if it is in none.
+	 */
+	public static double[] findClusterNumbers(Cluster[] clusters, int n) {
+		double[] numbers = new double[n];
+		for (int k = 0; k < clusters.length; k++) {
+			for (int id : clusters[k].members) {
+				numbers[id] = k + 1;
+			}
+		}
+		return numbers;
+	}
+
+	/**
+	 * For each region, the p-value of the cluster it is in, or 1 if it is in
+	 * none.
+	 */
+	public static double[] findPValues(Cluster[] clusters, int n) {
+		double[] pValues = new double[n];
+		Arrays.fill(pValues, 1);
+		for (Cluster cluster : clusters) {
+			for (int id : cluster.members) {
+				pValues[id] = cluster.pValue;
+			}
+		}
+		return pValues;
+	}
+
+	/**
+	 * The windows of every center: its neighbors, nearest first, as far as
+	 * the population limit, and the population of the circle out to each of
+	 * them. Where a neighbor is at the same distance as the next one, the
+	 * population is NaN, as no circle holds one without the other.
+	 */
+	private class Windows {
+		final double[] pops;
+		final double maxPop;
+		final int[][] members;
+		final double[][] windowPops;
+
+		Windows(double[] pops, double totalPop) {
+			this.pops = pops;
+			maxPop = maxPopulationFraction * totalPop;
+			members = new int[pops.length][];
+			windowPops = new double[pops.length][];
+		}
+
+		void build(int center, KDTree.Neighbors found) {
+			int n = pops.length;
+			// a little more than the regions of average population the
+			// limit holds, so that the tree is seldom asked twice
+			int k = Math.min(n, Math.max(FIRST_NEIGHBORS,
+					(int) (1.25 * n * maxPopulationFraction)));
+			while (true) {
+				tree.nearest(x[center], y[center], k, found);
+				double pop = 0;
+				int m = 0;
+				while (m < k && pop + pops[found.id(m)] <= maxPop) {
+					pop += pops[found.id(m)];
+					m++;
+				}
+				if (m < k || k == n) {
+					keep(center, found, m);
+					return;
+				}
+				k = Math.min(n, 2 * k);
+			}
+		}
+
+		private void keep(int center, KDTree.Neighbors found, int m) {
+			// a circle cannot end inside a run of equal distances, so the
+			// run cut by the population limit is left out whole
+			if (m < found.size()) {
+				while (m > 0
+						&& found.distanceSquared(m - 1) == found
+								.distanceSquared(m)) {
+					m--;
+				}
+			}
+			int[] ids = new int[m];
+			double[] cumulative = new double[m];
+			double pop = 0;
+			for (int j = 0; j < m; j++) {
+				ids[j] = found.id(j);
+				pop += pops[ids[j]];
+				boolean tied = j + 1 < m
+						&& found.distanceSquared(j) == found
+								.distanceSquared(j + 1);
+				cumulative[j] = tied ? Double.NaN : pop;
+			}
+			members[center] = ids;
+			windowPops[center] = cumulative;
+		}
+	}
+
+	private void buildWindows(final Windows windows, ExecutorService pool) {
+		int n = x.length;
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int start = 0; start < n; start += CENTER_CHUNK) {
+			final int from = start;
+			final int to = Math.min(n, start + CENTER_CHUNK);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					KDTree.Neighbors found = new KDTree.Neighbors();
+					for (int i = from; i < to; i++) {
+						windows.build(i, found);
+					}
+					return null;
+				}
+			});
+		}
+		runAll(tasks, pool);
+	}
+
+	/**
+	 * The best window of every center, and of those the clusters: the best
+	 * of all, then each next best that shares no region with those before.
+	 */
+	private Cluster[] findBestWindows(final Windows windows,
+			final int[] caseCounts, final LikelihoodRatio ratio,
+			ExecutorService pool) {
+		final int n = x.length;
+		final double[] bestRatio = new double[n];
+		final int[] bestSize = new int[n];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int start = 0; start < n; start += CENTER_CHUNK) {
+			final int from = start;
+			final int to = Math.min(n, start + CENTER_CHUNK);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					for (int i = from; i < to; i++) {
+						int[] ids = windows.members[i];
+						double[] pops = windows.windowPops[i];
+						int cases = 0;
+						for (int m = 0; m < ids.length; m++) {
+							cases += caseCounts[ids[m]];
+							if (ratio.mayExceed(cases, pops[m], bestRatio[i])) {
+								double llr = ratio.compute(cases, pops[m]);
+								if (llr > bestRatio[i]) {
+									bestRatio[i] = llr;
+									bestSize[i] = m + 1;
+								}
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		runAll(tasks, pool);
+
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(bestRatio[b], bestRatio[a]);
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		boolean[] taken = new boolean[n];
+		List<Cluster> clusters = new ArrayList<Cluster>();
+		for (int k = 0; k < n && clusters.size() < maxClusters; k++) {
+			int center = order[k];
+			if (bestRatio[center] <= 0) {
+				break;
+			}
+			int[] members = new int[bestSize[center]];
+			boolean overlaps = false;
+			for (int m = 0; m < members.length; m++) {
+				members[m] = windows.members[center][m];
+				overlaps |= taken[members[m]];
+			}
+			if (overlaps) {
+				continue;
+			}
+			double pop = 0;
+			int cases = 0;
+			for (int id : members) {
+				taken[id] = true;
+				pop += windows.pops[id];
+				cases += caseCounts[id];
+			}
+			int last = members[members.length - 1];
+			double radius = Math.hypot(x[last] - x[center], y[last]
+					- y[center]);
+			clusters.add(new Cluster(center, radius, members, cases, ratio
+					.expected(pop), bestRatio[center]));
+		}
+		return clusters.toArray(new Cluster[clusters.size()]);
+	}
+
+	/**
+	 * The largest likelihood ratio of each replication.
+	 */
+	private double[] replicate(final Windows windows, final int[] caseCounts,
+			final LikelihoodRatio ratio, ExecutorService pool) {
+		final double[] maxima = new double[replications];
+		final int blockSize = DEFAULT_BLOCK_SIZE;
+		int nBlocks = (replications + blockSize - 1) / blockSize;
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int b = 0; b < nBlocks; b++) {
+			final int block = b;
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					Random rand = new Random(seed + GOLDEN_GAMMA * (block + 1));
+					NullModel nullModel = model == Model.POISSON ? new PoissonNull(
+							windows.pops, ratio.totalCases)
+							: new BernoulliNull(windows.pops, ratio.totalCases);
+					int from = block * blockSize;
+					int width = Math.min(replications, from + blockSize) - from;
+					int[] drawn = new int[caseCounts.length];
+					int[] simulated = new int[caseCounts.length * width];
+					for (int r = 0; r < width; r++) {
+						nullModel.draw(rand, drawn);
+						for (int i = 0; i < drawn.length; i++) {
+							simulated[i * width + r] = drawn[i];
+						}
+					}
+					double[] blockMaxima = findLargestRatios(windows,
+							simulated, width, ratio);
+					System.arraycopy(blockMaxima, 0, maxima, from, width);
+					return null;
+				}
+			});
+		}
+		long start = System.currentTimeMillis();
+		runAll(tasks, pool);
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine(replications + " replications over " + x.length
+					+ " regions in " + (System.currentTimeMillis() - start)
+					+ " ms");
+		}
+		return maxima;
+	}
+
+	/**
+	 * The largest likelihood ratio of each of several replications, whose
+	 * case counts are interleaved, region by region, so that the windows
+	 * are read once for all of them. The chi-square bound of replication r
+	 * is above its best where count - e > reach[r] * sd, with sd the
+	 * standard deviation of the cases in the window. That is checked for
+	 * each replication only where it holds for the largest count and the
+	 * smallest reach, which takes far fewer operations.
+	 */
+	private static double[] findLargestRatios(Windows windows, int[] cases,
+			int width, LikelihoodRatio ratio) {
+		double casesPerPop = ratio.casesPerPop;
+		double inverseCases = 1.0 / ratio.totalCases;
+		double[] best = new double[width];
+		double[] reach = new double[width];
+		double shortestReach = 0;
+		int[] count = new int[width];
+		for (int c = 0; c < windows.members.length; c++) {
+			int[] ids = windows.members[c];
+			double[] pops = windows.windowPops[c];
+			Arrays.fill(count, 0);
+			for (int m = 0; m < ids.length; m++) {
+				int base = ids[m] * width;
+				for (int r = 0; r < width; r++) {
+					count[r] += cases[base + r];
+				}
+				int most = 0;
+				for (int r = 0; r < width; r++) {
+					most = Math.max(most, count[r]);
+				}
+				double e = pops[m] * casesPerPop;
+				double sd = Math.sqrt(e * (1 - e * inverseCases));
+				if (!(most - shortestReach * sd > e)) {
+					continue;
+				}
+				for (int r = 0; r < width; r++) {
+					if (count[r] - reach[r] * sd > e) {
+						double llr = ratio.compute(count[r], pops[m]);
+						if (llr > best[r]) {
+							best[r] = llr;
+							reach[r] = Math.sqrt(llr * ratio.varianceFactor);
+							shortestReach = reach[r];
+							for (double other : reach) {
+								shortestReach = Math.min(shortestReach, other);
+							}
+						}
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	private static void runAll(List<Callable<Object>> tasks,
+			ExecutorService pool) {
+		try {
+			List<Future<Object>> results = pool.invokeAll(tasks);
+			for (Future<Object> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("scan interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("scan failed", e.getCause());
+		}
+	}
+
+	/**
+	 * The log likelihood ratio of a window with more cases than expected,
+	 * against no cluster at all.
+	 */
+	private static class LikelihoodRatio {
+		final Model model;
+		final int totalCases;
+		final double totalPop;
+		final double casesPerPop;
+		final double nullTerm;
+		// the variance of the cases in a window, over e * (1 - e /
+		// totalCases), for the chi-square bound
+		final double varianceFactor;
+
+		LikelihoodRatio(Model model, int totalCases, double totalPop) {
+			this.model = model;
+			this.totalCases = totalCases;
+			this.totalPop = totalPop;
+			casesPerPop = totalCases / totalPop;
+			nullTerm = xlogx(totalCases) + xlogx(totalPop - totalCases)
+					- xlogx(totalPop);
+			varianceFactor = model == Model.POISSON ? 1 : 1 - casesPerPop;
+		}
+
+		double expected(double pop) {
+			return pop * casesPerPop;
+		}
+
+		/**
+		 * Whether the window might have a ratio above best: it has more
+		 * cases than expected, and the chi-square bound is above best. A
+		 * window of NaN population never does.
+		 */
+		boolean mayExceed(int cases, double pop, double best) {
+			double e = pop * casesPerPop;
+			double d = cases - e;
+			return d * Math.abs(d) > best * varianceFactor * e
+					* (1 - e / totalCases);
+		}
+
+		double compute(int cases, double pop) {
+			if (model == Model.POISSON) {
+				double e = pop * casesPerPop;
+				int outside = totalCases - cases;
+				double llr = cases * Math.log(cases / e);
+				if (outside > 0) {
+					llr += outside * Math.log(outside / (totalCases - e));
+				}
+				return llr;
+			}
+			double outPop = totalPop - pop;
+			int outCases = totalCases - cases;
+			return xlogx(cases) + xlogx(pop - cases) - xlogx(pop)
+					+ xlogx(outCases) + xlogx(outPop - outCases)
+					- xlogx(outPop) - nullTerm;
+		}
+
+		private static double xlogx(double v) {
+			return v > 0 ? v * Math.log(v) : 0;
+		}
+	}
+
+	private interface NullModel {
+		/**
+		 * Fills cases with a replication of the data under the null
+		 * hypothesis.
+		 */
+		void draw(Random rand, int[] cases);
+	}
+
+	/**
+	 * Spreads the cases over the regions, each case independently, in
+	 * proportion to population: a multinomial draw, by Walker's alias
+	 * method.
+	 */
+	private static class PoissonNull implements NullModel {
+		private final int totalCases;
+		private final double[] probability;
+		private final int[] alias;
+
+		PoissonNull(double[] pops, int totalCases) {
+			this.totalCases = totalCases;
+			int n = pops.length;
+			double total = 0;
+			for (double p : pops) {
+				total += p;
+			}
+			probability = new double[n];
+			alias = new int[n];
+			double[] scaled = new double[n];
+			int[] small = new int[n];
+			int[] large = new int[n];
+			int nSmall = 0;
+			int nLarge = 0;
+			for (int i = 0; i < n; i++) {
+				scaled[i] = pops[i] * n / total;
+				if (scaled[i] < 1) {
+					small[nSmall++] = i;
+				} else {
+					large[nLarge++] = i;
+				}
+			}
+			while (nSmall > 0 && nLarge > 0) {
+				int s = small[--nSmall];
+				int l = large[--nLarge];
+				probability[s] = scaled[s];
+				alias[s] = l;
+				scaled[l] -= 1 - scaled[s];
+				if (scaled[l] < 1) {
+					small[nSmall++] = l;
+				} else {
+					large[nLarge++] = l;
+				}
+			}
+			while (nLarge > 0) {
+				probability[large[--nLarge]] = 1;
+			}
+			while (nSmall > 0) {
+				// left over only through rounding
+				probability[small[--nSmall]] = 1;
+			}
+		}
+
+		public void draw(Random rand, int[] cases) {
+			Arrays.fill(cases, 0);
+			int n = cases.length;
+			for (int c = 0; c < totalCases; c++) {
+				int i = rand.nextInt(n);
+				if (rand.nextDouble() >= probability[i]) {
+					i = alias[i];
+				}
+				cases[i]++;
+			}
+		}
+	}
+
+	/**
+	 * Picks the cases from the population without replacement, one at a
+	 * time, from a Fenwick tree of the people not yet picked; or picks the
+	 * controls instead, if they are fewer.
+	 */
+	private static class BernoulliNull implements NullModel {
+		private final int[] pops;
+		private final int totalPop;
+		private final int totalCases;
+		private final int[] tree;
+
+		BernoulliNull(double[] pops, int totalCases) {
+			this.pops = new int[pops.length];
+			int total = 0;
+			for (int i = 0; i < pops.length; i++) {
+				this.pops[i] = (int) pops[i];
+				total += this.pops[i];
+			}
+			totalPop = total;
+			this.totalCases = totalCases;
+			tree = new int[pops.length + 1];
+		}
+
+		public void draw(Random rand, int[] cases) {
+			int n = pops.length;
+			// build the tree over the populations in linear time
+			for (int i = 1; i <= n; i++) {
+				tree[i] = pops[i - 1];
+			}
+			for (int i = 1; i <= n; i++) {
+				int parent = i + (i & -i);
+				if (parent <= n) {
+					tree[parent] += tree[i];
+				}
+			}
+			boolean pickControls = totalCases > totalPop / 2;
+			int picks = pickControls ? totalPop - totalCases : totalCases;
+			Arrays.fill(cases, 0);
+			int highBit = Integer.highestOneBit(n);
+			for (int remaining = totalPop; picks > 0; picks--, remaining--) {
+				// the region of the person at rank r among those left
+				int r = rand.nextInt(remaining);
+				int pos = 0;
+				for (int step = highBit; step > 0; step >>= 1) {
+					int next = pos + step;
+					if (next <= n && tree[next] <= r) {
+						pos = next;
+						r -= tree[next];
+					}
+				}
+				cases[pos]++;
+				for (int i = pos + 1; i <= n; i += i & -i) {
+					tree[i]--;
+				}
+			}
+			if (pickControls) {
+				for (int i = 0; i < n; i++) {
+					cases[i] = pops[i] - cases[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * A cluster: the regions within radius of the center, or as many of
+	 * them as the window held.
+	 */
+	public static class Cluster {
+		private final int center;
+		private final double radius;
+		private final int[] members;
+		private final int cases;
+		private final double expected;
+		private final double logLikelihoodRatio;
+		private double pValue = 1;
+
+		Cluster(int center, double radius, int[] members, int cases,
+				double expected, double logLikelihoodRatio) {
+			this.center = center;
+			this.radius = radius;
+			this.members = members;
+			this.cases = cases;
+			this.expected = expected;
+			this.logLikelihoodRatio = logLikelihoodRatio;
+		}
+
+		public int getCenter() {
+			return center;
+		}
+
+		public double getRadius() {
+			return radius;
+		}
+
+		/**
+		 * The regions in the cluster, nearest the center first.
+		 */
+		public int[] getMembers() {
+			return members.clone();
+		}
+
+		public int getCases() {
+			return cases;
+		}
+
+		public double getExpected() {
+			return expected;
+		}
+
+		public double getLogLikelihoodRatio() {
+			return logLikelihoodRatio;
+		}
+
+		public double getPValue() {
+			return pValue;
+		}
+
+		@Override
+		public String toString() {
+			return "cluster at " + center + " of " + members.length
+					+ " regions, " + cases + " cases, " + expected
+					+ " expected, LLR " + logLikelihoodRatio + ", p "
+					+ pValue;
+		}
+	}
+
+	private static class ScanThreadFactory implements ThreadFactory {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "KulldorffScan");
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
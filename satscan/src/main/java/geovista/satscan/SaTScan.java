@@ -6,16 +6,10 @@ package geovista.satscan;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
-import java.awt.Shape;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.geom.Rectangle2D;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,32 +17,35 @@ import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
-import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTable;
+import javax.swing.SwingWorker;
 import javax.swing.border.BevelBorder;
 
 import geovista.common.data.DataSetForApps;
+import geovista.common.event.ColumnAppendedEvent;
+import geovista.common.event.ColumnAppendedListener;
 import geovista.common.event.DataSetEvent;
 import geovista.common.event.DataSetListener;
-import geovista.readers.FileIO;
 import geovista.readers.example.GeoData48States;
 
 /**
- * ConditioningAnimator is used to send out indication signals that corrispond
- * to current classifications.
+ * SaTScan finds clusters of cases with Kulldorff's spatial scan statistic,
+ * see KulldorffScan, and sends out the cluster each observation is in, and
+ * the cluster's p-value, as new columns of the data set.
  * 
  */
 public class SaTScan extends JPanel implements ActionListener, DataSetListener {
-	private final String saTScanFile = "C:/Program Files/SaTScan/SaTScanBatch.exe";
-	private final String saTScanDir = "C:/Program Files/SaTScan/";
+	private static final Integer[] REPLICATION_CHOICES = { 99, 999, 9999 };
 	DataSetForApps dataSet;
 	JComboBox caseBox;
 	JComboBox popBox;
+	JComboBox modelBox;
+	JComboBox replicationsBox;
 	JButton runButt;
-	JButton chooseButt;
 	JTable resultsTable;
 	ArrayList<Integer> idList;
 	ArrayList<Integer> clusterList;
@@ -72,11 +69,11 @@ public class SaTScan extends JPanel implements ActionListener, DataSetListener {
 		JPanel middlePanel = new JPanel();
 		middlePanel.setLayout(new BoxLayout(middlePanel, BoxLayout.X_AXIS));
 		middlePanel.add(constructVariablePanel());
-		middlePanel.add(constructExecutablePanel());
+		middlePanel.add(constructModelPanel());
 		middlePanel.setPreferredSize(new Dimension(500, 150));
 		setLayout(new BorderLayout());
 		this.add(middlePanel, BorderLayout.CENTER);
-		JLabel overallLabel = new JLabel("SaTScan Poisson Analysis");
+		JLabel overallLabel = new JLabel("Spatial Scan Analysis");
 		this.add(overallLabel, BorderLayout.NORTH);
 		runButt = new JButton("Run!");
 		runButt.addActionListener(this);
@@ -96,8 +93,10 @@ public class SaTScan extends JPanel implements ActionListener, DataSetListener {
 		sendBPanel.setLayout(new BoxLayout(sendBPanel, BoxLayout.Y_AXIS));
 		sendClustersButton = new JButton("Send Clusters");
 		sendClustersButton.addActionListener(this);
+		sendClustersButton.setEnabled(false);
 		sendPValuesButton = new JButton("Send P-Values");
 		sendPValuesButton.addActionListener(this);
+		sendPValuesButton.setEnabled(false);
 		sendBPanel.add(sendClustersButton);
 		sendBPanel.add(sendPValuesButton);
 		southPanel.add(sendBPanel);
@@ -109,16 +108,6 @@ public class SaTScan extends JPanel implements ActionListener, DataSetListener {
 	public void actionPerformed(ActionEvent e) {
 		if (e.getSource() == runButt) {
 			findCluster(dataSet);
-		} else if (e.getSource() == chooseButt) {
-			JFileChooser fileChooser = new JFileChooser();
-			fileChooser.setSelectedFile(new File(saTScanFile));
-			int returnVal = fileChooser.showOpenDialog(this);
-
-			if (returnVal == JFileChooser.APPROVE_OPTION) {
-				logger.finest("You chose to use this file: "
-						+ fileChooser.getSelectedFile().getName());
-
-			}
 		} else if (e.getSource() == popBox) {
 			popVariable = popBox.getSelectedIndex();
 		} else if (e.getSource() == caseBox) {
@@ -130,7 +119,7 @@ public class SaTScan extends JPanel implements ActionListener, DataSetListener {
 				newData[i] = clusterList.get(counter);
 				counter++;
 			}
-			// dataSet.addColumn("Cluster", newData);
+			fireColumnAppended("Cluster", newData);
 
 		} else if (e.getSource() == sendPValuesButton) {
 			double[] newData = new double[dataSet.getNumObservations()];
@@ -139,7 +128,7 @@ public class SaTScan extends JPanel implements ActionListener, DataSetListener {
 				newData[i] = pValueList.get(counter);
 				counter++;
 			}
-			// dataSet.addColumn("P Values", newData);
+			fireColumnAppended("P Value", newData);
 		}
 
 	}
@@ -166,213 +155,139 @@ public class SaTScan extends JPanel implements ActionListener, DataSetListener {
 		return varPanel;
 	}
 
-	private JPanel constructExecutablePanel() {
-		JPanel exePanel = new JPanel();
-		exePanel.setBorder(BorderFactory
-				.createTitledBorder("SaTScan Executable"));
-		JLabel firstLabel = new JLabel("Location of SaTScan program:");
-		JLabel secondLabel = new JLabel("C:\\Program Files\\SaTScan");
-		chooseButt = new JButton("Choose new location");
-		chooseButt.addActionListener(this);
-		JLabel thirdLabel = new JLabel("Status: OK");
-
-		exePanel.setLayout(new BoxLayout(exePanel, BoxLayout.Y_AXIS));
-		exePanel.add(firstLabel);
-		exePanel.add(secondLabel);
-		exePanel.add(chooseButt);
-		exePanel.add(thirdLabel);
-
-		return exePanel;
-	}
-
-	private void findCluster(DataSetForApps data) {
-		File exe = new File(saTScanFile);
-		if (!exe.exists()) {
-			logger.finest("couldn't find SaTScan exe");
-			return;
+	// JComboBox is raw at the 1.5 source level, so addItem is unchecked
+	// when compiled against later JDKs
+	@SuppressWarnings("unchecked")
+	private JPanel constructModelPanel() {
+		JPanel modelPanel = new JPanel();
+		modelPanel.setBorder(BorderFactory.createTitledBorder("Scan"));
+		modelBox = new JComboBox();
+		for (KulldorffScan.Model model : KulldorffScan.Model.values()) {
+			modelBox.addItem(model);
 		}
-		dataSet = data;
-		// just to get this going, let's assign a crude centroid
-		Shape[] shapes = data.getShapeData();
-		double[] xLocs = new double[shapes.length];
-		double[] yLocs = new double[shapes.length];
-		String[] ids = new String[data.getNumObservations()];
-		for (int i = 0; i < shapes.length; i++) {
-			Rectangle2D rect = shapes[i].getBounds2D();
-			xLocs[i] = rect.getCenterX();
-			yLocs[i] = rect.getCenterY();
-			ids[i] = String.valueOf(i);
+		replicationsBox = new JComboBox();
+		for (Integer replications : REPLICATION_CHOICES) {
+			replicationsBox.addItem(replications);
 		}
-
-		double[] nCases = data.getNumericDataAsDouble(caseVariable);
-		double[] covariate = data.getNumericDataAsDouble(popVariable);
-		writePrmFile();
-		File resultsFile = new File(saTScanDir + "test.gis.txt");
-		if (resultsFile.exists()) {
-			// resultsFile.delete();
-		}
-		SaTScan.writeGeoFile(saTScanDir + "test.geo", ids, yLocs, xLocs);
-		SaTScan.writeCasFile(saTScanDir + "test.cas", ids, nCases, covariate);
-
-		String[] commands = { "cmd", "/c", "start", "SaTScanBatch.exe",
-				"test.prm" };
-		try {
-			ProcessBuilder pb = new ProcessBuilder(commands);
-			pb.directory(new File(saTScanDir));
-			pb.redirectErrorStream(true);
-			pb.start();
-			logger.finest(pb.directory().getPath());
-			readResultsFile(saTScanDir + "test.gis.txt");
-
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
+		replicationsBox.setSelectedItem(KulldorffScan.DEFAULT_REPLICATIONS);
+		JPanel modelRow = new JPanel();
+		modelRow.add(new JLabel("Model:"));
+		modelRow.add(modelBox);
+		JPanel replicationsRow = new JPanel();
+		replicationsRow.add(new JLabel("Replications:"));
+		replicationsRow.add(replicationsBox);
+
+		modelPanel.setLayout(new BoxLayout(modelPanel, BoxLayout.Y_AXIS));
+		modelPanel.add(modelRow);
+		modelPanel.add(replicationsRow);
+
+		return modelPanel;
 	}
 
-	public void writePrmFile() {
-
-		InputStream inStream = this.getClass().getResourceAsStream(
-				"resources/test.prm");
-		FileOutputStream fos = null;
-		try {
-			fos = new FileOutputStream(saTScanDir + "test.prm");
-
-			int oneChar, count = 0;
-
-			while ((oneChar = inStream.read()) != -1) {
-				fos.write(oneChar);
-				count++;
-			}
-
-			inStream.close();
-			fos.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
-	}
-
-	public static void writeGeoFile(String fileName, String[] obsNames,
-			double[] xLocs, double[] yLocs) {
-		FileIO fio = null;
-		try {
-			fio = new FileIO(fileName, "w");
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-
-		for (int i = 0; i < obsNames.length; i++) {
-			String line = obsNames[i] + "\t" + xLocs[i] + "\t" + yLocs[i]
-					+ "\n";
-			fio.write(line);
-		}
-		try {
-			fio.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
-	}
-
-	public static void writeCasFile(String fileName, String[] obsNames,
-			double[] nCases, double[] covariate) {
-		FileIO fio = null;
-		try {
-			fio = new FileIO(fileName, "w");
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-
-		for (int i = 0; i < obsNames.length; i++) {
-			String line = obsNames[i] + "\t" + nCases[i] + "\t" + covariate[i]
-					+ "\n";
-			fio.write(line);
-		}
-		try {
-			fio.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+	/**
+	 * Runs the scan off the event thread, then shows the results. For the
+	 * Bernoulli model the population variable is cases and controls
+	 * together.
+	 */
+	private void findCluster(final DataSetForApps data) {
+		if (data == null) {
+			return;
 		}
+		final double[] nCases = data.getNumericDataAsDouble(caseVariable);
+		final double[] covariate = data.getNumericDataAsDouble(popVariable);
+		final KulldorffScan scan = new KulldorffScan(data,
+				(KulldorffScan.Model) modelBox.getSelectedItem());
+		scan.setReplications((Integer) replicationsBox.getSelectedItem());
+		runButt.setEnabled(false);
+		new SwingWorker<KulldorffScan.Cluster[], Void>() {
+			@Override
+			protected KulldorffScan.Cluster[] doInBackground() {
+				return scan.findClusters(nCases, covariate);
+			}
 
-	}
-
-	private void readResultsFile(String fileName) {
-
-		boolean foundFile = false;
-		long waitTime = 1000;
-		while (!foundFile) {
-			File file = new File(fileName);
-			if (file.exists()) {
-				foundFile = true;
-			} else {
+			@Override
+			protected void done() {
+				runButt.setEnabled(true);
 				try {
-					Thread.sleep(waitTime);
+					showResults(data, get());
 				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					String message = "unable to scan : "
+							+ e.getCause().getMessage();
+					logger.warning(message);
+					JOptionPane.showMessageDialog(SaTScan.this, message,
+							"WARNING", JOptionPane.WARNING_MESSAGE);
 				}
-				waitTime = waitTime + 1000;
-				logger.finest("looking for file...." + (waitTime / 1000));
 			}
+		}.execute();
+	}
 
+	private void showResults(DataSetForApps data,
+			KulldorffScan.Cluster[] clusters) {
+		int n = data.getNumObservations();
+		double[] clusterNumbers = KulldorffScan.findClusterNumbers(clusters, n);
+		double[] pValues = KulldorffScan.findPValues(clusters, n);
+		idList = new ArrayList<Integer>();
+		clusterList = new ArrayList<Integer>();
+		pValueList = new ArrayList<Double>();
+		for (int i = 0; i < n; i++) {
+			idList.add(i);
+			clusterList.add((int) clusterNumbers[i]);
+			pValueList.add(pValues[i]);
 		}
-		FileIO fio = null;
-		try {
-			fio = new FileIO(fileName, "r");
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		idList = new ArrayList();
-		clusterList = new ArrayList();
-		pValueList = new ArrayList();
+		// the most likely cluster's regions first, as SaTScan listed them
 		int lineNum = 1;// we start at 1 to skip title row, at row 0
-
-		while (!fio.hasReachedEOF()) {
-			String line = null;
-			try {
-				line = fio.readLine();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			if (line != null) {
-
-				StringTokenizer toker = new StringTokenizer(line);
-
-				Integer id = Integer.valueOf(toker.nextToken());
-				idList.add(id);
-
-				Integer cluster = Integer.valueOf(toker.nextToken());
-				clusterList.add(cluster);
-
-				Double pValue = Double.valueOf(toker.nextToken());
-				pValueList.add(pValue);
-
+		for (KulldorffScan.Cluster cluster : clusters) {
+			for (int id : cluster.getMembers()) {
 				if (lineNum < resultsTable.getRowCount()) {
 					resultsTable.setValueAt(id, lineNum, SaTScan.ID_COLUMN);
-					resultsTable.setValueAt(cluster, lineNum,
+					resultsTable.setValueAt(clusterList.get(id), lineNum,
 							SaTScan.CLUSTER_COLUMN);
-					resultsTable.setValueAt(pValue, lineNum,
+					resultsTable.setValueAt(pValueList.get(id), lineNum,
 							SaTScan.PVALUE_COLUMN);
 				}
-
 				lineNum++;
-
 			}
-
+			logger.fine(cluster.toString());
 		}
-		try {
-			fio.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		for (; lineNum < resultsTable.getRowCount(); lineNum++) {
+			for (int col = 0; col < resultsTable.getColumnCount(); col++) {
+				resultsTable.setValueAt(null, lineNum, col);
+			}
 		}
+		sendClustersButton.setEnabled(true);
+		sendPValuesButton.setEnabled(true);
+	}
+
+	/**
+	 * adds a ColumnAppendedListener
+	 */
+	public void addColumnAppendedListener(ColumnAppendedListener l) {
+		listenerList.add(ColumnAppendedListener.class, l);
+	}
 
+	/**
+	 * removes a ColumnAppendedListener
+	 */
+	public void removeColumnAppendedListener(ColumnAppendedListener l) {
+		listenerList.remove(ColumnAppendedListener.class, l);
+	}
+
+	/**
+	 * Sends out the data set with the new column appended.
+	 */
+	protected void fireColumnAppended(String varName, double[] newData) {
+		DataSetForApps oldDataSet = dataSet;
+		dataSet = new DataSetForApps(oldDataSet, varName, newData);
+		ColumnAppendedEvent e = new ColumnAppendedEvent(oldDataSet, dataSet,
+				this);
+		Object[] listeners = listenerList.getListenerList();
+		for (int i = listeners.length - 2; i >= 0; i -= 2) {
+			if (listeners[i] == ColumnAppendedListener.class) {
+				((ColumnAppendedListener) listeners[i + 1]).dataSetModified(e);
+			}
+		}
 	}
 
 	public static void main(String[] args) {
@@ -382,6 +297,8 @@ public class SaTScan extends JPanel implements ActionListener, DataSetListener {
 					+ states.getDataForApps().getNumberNumericAttributes());
 		}
 		SaTScan scanner = new SaTScan();
+		scanner.dataSetChanged(new DataSetEvent(states.getDataForApps(),
+				states));
 
 		JFrame app = new JFrame("testing SaTScan");
 		app.add(scanner);
@@ -390,9 +307,14 @@ public class SaTScan extends JPanel implements ActionListener, DataSetListener {
 		app.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 	}
 
+	@SuppressWarnings("unchecked")
 	public void dataSetChanged(DataSetEvent e) {
 		// hello, data!
 		dataSet = e.getDataSetForApps();
+		caseBox.removeAllItems();
+		popBox.removeAllItems();
+		sendClustersButton.setEnabled(false);
+		sendPValuesButton.setEnabled(false);
 		String[] varNames = dataSet.getAttributeNamesNumeric();
 		for (String name : varNames) {
 			caseBox.addItem(name);
@@ -0,0 +1,221 @@
+/* Licensed under LGPL v. 2.1 or any later version;
+ see GNU LGPL for details.
+ Original Author: Frank Hardisty */
+
+package geovista.satscan;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+public class KulldorffScanTest extends TestCase {
+
+	final static Logger logger = Logger.getLogger(KulldorffScanTest.class
+			.getName());
+
+	private static final int SIDE = 30;
+
+	public void testFindsPlantedCluster() {
+		double[][] xy = makeGrid(SIDE);
+		double[] pop = new double[SIDE * SIDE];
+		Arrays.fill(pop, 1000);
+		double[] cases = plantCases(xy, pop, 0.01, 0.03, new Random(1));
+
+		KulldorffScan scan = new KulldorffScan(xy[0], xy[1],
+				KulldorffScan.Model.POISSON);
+		KulldorffScan.Cluster[] clusters = scan.findClusters(cases, pop);
+		assertTrue(clusters.length > 0);
+		KulldorffScan.Cluster first = clusters[0];
+		logger.info(first.toString());
+		assertEquals(0.001, first.getPValue(), 1e-12);
+		assertTrue(first.getCases() > first.getExpected());
+		double[] numbers = KulldorffScan.findClusterNumbers(clusters, pop.length);
+		assertEquals(1d, numbers[10 * SIDE + 10]);
+		// the clusters share no region
+		int inClusters = 0;
+		for (KulldorffScan.Cluster cluster : clusters) {
+			inClusters += cluster.getMembers().length;
+		}
+		int numbered = 0;
+		for (double number : numbers) {
+			numbered += number > 0 ? 1 : 0;
+		}
+		assertEquals(inClusters, numbered);
+		double[] pValues = KulldorffScan.findPValues(clusters, pop.length);
+		for (int i = 0; i < pValues.length; i++) {
+			assertEquals(numbers[i] == 0 ? 1 : clusters[(int) numbers[i] - 1]
+					.getPValue(), pValues[i]);
+		}
+	}
+
+	public void testSameResultOnAnyThreadCount() {
+		double[][] xy = makeGrid(SIDE);
+		double[] pop = new double[SIDE * SIDE];
+		Random rand = new Random(2);
+		for (int i = 0; i < pop.length; i++) {
+			pop[i] = 100 + rand.nextInt(2000);
+		}
+		double[] cases = plantCases(xy, pop, 0.01, 0.012, rand);
+		KulldorffScan scan = new KulldorffScan(xy[0], xy[1],
+				KulldorffScan.Model.POISSON);
+		scan.setReplications(99);
+		scan.setSeed(42);
+		scan.setThreadCount(1);
+		KulldorffScan.Cluster[] one = scan.findClusters(cases, pop);
+		scan.setThreadCount(4);
+		KulldorffScan.Cluster[] four = scan.findClusters(cases, pop);
+		assertEquals(one.length, four.length);
+		for (int k = 0; k < one.length; k++) {
+			assertEquals(one[k].getCenter(), four[k].getCenter());
+			assertEquals(one[k].getLogLikelihoodRatio(), four[k]
+					.getLogLikelihoodRatio());
+			assertEquals(one[k].getPValue(), four[k].getPValue());
+		}
+	}
+
+	/**
+	 * Every circle about every region, on a grid where many regions are at
+	 * the same distance, against the most likely cluster.
+	 */
+	public void testMatchesEveryCircle() {
+		int side = 8;
+		double[][] xy = makeGrid(side);
+		int n = side * side;
+		Random rand = new Random(3);
+		for (int trial = 0; trial < 20; trial++) {
+			double[] pop = new double[n];
+			double[] cases = new double[n];
+			for (int i = 0; i < n; i++) {
+				pop[i] = 10 + rand.nextInt(50);
+				cases[i] = rand.nextInt((int) pop[i] / 4 + 1);
+			}
+			for (KulldorffScan.Model model : KulldorffScan.Model.values()) {
+				KulldorffScan scan = new KulldorffScan(xy[0], xy[1], model);
+				scan.setReplications(0);
+				scan.setMaxPopulationFraction(0.3);
+				KulldorffScan.Cluster[] clusters = scan.findClusters(cases, pop);
+				double best = findBestCircle(xy, cases, pop, 0.3, model);
+				assertEquals(best, clusters.length == 0 ? 0 : clusters[0]
+						.getLogLikelihoodRatio(), 1e-9);
+			}
+		}
+	}
+
+	public void testBernoulli() {
+		double[][] xy = makeGrid(SIDE);
+		double[] pop = new double[SIDE * SIDE];
+		Arrays.fill(pop, 50);
+		Random rand = new Random(4);
+		double[] cases = new double[pop.length];
+		for (int i = 0; i < pop.length; i++) {
+			boolean near = Math.hypot(xy[0][i] - 20, xy[1][i] - 5) <= 2;
+			for (int p = 0; p < pop[i]; p++) {
+				if (rand.nextDouble() < (near ? 0.6 : 0.3)) {
+					cases[i]++;
+				}
+			}
+		}
+		KulldorffScan scan = new KulldorffScan(xy[0], xy[1],
+				KulldorffScan.Model.BERNOULLI);
+		scan.setReplications(99);
+		KulldorffScan.Cluster[] clusters = scan.findClusters(cases, pop);
+		logger.info(clusters[0].toString());
+		assertEquals(0.01, clusters[0].getPValue(), 1e-12);
+		assertEquals(1d, KulldorffScan.findClusterNumbers(clusters, pop.length)[20
+				* SIDE + 5]);
+
+		try {
+			cases[0] = pop[0] + 1;
+			scan.findClusters(cases, pop);
+			fail("more cases than people");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	private static double[][] makeGrid(int side) {
+		double[] x = new double[side * side];
+		double[] y = new double[side * side];
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				x[i * side + j] = i;
+				y[i * side + j] = j;
+			}
+		}
+		return new double[][] { x, y };
+	}
+
+	/**
+	 * Poisson counts at rate, or at the higher rate within 2 of (10, 10).
+	 */
+	private static double[] plantCases(double[][] xy, double[] pop,
+			double rate, double clusterRate, Random rand) {
+		double[] cases = new double[pop.length];
+		for (int i = 0; i < pop.length; i++) {
+			boolean near = Math.hypot(xy[0][i] - 10, xy[1][i] - 10) <= 2;
+			double mean = pop[i] * (near ? clusterRate : rate);
+			// by its sum of exponential waits
+			double wait = -Math.log(1 - rand.nextDouble());
+			while (wait < mean) {
+				cases[i]++;
+				wait -= Math.log(1 - rand.nextDouble());
+			}
+		}
+		return cases;
+	}
+
+	private static double findBestCircle(double[][] xy, double[] cases,
+			double[] pop, double fraction, KulldorffScan.Model model) {
+		int n = pop.length;
+		double totalCases = 0;
+		double totalPop = 0;
+		for (int i = 0; i < n; i++) {
+			totalCases += cases[i];
+			totalPop += pop[i];
+		}
+		double best = 0;
+		for (int c = 0; c < n; c++) {
+			for (int r = 0; r < n; r++) {
+				double radius = distance(xy, c, r);
+				double inCases = 0;
+				double inPop = 0;
+				for (int i = 0; i < n; i++) {
+					if (distance(xy, c, i) <= radius) {
+						inCases += cases[i];
+						inPop += pop[i];
+					}
+				}
+				double e = totalCases * inPop / totalPop;
+				if (inPop > fraction * totalPop || inCases <= e) {
+					continue;
+				}
+				double llr;
+				if (model == KulldorffScan.Model.POISSON) {
+					llr = xlogx(inCases) - inCases * Math.log(e)
+							+ xlogx(totalCases - inCases)
+							- (totalCases - inCases)
+							* Math.log(totalCases - e);
+				} else {
+					double outCases = totalCases - inCases;
+					double outPop = totalPop - inPop;
+					llr = xlogx(inCases) + xlogx(inPop - inCases)
+							- xlogx(inPop) + xlogx(outCases)
+							+ xlogx(outPop - outCases) - xlogx(outPop)
+							- xlogx(totalCases) - xlogx(totalPop - totalCases)
+							+ xlogx(totalPop);
+				}
+				best = Math.max(best, llr);
+			}
+		}
+		return best;
+	}
+
+	private static double distance(double[][] xy, int a, int b) {
+		return Math.hypot(xy[0][a] - xy[0][b], xy[1][a] - xy[1][b]);
+	}
+
+	private static double xlogx(double v) {
+		return v > 0 ? v * Math.log(v) : 0;
+	}
+}
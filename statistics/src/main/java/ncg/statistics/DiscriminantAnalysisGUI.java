@@ -468,10 +468,10 @@ public class DiscriminantAnalysisGUI extends JPanel
 					}
 					
 					// compute the polygon centroids (or coordinates of points) 
-					// if we have a point data set. use these to calculate the distance
-					// matrix  - distance from each centroid to every other centroid
+					// if we have a point data set. use these to build the neighbour
+					// index - finds the nearest centroids to each centroid
 					Point2D[] centroids = NCGStatUtils.computeCentroids(dataSet);
-					((GWDiscriminantAnalysis)daTask).setDistanceMatrix(centroids);
+					((GWDiscriminantAnalysis)daTask).setNeighbourIndex(centroids);
 					
 				} else {
 					
@@ -1,11 +1,20 @@
 package ncg.statistics;
 
+import geovista.common.data.KDTree;
+
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.apache.commons.math.linear.Array2DRowRealMatrix;
@@ -30,6 +39,10 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 	
 	// default number of nearest neighbours to use
 	protected static final int DEFAULT_INT = -1;
+	
+	// number of objects each thread takes at a time when classifying 
+	// with the neighbour index
+	protected static final int OBJECTS_PER_TASK = 16;
 		
 	/*
 	 * Input variables
@@ -38,6 +51,14 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 	// matrix to hold distances from each object to every other object
 	protected transient RealMatrix distanceMatrix = null;
 	
+	// centroids of the objects and a spatial index of them, used instead of 
+	// the distance matrix to find the neighbours of each object
+	protected transient Point2D[] centroids = null;
+	protected transient KDTree neighbourIndex = null;
+	
+	// number of threads used to classify objects with the neighbour index
+	protected transient int numThreads = Runtime.getRuntime().availableProcessors();
+	
 	// number of nearest neighbours to use for gwda
 	protected transient int numNearestNeighbours = DEFAULT_INT;
 	
@@ -103,6 +124,9 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 				
 		// reset geographically weighted specific variables
 		distanceMatrix = null;
+		centroids = null;
+		neighbourIndex = null;
+		numThreads = Runtime.getRuntime().availableProcessors();
 		numNearestNeighbours = DEFAULT_INT;
 		useCrossValidation = false;
 		crossValidationMethod = DEFAULT_INT;
@@ -142,6 +166,36 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 		}
 	}
 	
+	//*************************************************************************
+	// Name    : validateNeighbourIndex
+	// 
+	// Purpose : check to see if neighbourIndex has been set
+	// 
+	// Notes   : neighbourIndex is a KDTree of the centroids of the objects
+	//           throws a new DiscriminantAnalysisException if it has not been set
+	// 
+	//*************************************************************************
+	protected void validateNeighbourIndex() throws DiscriminantAnalysisException {		
+		if ( neighbourIndex == null || centroids == null ) {
+			throw new DiscriminantAnalysisException("neighbour index not set");
+		}
+	}
+	
+	//*************************************************************************
+	// Name    : validateNeighbours
+	// 
+	// Purpose : check to see if either the distanceMatrix or the neighbourIndex
+	//           has been set
+	// 
+	// Notes   : throws a new DiscriminantAnalysisException if neither has been set
+	// 
+	//*************************************************************************
+	protected void validateNeighbours() throws DiscriminantAnalysisException {		
+		if ( distanceMatrix == null && neighbourIndex == null ) {
+			throw new DiscriminantAnalysisException("neither distance matrix nor neighbour index set");
+		}
+	}
+	
 	//*************************************************************************
 	// Name    : validateNumNearestNeighbours
 	// 
@@ -331,15 +385,64 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 	// 
 	// Notes   : if an error occurs distanceMatrix will be set to a zero size
 	//           RealMatrix
+	//           replaces any neighbour index set by setNeighbourIndex
 	//
 	//*************************************************************************
 	public void setDistanceMatrix(Point2D[] centroids) {
 		
 		// compute the 	distance from each centroid to all the other centroids
 		distanceMatrix = NCGStatUtils.computeDistanceMatrix(centroids);
+		
+		this.centroids = null;
+		neighbourIndex = null;
 							
 	}
 	
+	//*************************************************************************
+	// Name    : setNeighbourIndex
+	// 
+	// Purpose : sets a spatial index of the objects to be classified, which
+	//           is used instead of the distance matrix. centroids is an array
+	//           of Point2D objects holding the centroid for each polygon / 
+	//           point that is to be classified
+	// 
+	// Notes   : the index takes memory in proportion to the number of objects
+	//           rather than its square, and only the neighbours within each
+	//           bandwidth are visited. objects are then classified in parallel
+	//           on numThreads threads. the results are the same as those
+	//           computed using the distance matrix
+	//           replaces any distance matrix set by setDistanceMatrix
+	//
+	//*************************************************************************
+	public void setNeighbourIndex(Point2D[] centroids) {
+		
+		double[] x = new double[centroids.length];
+		double[] y = new double[centroids.length];
+		for (int i = 0; i < centroids.length; i++) {
+			x[i] = centroids[i].getX();
+			y[i] = centroids[i].getY();
+		}
+		
+		this.centroids = Arrays.copyOf(centroids, centroids.length);
+		neighbourIndex = new KDTree(x, y);
+		
+		distanceMatrix = null;
+	}
+	
+	//*************************************************************************
+	// Name    : setNumThreads
+	// 
+	// Purpose : sets the numThreads attribute
+	// 
+	// Notes   : numThreads is the number of threads used to classify objects
+	//           when the neighbour index is set. defaults to the number of 
+	//           available processors
+	//
+	//*************************************************************************
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+	
 	//*************************************************************************
 	// Name    : setNumNearestNeighbours
 	// 
@@ -460,6 +563,19 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 		return distanceMatrix.getData();
 	}
 	
+	//*************************************************************************
+	// Name    : getNumThreads
+	// 
+	// Purpose : returns the value of the numThreads attribute
+	// 
+	// Notes   : numThreads is the number of threads used to classify objects
+	//           when the neighbour index is set
+	// 
+	//*************************************************************************
+	public int getNumThreads() {
+		return numThreads;
+	}
+	
 	//*************************************************************************
 	// Name    : getNumNearestNeighbours
 	// 
@@ -809,6 +925,218 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 		return weights;
 	}
 		
+	//*************************************************************************
+	// Name    : computeBandwidth
+	// 
+	// Purpose : computes the bandwidth required to enclose at least numNearestNeighbours
+	//           of objectIndex in all classes, using the neighbour index
+	// 
+	// Notes   : chooses the same bandwidth as computeBandwidth(int, boolean)
+	//           does from the distance matrix
+	//           throws a DiscriminantAnalysisException Object if 
+	//           numNearestNeighbours is not set
+	// 
+	//*************************************************************************
+	protected double computeBandwidth(int objectIndex, boolean excludeObject, NeighbourScratch scratch) throws DiscriminantAnalysisException {
+		
+		validateNumNearestNeighbours();
+		
+		return computeBandwidth(objectIndex, excludeObject, numNearestNeighbours, scratch);
+	}
+	
+	//*************************************************************************
+	// Name    : computeBandwidth
+	// 
+	// Purpose : computes the bandwidth required to enclose at least numNeighbours
+	//           of objectIndex in all classes, using the neighbour index
+	// 
+	// Notes   : fetches the nearest objects to objectIndex into scratch.neighbours,
+	//           doubling the number fetched until the bandwidth of every class
+	//           can be read from them (see findBandwidth). every object closer
+	//           than the bandwidth is among them
+	//           throws a DiscriminantAnalysisException Object if uniqueClasses,
+	//           numClasses, neighbourIndex or classIndices are not set, or
+	//           if a class has a single object
+	// 
+	//*************************************************************************
+	protected double computeBandwidth(int objectIndex, boolean excludeObject, int numNeighbours, NeighbourScratch scratch) throws DiscriminantAnalysisException {
+		
+		validateUniqueClasses();
+		validateNumClasses();
+		validateNeighbourIndex();
+		validateClassIndices();
+		validateClassification();
+		
+		if (numNeighbours < 1) {
+			throw new DiscriminantAnalysisException("number of nearest neighbours [" + numNeighbours + "] is less than one");
+		}
+		
+		computeNeighIndices(objectIndex, excludeObject, numNeighbours, scratch);
+		
+		double x = centroids[objectIndex].getX();
+		double y = centroids[objectIndex].getY();
+		
+		int numFetched = Math.min(numObjects, numClasses * (numNeighbours + 2));
+		
+		while (true) {
+			
+			// the nearest numFetched objects, nearest first
+			neighbourIndex.nearest(x, y, numFetched, scratch.neighbours);
+			
+			double bandwidth = findBandwidth(scratch);
+			
+			if (bandwidth >= 0.0) {
+				return bandwidth;
+			} else if (numFetched == numObjects) {
+				throw new DiscriminantAnalysisException("unable to compute a bandwidth for object [" + objectIndex + "]");
+			}
+			
+			numFetched = Math.min(numObjects, 2 * numFetched);
+		}
+	}
+	
+	//*************************************************************************
+	// Name    : computeNeighIndices
+	// 
+	// Purpose : computes, for each class, the position in the class's sorted 
+	//           distances from objectIndex from which the bandwidth enclosing
+	//           numNeighbours is chosen, as computeBandwidth(int, boolean) does.
+	//           the positions are left in scratch.neighIndices
+	// 
+	// Notes   : throws a DiscriminantAnalysisException Object if a class has
+	//           a single object
+	// 
+	//*************************************************************************
+	protected void computeNeighIndices(int objectIndex, boolean excludeObject, int numNeighbours, NeighbourScratch scratch) throws DiscriminantAnalysisException {
+		
+		for ( int c = 0; c < numClasses; c++ ) {
+			
+			int maxNumNeighbours = (classIndices.get(c).length - 1);
+			
+			int neighIndex = numNeighbours;
+		 	if (numNeighbours > maxNumNeighbours) {
+		 		logger.warning("number of nearest neighbours [" + numNeighbours + 
+		 				"] is greater than maximum number of nearest neighbours allowed for class [" + 
+		 				uniqueClasses[c] +"] : [" + maxNumNeighbours+ "]");
+		 		logger.warning("using maximum number of nearest neighbours ");
+		 		neighIndex = maxNumNeighbours;
+		 	}
+		 	
+		 	if (excludeObject == true && classification[objectIndex] == uniqueClasses[c]) {
+		 		if (++neighIndex > maxNumNeighbours) {
+		 			logger.warning("cannot identify "  + neighIndex-- + " neighbours for class " + 
+		 					uniqueClasses[c] + " whilst excluding the object " + objectIndex);
+		 		}
+		 	}
+		 	
+		 	if (neighIndex < 1) {
+		 		throw new DiscriminantAnalysisException("unable to compute a bandwidth for object [" + 
+		 				objectIndex + "] : class [" + uniqueClasses[c] + "] has a single object");
+		 	}
+		 	
+		 	scratch.neighIndices[c] = neighIndex;
+		}
+	}
+	
+	//*************************************************************************
+	// Name    : findBandwidth
+	// 
+	// Purpose : reads the bandwidth from the neighbours in scratch.neighbours,
+	//           nearest first, for the positions in scratch.neighIndices
+	// 
+	// Notes   : the objects of each class among the neighbours are the start
+	//           of that class's sorted distances. the bandwidth of a class is
+	//           the first distance from its position on that is greater than 
+	//           the one before it, or its last distance; the bandwidth is the
+	//           greatest of these. returns -1 if the neighbours do not reach
+	//           far enough for every class
+	// 
+	//*************************************************************************
+	protected double findBandwidth(NeighbourScratch scratch) {
+		
+		KDTree.Neighbors neighbours = scratch.neighbours;
+		
+		Arrays.fill(scratch.classPositions, 0);
+		Arrays.fill(scratch.classResolved, false);
+		int numResolved = 0;
+		
+		for ( int i = 0; i < neighbours.size() && numResolved < numClasses; i++ ) {
+			
+			int c = scratch.objectClasses[neighbours.id(i)];
+			if (scratch.classResolved[c] == true) {
+				continue;
+			}
+			
+			int position = scratch.classPositions[c]++;
+			double distance = neighbours.distance(i);
+			
+			if (position >= scratch.neighIndices[c] && 
+					(distance != scratch.classDistances[c] || position == (classIndices.get(c).length - 1))) {
+				scratch.classBandwidths[c] = distance;
+				scratch.classResolved[c] = true;
+				numResolved++;
+			}
+			scratch.classDistances[c] = distance;
+		}
+		
+		if (numResolved < numClasses) {
+			return -1.0;
+		}
+		
+		double bandwidth = -1.0;
+		for ( int c = 0; c < numClasses; c++ ) {
+			if (scratch.classBandwidths[c] > bandwidth) {
+				bandwidth = scratch.classBandwidths[c];
+			}
+		}
+		
+		return bandwidth;
+	}
+	
+	//*************************************************************************
+	// Name    : findNeighbours
+	// 
+	// Purpose : finds the objects of each class closer to objectIndex than 
+	//           bandwidth, using the neighbour index
+	// 
+	// Notes   : these are the objects given non-zero weights by 
+	//           computeWeights. they are left in scratch.classNeighbours in 
+	//           the order of classIndices, with their distances in
+	//           scratch.distances
+	//           throws a DiscriminantAnalysisException Object if the 
+	//           neighbourIndex is not set
+	// 
+	//*************************************************************************
+	protected void findNeighbours(int objectIndex, double bandwidth, boolean excludeObject, NeighbourScratch scratch) throws DiscriminantAnalysisException {
+		
+		validateNeighbourIndex();
+		
+		KDTree.Neighbors neighbours = scratch.neighbours;
+		neighbourIndex.withinRadius(centroids[objectIndex].getX(), centroids[objectIndex].getY(), bandwidth, neighbours);
+		
+		Arrays.fill(scratch.numClassNeighbours, 0);
+		
+		for ( int i = 0; i < neighbours.size(); i++ ) {
+			
+			int neighbour = neighbours.id(i);
+			double distance = neighbours.distance(i);
+			
+			// the kernels give zero weight at the bandwidth itself
+			if ( (excludeObject == true && neighbour == objectIndex) || distance >= bandwidth ) {
+				continue;
+			}
+			
+			int c = scratch.objectClasses[neighbour];
+			scratch.classNeighbours[c][scratch.numClassNeighbours[c]++] = neighbour;
+			scratch.distances[neighbour] = distance;
+		}
+		
+		// classIndices are in ascending order, and the weighted sums are taken in that order
+		for ( int c = 0; c < numClasses; c++ ) {
+			Arrays.sort(scratch.classNeighbours[c], 0, scratch.numClassNeighbours[c]);
+		}
+	}
+		
 	//*************************************************************************
 	// Name    : computeNumNeighboursStepsCV
 	// 
@@ -920,7 +1248,7 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 		
 		validateNumClasses();
 		validateUniqueClasses();
-		validateDistanceMatrix();
+		validateNeighbours();
 		validateClassification();
 		validateNumObjects();
 		validateCrossValidationMethod();
@@ -945,39 +1273,47 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 						
 			// classify the dataset for each of these neighbour values
 			// and compute the optimum number of nearest neighbours
-			for (int i = 0; i < numSteps; i++) {
+			if (neighbourIndex != null) {
+				
+				// sort the neighbours of each object once and classify it for
+				// every number of nearest neighbours in turn
+				sweepNumNeighboursStepsCV();
+				
+			} else {
+				
+				for (int i = 0; i < numSteps; i++) {
 				
-				// set the sum of the logs of the posterior probabilities
-				// to zero for the current number of nearest neighbours
-				crossValidationLikelihoods[i] = 0.0;
+					// set the sum of the logs of the posterior probabilities
+					// to zero for the current number of nearest neighbours
+					crossValidationLikelihoods[i] = 0.0;
 				
-				// classify the data set for the current nearest neighbour
-				numNearestNeighbours = numNeighboursStepsCV[i];
+					// classify the data set for the current nearest neighbour
+					numNearestNeighbours = numNeighboursStepsCV[i];
 								
-				// allocate memory
-				createOutputArrays();
+					// allocate memory
+					createOutputArrays();
 				
-				// now classify each observation without using it in the classification 
-				for ( int j = 0; j < numObjects; j++ ) {
-															
-					// classify the current object without using it in the computation
-					classifyObject(j,true);
+					// now classify each observation without using it in the classification 
+					classifyObjects(true);
+				
+					for ( int j = 0; j < numObjects; j++ ) {
 					
-					// get the index corresponding to the class label for the current object
-					Integer classLabel = Integer.valueOf(classification[j]);
-					int classIndex = ((Integer)classLabelsToIndicesMap.get(classLabel)).intValue();
+						// get the index corresponding to the class label for the current object
+						Integer classLabel = Integer.valueOf(classification[j]);
+						int classIndex = ((Integer)classLabelsToIndicesMap.get(classLabel)).intValue();
 					
-					crossValidationLikelihoods[i] += Math.log(posteriorProbabilities.getEntry(j, classIndex));
+						crossValidationLikelihoods[i] += Math.log(posteriorProbabilities.getEntry(j, classIndex));
 								
-				}
+					}
 				
-				// compute classification accuracy
-				// (requires computing confusion matrix)
-				confusionMatrix();
+					// compute classification accuracy
+					// (requires computing confusion matrix)
+					confusionMatrix();
 				
-				// save the classification accuracy for the current bandwidth
-				crossValidationScores[i] = classificationAccuracy;
+					// save the classification accuracy for the current bandwidth
+					crossValidationScores[i] = classificationAccuracy;
 									
+				}
 			}
 			
 			if ( crossValidationMethod == NCGStatUtils.CROSS_VALIDATION_SCORE ) {
@@ -1008,6 +1344,204 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 		
 	}
 		
+	//*************************************************************************
+	// Name    : sweepNumNeighboursStepsCV
+	// 
+	// Purpose : classifies every object for each number of nearest neighbours
+	//           in numNeighboursStepsCV, without using it in the classification,
+	//           and computes crossValidationScores and crossValidationLikelihoods
+	//           using the neighbour index
+	// 
+	// Notes   : rather than classifying all the objects once for each step,
+	//           each object is taken through all the steps (see sweepObject),
+	//           so its neighbours are fetched and sorted only once. objects are
+	//           swept in parallel by runObjectsTask. the outputs are left as
+	//           the last step's, as crossValidate leaves them
+	//           throws any Exceptions that occur
+	// 
+	//*************************************************************************
+	protected void sweepNumNeighboursStepsCV() throws Exception {
+		
+		validateNumNeighboursStepsCV();
+		validateKernelFunctionType();
+		validateNeighbourIndex();
+		
+		int numSteps = numNeighboursStepsCV.length;
+		
+		// classification of each object and log of its posterior probability of
+		// belonging to its own class, for each step
+		final int[][] stepsClassified = new int[numSteps][numObjects];
+		final double[][] stepsLogPosteriors = new double[numSteps][numObjects];
+		
+		// allocate memory
+		createOutputArrays();
+		
+		runObjectsTask(new ObjectsTask() {
+			protected void run(int start, int end, NeighbourScratch scratch) throws Exception {
+				for ( int i = start; i < end; i++ ) {
+					try {
+						sweepObject(i, stepsClassified, stepsLogPosteriors, scratch);
+					} catch (Exception e) {
+						throw new DiscriminantAnalysisException("Exception encountered classifying observation [" + 
+								i + "] : " + e.getMessage(), e);
+					}
+				}
+			}
+		});
+		
+		for ( int i = 0; i < numSteps; i++ ) {
+			
+			// sum of the logs of the posterior probabilities
+			crossValidationLikelihoods[i] = 0.0;
+			for ( int j = 0; j < numObjects; j++ ) {
+				crossValidationLikelihoods[i] += stepsLogPosteriors[i][j];
+			}
+			
+			// compute classification accuracy
+			// (requires computing confusion matrix)
+			classified = stepsClassified[i];
+			confusionMatrix();
+			crossValidationScores[i] = classificationAccuracy;
+		}
+	}
+	
+	//*************************************************************************
+	// Name    : sweepObject
+	// 
+	// Purpose : classifies the object with index objectIndex, without using
+	//           it in the classification, for each number of nearest neighbours
+	//           in numNeighboursStepsCV, saving its classification and the log
+	//           of its posterior probability for its own class for each step
+	// 
+	// Notes   : the nearest objects are fetched once, for the largest number
+	//           of nearest neighbours; every step's bandwidth is read from them
+	//           and, since the steps are in ascending order, the neighbours 
+	//           within each step's bandwidth are those within the last plus a 
+	//           few more. with a moving window kernel the class means and 
+	//           covariance matrices are updated as each neighbour is added 
+	//           (Welford's method); with a bisquare kernel the weights change 
+	//           with the bandwidth, so they are summed again over the 
+	//           neighbours' predictor variables gathered so far
+	//           the results agree with classifyObject(int, boolean) to within
+	//           rounding, as the sums are taken in another order
+	//           throws any Exceptions that occur
+	// 
+	//*************************************************************************
+	protected void sweepObject(int objectIndex, int[][] stepsClassified, double[][] stepsLogPosteriors, 
+			NeighbourScratch scratch) throws Exception {
+		
+		int numSteps = numNeighboursStepsCV.length;
+		
+		// fetch the neighbours needed for the last step, nearest first
+		computeBandwidth(objectIndex, true, numNeighboursStepsCV[numSteps-1], scratch);
+		KDTree.Neighbors neighbours = scratch.neighbours;
+		
+		scratch.createSweepArrays();
+		Arrays.fill(scratch.numClassNeighbours, 0);
+		for ( int c = 0; c < numClasses; c++ ) {
+			Arrays.fill(scratch.sweepMeans[c], 0.0);
+			for ( int i = 0; i < numFields; i++ ) {
+				Arrays.fill(scratch.sweepSumSquares[c][i], 0.0);
+			}
+		}
+		
+		int ownClass = scratch.objectClasses[objectIndex];
+		int numAdded = 0;
+		
+		for ( int step = 0; step < numSteps; step++ ) {
+			
+			computeNeighIndices(objectIndex, true, numNeighboursStepsCV[step], scratch);
+			double bandwidth = findBandwidth(scratch);
+			bandwidths[objectIndex] = bandwidth;
+			
+			// add the neighbours now closer than the bandwidth
+			while ( numAdded < neighbours.size() && neighbours.distance(numAdded) < bandwidth ) {
+				
+				int neighbour = neighbours.id(numAdded);
+				double distance = neighbours.distance(numAdded++);
+				if (neighbour == objectIndex) {
+					continue;
+				}
+				
+				int c = scratch.objectClasses[neighbour];
+				int k = scratch.numClassNeighbours[c]++;
+				scratch.sweepDistances[c][k] = distance;
+				for ( int f = 0; f < numFields; f++ ) {
+					scratch.sweepData[c][f][k] = predictorVariables.getEntry(neighbour, fieldIndices[f]);
+				}
+				
+				if ( kernelFunctionType == NCGStatUtils.MOVING_WINDOW ) {
+					
+					// update the mean and the sum of squared deviations from it
+					double[] means = scratch.sweepMeans[c];
+					double[] deltas = scratch.deltas;
+					for ( int f = 0; f < numFields; f++ ) {
+						deltas[f] = scratch.sweepData[c][f][k] - means[f];
+						means[f] += deltas[f] / (k + 1);
+					}
+					double[][] sumSquares = scratch.sweepSumSquares[c];
+					for ( int i = 0; i < numFields; i++ ) {
+						for ( int j = i; j < numFields; j++ ) {
+							sumSquares[i][j] += deltas[i] * (scratch.sweepData[c][j][k] - means[j]);
+						}
+					}
+				}
+			}
+			
+			double[][] pooled = scratch.pooledCovariance;
+			for ( int i = 0; i < numFields; i++ ) {
+				Arrays.fill(pooled[i], 0.0);
+			}
+			
+			List<RealVector> gwMeans = new ArrayList<RealVector>();
+			
+			int totalNumNeighbours = 0;
+			
+			for ( int c = 0; c < numClasses; c++ ) {
+				
+				int classNumNeighbours = scratch.numClassNeighbours[c];
+				
+				if ( kernelFunctionType == NCGStatUtils.MOVING_WINDOW ) {
+					
+					if (classNumNeighbours == 0) {
+						throw new DiscriminantAnalysisException("no neighbours of object [" + objectIndex + 
+								"] with non-zero weights in class [" + uniqueClasses[c] + "]");
+					}
+					
+					// the covariance matrix multiplied by the number of neighbours
+					// is the sum of squared deviations
+					double[][] sumSquares = scratch.sweepSumSquares[c];
+					for ( int i = 0; i < numFields; i++ ) {
+						for ( int j = i; j < numFields; j++ ) {
+							pooled[i][j] += sumSquares[i][j];
+							if (j != i) {
+								pooled[j][i] += sumSquares[i][j];
+							}
+						}
+					}
+					gwMeans.add(new ArrayRealVector(scratch.sweepMeans[c]));
+					totalNumNeighbours += classNumNeighbours;
+					
+				} else {
+					
+					double[] weights = NCGStatUtils.bisquareKernel(
+							Arrays.copyOf(scratch.sweepDistances[c], classNumNeighbours), bandwidth);
+					
+					double[] means = new double[numFields];
+					totalNumNeighbours += addWeightedCovariance(objectIndex, c, scratch.sweepData[c], weights, 
+							classNumNeighbours, means, pooled);
+					gwMeans.add(new ArrayRealVector(means, false));
+				}
+			}
+			
+			// fully compute pooled class covariance matrix and classify the object
+			assignObject(objectIndex, pooled, totalNumNeighbours, gwMeans);
+			
+			stepsClassified[step][objectIndex] = classified[objectIndex];
+			stepsLogPosteriors[step][objectIndex] = Math.log(posteriorProbabilities.getEntry(objectIndex, ownClass));
+		}
+	}
+	
 	//*************************************************************************
 	// Name    : classify
 	// 
@@ -1028,8 +1562,6 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 		}
 				
 		validateNumObjects();
-		
-		int i = 0;
 			
 		try {
 						
@@ -1037,13 +1569,11 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 			createOutputArrays();
 			
 			// classify each object
-			for ( i = 0; i < numObjects; i++ ) {					
-				classifyObject(i,false);
-			}
+			classifyObjects(false);
 			
 		} catch (Exception e) {
 						
-			logger.severe("Exception encountered classifying observation [" + i + "] - quitting classification");
+			logger.severe("Exception encountered during classification - quitting classification");
 			logger.severe(e.toString() + " : " + e.getMessage());
 			
 			e.printStackTrace();
@@ -1057,6 +1587,126 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 		} 
 	}
 	
+	//*************************************************************************
+	// Name    : classifyObjects
+	// 
+	// Purpose : classify every observation using GWDA
+	//           
+	//           if excludeObject is set to true then each object is excluded
+	//           from the calculation of its own class means and covariance
+	//           matrices
+	// 
+	// Notes   : with the distance matrix the objects are classified in turn.
+	//           with the neighbour index they are classified in parallel by
+	//           runObjectsTask. each object's outputs are written to its own
+	//           rows only, so the results do not depend on the number of threads
+	//           throws any Exceptions that occur, with the index of the 
+	//           observation that failed
+	// 
+	//*************************************************************************
+	protected void classifyObjects(final boolean excludeObject) throws Exception {
+		
+		validateNumObjects();
+		
+		if (neighbourIndex == null) {
+			classifyObjects(0, numObjects, excludeObject, null);
+			return;
+		}
+		
+		runObjectsTask(new ObjectsTask() {
+			protected void run(int start, int end, NeighbourScratch scratch) throws Exception {
+				classifyObjects(start, end, excludeObject, scratch);
+			}
+		});
+	}
+	
+	//*************************************************************************
+	// Name    : runObjectsTask
+	// 
+	// Purpose : runs task over every object on numThreads threads, each 
+	//           taking OBJECTS_PER_TASK objects at a time and keeping its own
+	//           NeighbourScratch
+	// 
+	// Notes   : throws any Exception thrown by the task
+	// 
+	//*************************************************************************
+	protected void runObjectsTask(final ObjectsTask task) throws Exception {
+		
+		int numTasks = (numObjects + OBJECTS_PER_TASK - 1) / OBJECTS_PER_TASK;
+		int threads = Math.min(numThreads, numTasks);
+		
+		if (threads <= 1) {
+			task.run(0, numObjects, new NeighbourScratch());
+			return;
+		}
+		
+		final AtomicInteger nextObject = new AtomicInteger();
+		
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for ( int t = 0; t < threads; t++ ) {
+			tasks.add(new Callable<Object>() {
+				public Object call() throws Exception {
+					
+					NeighbourScratch scratch = new NeighbourScratch();
+					
+					int start;
+					while ( (start = nextObject.getAndAdd(OBJECTS_PER_TASK)) < numObjects ) {
+						task.run(start, Math.min(numObjects, start + OBJECTS_PER_TASK), scratch);
+					}
+					return null;
+				}
+			});
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ClassifierThreadFactory());
+		
+		try {
+			
+			List<Future<Object>> results = pool.invokeAll(tasks);
+			for (Future<Object> result : results) {
+				result.get();
+			}
+			
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DiscriminantAnalysisException("classification interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception)e.getCause();
+			}
+			throw new DiscriminantAnalysisException(e.getCause().toString(), e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	//*************************************************************************
+	// Name    : classifyObjects
+	// 
+	// Purpose : classify the observations with indices from start up to
+	//           (but not including) end, using scratch if the neighbour 
+	//           index is set
+	// 
+	// Notes   : throws a DiscriminantAnalysisException holding the index of 
+	//           the observation that failed, caused by the exception that occurred
+	// 
+	//*************************************************************************
+	protected void classifyObjects(int start, int end, boolean excludeObject, NeighbourScratch scratch) throws Exception {
+		
+		for ( int i = start; i < end; i++ ) {
+			try {
+				if (scratch == null) {
+					classifyObject(i,excludeObject);
+				} else {
+					classifyObject(i,excludeObject,scratch);
+				}
+			} catch (Exception e) {
+				throw new DiscriminantAnalysisException("Exception encountered classifying observation [" + 
+						i + "] : " + e.getMessage(), e);
+			}
+		}
+	}
+	
 	//*************************************************************************
 	// Name    : classifyObject
 	// 
@@ -1086,6 +1736,10 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 		validateMahalanobisDistance2();
 		validateParameters();
 		
+		if (neighbourIndex != null) {
+			classifyObject(objectIndex, excludeObject, new NeighbourScratch());
+			return;
+		}
 								
 		// compute the bandwidth that encloses at least numNearestNeighbours
 		// neighbours of the ith object in every class
@@ -1145,6 +1799,188 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 							
 		// fully compute pooled class covariance matrix
 		pooledGWCovarianceMatrix = pooledGWCovarianceMatrix.scalarMultiply(1.0 / totalNumNeighbours);
+		
+		// classify the object using the pooled covariance matrix and the means
+		assignObject(objectIndex, pooledGWCovarianceMatrix, gwMeans);
+	}
+	
+	//*************************************************************************
+	// Name    : classifyObject
+	// 
+	// Purpose : classify a specific observation with index objectIndex using
+	//           GWDA and the neighbour index, using the arrays in scratch
+	//           
+	//           if excludeObject is set to true then the current object is 
+	//           excluded from the calculation of the class means and covariance
+	//           matrices
+	// 
+	// Notes   : only the neighbours within the bandwidth, which have non-zero
+	//           weights, are visited. they are summed in the same order as
+	//           classifyObject(int, boolean) sums all the objects of each
+	//           class, so the results are the same
+	//           throws any Exceptions that occur
+	// 
+	//*************************************************************************
+	protected void classifyObject(int objectIndex, boolean excludeObject, NeighbourScratch scratch) throws Exception {
+		
+		validateKernelFunctionType();
+		
+		// compute the bandwidth that encloses at least numNearestNeighbours
+		// neighbours of the ith object in every class
+		double bandwidth = computeBandwidth(objectIndex,excludeObject,scratch);
+		bandwidths[objectIndex] = bandwidth;
+		
+		// find the objects in each class within the bandwidth
+		findNeighbours(objectIndex,bandwidth,excludeObject,scratch);
+		
+		double[][] pooled = scratch.pooledCovariance;
+		for ( int i = 0; i < numFields; i++ ) {
+			Arrays.fill(pooled[i], 0.0);
+		}
+		
+		List<RealVector> gwMeans = new ArrayList<RealVector>();
+		
+		int totalNumNeighbours = 0;
+		
+		for( int c = 0; c < numClasses; c++ ) {
+			
+			int classNumNeighbours = scratch.numClassNeighbours[c];
+			int[] neighbours = scratch.classNeighbours[c];
+			double[][] classData = scratch.classData;
+			
+			// predictor variables of the neighbours, rows are the fields
+			// and columns the neighbours
+			double[] distances = new double[classNumNeighbours];
+			for ( int k = 0; k < classNumNeighbours; k++ ) {
+				distances[k] = scratch.distances[neighbours[k]];
+				for ( int f = 0; f < numFields; f++ ) {
+					classData[f][k] = predictorVariables.getEntry(neighbours[k], fieldIndices[f]);
+				}
+			}
+			
+			double[] weights = null;
+			if ( kernelFunctionType == NCGStatUtils.BISQUARE_KERNEL ) {
+				weights = NCGStatUtils.bisquareKernel(distances, bandwidth);
+			} else {
+				weights = NCGStatUtils.movingWindow(distances, bandwidth);
+			}
+			
+			double[] means = new double[numFields];
+			totalNumNeighbours += addWeightedCovariance(objectIndex, c, classData, weights, classNumNeighbours, means, pooled);
+			gwMeans.add(new ArrayRealVector(means, false));
+		}
+		
+		// fully compute pooled class covariance matrix and classify the object
+		assignObject(objectIndex, pooled, totalNumNeighbours, gwMeans);
+	}
+	
+	//*************************************************************************
+	// Name    : addWeightedCovariance
+	// 
+	// Purpose : computes the geographically weighted means of class classIndex
+	//           into means, and adds its geographically weighted covariance 
+	//           matrix, multiplied by its number of neighbours, to pooled. 
+	//           classData holds the predictor variables of the neighbours 
+	//           (rows are the fields and columns the first numNeighbours 
+	//           neighbours) and weights their weights
+	// 
+	// Notes   : sums as NCGStatUtils.computeWeightedMean and 
+	//           NCGStatUtils.computeWeightedCovarianceMatrix do. returns the 
+	//           number of neighbours (non-zero weights)
+	//           throws a DiscriminantAnalysisException if no weight is positive
+	// 
+	//*************************************************************************
+	protected int addWeightedCovariance(int objectIndex, int classIndex, double[][] classData, double[] weights, 
+			int numNeighbours, double[] means, double[][] pooled) throws DiscriminantAnalysisException {
+		
+		double sumWeights = 0.0;
+		for ( int k = 0; k < numNeighbours; k++ ) {
+			sumWeights += weights[k];
+		}
+		
+		// NCGStatUtils.computeWeightedMean fails if no weight is positive
+		if (sumWeights == 0.0) {
+			throw new DiscriminantAnalysisException("no neighbours of object [" + objectIndex + 
+					"] with non-zero weights in class [" + uniqueClasses[classIndex] + "]");
+		}
+		
+		for ( int f = 0; f < numFields; f++ ) {
+			double weightedItemSum = 0.0;
+			for ( int k = 0; k < numNeighbours; k++ ) {
+				weightedItemSum += classData[f][k] * weights[k];
+			}
+			means[f] = weightedItemSum / sumWeights;
+		}
+		
+		int numWeighted = 0;
+		for ( int k = 0; k < numNeighbours; k++ ) {
+			if (weights[k] > 0) {
+				numWeighted++;
+			}
+		}
+		
+		for ( int i = 0; i < numFields; i++ ) {
+			for ( int j = i; j < numFields; j++ ) {
+				
+				double weightedSumSquares = 0.0;
+				for ( int k = 0; k < numNeighbours; k++ ) {
+					double dx1 = (classData[i][k] - means[i]);
+					double dx2 = (classData[j][k] - means[j]);
+					weightedSumSquares += (weights[k] * dx1 * dx2);
+				}
+				
+				double covariance = (weightedSumSquares / sumWeights) * numWeighted;
+				pooled[i][j] += covariance;
+				if (j != i) {
+					pooled[j][i] += covariance;
+				}
+			}
+		}
+		
+		return numWeighted;
+	}
+	
+	//*************************************************************************
+	// Name    : assignObject
+	// 
+	// Purpose : classifies the object with index objectIndex from the sum 
+	//           over the classes of the geographically weighted covariance 
+	//           matrices, each multiplied by its number of neighbours, and the
+	//           geographically weighted means of each class
+	// 
+	// Notes   : throws a DiscriminantAnalysisException if the pooled
+	//           covariance matrix is singular
+	// 
+	//*************************************************************************
+	protected void assignObject(int objectIndex, double[][] pooled, int totalNumNeighbours, List<RealVector> gwMeans) throws Exception {
+		
+		// fully compute pooled class covariance matrix
+		double scale = 1.0 / totalNumNeighbours;
+		RealMatrix pooledGWCovarianceMatrix = new Array2DRowRealMatrix(numFields,numFields);
+		for ( int i = 0; i < numFields; i++ ) {
+			for ( int j = 0; j < numFields; j++ ) {
+				pooledGWCovarianceMatrix.setEntry(i, j, pooled[i][j] * scale);
+			}
+		}
+		
+		assignObject(objectIndex, pooledGWCovarianceMatrix, gwMeans);
+	}
+	
+	//*************************************************************************
+	// Name    : assignObject
+	// 
+	// Purpose : computes the mahalanobis distances squared, parameters and 
+	//           posterior probabilities of the object with index objectIndex
+	//           from the pooled geographically weighted covariance matrix and
+	//           the geographically weighted means of each class, and 
+	//           classifies it
+	// 
+	// Notes   : writes only to row objectIndex of the output arrays
+	//           throws a DiscriminantAnalysisException if the pooled
+	//           covariance matrix is singular
+	// 
+	//*************************************************************************
+	protected void assignObject(int objectIndex, RealMatrix pooledGWCovarianceMatrix, List<RealVector> gwMeans) throws Exception {
 						
 		// compute inverse of pooled class covariance matrix (if it exists)
 		DecompositionSolver solver = (new LUDecompositionImpl(pooledGWCovarianceMatrix)).getSolver();
@@ -1189,4 +2025,117 @@ public class GWDiscriminantAnalysis extends DiscriminantAnalysis {
 
 	}
 	
+	//*************************************************************************
+	// Name    : NeighbourScratch
+	// 
+	// Purpose : arrays used to classify objects with the neighbour index, 
+	//           reused from object to object by one thread
+	// 
+	// Notes   : holds a copy of the class index of each object, so is 
+	//           created after the class indices are set
+	// 
+	//*************************************************************************
+	protected class NeighbourScratch {
+		
+		// result of the last query of the neighbour index
+		final KDTree.Neighbors neighbours = new KDTree.Neighbors();
+		
+		// class index of each object
+		final int[] objectClasses = new int[numObjects];
+		
+		// distance to each neighbour found, by object index
+		final double[] distances = new double[numObjects];
+		
+		// per class: position in the sorted distances from which the bandwidth
+		// is chosen, position reached, last distance seen, whether the 
+		// bandwidth has been found and the bandwidth
+		final int[] neighIndices = new int[numClasses];
+		final int[] classPositions = new int[numClasses];
+		final double[] classDistances = new double[numClasses];
+		final boolean[] classResolved = new boolean[numClasses];
+		final double[] classBandwidths = new double[numClasses];
+		
+		// per class: indices of the neighbours within the bandwidth and their number
+		final int[][] classNeighbours = new int[numClasses][];
+		final int[] numClassNeighbours = new int[numClasses];
+		
+		// predictor variables of the neighbours in a class (fields by neighbours)
+		final double[][] classData;
+		
+		// pooled geographically weighted covariance matrix being summed
+		final double[][] pooledCovariance = new double[numFields][numFields];
+		
+		// used by sweepObject, per class: distances and predictor variables 
+		// (fields by neighbours) of the neighbours added so far, and for a 
+		// moving window, their means and sums of squared deviations
+		double[][] sweepDistances = null;
+		double[][][] sweepData = null;
+		double[][] sweepMeans = null;
+		double[][][] sweepSumSquares = null;
+		double[] deltas = null;
+		
+		NeighbourScratch() {
+			
+			int maxClassSize = 0;
+			for ( int c = 0; c < numClasses; c++ ) {
+				int[] currentClassIndices = classIndices.get(c);
+				for ( int i = 0; i < currentClassIndices.length; i++ ) {
+					objectClasses[currentClassIndices[i]] = c;
+				}
+				classNeighbours[c] = new int[currentClassIndices.length];
+				maxClassSize = Math.max(maxClassSize, currentClassIndices.length);
+			}
+			
+			classData = new double[numFields][maxClassSize];
+		}
+		
+		void createSweepArrays() {
+			
+			if (sweepData != null) {
+				return;
+			}
+			
+			sweepDistances = new double[numClasses][];
+			sweepData = new double[numClasses][][];
+			for ( int c = 0; c < numClasses; c++ ) {
+				sweepDistances[c] = new double[classNeighbours[c].length];
+				sweepData[c] = new double[numFields][classNeighbours[c].length];
+			}
+			sweepMeans = new double[numClasses][numFields];
+			sweepSumSquares = new double[numClasses][numFields][numFields];
+			deltas = new double[numFields];
+		}
+	}
+	
+	//*************************************************************************
+	// Name    : ObjectsTask
+	// 
+	// Purpose : work done on the objects with indices from start up to (but
+	//           not including) end, by runObjectsTask
+	// 
+	// Notes   : 
+	// 
+	//*************************************************************************
+	protected abstract class ObjectsTask {
+		
+		protected abstract void run(int start, int end, NeighbourScratch scratch) throws Exception;
+	}
+	
+	//*************************************************************************
+	// Name    : ClassifierThreadFactory
+	// 
+	// Purpose : creates the daemon threads that classify objects in parallel
+	// 
+	// Notes   : 
+	// 
+	//*************************************************************************
+	private static class ClassifierThreadFactory implements ThreadFactory {
+		
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "GWDiscriminantAnalysis");
+			t.setDaemon(true);
+			return t;
+		}
+	}
+	
 }
@@ -13,6 +13,7 @@ import geovista.common.data.DataSetForApps;
 import java.awt.geom.Point2D;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Random;
 import java.util.logging.Logger;
 
 import org.junit.Test;
@@ -228,4 +229,127 @@ public class GWDiscriminantAnalysisTest {
 		}
 	}
 
+	/*
+	 * The neighbour index gives the same results as the distance matrix, 
+	 * on any number of threads
+	 */
+	@Test public void testNeighbourIndex() throws Exception {
+		
+		URL testFileName = this.getClass().getResource("resources/iris_grid_petallength.shp");
+		DataSetForApps testData = NCGTestUtils.loadShapeFile(testFileName.getFile());
+		
+		int[] predCols = {2,3,4,5};
+		double[][] predictorVars = new double[predCols.length][0];
+		for(int i=0;i<predCols.length;i++) {
+			predictorVars[i] = (double[])testData.getColumnValues(predCols[i]);
+		}
+		int[] classification = (int[])testData.getColumnValues(6);
+		Point2D[] centroids = NCGStatUtils.computeCentroids(testData);
+		
+		int[] kernelFunctionTypes = {NCGStatUtils.MOVING_WINDOW, NCGStatUtils.BISQUARE_KERNEL};
+		
+		for (int kernelFunctionType : kernelFunctionTypes) {
+			
+			GWDiscriminantAnalysis matrixGwda = createGWDA(predictorVars, classification, kernelFunctionType);
+			matrixGwda.setDistanceMatrix(centroids);
+			matrixGwda.classify();
+			
+			for (int numThreads = 1; numThreads <= 4; numThreads += 3) {
+				GWDiscriminantAnalysis indexGwda = createGWDA(predictorVars, classification, kernelFunctionType);
+				indexGwda.setNeighbourIndex(centroids);
+				indexGwda.setNumThreads(numThreads);
+				indexGwda.classify();
+				
+				assertSameResults(matrixGwda, indexGwda);
+			}
+		}
+		
+		// many objects in the same place, and a class of three
+		Random random = new Random(1);
+		int numObs = 400;
+		predictorVars = new double[3][numObs];
+		classification = new int[numObs];
+		centroids = new Point2D[numObs];
+		for (int i = 0; i < numObs; i++) {
+			if (i < 3) {
+				classification[i] = 4;
+				centroids[i] = new Point2D.Double(0.5 + i * i * 3, 0.5);
+			} else {
+				classification[i] = 1 + random.nextInt(3);
+				centroids[i] = new Point2D.Double(random.nextInt(20), random.nextInt(20));
+			}
+			for (int j = 0; j < predictorVars.length; j++) {
+				predictorVars[j][i] = random.nextGaussian() + classification[i] * (j + 1);
+			}
+		}
+		
+		for (int kernelFunctionType : kernelFunctionTypes) {
+			
+			GWDiscriminantAnalysis matrixGwda = createGWDA(predictorVars, classification, kernelFunctionType);
+			matrixGwda.setMinNumNearestNeighboursCV(5);
+			matrixGwda.setMaxNumNearestNeighboursCV(60);
+			matrixGwda.setNumNearestNeighboursStepSizeCV(11);
+			matrixGwda.setDistanceMatrix(centroids);
+			long start = System.nanoTime();
+			matrixGwda.classify();
+			long matrixTime = System.nanoTime() - start;
+			
+			GWDiscriminantAnalysis indexGwda = createGWDA(predictorVars, classification, kernelFunctionType);
+			indexGwda.setMinNumNearestNeighboursCV(5);
+			indexGwda.setMaxNumNearestNeighboursCV(60);
+			indexGwda.setNumNearestNeighboursStepSizeCV(11);
+			indexGwda.setNeighbourIndex(centroids);
+			start = System.nanoTime();
+			indexGwda.classify();
+			long indexTime = System.nanoTime() - start;
+			
+			logger.info(NCGStatUtils.kernelFunctionTypeToString(kernelFunctionType) + " : " + numObs + 
+					" objects classified in " + (matrixTime / 1000000) + " ms with the distance matrix, " + 
+					(indexTime / 1000000) + " ms with the neighbour index on " + indexGwda.getNumThreads() + " threads");
+			
+			assertSameResults(matrixGwda, indexGwda);
+		}
+	}
+	
+	/*
+	 * gwda object with cross validation over 10-48 nearest neighbours
+	 */
+	private static GWDiscriminantAnalysis createGWDA(double[][] predictorVars, int[] classification, 
+			int kernelFunctionType) throws DiscriminantAnalysisException {
+		
+		GWDiscriminantAnalysis gwda = new GWDiscriminantAnalysis();
+		gwda.setPredictorVariables(predictorVars,false,false);
+		gwda.setClassification(classification);
+		gwda.setPriorProbabilities();
+		gwda.setKernelFunctionType(kernelFunctionType);
+		gwda.setUseCrossValidation(true);
+		gwda.setCrossValidationMethod(NCGStatUtils.CROSS_VALIDATION_LIKELIHOOD);
+		gwda.setMinNumNearestNeighboursCV(10);
+		gwda.setMaxNumNearestNeighboursCV(48);
+		gwda.setNumNearestNeighboursStepSizeCV(1);
+		return gwda;
+	}
+	
+	private static void assertSameResults(GWDiscriminantAnalysis expected, GWDiscriminantAnalysis actual) 
+			throws DiscriminantAnalysisException {
+		
+		assertTrue(expected.getNumNearestNeighbours() == actual.getNumNearestNeighbours());
+		assertArrayEquals(expected.getClassified(), actual.getClassified());
+		assertArrayEquals(expected.getBandwidths(), actual.getBandwidths(), 0.0);
+		assertArrayEquals(expected.getCrossValidationScores(), actual.getCrossValidationScores(), 0.0);
+		// the cross validation sweep sums in another order
+		assertArrayEquals(expected.getCrossValidationLikelihoods(), actual.getCrossValidationLikelihoods(), 1e-9);
+		
+		double[][][] expectedOutputs = {expected.getParameters(), expected.getMahalanobisDistance2(), 
+				expected.getPosteriorProbabilities()};
+		double[][][] actualOutputs = {actual.getParameters(), actual.getMahalanobisDistance2(), 
+				actual.getPosteriorProbabilities()};
+		for (int k = 0; k < expectedOutputs.length; k++) {
+			assertTrue(expectedOutputs[k].length == actualOutputs[k].length);
+			for (int i = 0; i < expectedOutputs[k].length; i++) {
+				assertArrayEquals(expectedOutputs[k][i], actualOutputs[k][i], 0.0);
+			}
+		}
+	}
+
 }
@@ -26,6 +26,7 @@ import geovista.common.classification.Classifier;
 import geovista.common.classification.ClassifierQuantiles;
 
 import java.awt.Color;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import cern.colt.Arrays;
@@ -133,13 +134,9 @@ public class BivariateColorClassifierSimple implements BivariateColorClassifier
 	int myClassY = 0;
 	Color colorY = null;
 
-	logger.info("x classes = " + Arrays.toString(classesX));
-	logger.info("y classes = " + Arrays.toString(classesY));
-	for (int i = 0; i < classesX.length; i++) {
-	    if (classesX[i] > 0 && classesY[i] > 0
-		    && classesX[i] != classesY[i]) {
-		logger.info("different!");
-	    }
+	if (logger.isLoggable(Level.FINEST)) {
+	    logger.finest("x classes = " + Arrays.toString(classesX));
+	    logger.finest("y classes = " + Arrays.toString(classesY));
 	}
 	Color[] returnColors = new Color[dataX.length];
 